@@ -34,12 +34,27 @@ if [ ! -z ${4} ] ; then
 	SUBINDICES=${4}
 fi
 
+# Number of reducers PrepTool uses. With more than one the resources are range partitioned and the
+# reducers outputs are concatenated by PrepTool.
+PREP_REDUCERS=1
+
 # The ontology file to pass to PrepTool and TripleIndexGenerator
 ONTOLOGY="schemaDotOrg.owl"
 
 # Set to "-C" to exclude context from processing. 
 EXCLUDE_CONTEXTS=""
 
+# Set to "-A" to have the TripleIndexGenerator mappers write one record per term per doc instead of one per occurrence.
+AGGREGATE_POSTINGS="-A"
+
+# Set to "-R" to range partition the terms over the TripleIndexGenerator reducers. The sub indexes are then
+# concatenated with ConcatenateSubIndexesTool instead of merged with MG4J's Merge.
+RANGE_PARTITION="-R"
+
+# Set to "-Q" to build quasi succinct indexes instead of gamma/delta coded bit stream indexes.
+# Quasi succinct indexes skip much faster in conjunctive and phrase queries.
+QUASI_SUCCINCT=""
+
 # Number of predicates to use when building vertical indexes.  
 # The occurrences of predicates found in the source tuples are counted and then sorted by occurrence count.
 # This limits the resulting list to the top N predicates.
@@ -75,7 +90,7 @@ COMPRESSION_CODECS="org.apache.hadoop.io.compress.DefaultCodec,org.apache.hadoop
 
 HASH_EXTENSION=".smap"
 
-INDEX_FILE_EXTENSIONS="counts countsoffsets frequencies occurrencies pointers pointersoffsets positions positionsoffsets properties sumsmaxpos terms"
+INDEX_FILE_EXTENSIONS="counts countsoffsets frequencies index occurrencies offsets pointers pointersoffsets positions positionsoffsets properties sumsmaxpos terms"
 
 if [ ! -f ${JAR_FOR_HADOOP} ] ; then
 	echo "Projects jar file missing!! ${JAR_FOR_HADOOP}"
@@ -189,6 +204,7 @@ function groupBySubject () {
 		-Dmapreduce.job.queuename=${QUEUE} \
 		${HADOOP_FILES} \
 		${ONTOLOGY_OPTION} \
+		-r ${PREP_REDUCERS} \
 		${EXCLUDE_CONTEXTS} ${INPUT_FILE} ${PREP_DIR}"
 	echo ${CMD}
 	${CMD}
@@ -202,9 +218,13 @@ function groupBySubject () {
 
 function moveBySubjectFiles() {
 	local PREP_DIR=${1}
-	local CMD="${HADOOP_CMD} fs -mv ${PREP_DIR}/part-r-00000/* ${PREP_DIR}"
-	echo ${CMD}
-	${CMD}
+	# With more than one reducer PrepTool has already concatenated the parts into ${PREP_DIR}.
+	${HADOOP_CMD} fs -test -d ${PREP_DIR}/part-r-00000
+	if [ $? -eq "0" ] ; then
+		local CMD="${HADOOP_CMD} fs -mv ${PREP_DIR}/part-r-00000/* ${PREP_DIR}"
+		echo ${CMD}
+		${CMD}
+	fi
 	
 	echo "Getting ${N_VERTICAL_PREDICATES} most used predicates in topPredicates."
 	${HADOOP_CMD} fs -cat ${PREP_DIR}/predicates | sort -nr | cut -f 2 > ${LOCAL_BUILD_DIR}/allPredicates
@@ -296,7 +316,7 @@ function generateIndex () {
 		-Dmapreduce.job.queuename=${QUEUE} \
 		-Dmapreduce.job.user.classpath.first=true \
 		${HADOOP_FILES} \
-		-m ${METHOD} ${EXCLUDE_CONTEXTS} -p ${PREP_DIR}/topPredicates \
+		-m ${METHOD} ${EXCLUDE_CONTEXTS} ${AGGREGATE_POSTINGS} ${RANGE_PARTITION} ${QUASI_SUCCINCT} -p ${PREP_DIR}/topPredicates \
 		${PREP_DIR}/bySubject.bz2 $NUMBER_OF_DOCS ${METHOD_DIR} ${PREP_DIR}/all.map"
 	echo ${CMD}
 	${CMD}
@@ -310,6 +330,8 @@ function generateIndex () {
 
 function getSubIndexes () {
 	METHOD=${1}
+	# The DFS dir containing the part-r-????? sub index dirs. Defaults to the method's build dir.
+	DFS_METHOD_DIR=${2:-${DFS_BUILD_DIR}/${METHOD}}
 	echo
 	echo "COPYING SUB INDEXES TO LOCAL DISK FOR METHOD:" ${METHOD}
 	echo
@@ -329,7 +351,7 @@ function getSubIndexes () {
 	fi
 	
 	mkdir -p ${INDEX_DIR}
-	CMD="${HADOOP_CMD} fs -copyToLocal ${DFS_BUILD_DIR}/${METHOD}/part-r-????? ${INDEX_DIR}"
+	CMD="${HADOOP_CMD} fs -copyToLocal ${DFS_METHOD_DIR}/part-r-????? ${INDEX_DIR}"
 	echo ${CMD}
 	${CMD}
 	
@@ -360,11 +382,13 @@ function mergeSubIndexes() {
 		done
 	fi
 	
-	# The first reducer write the sizes files for all partitions so we don't need to merge them
-	# Move the .sizes files to the correct location before running the merge. Otherwise Merge
-	# finds .sizes for only the first partition.
-	echo "Moving .sizes files.."
-	mv -v ${INDEX_DIR}/part-r-00000/*.sizes ${INDEX_DIR}
+	if [ -z "${RANGE_PARTITION}" ] ; then
+		# The first reducer write the sizes files for all partitions so we don't need to merge them
+		# Move the .sizes files to the correct location before running the merge. Otherwise Merge
+		# finds .sizes for only the first partition.
+		echo "Moving .sizes files.."
+		mv -v ${INDEX_DIR}/part-r-00000/*.sizes ${INDEX_DIR}
+	fi
 	
 	PART_DIRS=(`ls -1d ${INDEX_DIR}/part-r-?????`)
 	echo "Map Reduce part dirs are:"
@@ -387,8 +411,20 @@ function mergeSubIndexes() {
 		if [ "${INDEX_NAME}" == "alignment" ] ; then
 			NO_COUNTS_OPTIONS="-cCOUNTS:NONE -cPOSITIONS:NONE"
 		fi
+		# Quasi succinct indexes always have counts.
+		if [ -n "${QUASI_SUCCINCT}" ] ; then
+			NO_COUNTS_OPTIONS="--quasi-succinct"
+			if [ "${INDEX_NAME}" == "alignment" ] ; then
+				NO_COUNTS_OPTIONS="${NO_COUNTS_OPTIONS} -cPOSITIONS:NONE"
+			fi
+		fi
 		
-		CMD="java -Xmx2G -cp ${JAR_FOR_HADOOP} it.unimi.di.big.mg4j.tool.Merge ${NO_COUNTS_OPTIONS} ${INDEX_DIR}/${INDEX_NAME} ${SUB_INDEXES}"
+		if [ -z "${RANGE_PARTITION}" ] ; then
+			CMD="java -Xmx2G -cp ${JAR_FOR_HADOOP} it.unimi.di.big.mg4j.tool.Merge ${NO_COUNTS_OPTIONS} ${INDEX_DIR}/${INDEX_NAME} ${SUB_INDEXES}"
+		else
+			# The part dirs are listed in reducer order which is term order.
+			CMD="java -Xmx256m -cp ${JAR_FOR_HADOOP} com.yahoo.glimmer.indexing.generator.ConcatenateSubIndexesTool ${INDEX_DIR}/${INDEX_NAME} ${SUB_INDEXES}"
+		fi
 		echo ${CMD}
 		${CMD}
 		
@@ -403,10 +439,8 @@ function mergeSubIndexes() {
 			rm ${PART_DIR}/${INDEX_NAME}.*
 		done
 
-		CMD="java -Xmx3800m -cp ${JAR_FOR_HADOOP} it.unimi.dsi.big.util.ImmutableExternalPrefixMap \
-			-o ${INDEX_DIR}/${INDEX_NAME}.terms \
-			${INDEX_DIR}/${INDEX_NAME}.termmap \
-			${INDEX_DIR}/${INDEX_NAME}.termmap.dump"
+		# Resource id fields get a numeric term map, the others an ImmutableExternalPrefixMap.
+		CMD="java -Xmx3800m -cp ${JAR_FOR_HADOOP} com.yahoo.glimmer.indexing.generator.TermMapTool ${INDEX_DIR}/${INDEX_NAME}"
 		echo ${CMD}
 		${CMD}
 		
@@ -425,13 +459,13 @@ computeHashes ${DFS_BUILD_DIR}/prep/all
 
 getDocCount ${DFS_BUILD_DIR}/prep
 
-# Horizontal and Vertical index builds could be run in parallel..
-generateIndex ${DFS_BUILD_DIR}/prep horizontal ${NUMBER_OF_DOCS} ${SUBINDICES}
-getSubIndexes horizontal
+# The combined method builds the horizontal and vertical indexes in a single pass over the bySubject
+# records. The sub indexes are written to the horizontal and vertical dirs of the combined build dir.
+generateIndex ${DFS_BUILD_DIR}/prep combined ${NUMBER_OF_DOCS} ${SUBINDICES}
+getSubIndexes horizontal ${DFS_BUILD_DIR}/combined/horizontal
 mergeSubIndexes horizontal
 
-generateIndex ${DFS_BUILD_DIR}/prep vertical ${NUMBER_OF_DOCS} ${SUBINDICES}
-getSubIndexes vertical
+getSubIndexes vertical ${DFS_BUILD_DIR}/combined/vertical
 mergeSubIndexes vertical
 
 ${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/all" "${LOCAL_BUILD_DIR}/all.txt"
@@ -0,0 +1,78 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.io.WordReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
+
+/**
+ * A RDF document with both the horizontal and the vertical fields. The record
+ * and its relations are parsed once and handed to a HorizontalDocument and a
+ * VerticalDocument.
+ */
+class CombinedDocument extends RDFDocument {
+    private static final TermList NO_TERMS = new TermList("");
+
+    private final HorizontalDocument horizontalDocument;
+    private final VerticalDocument verticalDocument;
+    private final int horizontalFieldCount;
+    private final List<Relation> relations = new ArrayList<Relation>();
+    // False when the current record has no relations to index.
+    private boolean hasRelations;
+
+    protected CombinedDocument(CombinedDocumentFactory factory) {
+	super(factory);
+	horizontalDocument = new HorizontalDocument(factory.getHorizontalFactory());
+	verticalDocument = new VerticalDocument(factory.getVerticalFactory());
+	horizontalFieldCount = CombinedDocumentFactory.getHorizontalFieldCount();
+    }
+
+    @Override
+    public IndexType getIndexType() {
+	return IndexType.COMBINED;
+    }
+
+    @Override
+    public void setContent(byte[] bytes, int length) {
+	super.setContent(bytes, length);
+	hasRelations = false;
+    }
+
+    protected void ensureParsed_(Iterator<Relation> relationsIt) throws IOException {
+	relations.clear();
+	while (relationsIt.hasNext()) {
+	    relations.add(relationsIt.next());
+	}
+	hasRelations = true;
+	horizontalDocument.setParsed(getId(), getSubject(), relations);
+	verticalDocument.setParsed(getId(), getSubject(), relations);
+    }
+
+    @Override
+    public WordReader content(int field) throws IOException {
+	factory.ensureFieldIndex(field);
+	ensureParsed();
+	if (!hasRelations) {
+	    return new WordArrayReader(NO_TERMS);
+	}
+	if (field < horizontalFieldCount) {
+	    return horizontalDocument.content(field);
+	}
+	return verticalDocument.content(field - horizontalFieldCount);
+    }
+}
@@ -0,0 +1,122 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Builds the horizontal and the vertical fields of a record in one pass. The
+ * fields are the horizontal fields followed by the vertical predicate fields,
+ * so field ids below {@link #getHorizontalFieldCount()} are horizontal and the
+ * rest are vertical with predicate id field - {@link #getHorizontalFieldCount()}.
+ */
+public class CombinedDocumentFactory extends RDFDocumentFactory {
+    private final HorizontalDocumentFactory horizontalFactory = new HorizontalDocumentFactory();
+    private final VerticalDocumentFactory verticalFactory = new VerticalDocumentFactory();
+
+    public static void setupConf(Configuration conf, boolean withContexts, String resourcesHash, String hashValuePrefix, String predicates) throws IOException {
+	String[] verticalFields = VerticalDocumentFactory.readPredicates(conf, predicates);
+	String[] fields = Arrays.copyOf(HorizontalDocumentFactory.FIELDS, HorizontalDocumentFactory.FIELDS.length + verticalFields.length);
+	System.arraycopy(verticalFields, 0, fields, HorizontalDocumentFactory.FIELDS.length, verticalFields.length);
+	setupConf(conf, IndexType.COMBINED, withContexts, resourcesHash, hashValuePrefix, fields);
+    }
+
+    public static int getHorizontalFieldCount() {
+	return HorizontalDocumentFactory.FIELDS.length;
+    }
+
+    /**
+     * @return HORIZONTAL or VERTICAL depending on which index the given field
+     *         id belongs to.
+     */
+    public static IndexType getFieldIndexType(int field) {
+	return field < getHorizontalFieldCount() ? IndexType.HORIZONTAL : IndexType.VERTICAL;
+    }
+
+    /**
+     * @return the field id of the given field id in its own index.
+     */
+    public static int getFieldIndexId(int field) {
+	return field < getHorizontalFieldCount() ? field : field - getHorizontalFieldCount();
+    }
+
+    @Override
+    public void setFields(String[] fields) {
+	super.setFields(fields);
+	int horizontalFieldCount = getHorizontalFieldCount();
+	if (fields.length < horizontalFieldCount) {
+	    throw new IllegalArgumentException("Expected at least the " + horizontalFieldCount + " horizontal fields.");
+	}
+	horizontalFactory.setFields(Arrays.copyOf(fields, horizontalFieldCount));
+	verticalFactory.setFields(Arrays.copyOfRange(fields, horizontalFieldCount, fields.length));
+    }
+
+    @Override
+    public void setResourcesHashFunction(AbstractObject2LongFunction<CharSequence> resourcesHashFunction) {
+	super.setResourcesHashFunction(resourcesHashFunction);
+	horizontalFactory.setResourcesHashFunction(resourcesHashFunction);
+	verticalFactory.setResourcesHashFunction(resourcesHashFunction);
+    }
+
+    @Override
+    public void setOntology(OWLOntology ontology) {
+	super.setOntology(ontology);
+	horizontalFactory.setOntology(ontology);
+	verticalFactory.setOntology(ontology);
+    }
+
+    @Override
+    public void setResourceIdPrefix(String resourceIdPrefix) {
+	super.setResourceIdPrefix(resourceIdPrefix);
+	horizontalFactory.setResourceIdPrefix(resourceIdPrefix);
+	verticalFactory.setResourceIdPrefix(resourceIdPrefix);
+    }
+
+    @Override
+    public void setTermProcessorCache(TermProcessorCache termProcessorCache) {
+	super.setTermProcessorCache(termProcessorCache);
+	horizontalFactory.setTermProcessorCache(termProcessorCache);
+	verticalFactory.setTermProcessorCache(termProcessorCache);
+    }
+
+    @Override
+    public void setWithContexts(Boolean withContexts) {
+	super.setWithContexts(withContexts);
+	horizontalFactory.setWithContexts(withContexts);
+	verticalFactory.setWithContexts(withContexts);
+    }
+
+    /**
+     * The RdfCounters for the horizontal fields are counted here.
+     */
+    public HorizontalDocumentFactory getHorizontalFactory() {
+	return horizontalFactory;
+    }
+
+    /**
+     * The RdfCounters for the vertical fields are counted here.
+     */
+    public VerticalDocumentFactory getVerticalFactory() {
+	return verticalFactory;
+    }
+
+    @Override
+    public RDFDocument getDocument() {
+	return new CombinedDocument(this);
+    }
+}
@@ -16,9 +16,7 @@ import it.unimi.dsi.io.WordReader;
 import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +38,7 @@ import com.yahoo.glimmer.indexing.RDFDocumentFactory.ResourceHashLookupException
 
 class HorizontalDocument extends RDFDocument {
     private static final Log LOG = LogFactory.getLog(HorizontalDocument.class);
+    private static final long NO_CONTEXT_ID = -1;
 
     /*
      * The fields objects, predicates & contexts are used in 'parallel' So the
@@ -50,20 +49,29 @@ class HorizontalDocument extends RDFDocument {
      */
     // Literals objects are the terms.
     // Resource/NBode objects are the hash values.
-    private List<String> objects = new ArrayList<String>();
-    // Predicates holds the encoded urls http_www_blar_com_something
-    private List<String> predicates = new ArrayList<String>();
+    private final TermList objects;
+    // Predicates are the hash values.
+    private final TermList predicates;
     // Contexts are the hash values.
-    private List<String> contexts = new ArrayList<String>();
+    private final TermList contexts;
+    // The objects tagged with their predicate's hash value. Not positional.
+    private final TermList predicateObjects;
 
     // hash value of subject.
-    private List<String> subject = new ArrayList<String>();
+    private final TermList subject;
     
     // subjectTokens are tokens extracted from the subject Resource/BNode
-    private List<String> subjectText = new ArrayList<String>();
+    private final TermList subjectText;
 
     protected HorizontalDocument(HorizontalDocumentFactory factory) {
 	super(factory);
+	String resourceIdPrefix = factory.getResourceIdPrefix();
+	objects = new TermList(resourceIdPrefix);
+	predicates = new TermList(resourceIdPrefix);
+	contexts = new TermList(resourceIdPrefix);
+	predicateObjects = new TermList(resourceIdPrefix);
+	subject = new TermList(resourceIdPrefix);
+	subjectText = new TermList(resourceIdPrefix);
     }
 
     @Override
@@ -77,16 +85,16 @@ class HorizontalDocument extends RDFDocument {
 	objects.clear();
 	predicates.clear();
 	contexts.clear();
+	predicateObjects.clear();
 	
 	FastBufferedReader fbr;
 	MutableString word = new MutableString();
 	MutableString nonWord = new MutableString();
 
-	String subjectId = factory.getResourceIdPrefix() + Long.toString(getId());
-	subject.add(subjectId);
+	subject.addId(getId());
 	
 	// Add the subjectId also as text.
-	subjectText.add(subjectId);
+	subjectText.addId(getId());
 	// Index subject tokens
 	// We index the BNode id. Do we need it?
 	String subject = getSubject();
@@ -103,8 +111,8 @@ class HorizontalDocument extends RDFDocument {
 	
 	while (fbr.next(word, nonWord)) {
 	    if (word != null && !word.equals("")) {
-		if (CombinedTermProcessor.getInstance().processTerm(word)) {
-		    subjectText.add(word.toString().toLowerCase());
+		if (factory.processTerm(word)) {
+		    subjectText.add(word.toLowerCase());
 		}
 	    }
 	}
@@ -125,20 +133,20 @@ class HorizontalDocument extends RDFDocument {
 		factory.incrementCounter(RdfCounters.RDF_TYPE_TRIPLES, 1);
 	    }
 	    
-	    String predicateId;
+	    long predicateId;
 	    try {
-		predicateId = factory.lookupResource(predicate, true);
+		predicateId = factory.lookupResourceId(predicate);
 	    } catch (ResourceHashLookupException rhle) {
 		factory.incrementCounter(RdfCounters.PREDICATES_NOT_IN_HASH, 1);
 		LOG.info("Predicate not in hash:" + predicate);
 		continue;
 	    }
 
-	    String contextId = NO_CONTEXT;
+	    long contextId = NO_CONTEXT_ID;
 	    if (factory.isWithContexts() && relation.getContext() != null) {
 		if (relation.getContext() instanceof Resource || relation.getContext() instanceof BNode) {
 		    try {
-			contextId = factory.lookupResource(relation.getContext().toString(), true);
+			contextId = factory.lookupResourceId(relation.getContext().toString());
 		    } catch (ResourceHashLookupException rhle) {
 			factory.incrementCounter(RdfCounters.CONTEXT_NOT_IN_HASH, 1);
 			LOG.info("Context not in hash:" + relation.getContext().toString());
@@ -150,31 +158,33 @@ class HorizontalDocument extends RDFDocument {
 	    }
 
 	    if (relation.getObject() instanceof Resource || relation.getObject() instanceof BNode) {
-		String objectId;
+		long objectId;
 		try {
-		    objectId = factory.lookupResource(relation.getObject().toString(), true);
+		    objectId = factory.lookupResourceId(relation.getObject().toString());
 		} catch (ResourceHashLookupException rhle) {
 			factory.incrementCounter(RdfCounters.OBJECT_NOT_IN_HASH, 1);
 			LOG.info("Object not in hash:" + relation.getObject().toString());
 			continue;
 		    }
-		objects.add(objectId);
-		predicates.add(predicateId);
-		contexts.add(contextId);
+		objects.addId(objectId);
+		predicates.addId(predicateId);
+		addContext(contextId);
+		predicateObjects.addTagged(predicateId, objectId);
 	    } else {
 		String object = relation.getObject().toString();
 		// Iterate over the words of the value
 		fbr = new FastBufferedReader(object.toCharArray());
 		while (fbr.next(word, nonWord)) {
 		    if (word != null && !word.equals("")) {
-			if (CombinedTermProcessor.getInstance().processTerm(word)) {
+			if (factory.processTerm(word)) {
 			    // Lowercase terms
-			    objects.add(word.toString());
+			    objects.add(word);
 
 			    // Preserve casing for properties and
 			    // contexts
-			    predicates.add(predicateId);
-			    contexts.add(contextId);
+			    predicates.addId(predicateId);
+			    addContext(contextId);
+			    predicateObjects.addTagged(predicateId, word);
 			}
 		    }
 		}
@@ -185,6 +195,14 @@ class HorizontalDocument extends RDFDocument {
 	}
     }
 
+    private void addContext(long contextId) {
+	if (contextId == NO_CONTEXT_ID) {
+	    contexts.add(NO_CONTEXT);
+	} else {
+	    contexts.addId(contextId);
+	}
+    }
+
     @Override
     public WordReader content(final int field) throws IOException {
 	factory.ensureFieldIndex(field);
@@ -200,6 +218,8 @@ class HorizontalDocument extends RDFDocument {
 	    return new WordArrayReader(predicates);
 	case 4:
 	    return new WordArrayReader(contexts);
+	case 5:
+	    return new WordArrayReader(predicateObjects);
 	default:
 	    throw new IllegalArgumentException();
 	}
@@ -14,8 +14,25 @@ package com.yahoo.glimmer.indexing;
 import org.apache.hadoop.conf.Configuration;
 
 public class HorizontalDocumentFactory extends RDFDocumentFactory {
+    public static final String PREDICATE_OBJECT_FIELD = "predicateObject";
+    static final String[] FIELDS = { "subject", "subjectText", "object", "predicate", "context", PREDICATE_OBJECT_FIELD };
+    static final char TAG_SEPARATOR = ':';
+
     public static void setupConf(Configuration conf, boolean withContext, String resourcesHash, String hashValuePrefix) {
-	setupConf(conf, IndexType.HORIZONTAL, withContext, resourcesHash, hashValuePrefix, "subject", "subjectText", "object", "predicate", "context");
+	setupConf(conf, IndexType.HORIZONTAL, withContext, resourcesHash, hashValuePrefix, FIELDS);
+    }
+
+    /**
+     * The terms of the predicateObject field are the object terms tagged with
+     * the id of their predicate, so that a match of an object term with a
+     * given predicate is a single term lookup rather than an Align of the
+     * positional object and predicate fields.
+     * 
+     * @param predicateId
+     *            the prefixed resource id of the predicate.
+     */
+    public static String tagObject(CharSequence predicateId, CharSequence object) {
+	return new StringBuilder(predicateId.length() + 1 + object.length()).append(predicateId).append(TAG_SEPARATOR).append(object).toString();
     }
 
     @Override
@@ -100,6 +100,20 @@ public abstract class RDFDocument {
 	ensureParsed_(relations.iterator());
     }
 
+    /**
+     * Sets the id, subject and relations of a record that was already parsed
+     * by another document. Used by CombinedDocument so that each record is
+     * only parsed once.
+     */
+    void setParsed(long id, String subject, List<Relation> relations) throws IOException {
+	contentBytes = null;
+	contentLength = 0;
+	parsed = true;
+	this.id = id;
+	this.subject = subject;
+	ensureParsed_(relations.iterator());
+    }
+
     public long getId() {
 	try {
 	    ensureParsed();
@@ -13,7 +13,10 @@ package com.yahoo.glimmer.indexing;
 
 import it.unimi.di.big.mg4j.document.DocumentFactory.FieldType;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -39,7 +42,7 @@ import org.semanticweb.owlapi.model.OWLOntology;
 
 import com.yahoo.glimmer.util.Util;
 
-/* Common superclass to HorizontalDocumentFactory and VerticalDocumentFactory.
+/* Common superclass to HorizontalDocumentFactory, VerticalDocumentFactory and CombinedDocumentFactory.
  * 
  */
 public abstract class RDFDocumentFactory {
@@ -50,13 +53,19 @@ public abstract class RDFDocumentFactory {
     private static final String CONF_WITH_CONTEXTS_KEY = "WithContexts";
     private static final String CONF_RESOURCES_HASH_KEY = "ResourcesFilename";
     private static final String CONF_RESOURCE_ID_PREFIX_KEY = "resourceIdPrefix";
+    public static final String CONF_TERM_CACHE_SIZE_KEY = "termCacheSize";
+
+    private static final long[] NO_ANCESTORS = new long[0];
 
     private static final Collection<String> PREDICATE_BLACKLIST = Arrays.asList("stag", "tagspace", "ctag", "rel", "mm");
 
     private String[] fields;
     private AbstractObject2LongFunction<CharSequence> resourcesHashFunction;
     private OWLOntology ontology;
+    /** The ids of the ancestors of the classes seen so far by class id. */
+    private final Long2ObjectOpenHashMap<long[]> classIdToAncestorIds = new Long2ObjectOpenHashMap<long[]>();
     private String resourceIdPrefix = "";
+    private TermProcessorCache termProcessorCache = new TermProcessorCache(CombinedTermProcessor.getInstance(), TermProcessorCache.DEFAULT_MAX_SIZE);
 
     // TODO How to read these?
     private Counters counters = new Counters();
@@ -65,7 +74,7 @@ public abstract class RDFDocumentFactory {
     private boolean withContexts;
 
     public static enum IndexType {
-	VERTICAL(VerticalDocumentFactory.class), HORIZONTAL(HorizontalDocumentFactory.class), UNDEFINED(null);
+	VERTICAL(VerticalDocumentFactory.class), HORIZONTAL(HorizontalDocumentFactory.class), COMBINED(CombinedDocumentFactory.class), UNDEFINED(null);
 
 	private final Class<?> factoryClass;
 
@@ -127,6 +136,8 @@ public abstract class RDFDocumentFactory {
 	factory.setFields(getFieldsFromConf(conf));
 	factory.setWithContexts(getWithContexts(conf));
 	factory.setResourceIdPrefix(getHashValuePrefix(conf));
+	factory.setTermProcessorCache(new TermProcessorCache(CombinedTermProcessor.getInstance(), conf.getInt(CONF_TERM_CACHE_SIZE_KEY,
+		TermProcessorCache.DEFAULT_MAX_SIZE)));
 	String resourcesHashFilename = conf.get(CONF_RESOURCES_HASH_KEY);
 	if (resourcesHashFilename != null) {
 	    // Load the hash func.
@@ -160,10 +171,12 @@ public abstract class RDFDocumentFactory {
 
     public void setResourcesHashFunction(AbstractObject2LongFunction<CharSequence> resourcesHashFunction) {
 	this.resourcesHashFunction = resourcesHashFunction;
+	classIdToAncestorIds.clear();
     }
     
     public void setOntology(OWLOntology ontology) {
 	this.ontology = ontology;
+	classIdToAncestorIds.clear();
     }
 
     public String getResourceIdPrefix() {
@@ -174,6 +187,22 @@ public abstract class RDFDocumentFactory {
 	this.resourceIdPrefix = resourceIdPrefix;
     }
 
+    public TermProcessorCache getTermProcessorCache() {
+	return termProcessorCache;
+    }
+
+    public void setTermProcessorCache(TermProcessorCache termProcessorCache) {
+	this.termProcessorCache = termProcessorCache;
+    }
+
+    /**
+     * Runs a token of a literal through the CombinedTermProcessor, via the
+     * cache.
+     */
+    public boolean processTerm(MutableString token) {
+	return termProcessorCache.processTerm(token);
+    }
+
     /**
      * @param url
      * @return The hash value for the given URL/BNode or null. The exact behavior depends on the implementation of the hash function used.
@@ -188,6 +217,21 @@ public abstract class RDFDocumentFactory {
 	return value;
     }
 
+    /**
+     * As lookupResource(key) without boxing the value.
+     * 
+     * @throws ResourceHashLookupException
+     *             if the value is negative, which is the default return value
+     *             of the hash functions for keys they know aren't in the hash.
+     */
+    public long lookupResourceId(String key) {
+	long value = resourcesHashFunction.getLong(key);
+	if (value < 0) {
+	    throw new ResourceHashLookupException("Resource lookup resulted in a negative value.", key, value);
+	}
+	return value;
+    }
+
     public String lookupResource(String key, boolean prefixed) {
 	Long value = lookupResource(key);
 	if (value != null) {
@@ -250,6 +294,38 @@ public abstract class RDFDocumentFactory {
 	}
     }
     
+    /**
+     * The resource ids of the ancestors of the given class. The ontology is
+     * only walked the first time a class is seen, after that the ids come
+     * from a map keyed by the class's resource id. The returned array must not
+     * be changed.
+     * 
+     * @param classId
+     *            the resource id of className.
+     * @return the ids of the ancestors that are in the resources hash.
+     */
+    public long[] getAncestorIds(long classId, String className) {
+	if (ontology == null) {
+	    return NO_ANCESTORS;
+	}
+	long[] ancestorIds = classIdToAncestorIds.get(classId);
+	if (ancestorIds == null) {
+	    Collection<String> ancestors = getAncestors(className);
+	    LongArrayList ids = new LongArrayList(ancestors.size());
+	    for (String ancestor : ancestors) {
+		try {
+		    ids.add(lookupResourceId(ancestor));
+		} catch (ResourceHashLookupException rhle) {
+		    incrementCounter(RdfCounters.ANCESTOR_OBJECT_NOT_IN_HASH, 1);
+		    LOG.info("Ancestor(" + ancestor + ") of " + className + " not in resources hash function!. Was the same ontology used with the PrepTool?");
+		}
+	    }
+	    ancestorIds = ids.isEmpty() ? NO_ANCESTORS : ids.toLongArray();
+	    classIdToAncestorIds.put(classId, ancestorIds);
+	}
+	return ancestorIds;
+    }
+
     /**
      * Get all the ancestors of the give class.
      * @param className
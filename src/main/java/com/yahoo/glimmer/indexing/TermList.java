@@ -0,0 +1,189 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.util.Arrays;
+
+/**
+ * The terms of one field of a document. Resource ids are kept as longs and
+ * only written out with the resource id prefix when read. Literal terms are
+ * copied into a char arena. The arrays are kept when the list is cleared, so
+ * once they have grown to the size of the larger documents adding and reading
+ * terms doesn't allocate.
+ */
+public class TermList {
+    private static final int INITIAL_TERMS = 16;
+    private static final int INITIAL_CHARS = 256;
+    /** The id of literal terms. */
+    private static final long LITERAL = -1;
+
+    private final String resourceIdPrefix;
+    private int size;
+    /** The resource id of each term or LITERAL. */
+    private long[] ids = new long[INITIAL_TERMS];
+    /**
+     * The end of each term's chars in the arena. A term starts at the end of
+     * the previous one. Resource ids have no chars.
+     */
+    private int[] ends = new int[INITIAL_TERMS];
+    private char[] chars = new char[INITIAL_CHARS];
+
+    public TermList(String resourceIdPrefix) {
+	this.resourceIdPrefix = resourceIdPrefix;
+    }
+
+    public void clear() {
+	size = 0;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public void addId(long id) {
+	if (id < 0) {
+	    throw new IllegalArgumentException("Negative resource id " + id);
+	}
+	add(id, charsLength());
+    }
+
+    public void addIds(long[] ids) {
+	if (this.ids.length < size + ids.length) {
+	    int length = Math.max(size + ids.length, this.ids.length * 2);
+	    this.ids = Arrays.copyOf(this.ids, length);
+	    ends = Arrays.copyOf(ends, length);
+	}
+	System.arraycopy(ids, 0, this.ids, size, ids.length);
+	Arrays.fill(ends, size, size + ids.length, charsLength());
+	size += ids.length;
+    }
+
+    public void add(MutableString term) {
+	int start = charsLength();
+	ensureChars(start + term.length());
+	term.getChars(0, term.length(), chars, start);
+	add(LITERAL, start + term.length());
+    }
+
+    public void add(String term) {
+	int start = charsLength();
+	ensureChars(start + term.length());
+	term.getChars(0, term.length(), chars, start);
+	add(LITERAL, start + term.length());
+    }
+
+    /**
+     * Adds the resource id tag followed by the HorizontalDocumentFactory tag
+     * separator and the resource id.
+     */
+    public void addTagged(long tag, long id) {
+	int end = appendId(charsLength(), tag);
+	ensureChars(end + 1);
+	chars[end++] = HorizontalDocumentFactory.TAG_SEPARATOR;
+	add(LITERAL, appendId(end, id));
+    }
+
+    /**
+     * Adds the resource id tag followed by the HorizontalDocumentFactory tag
+     * separator and the term.
+     */
+    public void addTagged(long tag, MutableString term) {
+	int end = appendId(charsLength(), tag);
+	ensureChars(end + 1 + term.length());
+	chars[end++] = HorizontalDocumentFactory.TAG_SEPARATOR;
+	term.getChars(0, term.length(), chars, end);
+	add(LITERAL, end + term.length());
+    }
+
+    /**
+     * Sets word to the term at the given index.
+     */
+    public void get(int index, MutableString word) {
+	if (index < 0 || index >= size) {
+	    throw new IndexOutOfBoundsException("Index " + index + " of " + size + " terms.");
+	}
+	long id = ids[index];
+	if (id == LITERAL) {
+	    int start = index == 0 ? 0 : ends[index - 1];
+	    word.replace(chars, start, ends[index] - start);
+	} else {
+	    int prefixLength = resourceIdPrefix.length();
+	    int digits = digits(id);
+	    word.length(prefixLength + digits);
+	    char[] wordChars = word.array();
+	    resourceIdPrefix.getChars(0, prefixLength, wordChars, 0);
+	    writeDigits(id, wordChars, prefixLength + digits);
+	}
+    }
+
+    public String get(int index) {
+	MutableString word = new MutableString();
+	get(index, word);
+	return word.toString();
+    }
+
+    private int charsLength() {
+	return size == 0 ? 0 : ends[size - 1];
+    }
+
+    private void add(long id, int end) {
+	if (size == ids.length) {
+	    ids = Arrays.copyOf(ids, size * 2);
+	    ends = Arrays.copyOf(ends, size * 2);
+	}
+	ids[size] = id;
+	ends[size] = end;
+	size++;
+    }
+
+    /**
+     * Writes the prefixed id into the arena at the given position.
+     *
+     * @return the position after the id.
+     */
+    private int appendId(int position, long id) {
+	int prefixLength = resourceIdPrefix.length();
+	int end = position + prefixLength + digits(id);
+	ensureChars(end);
+	resourceIdPrefix.getChars(0, prefixLength, chars, position);
+	writeDigits(id, chars, end);
+	return end;
+    }
+
+    private void ensureChars(int length) {
+	if (length > chars.length) {
+	    chars = Arrays.copyOf(chars, Math.max(length, chars.length * 2));
+	}
+    }
+
+    private static int digits(long id) {
+	int digits = 1;
+	while (id >= 10) {
+	    id /= 10;
+	    digits++;
+	}
+	return digits;
+    }
+
+    /**
+     * Writes the decimal digits of the non negative id so that the last digit
+     * is at end - 1.
+     */
+    private static void writeDigits(long id, char[] chars, int end) {
+	do {
+	    chars[--end] = (char) ('0' + id % 10);
+	    id /= 10;
+	} while (id != 0);
+    }
+}
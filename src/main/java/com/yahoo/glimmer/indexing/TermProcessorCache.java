@@ -0,0 +1,87 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.index.TermProcessor;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.lang.MutableString;
+
+/**
+ * Remembers the result of a TermProcessor for the tokens it's given, so that
+ * words that repeat in literals are only stemmed once. Lookups are done with
+ * the token itself, only misses allocate.
+ *
+ * When the cache is full it's cleared, so it holds the words of the current
+ * part of the input.
+ *
+ * Not thread safe. There is one per RDFDocumentFactory, which is one per
+ * mapper.
+ */
+public class TermProcessorCache {
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+    /** The value of tokens rejected by the term processor(stop words..). */
+    private static final MutableString REJECTED = new MutableString();
+
+    private final TermProcessor termProcessor;
+    private final int maxSize;
+    private final Object2ObjectOpenHashMap<MutableString, MutableString> tokenToTerm;
+    private long hits;
+    private long misses;
+
+    public TermProcessorCache(TermProcessor termProcessor, int maxSize) {
+	if (maxSize < 1) {
+	    throw new IllegalArgumentException("maxSize must be at least 1. Was " + maxSize);
+	}
+	this.termProcessor = termProcessor;
+	this.maxSize = maxSize;
+	tokenToTerm = new Object2ObjectOpenHashMap<MutableString, MutableString>(Math.min(maxSize, DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * As TermProcessor.processTerm(). The token is replaced by the processed
+     * term.
+     *
+     * @return false if the term processor rejects the token.
+     */
+    public boolean processTerm(MutableString token) {
+	MutableString term = tokenToTerm.get(token);
+	if (term != null) {
+	    hits++;
+	    if (term == REJECTED) {
+		return false;
+	    }
+	    token.replace(term);
+	    return true;
+	}
+
+	misses++;
+	MutableString key = token.copy();
+	boolean accepted = termProcessor.processTerm(token);
+	if (tokenToTerm.size() >= maxSize) {
+	    tokenToTerm.clear();
+	}
+	tokenToTerm.put(key, accepted ? token.copy() : REJECTED);
+	return accepted;
+    }
+
+    public long getHits() {
+	return hits;
+    }
+
+    public long getMisses() {
+	return misses;
+    }
+
+    public int size() {
+	return tokenToTerm.size();
+    }
+}
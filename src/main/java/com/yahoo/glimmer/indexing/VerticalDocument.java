@@ -16,9 +16,7 @@ import it.unimi.dsi.io.WordReader;
 import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,13 +39,13 @@ import com.yahoo.glimmer.indexing.RDFDocumentFactory.ResourceHashLookupException
 class VerticalDocument extends RDFDocument {
     private static final Log LOG = LogFactory.getLog(VerticalDocument.class);
 
-    private List<List<String>> fields = new ArrayList<List<String>>();
+    private final TermList[] fields;
 
     protected VerticalDocument(VerticalDocumentFactory factory) {
 	super(factory);
-	fields = new ArrayList<List<String>>(factory.getFieldCount());
-	while (fields.size() < factory.getFieldCount()) {
-	    fields.add(new ArrayList<String>());
+	fields = new TermList[factory.getFieldCount()];
+	for (int i = 0; i < fields.length; i++) {
+	    fields[i] = new TermList(factory.getResourceIdPrefix());
 	}
     }
 
@@ -58,7 +56,7 @@ class VerticalDocument extends RDFDocument {
 
     protected void ensureParsed_(Iterator<Relation> relations) throws IOException {
 	// clear fields
-	for (List<String> field : fields) {
+	for (TermList field : fields) {
 	    field.clear();
 	}
 
@@ -77,20 +75,20 @@ class VerticalDocument extends RDFDocument {
 		continue;
 	    }
 
-	    List<String> fieldForPredicate = fields.get(fieldIndex);
+	    TermList fieldForPredicate = fields[fieldIndex];
 
 	    if (relation.getObject() instanceof Resource || relation.getObject() instanceof BNode) {
 		// Encode the resource URI or bnode ID using the resources hash
-		String objectId;
+		long objectId;
 		try {
-		    objectId = factory.lookupResource(relation.getObject().toString(), true);
+		    objectId = factory.lookupResourceId(relation.getObject().toString());
 		} catch (ResourceHashLookupException rhle) {
 		    factory.incrementCounter(RdfCounters.OBJECT_NOT_IN_HASH, 1);
 		    LOG.info("Object not in hash:" + relation.getContext().toString());
 		    continue;
 		}
 
-		fieldForPredicate.add(objectId);
+		fieldForPredicate.addId(objectId);
 
 		if (predicate.equals(RDF.TYPE.toString())) {
 		    // If the predicate is RDF type and the object is a Resource
@@ -98,21 +96,7 @@ class VerticalDocument extends RDFDocument {
 		    // to also index all super types.
 		    factory.incrementCounter(RdfCounters.RDF_TYPE_TRIPLES, 1);
 
-		    for (String ancestor : factory.getAncestors(relation.getObject().toString())) {
-			String ancestorId;
-			try {
-			    ancestorId = factory.lookupResource(ancestor, true);
-			} catch (ResourceHashLookupException rhle) {
-			    factory.incrementCounter(RdfCounters.ANCESTOR_OBJECT_NOT_IN_HASH, 1);
-			    LOG.info("Ancestor(" + ancestor + ") of " + relation.getObject().toString()
-				    + " not in resources hash function!. Was the same ontology used with the PrepTool?");
-			    continue;
-			}
-			if (ancestorId == null) {
-			    throw new IllegalStateException();
-			}
-			fieldForPredicate.add(ancestorId);
-		    }
+		    fieldForPredicate.addIds(factory.getAncestorIds(objectId, relation.getObject().toString()));
 		}
 	    } else {
 		String object = relation.getObject().toString();
@@ -123,8 +107,8 @@ class VerticalDocument extends RDFDocument {
 		MutableString nonWord = new MutableString();
 		while (fbr.next(word, nonWord)) {
 		    if (word != null && !word.equals("")) {
-			if (CombinedTermProcessor.getInstance().processTerm(word)) {
-			    fieldForPredicate.add(word.toString());
+			if (factory.processTerm(word)) {
+			    fieldForPredicate.add(word);
 			}
 		    }
 		}
@@ -138,6 +122,6 @@ class VerticalDocument extends RDFDocument {
     public WordReader content(final int field) throws IOException {
 	factory.ensureFieldIndex(field);
 	ensureParsed();
-	return new WordArrayReader(fields.get(field));
+	return new WordArrayReader(fields[field]);
     }
 }
\ No newline at end of file
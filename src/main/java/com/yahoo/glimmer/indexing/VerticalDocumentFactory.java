@@ -38,6 +38,14 @@ public class VerticalDocumentFactory extends RDFDocumentFactory {
     private static final Log LOG = LogFactory.getLog(VerticalDocumentFactory.class);
 
     public static void setupConf(Configuration conf, boolean withContexts, String resourcesHash, String hashValuePrefix, String predicates) throws IOException {
+	setupConf(conf, IndexType.VERTICAL, withContexts, resourcesHash, hashValuePrefix, readPredicates(conf, predicates));
+    }
+
+    /**
+     * @return the predicates to use as fields from the first column of the
+     *         given predicates file.
+     */
+    static String[] readPredicates(Configuration conf, String predicates) throws IOException {
 	InputStream predicatesInputStream = CompressionCodecHelper.openInputStream(conf, new Path(predicates));
 	ArrayList<String> predicatesToUseAsFields = new ArrayList<String>();
 
@@ -62,7 +70,7 @@ public class VerticalDocumentFactory extends RDFDocumentFactory {
 	reader.close();
 
 	LOG.info("Loaded " + predicatesToUseAsFields.size() + " fields.");
-	setupConf(conf, IndexType.VERTICAL, withContexts, resourcesHash, hashValuePrefix, predicatesToUseAsFields.toArray(new String[0]));
+	return predicatesToUseAsFields.toArray(new String[0]);
     }
 
     private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
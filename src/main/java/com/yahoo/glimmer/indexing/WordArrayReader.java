@@ -16,10 +16,10 @@ import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.List;
 
 /**
- * A WordReader that reads words from a List of tokens
+ * A WordReader that reads words from a TermList. The words are written into
+ * the given MutableStrings, no Strings are created.
  * 
  * @author pmika
  * 
@@ -29,10 +29,10 @@ public class WordArrayReader implements WordReader {
 
     private static final MutableString EMPTY_NONWORD = new MutableString("");
 
-    private List<String> tokens;
+    private TermList tokens;
     int pos = 0;
 
-    public WordArrayReader(List<String> tokens) {
+    public WordArrayReader(TermList tokens) {
 	this.tokens = tokens;
 
     }
@@ -43,7 +43,7 @@ public class WordArrayReader implements WordReader {
 
     public boolean next(MutableString word, MutableString nonWord) throws IOException {
 	if (pos < tokens.size()) {
-	    word.replace(tokens.get(pos++));
+	    tokens.get(pos++, word);
 	    nonWord.replace(EMPTY_NONWORD);
 	    return true;
 	} else {
@@ -0,0 +1,176 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.bits.BitVector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.itadaki.bzip2.BZip2InputStream;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.DeltaSegment;
+import com.yahoo.glimmer.util.SegmentedDocumentCollection;
+
+/**
+ * Folds the deltas of a kb into a new kb. The current records of the base
+ * and the deltas are written back out as N-Quads and a new kb is built from
+ * them with LocalIndexBuilder in a separate dir, so the old kb keeps serving
+ * queries until the new one is swapped in.
+ *
+ * The doc ids of the new kb are renumbered.
+ */
+public class CompactionTool {
+    private static final Log LOG = LogFactory.getLog(CompactionTool.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String KB_ARG = "kb";
+    private static final String OUTPUT_ARG = "output";
+    private static final String THREADS_ARG = "threads";
+    private static final String SORT_BUFFER_ARG = "sortBufferMB";
+    private static final String ONTOLOGY_ARG = "ontology";
+    private static final String NO_CONTEXTS_ARG = "excludeContexts";
+    private static final String VERTICAL_PREDICATES_ARG = "verticalPredicates";
+    private static final String QUASI_SUCCINCT_ARG = "quasiSuccinct";
+
+    /**
+     * Writes the current tuples of the given kb and its deltas.
+     *
+     * @return the number of records written.
+     */
+    public static long writeTuples(File kbDir, Writer writer) throws Exception {
+	List<DeltaSegment> deltas = DeltaSegment.list(kbDir);
+	SegmentedDocumentCollection collection = SegmentedDocumentCollection.open(kbDir, deltas);
+	long count = 0;
+	try {
+	    count += writeTuples(new File(kbDir, "bySubject.bz2"), collection.getMask(0), writer);
+	    for (int i = 0; i < deltas.size(); i++) {
+		count += writeTuples(new File(deltas.get(i).getDir(), "bySubject.bz2"), collection.getMask(i + 1), writer);
+	    }
+	} finally {
+	    collection.close();
+	}
+	return count;
+    }
+
+    /**
+     * Writes the tuples of the records in the given bySubject file that aren't
+     * masked.
+     */
+    private static long writeTuples(File bySubjectFile, BitVector mask, Writer writer) throws Exception {
+	long count = 0;
+	InputStream inputStream = new BZip2InputStream(new FileInputStream(bySubjectFile), false);
+	try {
+	    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF8));
+	    BySubjectRecord record = new BySubjectRecord();
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		if (line.isEmpty()) {
+		    continue;
+		}
+		record.readFrom(new StringReader(line));
+		if (record.getId() < mask.length() && mask.getBoolean(record.getId())) {
+		    continue;
+		}
+		String subject = toN3(record.getSubject());
+		for (String relation : record.getRelations()) {
+		    writer.write(subject);
+		    writer.write(' ');
+		    writer.write(relation);
+		    writer.write('\n');
+		}
+		count++;
+	    }
+	} finally {
+	    inputStream.close();
+	}
+	LOG.info("Wrote " + count + " records from " + bySubjectFile);
+	return count;
+    }
+
+    /**
+     * The subjects are stored without their N3 quoting. Resources have a
+     * scheme and BNode ids don't contain a ':', so that is used to tell them
+     * apart.
+     */
+    static String toN3(String subject) {
+	if (subject.indexOf(':') == -1) {
+	    return "_:" + subject;
+	}
+	return "<" + subject + ">";
+    }
+
+    public static void main(String[] args) throws Exception {
+	SimpleJSAP jsap = new SimpleJSAP(CompactionTool.class.getName(), "Builds a new kb from a kb and its deltas.", new Parameter[] {
+		new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 't',
+			THREADS_ARG, "Number of map/reduce threads. Default is the number of processors."),
+		new FlaggedOption(SORT_BUFFER_ARG, JSAP.INTEGER_PARSER, "64", JSAP.NOT_REQUIRED, 's', SORT_BUFFER_ARG,
+			"Map output buffer size per thread in MB. Default is 64."),
+		new FlaggedOption(ONTOLOGY_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'O', ONTOLOGY_ARG),
+		new Switch(NO_CONTEXTS_ARG, 'C', NO_CONTEXTS_ARG, "Don't process the contexts for each tuple."),
+		new FlaggedOption(VERTICAL_PREDICATES_ARG, JSAP.INTEGER_PARSER, "200", JSAP.NOT_REQUIRED, 'n', VERTICAL_PREDICATES_ARG,
+			"Number of most used predicates to build vertical indexes for. Default is 200."),
+		new Switch(QUASI_SUCCINCT_ARG, 'Q', QUASI_SUCCINCT_ARG, "Build quasi succinct indexes."),
+		new UnflaggedOption(KB_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The kb root dir with deltas."),
+		new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The kb root dir to create."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.print(jsap.getUsage());
+	    System.exit(1);
+	}
+
+	File kbDir = new File(jsapResult.getString(KB_ARG));
+	File outputDir = new File(jsapResult.getString(OUTPUT_ARG));
+	if (outputDir.exists()) {
+	    throw new IOException("Output dir " + outputDir + " already exists.");
+	}
+	File tuplesFile = new File(outputDir.getAbsoluteFile().getParentFile(), outputDir.getName() + ".nq");
+	Writer writer = new OutputStreamWriter(new FileOutputStream(tuplesFile), UTF8);
+	try {
+	    writeTuples(kbDir, writer);
+	} finally {
+	    writer.close();
+	}
+
+	int threads = jsapResult.getInt(THREADS_ARG);
+	LocalIndexBuilder builder = new LocalIndexBuilder(outputDir, threads, threads, jsapResult.getInt(SORT_BUFFER_ARG) * 1024 * 1024);
+	builder.setOntologyFilename(jsapResult.getString(ONTOLOGY_ARG));
+	builder.setWithContexts(!jsapResult.getBoolean(NO_CONTEXTS_ARG, false));
+	builder.setVerticalPredicates(jsapResult.getInt(VERTICAL_PREDICATES_ARG));
+	builder.setQuasiSuccinct(jsapResult.getBoolean(QUASI_SUCCINCT_ARG, false));
+	builder.build(tuplesFile.getPath());
+	if (!tuplesFile.delete()) {
+	    LOG.warn("Failed to delete " + tuplesFile);
+	}
+    }
+}
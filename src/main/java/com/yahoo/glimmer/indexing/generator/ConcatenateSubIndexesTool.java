@@ -0,0 +1,277 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index.PropertyKeys;
+import it.unimi.dsi.io.InputBitStream;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.util.Properties;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+/**
+ * Concatenates the sub indexes of one field written by the reducers of a
+ * TripleIndexGenerator job run with the TermRangePartitioner.
+ *
+ * As each sub index holds a range of terms that follows the range of the
+ * previous one, and all sub indexes use global document pointers, the
+ * inverted lists can be copied byte by byte. Only the per term files(offsets,
+ * frequencies and occurrencies) are re-coded. This replaces MG4J's Merge,
+ * which has to decode and re-encode every posting.
+ *
+ * Both bit stream and quasi succinct sub indexes are supported. For quasi
+ * succinct indexes the pointers, counts and positions lists are concatenated
+ * in the same way. All the sub indexes have to have been written with the
+ * same byte order.
+ *
+ * The .posnumbits files of the sub indexes are not concatenated.
+ */
+public class ConcatenateSubIndexesTool {
+    private static final Log LOG = LogFactory.getLog(ConcatenateSubIndexesTool.class);
+    private static final String OUTPUT_ARG = "output";
+    private static final String INPUT_ARG = "input";
+
+    // The files written by QuasiSuccinctIndexWriter.
+    private static final String POINTERS_EXTENSION = ".pointers";
+    private static final String COUNTS_EXTENSION = ".counts";
+    private static final String POSITIONS_EXTENSION = ".positions";
+    private static final String OFFSETS_POSTFIX = "offsets";
+    private static final String SUMS_MAX_POS_EXTENSION = ".sumsmaxpos";
+
+    public static void main(String[] args) throws IOException, ConfigurationException, JSAPException {
+	SimpleJSAP jsap = new SimpleJSAP(ConcatenateSubIndexesTool.class.getName(),
+		"Concatenates range partitioned sub indexes given in term order into a single index.", new Parameter[] {
+			new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The basename of the resulting index."),
+			new UnflaggedOption(INPUT_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.GREEDY,
+				"The basenames of the sub indexes in term order."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.println();
+	    System.err.println("Usage: java " + ConcatenateSubIndexesTool.class.getName());
+	    System.err.println("                " + jsap.getUsage());
+	    System.err.println();
+	    System.exit(1);
+	}
+
+	concatenate(jsapResult.getString(OUTPUT_ARG), jsapResult.getStringArray(INPUT_ARG));
+    }
+
+    public static void concatenate(String outputBasename, String[] inputBasenames) throws IOException, ConfigurationException {
+	Properties[] inputProperties = new Properties[inputBasenames.length];
+	long[] inputTerms = new long[inputBasenames.length];
+	for (int i = 0; i < inputBasenames.length; i++) {
+	    inputProperties[i] = new Properties(inputBasenames[i] + DiskBasedIndex.PROPERTIES_EXTENSION);
+	    inputTerms[i] = inputProperties[i].getLong(PropertyKeys.TERMS);
+	}
+
+	copy(inputBasenames, DiskBasedIndex.TERMS_EXTENSION, outputBasename);
+	long indexBits;
+	if (new File(inputBasenames[0] + POINTERS_EXTENSION).exists()) {
+	    // The quasi succinct lists are written as longs.
+	    indexBits = concatenateInvertedLists(inputBasenames, inputTerms, POINTERS_EXTENSION, Long.SIZE, outputBasename);
+	    indexBits += concatenateInvertedLists(inputBasenames, inputTerms, COUNTS_EXTENSION, Long.SIZE, outputBasename);
+	    indexBits += concatenateInvertedLists(inputBasenames, inputTerms, POSITIONS_EXTENSION, Long.SIZE, outputBasename);
+	    concatenateCodes(inputBasenames, inputTerms, SUMS_MAX_POS_EXTENSION, true, outputBasename);
+	} else {
+	    indexBits = concatenateInvertedLists(inputBasenames, inputTerms, DiskBasedIndex.INDEX_EXTENSION, Byte.SIZE, outputBasename);
+	}
+	concatenateCodes(inputBasenames, inputTerms, DiskBasedIndex.FREQUENCIES_EXTENSION, false, outputBasename);
+	concatenateCodes(inputBasenames, inputTerms, DiskBasedIndex.OCCURRENCIES_EXTENSION, false, outputBasename);
+	copySizes(inputBasenames, outputBasename);
+
+	// The properties of the first sub index with summed counts.
+	Properties properties = inputProperties[0];
+	long terms = 0, postings = 0, occurrences = 0, maxCount = -1, maxDocSize = -1;
+	for (Properties input : inputProperties) {
+	    terms += input.getLong(PropertyKeys.TERMS);
+	    postings += input.getLong(PropertyKeys.POSTINGS, 0);
+	    occurrences += input.getLong(PropertyKeys.OCCURRENCES, 0);
+	    maxCount = Math.max(maxCount, input.getLong(PropertyKeys.MAXCOUNT, -1));
+	    maxDocSize = Math.max(maxDocSize, input.getLong(PropertyKeys.MAXDOCSIZE, -1));
+	}
+	properties.setProperty(PropertyKeys.TERMS, terms);
+	properties.setProperty(PropertyKeys.POSTINGS, postings);
+	if (properties.containsKey(PropertyKeys.OCCURRENCES)) {
+	    properties.setProperty(PropertyKeys.OCCURRENCES, occurrences);
+	}
+	properties.setProperty(PropertyKeys.MAXCOUNT, maxCount);
+	if (maxDocSize >= 0) {
+	    properties.setProperty(PropertyKeys.MAXDOCSIZE, maxDocSize);
+	}
+	if (properties.containsKey(PropertyKeys.SIZE)) {
+	    properties.setProperty(PropertyKeys.SIZE, indexBits);
+	}
+	OutputStream propertiesOutputStream = new FileOutputStream(outputBasename + DiskBasedIndex.PROPERTIES_EXTENSION);
+	try {
+	    properties.save(propertiesOutputStream);
+	} finally {
+	    propertiesOutputStream.close();
+	}
+	LOG.info("Concatenated " + inputBasenames.length + " sub indexes into " + outputBasename + " with " + terms + " terms and " + postings + " postings.");
+    }
+
+    /**
+     * Copies the inverted list files with the given extension(.index for bit
+     * stream indexes) and rewrites their offsets files(.offsets). An offsets
+     * file has a gamma coded 0 followed by the bit length of each of the terms
+     * inverted lists. The list files are padded to a multiple of paddingUnit
+     * bits, so the padding is added to the length of the last list of each sub
+     * index.
+     *
+     * @return the bit length of the resulting list file or 0 if the sub
+     *         indexes have no such files.
+     */
+    private static long concatenateInvertedLists(String[] inputBasenames, long[] inputTerms, String extension, int paddingUnit, String outputBasename)
+	    throws IOException {
+	if (!new File(inputBasenames[0] + extension).exists()) {
+	    return 0;
+	}
+	// .index files have .offsets files, quasi succinct .pointers files have .pointersoffsets files.
+	String offsetsExtension = DiskBasedIndex.INDEX_EXTENSION.equals(extension) ? DiskBasedIndex.OFFSETS_EXTENSION : extension + OFFSETS_POSTFIX;
+	FileOutputStream indexOutputStream = new FileOutputStream(outputBasename + extension);
+	FileChannel indexChannel = indexOutputStream.getChannel();
+	OutputBitStream offsets = new OutputBitStream(outputBasename + offsetsExtension);
+	offsets.writeLongGamma(0);
+	try {
+	    for (int i = 0; i < inputBasenames.length; i++) {
+		if (inputTerms[i] == 0) {
+		    continue;
+		}
+		File indexFile = new File(inputBasenames[i] + extension);
+		InputBitStream inputOffsets = new InputBitStream(inputBasenames[i] + offsetsExtension);
+		try {
+		    if (inputOffsets.readLongGamma() != 0) {
+			throw new IllegalStateException("The first offset of " + inputBasenames[i] + " isn't 0.");
+		    }
+		    long bits = 0;
+		    for (long t = 0; t < inputTerms[i]; t++) {
+			long length = inputOffsets.readLongGamma();
+			bits += length;
+			if (t == inputTerms[i] - 1) {
+			    long padding = indexFile.length() * Byte.SIZE - bits;
+			    if (padding < 0 || padding >= paddingUnit) {
+				throw new IllegalStateException("The " + offsetsExtension + " of " + inputBasenames[i] + " sum to " + bits + " bits but the "
+					+ extension + " file is " + indexFile.length() + " bytes.");
+			    }
+			    length += padding;
+			}
+			offsets.writeLongGamma(length);
+		    }
+		} finally {
+		    inputOffsets.close();
+		}
+
+		FileInputStream indexInputStream = new FileInputStream(indexFile);
+		try {
+		    transfer(indexInputStream.getChannel(), indexChannel);
+		} finally {
+		    indexInputStream.close();
+		}
+	    }
+	    return indexChannel.position() * Byte.SIZE;
+	} finally {
+	    offsets.close();
+	    indexOutputStream.close();
+	}
+    }
+
+    /**
+     * Concatenates per term files of gamma, or if delta is true delta, coded
+     * longs.
+     */
+    private static void concatenateCodes(String[] inputBasenames, long[] inputTerms, String extension, boolean delta, String outputBasename)
+	    throws IOException {
+	if (!new File(inputBasenames[0] + extension).exists()) {
+	    return;
+	}
+	OutputBitStream out = new OutputBitStream(outputBasename + extension);
+	try {
+	    for (int i = 0; i < inputBasenames.length; i++) {
+		InputBitStream in = new InputBitStream(inputBasenames[i] + extension);
+		try {
+		    for (long t = 0; t < inputTerms[i]; t++) {
+			if (delta) {
+			    out.writeLongDelta(in.readLongDelta());
+			} else {
+			    out.writeLongGamma(in.readLongGamma());
+			}
+		    }
+		} finally {
+		    in.close();
+		}
+	    }
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * Only the sub index that got the field's TermKey.DOC_SIZE_TERM has a
+     * .sizes file, and it covers all documents.
+     */
+    private static void copySizes(String[] inputBasenames, String outputBasename) throws IOException {
+	String sizesBasename = null;
+	for (String inputBasename : inputBasenames) {
+	    if (new File(inputBasename + DiskBasedIndex.SIZES_EXTENSION).exists()) {
+		if (sizesBasename != null) {
+		    throw new IllegalStateException("Both " + sizesBasename + " and " + inputBasename + " have " + DiskBasedIndex.SIZES_EXTENSION + " files.");
+		}
+		sizesBasename = inputBasename;
+	    }
+	}
+	if (sizesBasename != null) {
+	    copy(new String[] { sizesBasename }, DiskBasedIndex.SIZES_EXTENSION, outputBasename);
+	}
+    }
+
+    private static void copy(String[] inputBasenames, String extension, String outputBasename) throws IOException {
+	FileOutputStream outputStream = new FileOutputStream(outputBasename + extension);
+	try {
+	    for (String inputBasename : inputBasenames) {
+		FileInputStream inputStream = new FileInputStream(inputBasename + extension);
+		try {
+		    transfer(inputStream.getChannel(), outputStream.getChannel());
+		} finally {
+		    inputStream.close();
+		}
+	    }
+	} finally {
+	    outputStream.close();
+	}
+    }
+
+    private static void transfer(FileChannel in, FileChannel out) throws IOException {
+	long size = in.size();
+	long position = 0;
+	while (position < size) {
+	    position += in.transferTo(position, size - position, out);
+	}
+    }
+}
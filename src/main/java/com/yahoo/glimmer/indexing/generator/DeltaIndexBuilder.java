@@ -0,0 +1,347 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectSortedMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.Text;
+import org.itadaki.bzip2.BZip2InputStream;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OUTPUT;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OutputCount;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+import com.yahoo.glimmer.util.ComputeHashTool;
+import com.yahoo.glimmer.util.DeltaSegment;
+import com.yahoo.glimmer.util.SegmentedDocumentCollection;
+import com.yahoo.glimmer.util.SegmentedResourcesMap;
+
+/**
+ * Builds a delta index in a kb root dir's deltas dir from new tuples only,
+ * on a single machine like LocalIndexBuilder. See DeltaSegment for the
+ * layout.
+ *
+ * The resources of the new tuples that aren't in the base or an earlier
+ * delta get doc ids after the existing ones. A subject that already has a
+ * record keeps its id and its new record has the relations of the current
+ * record followed by the new relations. Subjects listed in the deletes file
+ * are masked in the earlier segments and, if they are also in the new
+ * tuples, replaced rather than merged.
+ *
+ * The vertical indexes are built for the base's topPredicates so that the
+ * fields of the delta match the base's.
+ *
+ * The new records are sorted in memory, so this is for small additions.
+ * Use CompactionTool to fold the deltas into a new base. Deltas should be
+ * built one at a time.
+ */
+public class DeltaIndexBuilder {
+    private static final Log LOG = LogFactory.getLog(DeltaIndexBuilder.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String INPUT_ARG = "input";
+    private static final String KB_ARG = "kb";
+    private static final String DELETES_ARG = "deletes";
+    private static final String THREADS_ARG = "threads";
+    private static final String PARTITIONS_ARG = "partitions";
+    private static final String SORT_BUFFER_ARG = "sortBufferMB";
+    private static final String ONTOLOGY_ARG = "ontology";
+    private static final String NO_CONTEXTS_ARG = "excludeContexts";
+    private static final String QUASI_SUCCINCT_ARG = "quasiSuccinct";
+
+    private static final String RECORDS_DIR = "records";
+    private static final String RESOURCES_MAP_FILENAME = "resources.map";
+
+    private final File kbDir;
+    private final File deltaDir;
+    private final LocalIndexBuilder indexBuilder;
+
+    public DeltaIndexBuilder(File kbDir, int threads, int partitions, int sortBufferSize) {
+	this.kbDir = kbDir.getAbsoluteFile();
+	deltaDir = DeltaSegment.nextDir(this.kbDir);
+	indexBuilder = new LocalIndexBuilder(deltaDir, threads, partitions, sortBufferSize);
+    }
+
+    public void setOntologyFilename(String ontologyFilename) {
+	indexBuilder.setOntologyFilename(ontologyFilename);
+    }
+
+    public void setWithContexts(boolean withContexts) {
+	indexBuilder.setWithContexts(withContexts);
+    }
+
+    public void setQuasiSuccinct(boolean quasiSuccinct) {
+	indexBuilder.setQuasiSuccinct(quasiSuccinct);
+    }
+
+    /**
+     * @param input
+     *            the new tuples.
+     * @param deletesFilename
+     *            an optional file of the subjects to delete, one per line.
+     */
+    public DeltaSegment build(String input, String deletesFilename) throws Exception {
+	File tmpDir = new File(deltaDir, LocalIndexBuilder.TMP_DIR);
+	tmpDir.mkdirs();
+	long startTime = System.currentTimeMillis();
+
+	List<DeltaSegment> deltas = DeltaSegment.list(kbDir);
+	SegmentedResourcesMap resources = SegmentedResourcesMap.load(new File(kbDir, "all.map"), new File(kbDir, "all.smap"), deltas);
+	long firstDocId = resources.getNumberOfDocs();
+
+	File partDir = indexBuilder.runPrepTool(input);
+
+	// The new resources are a subset of the sorted 'all' file, so they stay
+	// sorted.
+	ObjectArrayList<String> newResources = new ObjectArrayList<String>();
+	Object2LongOpenHashMap<String> newResourceIds = new Object2LongOpenHashMap<String>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(partDir, "all")), UTF8));
+	try {
+	    String resource;
+	    while ((resource = reader.readLine()) != null) {
+		if (!resources.containsKey(resource)) {
+		    newResourceIds.put(resource, firstDocId + newResources.size());
+		    newResources.add(resource);
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+	long numberOfDocs = firstDocId + newResources.size();
+	LOG.info("Delta has " + newResources.size() + " new resources. Doc ids from " + firstDocId + " to " + numberOfDocs + ".");
+
+	LongOpenHashSet deletedIds = readDeletes(deletesFilename, resources, firstDocId);
+	LongArrayBitVector deleted = LongArrayBitVector.ofLength(firstDocId);
+	for (long id : deletedIds) {
+	    deleted.set(id);
+	}
+
+	Long2ObjectSortedMap<BySubjectRecord> records = new Long2ObjectRBTreeMap<BySubjectRecord>();
+	SegmentedDocumentCollection collection = SegmentedDocumentCollection.open(kbDir, deltas);
+	InputStream bySubjectInputStream = new BZip2InputStream(new FileInputStream(new File(partDir, "bySubject.bz2")), false);
+	try {
+	    reader = new BufferedReader(new InputStreamReader(bySubjectInputStream, UTF8));
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		if (line.isEmpty()) {
+		    continue;
+		}
+		BySubjectRecord record = new BySubjectRecord();
+		record.readFrom(new StringReader(line));
+		long id;
+		if (newResourceIds.containsKey(record.getSubject())) {
+		    id = newResourceIds.getLong(record.getSubject());
+		} else {
+		    id = resources.getLong(record.getSubject());
+		    if (id < 0) {
+			throw new IllegalStateException("Subject " + record.getSubject() + " is neither new nor in the existing resources.");
+		    }
+		    deleted.set(id);
+		    if (!deletedIds.contains(id)) {
+			mergeCurrentRelations(collection, id, record);
+		    }
+		}
+		record.setId(id);
+		records.put(id, record);
+	    }
+	} finally {
+	    bySubjectInputStream.close();
+	    collection.close();
+	}
+	if (records.isEmpty()) {
+	    throw new IOException("No subjects with relations in " + input);
+	}
+	LOG.info("Delta has " + records.size() + " records. " + deleted.count() + " ids in earlier segments are replaced or deleted.");
+
+	File recordsDir = new File(tmpDir, RECORDS_DIR);
+	writeRecords(recordsDir, newResources, records.values(), firstDocId);
+	FileSystem fs = FileSystem.getLocal(new Configuration());
+	if (!newResources.isEmpty()) {
+	    new ComputeHashTool().buildHash(fs, new File(recordsDir, "all").getPath(), null, true, true, UTF8, true);
+	    for (String filename : new String[] { "all.map", "all.smap", "all.mapinfo" }) {
+		move(recordsDir, filename, filename);
+	    }
+	}
+	move(recordsDir, "all", "all.txt");
+	move(recordsDir, "bySubject.bz2", "bySubject.bz2");
+	move(recordsDir, "bySubject.blockOffsets", "bySubject.blockOffsets");
+	DeltaSegment.saveDeleted(deltaDir, deleted);
+
+	// The index build looks up the resources in all the segments.
+	if (!newResources.isEmpty()) {
+	    resources = resources.append(new File(deltaDir, "all.map"), new File(deltaDir, "all.smap"), firstDocId);
+	}
+	File resourcesMapFile = new File(tmpDir, RESOURCES_MAP_FILENAME);
+	BinIO.storeObject(resources, resourcesMapFile);
+	indexBuilder.buildIndexes(new File(deltaDir, "bySubject.bz2"), resourcesMapFile.getAbsolutePath(), new File(kbDir, "topPredicates"), numberOfDocs);
+
+	FileUtil.fullyDelete(tmpDir);
+	FileUtil.fullyDelete(new File(deltaDir, LocalIndexBuilder.PREP_DIR));
+	DeltaSegment delta = DeltaSegment.create(deltaDir, firstDocId, numberOfDocs);
+	LOG.info("Built delta " + delta + " in " + (System.currentTimeMillis() - startTime) / 1000 + " seconds.");
+	return delta;
+    }
+
+    private static LongOpenHashSet readDeletes(String deletesFilename, SegmentedResourcesMap resources, long firstDocId) throws IOException {
+	LongOpenHashSet deletedIds = new LongOpenHashSet();
+	if (deletesFilename == null) {
+	    return deletedIds;
+	}
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(deletesFilename), UTF8));
+	try {
+	    String subject;
+	    while ((subject = reader.readLine()) != null) {
+		if (subject.startsWith("_:")) {
+		    subject = subject.substring(2);
+		}
+		long id = resources.getLong(subject);
+		if (id >= 0 && id < firstDocId) {
+		    deletedIds.add(id);
+		} else {
+		    LOG.warn("Can't delete unknown subject " + subject);
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+	return deletedIds;
+    }
+
+    /**
+     * Puts the relations of the current record of the given id before the
+     * new relations of the given record, without duplicates.
+     */
+    private static void mergeCurrentRelations(SegmentedDocumentCollection collection, long id, BySubjectRecord record) throws IOException,
+	    BySubjectRecordException {
+	PushbackInputStream docInputStream = new PushbackInputStream(collection.stream(id));
+	try {
+	    int firstByte = docInputStream.read();
+	    if (firstByte == -1) {
+		// Only an object so far.
+		return;
+	    }
+	    docInputStream.unread(firstByte);
+	    BySubjectRecord current = new BySubjectRecord();
+	    current.readFrom(new InputStreamReader(docInputStream, UTF8));
+	    Set<String> relations = new LinkedHashSet<String>();
+	    for (String relation : current.getRelations()) {
+		relations.add(relation);
+	    }
+	    for (String relation : record.getRelations()) {
+		relations.add(relation);
+	    }
+	    record.clearRelations();
+	    for (String relation : relations) {
+		if (!record.addRelation(relation)) {
+		    break;
+		}
+	    }
+	} finally {
+	    docInputStream.close();
+	}
+    }
+
+    /**
+     * Writes the new resources and the records in doc id order with
+     * ResourceRecordWriter, which also writes the bySubject block offsets.
+     */
+    private static void writeRecords(File dir, List<String> newResources, Iterable<BySubjectRecord> records, long firstDocId) throws IOException,
+	    InterruptedException {
+	FileSystem fs = FileSystem.getLocal(new Configuration());
+	ResourceRecordWriter writer = new ResourceRecordWriter(fs, LocalIndexBuilder.toPath(dir), null, true, true, firstDocId);
+	Text key = new Text();
+	OutputCount allCount = new OutputCount();
+	allCount.output = OUTPUT.ALL;
+	for (String resource : newResources) {
+	    key.set(resource);
+	    writer.write(key, allCount);
+	}
+	long previousId = -1;
+	for (BySubjectRecord record : records) {
+	    record.setPreviousId(previousId);
+	    key.set(record.getSubject());
+	    writer.write(key, record);
+	    previousId = record.getId();
+	}
+	writer.close(null);
+    }
+
+    private void move(File dir, String filename, String deltaFilename) throws IOException {
+	File file = new File(dir, filename);
+	if (!file.renameTo(new File(deltaDir, deltaFilename))) {
+	    throw new IOException("Failed to move " + file + " to " + deltaDir);
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	SimpleJSAP jsap = new SimpleJSAP(DeltaIndexBuilder.class.getName(), "Builds a delta index for new tuples in a kb root dir's deltas dir.",
+		new Parameter[] {
+			new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED,
+				't', THREADS_ARG, "Number of map/reduce threads. Default is the number of processors."),
+			new FlaggedOption(PARTITIONS_ARG, JSAP.INTEGER_PARSER, "1", JSAP.NOT_REQUIRED, 'r', PARTITIONS_ARG,
+				"Number of sub indexes per index. Default is 1."),
+			new FlaggedOption(SORT_BUFFER_ARG, JSAP.INTEGER_PARSER, "64", JSAP.NOT_REQUIRED, 's', SORT_BUFFER_ARG,
+				"Map output buffer size per thread in MB. Default is 64."),
+			new FlaggedOption(ONTOLOGY_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'O', ONTOLOGY_ARG),
+			new Switch(NO_CONTEXTS_ARG, 'C', NO_CONTEXTS_ARG, "Don't process the contexts for each tuple. Must match the base."),
+			new Switch(QUASI_SUCCINCT_ARG, 'Q', QUASI_SUCCINCT_ARG, "Build quasi succinct indexes."),
+			new FlaggedOption(DELETES_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'd', DELETES_ARG,
+				"A file of subjects to delete, one per line."),
+			new UnflaggedOption(KB_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The kb root dir of the base."),
+			new UnflaggedOption(INPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The new tuples file."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.print(jsap.getUsage());
+	    System.exit(1);
+	}
+
+	DeltaIndexBuilder builder = new DeltaIndexBuilder(new File(jsapResult.getString(KB_ARG)), jsapResult.getInt(THREADS_ARG),
+		jsapResult.getInt(PARTITIONS_ARG), jsapResult.getInt(SORT_BUFFER_ARG) * 1024 * 1024);
+	builder.setOntologyFilename(jsapResult.getString(ONTOLOGY_ARG));
+	builder.setWithContexts(!jsapResult.getBoolean(NO_CONTEXTS_ARG, false));
+	builder.setQuasiSuccinct(jsapResult.getBoolean(QUASI_SUCCINCT_ARG, false));
+	builder.build(jsapResult.getString(INPUT_ARG), jsapResult.getString(DELETES_ARG));
+    }
+}
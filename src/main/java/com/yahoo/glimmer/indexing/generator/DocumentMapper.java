@@ -11,6 +11,7 @@ package com.yahoo.glimmer.indexing.generator;
  *  See accompanying LICENSE file.
  */
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.io.WordReader;
 import it.unimi.dsi.lang.MutableString;
 
@@ -25,8 +26,11 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import com.yahoo.glimmer.indexing.CombinedDocumentFactory;
 import com.yahoo.glimmer.indexing.RDFDocument;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory;
+import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
+import com.yahoo.glimmer.indexing.TermProcessorCache;
 import com.yahoo.glimmer.indexing.generator.TermValue.Type;
 
 public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValue> {
@@ -34,18 +38,38 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 
     public static final int ALIGNMENT_INDEX = -1; // special index for
 						  // alignments
+    /**
+     * When true the positions of a term in a doc are aggregated and written
+     * as a single POSTINGS value instead of a TERM_STATS value and one
+     * OCCURRENCE value per position.
+     */
+    public static final String AGGREGATE_POSTINGS = "aggregatePostings";
 
     enum Counters {
-	FAILED_PARSING, INDEXED_OCCURRENCES, NUMBER_OF_RECORDS
+	FAILED_PARSING, INDEXED_OCCURRENCES, NUMBER_OF_RECORDS, TERM_CACHE_HITS, TERM_CACHE_MISSES
     }
 
     private String[] fields;
+    private RDFDocumentFactory factory;
     private RDFDocument doc;
+    private boolean aggregatePostings;
+    private TermValue postingsValue = new TermValue();
 
     protected void setup(org.apache.hadoop.mapreduce.Mapper<LongWritable, Text, TermKey, TermValue>.Context context) throws IOException, InterruptedException {
 	Configuration conf = context.getConfiguration();
 	fields = RDFDocumentFactory.getFieldsFromConf(conf);
-	doc = RDFDocumentFactory.buildFactory(conf).getDocument();
+	factory = RDFDocumentFactory.buildFactory(conf);
+	doc = factory.getDocument();
+	aggregatePostings = conf.getBoolean(AGGREGATE_POSTINGS, false);
+    }
+
+    @Override
+    protected void cleanup(org.apache.hadoop.mapreduce.Mapper<LongWritable, Text, TermKey, TermValue>.Context context) throws IOException,
+	    InterruptedException {
+	TermProcessorCache termProcessorCache = factory.getTermProcessorCache();
+	context.getCounter(Counters.TERM_CACHE_HITS).increment(termProcessorCache.getHits());
+	context.getCounter(Counters.TERM_CACHE_MISSES).increment(termProcessorCache.getMisses());
+	LOG.info("Term cache hits:" + termProcessorCache.getHits() + " misses:" + termProcessorCache.getMisses());
     }
 
     @Override
@@ -74,7 +98,16 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 		continue;
 	    }
 
-	    TermValue indexIdValue = new TermValue(Type.INDEX_ID, indexId);
+	    // For a COMBINED doc the fields are routed to the horizontal or
+	    // vertical index by their id.
+	    IndexType indexType = doc.getIndexType();
+	    TermValue indexIdValue;
+	    if (indexType == IndexType.COMBINED) {
+		indexType = CombinedDocumentFactory.getFieldIndexType(indexId);
+		indexIdValue = new TermValue(Type.INDEX_ID, CombinedDocumentFactory.getFieldIndexId(indexId));
+	    } else {
+		indexIdValue = new TermValue(Type.INDEX_ID, indexId);
+	    }
 
 	    // Iterate in parallel over the words of the indices
 	    MutableString term = new MutableString("");
@@ -90,16 +123,20 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 		    // Report progress
 		    context.setStatus(fields[indexId] + "=" + term.substring(0, Math.min(term.length(), 50)));
 
-		    // Create an occurrence at the next position
-		    TermValue occurrenceValue = new TermValue(Type.OCCURRENCE, doc.getId(), position);
-		    context.write(new TermKey(termString, indexId, occurrenceValue), occurrenceValue);
+		    if (!aggregatePostings) {
+			// Create an occurrence at the next position
+			TermValue occurrenceValue = new TermValue(Type.OCCURRENCE, doc.getId(), position);
+			context.write(new TermKey(termString, indexId, occurrenceValue), occurrenceValue);
+		    }
 
 		    DocStat docStat = termToDocStatMap.get(termString);
 		    if (docStat == null) {
-			if (doc.getIndexType() == RDFDocumentFactory.IndexType.VERTICAL) {
+			if (indexType == IndexType.VERTICAL) {
 			    // For the Alignment Index, we write the predicate
 			    // id(Which is equal to the index id for a VERTICAL
-			    // index) the first time we encounter a term.
+			    // index or the index id less the number of
+			    // horizontal fields for a COMBINED index) the
+			    // first time we encounter a term.
 			    // The 'Alignment Index' is an index without counts
 			    // or positions. It's used for query optimization in
 			    // the query parser. The resulting 'alignment index'
@@ -107,13 +144,13 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 			    // predicates that the term occurs in.
 			    context.write(new TermKey(termString, ALIGNMENT_INDEX, indexIdValue), indexIdValue);
 			}
-			docStat = new DocStat();
-			docStat.last = position;
-			docStat.count = 1;
+			docStat = new DocStat(aggregatePostings);
 			termToDocStatMap.put(termString, docStat);
-		    } else {
-			docStat.last = position;
-			docStat.count++;
+		    }
+		    docStat.last = position;
+		    docStat.count++;
+		    if (aggregatePostings) {
+			docStat.positions.add(position);
 		    }
 
 		    position++;
@@ -123,15 +160,22 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 		}
 	    }
 
-	    if (doc.getIndexType() == RDFDocumentFactory.IndexType.HORIZONTAL && position > 0) {
+	    if (indexType == IndexType.HORIZONTAL && position > 0) {
 		TermValue docSizeValue = new TermValue(Type.DOC_SIZE, doc.getId(), position);
 		context.write(new TermKey(TermKey.DOC_SIZE_TERM, indexId, docSizeValue), docSizeValue);
 	    }
 
 	    for (String termString : termToDocStatMap.keySet()) {
 		DocStat docStat = termToDocStatMap.get(termString);
-		TermValue occurrenceCountValue = new TermValue(Type.TERM_STATS, docStat.count, docStat.last);
-		context.write(new TermKey(termString, indexId, occurrenceCountValue), occurrenceCountValue);
+		if (aggregatePostings) {
+		    // One record for the term in this doc. The count and last
+		    // position are in the POSTINGS value.
+		    postingsValue.setPositions(doc.getId(), docStat.positions.elements(), docStat.positions.size());
+		    context.write(new TermKey(termString, indexId, postingsValue), postingsValue);
+		} else {
+		    TermValue occurrenceCountValue = new TermValue(Type.TERM_STATS, docStat.count, docStat.last);
+		    context.write(new TermKey(termString, indexId, occurrenceCountValue), occurrenceCountValue);
+		}
 	    }
 	    termToDocStatMap.clear();
 	}
@@ -142,6 +186,12 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
     private static class DocStat {
 	int last;
 	int count;
+	// Only when aggregating postings.
+	final IntArrayList positions;
+
+	DocStat(boolean withPositions) {
+	    positions = withPositions ? new IntArrayList() : null;
+	}
     }
 
     // For testing
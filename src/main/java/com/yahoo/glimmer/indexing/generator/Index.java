@@ -17,8 +17,11 @@ import it.unimi.di.big.mg4j.index.CompressionFlags.Coding;
 import it.unimi.di.big.mg4j.index.CompressionFlags.Component;
 import it.unimi.di.big.mg4j.index.DiskBasedIndex;
 import it.unimi.di.big.mg4j.index.IndexWriter;
+import it.unimi.di.big.mg4j.index.QuasiSuccinctIndex;
+import it.unimi.di.big.mg4j.index.QuasiSuccinctIndexWriter;
 import it.unimi.di.big.mg4j.io.HadoopFileSystemIOFactory;
 import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.io.OutputBitStream;
 import it.unimi.dsi.util.Properties;
@@ -28,6 +31,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.ByteOrder;
 import java.util.Map;
 
 import org.apache.commons.configuration.ConfigurationException;
@@ -41,28 +45,41 @@ public class Index {
     private PrintWriter terms;
     private OutputStream properties;
     private OutputBitStream docSizes;
+    // Gamma coded per term frequencies and occurrence counts as written by
+    // MG4J's Combine. Written here so that sub indexes can be concatenated
+    // without reading their posting lists.
+    private OutputBitStream frequencies;
+    private OutputBitStream occurrencies;
     private IndexWriter indexWriter;
 
     private FileSystem fs;
     private Path outputDir;
     private String name;
     private long numDocs;
-//    private int indexWriterCacheSize = QuasiSuccinctIndexWriter.DEFAULT_CACHE_SIZE;
+    private boolean quasiSuccinct;
+    private int bufferSize;
 
     private boolean positions;
     private String hashValuePrefix;
     
-    public Index(FileSystem fs, Path outputDir, String indexName, long numDocs, boolean positions, String hashValuePrefix, int indexWriterCacheSize) {
+    /**
+     * @param quasiSuccinct
+     *            write a QuasiSuccinctIndex instead of a BitStreamIndex.
+     * @param bufferSize
+     *            the size of each of the index's write buffers and of the
+     *            QuasiSuccinctIndexWriter's cache or 0 for the defaults.
+     */
+    public Index(FileSystem fs, Path outputDir, String indexName, long numDocs, boolean positions, boolean quasiSuccinct, String hashValuePrefix,
+	    int bufferSize) {
 	this.fs = fs;
 	this.outputDir = outputDir;
 	// It seems like MG4J doesn't like index names with the '-' char
 	this.name = indexName.replaceAll("\\-", "_");
 	this.numDocs = numDocs;
 	this.positions = positions;
+	this.quasiSuccinct = quasiSuccinct;
 	this.hashValuePrefix = hashValuePrefix;
-//	if (indexWriterCacheSize != 0) {
-//	    this.indexWriterCacheSize = indexWriterCacheSize;
-//	}
+	this.bufferSize = bufferSize;
     }
 
     public void open() throws IOException {
@@ -70,20 +87,48 @@ public class Index {
 	
 
 	Path termsPath = new Path(outputDir, name + DiskBasedIndex.TERMS_EXTENSION);
-	terms = new PrintWriter(new BufferedWriter(new OutputStreamWriter(fs.create(termsPath, false), "UTF-8")));
+	OutputStreamWriter termsStreamWriter = new OutputStreamWriter(create(termsPath), "UTF-8");
+	terms = new PrintWriter(bufferSize == 0 ? new BufferedWriter(termsStreamWriter) : new BufferedWriter(termsStreamWriter, bufferSize));
 
 	Path propertiesPath = new Path(outputDir, name + DiskBasedIndex.PROPERTIES_EXTENSION);
-	properties = fs.create(propertiesPath, false);
+	properties = create(propertiesPath);
+
+	frequencies = createBitStream(new Path(outputDir, name + DiskBasedIndex.FREQUENCIES_EXTENSION));
+	if (positions) {
+	    occurrencies = createBitStream(new Path(outputDir, name + DiskBasedIndex.OCCURRENCIES_EXTENSION));
+	}
 
 	Map<Component, Coding> defaultStandardIndexFlags = new Object2ObjectOpenHashMap<Component, Coding>(CompressionFlags.DEFAULT_STANDARD_INDEX);
 	if (!positions) {
 	    defaultStandardIndexFlags.remove(CompressionFlags.Component.POSITIONS);
-	    defaultStandardIndexFlags.remove(CompressionFlags.Component.COUNTS); // Quasi Succinct Indexes can't not have counts.
+	    if (!quasiSuccinct) {
+		// Quasi Succinct Indexes can't not have counts.
+		defaultStandardIndexFlags.remove(CompressionFlags.Component.COUNTS);
+	    }
 	}
 	
 	IOFactory ioFactory = new HadoopFileSystemIOFactory(fs);
-//	indexWriter = new QuasiSuccinctIndexWriter(ioFactory, basename, numDocs, Fast.mostSignificantBit(QuasiSuccinctIndex.DEFAULT_QUANTUM), indexWriterCacheSize, defaultStandardIndexFlags, ByteOrder.nativeOrder());
-	indexWriter = new BitStreamIndexWriter(ioFactory, basename, numDocs, true, defaultStandardIndexFlags);
+	if (quasiSuccinct) {
+	    int cacheSize = bufferSize == 0 ? QuasiSuccinctIndexWriter.DEFAULT_CACHE_SIZE : bufferSize;
+	    indexWriter = new QuasiSuccinctIndexWriter(ioFactory, basename, numDocs, Fast.mostSignificantBit(QuasiSuccinctIndex.DEFAULT_QUANTUM), cacheSize,
+		    defaultStandardIndexFlags, ByteOrder.nativeOrder());
+	} else {
+	    indexWriter = new BitStreamIndexWriter(ioFactory, basename, numDocs, true, defaultStandardIndexFlags);
+	}
+    }
+
+    private OutputStream create(Path path) throws IOException {
+	if (bufferSize == 0) {
+	    return fs.create(path, false);
+	}
+	return fs.create(path, false, bufferSize);
+    }
+
+    private OutputBitStream createBitStream(Path path) throws IOException {
+	if (bufferSize == 0) {
+	    return new OutputBitStream(create(path));
+	}
+	return new OutputBitStream(create(path), bufferSize);
     }
 
     public PrintWriter getTermsWriter() {
@@ -94,6 +139,10 @@ public class Index {
 	return positions;
     }
 
+    public boolean isQuasiSuccinct() {
+	return quasiSuccinct;
+    }
+
     public IndexWriter getIndexWriter() {
 	return indexWriter;
     }
@@ -102,6 +151,13 @@ public class Index {
 	return properties;
     }
 
+    public void writeTermStats(long frequency, long occurrenceCount) throws IOException {
+	frequencies.writeLongGamma(frequency);
+	if (occurrencies != null) {
+	    occurrencies.writeLongGamma(occurrenceCount);
+	}
+    }
+
     private long docSizesLastDocument = -1;
     
     public void writeDocSize(long document, int size) throws IOException {
@@ -112,7 +168,7 @@ public class Index {
 	if (docSizes == null) {
 	    // Only create the file when needed.  writeDocSize() shouldn't be called for vertical indexes.
 	    Path docSizesPath = new Path(outputDir, name + DiskBasedIndex.SIZES_EXTENSION);
-	    docSizes = new OutputBitStream(fs.create(docSizesPath, false));
+	    docSizes = createBitStream(docSizesPath);
 	}
 	
 	for (docSizesLastDocument++ ; docSizesLastDocument < document; docSizesLastDocument++) {
@@ -147,6 +203,10 @@ public class Index {
 	    docSizes.close();
 	}
 	
+	frequencies.close();
+	if (occurrencies != null) {
+	    occurrencies.close();
+	}
 	terms.close();
 	indexWriter.close();
     }
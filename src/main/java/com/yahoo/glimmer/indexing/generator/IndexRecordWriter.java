@@ -16,8 +16,7 @@ import it.unimi.di.big.mg4j.index.IndexWriter;
 import it.unimi.di.big.mg4j.index.QuasiSuccinctIndexWriter;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,65 +28,159 @@ import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
+import com.yahoo.glimmer.indexing.CombinedDocumentFactory;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
 import com.yahoo.glimmer.util.Util;
 
 public class IndexRecordWriter extends RecordWriter<IntWritable, IndexRecordWriterValue> {
     private static final Log LOG = LogFactory.getLog(IndexRecordWriter.class);
-    private Map<Integer, IndexWrapper> indices = new HashMap<Integer, IndexWrapper>();
+    /**
+     * Roughly the number of write buffers an Index has open. Its own streams,
+     * the IndexWriter's bit streams and the QuasiSuccinctIndexWriter's caches.
+     */
+    static final int BUFFERS_PER_INDEX = 8;
+    static final int MIN_BUFFER_SIZE = 4 * 1024;
+    static final int DEFAULT_MAX_BUFFER_SIZE = 32 * 1024 * 1024;
+    public static final long DEFAULT_WRITER_MEMORY = 256l * 1024 * 1024;
 
-    public IndexRecordWriter(FileSystem fs, Path taskWorkPath, long numberOfDocs, RDFDocumentFactory.IndexType indexType, String hashValuePrefix, int indexWriterCacheSize,
-	    String... fieldNames) throws IOException {
-	if (indexType == RDFDocumentFactory.IndexType.VERTICAL) {
-	    // Open the alignment index
-	    Index index = new Index(fs, taskWorkPath, TripleIndexGenerator.ALIGNMENT_INDEX_NAME, numberOfDocs, false, hashValuePrefix, indexWriterCacheSize);
-	    index.open();
-	    indices.put(DocumentMapper.ALIGNMENT_INDEX, new IndexWrapper(index));
+    /** Indexed by slot(index id). */
+    private IndexWrapper[] indices;
+    /** The slot of the one open index or -1. */
+    private int openSlot = -1;
+
+    private final FileSystem fs;
+    private final long numberOfDocs;
+    private final boolean quasiSuccinct;
+    private final String hashValuePrefix;
+    private final int bufferSize;
+
+    /**
+     * For a COMBINED index type the horizontal indexes are written to a
+     * 'horizontal' and the vertical and alignment indexes to a 'vertical'
+     * sibling dir of the task's work path. So the job's output dir ends up
+     * with horizontal/part-r-XXXXX and vertical/part-r-XXXXX sub indexes.
+     * 
+     * The reducer's input is sorted by index and then by term, see
+     * TermKey.Comparator. So only the index that is being written is open.
+     * When the records move on to the next index it's closed, which flushes
+     * and releases its buffers. The open index gets the whole writerMemory
+     * and a reducer uses the same memory however many predicates have
+     * vertical indexes. Indexes without records are written empty on close.
+     * 
+     * @param writerMemory
+     *            the memory budget in bytes for the buffers of the open index.
+     * @param maxBufferSize
+     *            the largest size of a single buffer.
+     */
+    public IndexRecordWriter(FileSystem fs, Path taskWorkPath, long numberOfDocs, RDFDocumentFactory.IndexType indexType, boolean quasiSuccinct,
+	    String hashValuePrefix, long writerMemory, int maxBufferSize, String... fieldNames) throws IOException {
+	this.fs = fs;
+	this.numberOfDocs = numberOfDocs;
+	this.quasiSuccinct = quasiSuccinct;
+	this.hashValuePrefix = hashValuePrefix;
+
+	bufferSize = getBufferSize(writerMemory, maxBufferSize);
+	LOG.info("Writing indexes one at a time with " + bufferSize + " byte buffers for a writer memory of " + writerMemory + " bytes.");
+	indices = new IndexWrapper[slot(fieldNames.length)];
+
+	if (indexType == RDFDocumentFactory.IndexType.COMBINED) {
+	    int horizontalFieldCount = CombinedDocumentFactory.getHorizontalFieldCount();
+	    addFieldIndexes(getCombinedPath(taskWorkPath, IndexType.HORIZONTAL), 0, Arrays.copyOf(fieldNames, horizontalFieldCount));
+	    Path verticalPath = getCombinedPath(taskWorkPath, IndexType.VERTICAL);
+	    addAlignmentIndex(verticalPath);
+	    addFieldIndexes(verticalPath, horizontalFieldCount, Arrays.copyOfRange(fieldNames, horizontalFieldCount, fieldNames.length));
+	} else {
+	    if (indexType == RDFDocumentFactory.IndexType.VERTICAL) {
+		addAlignmentIndex(taskWorkPath);
+	    }
+	    addFieldIndexes(taskWorkPath, 0, fieldNames);
+	}
+    }
+
+    /**
+     * @return the size of each of the open index's buffers so that they fit
+     *         in writerMemory.
+     */
+    static int getBufferSize(long writerMemory, int maxBufferSize) {
+	long bufferSize = writerMemory / BUFFERS_PER_INDEX;
+	if (bufferSize < MIN_BUFFER_SIZE) {
+	    throw new IllegalArgumentException("A writer memory of " + writerMemory + " bytes is less than the " + BUFFERS_PER_INDEX * MIN_BUFFER_SIZE
+		    + " bytes needed for the buffers of an index.");
 	}
+	return (int) Math.min(maxBufferSize, bufferSize);
+    }
+
+    private static int slot(int indexId) {
+	return indexId - DocumentMapper.ALIGNMENT_INDEX;
+    }
+
+    private static boolean isNoIndex(String fieldName) {
+	return Util.encodeFieldName(fieldName).startsWith("NOINDEX");
+    }
+
+    static Path getCombinedPath(Path taskWorkPath, IndexType indexType) {
+	// The kb dirs that RDFIndex expects are 'horizontal' and 'vertical'.
+	return new Path(new Path(taskWorkPath.getParent(), indexType.name().toLowerCase()), taskWorkPath.getName());
+    }
 
-	// Open one index per field
+    private void addAlignmentIndex(Path outputDir) {
+	Index index = new Index(fs, outputDir, TripleIndexGenerator.ALIGNMENT_INDEX_NAME, numberOfDocs, false, quasiSuccinct, hashValuePrefix, bufferSize);
+	indices[slot(DocumentMapper.ALIGNMENT_INDEX)] = new IndexWrapper(index);
+    }
+
+    /**
+     * Add one, not yet opened, index per field.
+     * 
+     * @param firstIndexId
+     *            the index id of the first of the given fields.
+     */
+    private void addFieldIndexes(Path outputDir, int firstIndexId, String[] fieldNames) {
 	for (int i = 0; i < fieldNames.length; i++) {
-	    String name = Util.encodeFieldName(fieldNames[i]);
-	    if (!name.startsWith("NOINDEX")) {
-
-		// Get current size of heap in bytes
-		long heapSize = Runtime.getRuntime().totalMemory();
-		// Get maximum size of heap in bytes. The heap cannot
-		// grow beyond this size.
-		// Any attempt will result in an OutOfMemoryException.
-		long heapMaxSize = Runtime.getRuntime().maxMemory();
-		// Get amount of free memory within the heap in bytes.
-		// This size will increase
-		// after garbage collection and decrease as new objects
-		// are created.
-		long heapFreeSize = Runtime.getRuntime().freeMemory();
-
-		System.out.println("Opening index for field:" + name + " Heap size: current/max/free: " + heapSize + "/" + heapMaxSize + "/" + heapFreeSize);
-
-		Index index = new Index(fs, taskWorkPath, name, numberOfDocs, true, hashValuePrefix, indexWriterCacheSize);
-		index.open();
-
-		indices.put(i, new IndexWrapper(index));
+	    if (!isNoIndex(fieldNames[i])) {
+		String name = Util.encodeFieldName(fieldNames[i]);
+		Index index = new Index(fs, outputDir, name, numberOfDocs, true, quasiSuccinct, hashValuePrefix, bufferSize);
+		indices[slot(firstIndexId + i)] = new IndexWrapper(index);
 	    }
 	}
     }
 
     @Override
     public void write(IntWritable key, IndexRecordWriterValue value) throws IOException, InterruptedException {
-	IndexWrapper index = indices.get(key.get());
-	index.write(value);
+	int slot = slot(key.get());
+	if (slot < 0 || slot >= indices.length || indices[slot] == null) {
+	    throw new IllegalArgumentException("No index with id " + key.get());
+	}
+	if (slot != openSlot) {
+	    if (openSlot != -1) {
+		indices[openSlot].close();
+	    }
+	    if (indices[slot].isClosed()) {
+		throw new IllegalStateException("Got a record for index " + key.get() + " after the index was closed. Records have to be sorted by index.");
+	    }
+	    indices[slot].open();
+	    openSlot = slot;
+	}
+	indices[slot].write(value);
     }
 
     @Override
     public void close(TaskAttemptContext context) throws IOException, InterruptedException {
-	for (IndexWrapper index : indices.values()) {
-	    index.close();
+	for (IndexWrapper index : indices) {
+	    if (index != null && !index.isClosed()) {
+		if (!index.isOpen()) {
+		    index.open();
+		}
+		index.close();
+	    }
 	}
+	openSlot = -1;
     }
 
     private static class IndexWrapper {
 	private final Index index;
+	private boolean open;
+	private boolean closed;
 	
 	private IndexRecordWriterTermValue lastTermValue = new IndexRecordWriterTermValue();
 	
@@ -99,15 +192,33 @@ public class IndexRecordWriter extends RecordWriter<IntWritable, IndexRecordWrit
 	    this.index = index;
 	}
 
+	public void open() throws IOException {
+	    Runtime runtime = Runtime.getRuntime();
+	    System.out.println("Opening index " + index.getName() + " Heap size: current/max/free: " + runtime.totalMemory() + "/" + runtime.maxMemory()
+		    + "/" + runtime.freeMemory());
+	    index.open();
+	    open = true;
+	}
+
+	public boolean isOpen() {
+	    return open;
+	}
+
+	public boolean isClosed() {
+	    return closed;
+	}
+
 	public void write(IndexRecordWriterValue value) throws IOException {
 	    IndexWriter indexWriter = index.getIndexWriter();
 	    try {
 		if (value instanceof IndexRecordWriterTermValue) {
 		    IndexRecordWriterTermValue termValue = (IndexRecordWriterTermValue) value;
 		    index.getTermsWriter().println(termValue.getTerm());
+		    index.writeTermStats(termValue.getTermFrequency(), termValue.getOccurrenceCount());
 		    if (indexWriter instanceof QuasiSuccinctIndexWriter) {
-			((QuasiSuccinctIndexWriter) indexWriter).newInvertedList(termValue.getTermFrequency(), termValue.getOccurrenceCount(),
-				termValue.getSumOfMaxTermPositions());
+			// Without positions each document gets a count of 1. See below.
+			long occurrency = index.hasPositions() ? termValue.getOccurrenceCount() : termValue.getTermFrequency();
+			((QuasiSuccinctIndexWriter) indexWriter).newInvertedList(termValue.getTermFrequency(), occurrency, termValue.getSumOfMaxTermPositions());
 		    } else {
 			indexWriter.newInvertedList();
 			indexWriter.writeFrequency(termValue.getTermFrequency());
@@ -124,6 +235,9 @@ public class IndexRecordWriter extends RecordWriter<IntWritable, IndexRecordWrit
 		    if (index.hasPositions() && docValue.hasOccurrence()) {
 			indexWriter.writePositionCount(out, docValue.getOccurrenceCount());
 			indexWriter.writeDocumentPositions(out, docValue.getOccurrences(), 0, docValue.getOccurrenceCount(), -1);
+		    } else if (!index.hasPositions() && index.isQuasiSuccinct()) {
+			// Quasi succinct indexes always have counts.
+			indexWriter.writePositionCount(out, 1);
 		    }
 		    accumulatedTermFrequency++;
 		    int occurrenceCount = docValue.getOccurrenceCount();
@@ -148,6 +262,8 @@ public class IndexRecordWriter extends RecordWriter<IntWritable, IndexRecordWrit
 	    LOG.info("Closing index" + index.getName());
 	    logStats();
 	    index.close(accumulatedOccurrenceCount);
+	    open = false;
+	    closed = true;
 	}
 	
 	private void logStats() {
@@ -178,8 +294,10 @@ public class IndexRecordWriter extends RecordWriter<IntWritable, IndexRecordWrit
 	    String[] fields = RDFDocumentFactory.getFieldsFromConf(conf);
 	    String hashValuePrefix = RDFDocumentFactory.getHashValuePrefix(conf);
 	    
-	    int indexWriterCacheSize = conf.getInt(TripleIndexGenerator.INDEX_WRITER_CACHE_SIZE, 0);
-	    return new IndexRecordWriter(fs, taskWorkPath, numberOfDocuments, indexType, hashValuePrefix, indexWriterCacheSize, fields);
+	    boolean quasiSuccinct = conf.getBoolean(TripleIndexGenerator.QUASI_SUCCINCT, false);
+	    long writerMemory = conf.getLong(TripleIndexGenerator.INDEX_WRITER_MEMORY, DEFAULT_WRITER_MEMORY);
+	    int maxBufferSize = conf.getInt(TripleIndexGenerator.INDEX_WRITER_CACHE_SIZE, DEFAULT_MAX_BUFFER_SIZE);
+	    return new IndexRecordWriter(fs, taskWorkPath, numberOfDocuments, indexType, quasiSuccinct, hashValuePrefix, writerMemory, maxBufferSize, fields);
 	}
     }
 }
@@ -0,0 +1,381 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.indexing.CombinedDocumentFactory;
+import com.yahoo.glimmer.indexing.OntologyLoader;
+import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
+import com.yahoo.glimmer.indexing.preprocessor.PrepTool;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceSampler;
+import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper;
+import com.yahoo.glimmer.util.ComputeHashTool;
+import com.yahoo.glimmer.util.LocalMapReduce;
+
+/**
+ * Builds the indexes for a set of tuples on a single machine, without a
+ * Hadoop cluster. Does what scripts/build-index.sh does with PrepTool,
+ * ComputeHashTool, TripleIndexGenerator and ConcatenateSubIndexesTool, but
+ * runs the map and reduce tasks in this JVM with LocalMapReduce, using all
+ * the cores.
+ *
+ * The output dir is a kb root dir that RDFIndex can load directly. It
+ * contains all.txt, all.map, all.smap, bySubject.bz2, bySubject.blockOffsets,
+ * topPredicates and the horizontal and vertical index dirs.
+ *
+ * The PrepTool job and the index builds are range partitioned so that their
+ * outputs can be concatenated.
+ *
+ * Note that each TripleIndexGenerator map task loads the resources hash, so
+ * the heap needed grows with the number of threads.
+ */
+public class LocalIndexBuilder {
+    private static final Log LOG = LogFactory.getLog(LocalIndexBuilder.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String INPUT_ARG = "input";
+    private static final String OUTPUT_ARG = "output";
+    private static final String THREADS_ARG = "threads";
+    private static final String PARTITIONS_ARG = "partitions";
+    private static final String SORT_BUFFER_ARG = "sortBufferMB";
+    private static final String ONTOLOGY_ARG = "ontology";
+    private static final String NO_CONTEXTS_ARG = "excludeContexts";
+    private static final String VERTICAL_PREDICATES_ARG = "verticalPredicates";
+    private static final String QUASI_SUCCINCT_ARG = "quasiSuccinct";
+
+    static final String PREP_DIR = "prep";
+    static final String TMP_DIR = "tmp";
+    private static final String FIRST_PART = "part-r-00000";
+    static final String RESOURCE_ID_PREFIX = "@";
+
+    private final Configuration conf;
+    private final File kbDir;
+    private final int threads;
+    private final int partitions;
+    private final LocalMapReduce mapReduce;
+    private String ontologyFilename;
+    private boolean withContexts = true;
+    private int verticalPredicates = 200;
+    private boolean quasiSuccinct;
+
+    public LocalIndexBuilder(File kbDir, int threads, int partitions, int sortBufferSize) {
+	this.kbDir = kbDir;
+	this.threads = threads;
+	this.partitions = partitions;
+
+	conf = new Configuration();
+	conf.set("fs.defaultFS", "file:///");
+	conf.set("io.compression.codecs", "org.apache.hadoop.io.compress.DefaultCodec,org.apache.hadoop.io.compress.GzipCodec,"
+		+ "org.apache.hadoop.io.compress.BZip2Codec");
+
+	// The last run of each map task is kept in memory if there is space.
+	long inMemoryRunsSize = Runtime.getRuntime().maxMemory() / 4;
+	mapReduce = new LocalMapReduce(threads, sortBufferSize, inMemoryRunsSize, new File(kbDir, TMP_DIR));
+    }
+
+    public void setOntologyFilename(String ontologyFilename) {
+	this.ontologyFilename = ontologyFilename;
+    }
+
+    public void setWithContexts(boolean withContexts) {
+	this.withContexts = withContexts;
+    }
+
+    public void setVerticalPredicates(int verticalPredicates) {
+	this.verticalPredicates = verticalPredicates;
+    }
+
+    public void setQuasiSuccinct(boolean quasiSuccinct) {
+	this.quasiSuccinct = quasiSuccinct;
+    }
+
+    public void build(String input) throws Exception {
+	if (kbDir.exists()) {
+	    throw new IOException("Output dir " + kbDir + " already exists.");
+	}
+	new File(kbDir, TMP_DIR).mkdirs();
+	long startTime = System.currentTimeMillis();
+
+	long numberOfDocs = prepare(input);
+	buildIndexes(numberOfDocs);
+
+	FileUtil.fullyDelete(new File(kbDir, TMP_DIR));
+	LOG.info("Built indexes in " + kbDir + " in " + (System.currentTimeMillis() - startTime) / 1000 + " seconds.");
+    }
+
+    /**
+     * Runs the PrepTool job, builds the resources hashes and picks the top
+     * predicates.
+     *
+     * @return the number of docs, which is the number of resources.
+     */
+    private long prepare(String input) throws Exception {
+	File partDir = runPrepTool(input);
+	FileSystem fs = FileSystem.getLocal(conf);
+	ComputeHashTool computeHashTool = new ComputeHashTool();
+	computeHashTool.setThreads(threads);
+	long numberOfDocs = computeHashTool.buildHash(fs, new File(partDir, "all").getPath(), null, true, true, UTF8, true);
+	LOG.info("There are " + numberOfDocs + " docs(resources).");
+	writeTopPredicates(new File(partDir, "predicates"));
+
+	moveToKb(partDir, "all", "all.txt");
+	for (String filename : new String[] { "all.map", "all.smap", "all.mapinfo", "bySubject.bz2", "bySubject.blockOffsets" }) {
+	    moveToKb(partDir, filename, filename);
+	}
+	return numberOfDocs;
+    }
+
+    /**
+     * Runs the PrepTool job.
+     * 
+     * @return the dir with the job's output files.
+     */
+    File runPrepTool(String input) throws Exception {
+	Configuration prepConf = new Configuration(conf);
+	prepConf.setBoolean(TuplesToResourcesMapper.INCLUDE_CONTEXTS_KEY, withContexts);
+	if (ontologyFilename != null) {
+	    PrepTool.addOntologyClasses(prepConf, ontologyFilename);
+	}
+	File prepDir = new File(kbDir, PREP_DIR);
+	FileSystem fs = FileSystem.getLocal(conf);
+
+	int reducerCount = partitions;
+	Path partitionFile = toPath(new File(kbDir, TMP_DIR + "/" + PREP_DIR + PrepTool.PARTITION_FILE_SUFFIX));
+	if (partitions > 1) {
+	    // Range partitioned with doc id offsets from counting the resources
+	    // in each partition first.
+	    Path countsDir = toPath(new File(kbDir, TMP_DIR + "/" + PREP_DIR + PrepTool.COUNTS_DIR_SUFFIX));
+	    Job countJob = PrepTool.createCountJob(prepConf, new Path(input), countsDir, partitionFile, partitions);
+	    mapReduce.run(countJob);
+	    reducerCount = countJob.getNumReduceTasks();
+	    PrepTool.setDocIdOffsets(fs, countsDir, reducerCount, prepConf);
+	}
+	Job job = PrepTool.createJob(prepConf, new Path(input), toPath(prepDir), reducerCount);
+	if (reducerCount > 1) {
+	    ResourceSampler.setPartitionFile(job, partitionFile);
+	}
+	mapReduce.run(job);
+
+	File partDir = new File(prepDir, FIRST_PART);
+	if (partitions > 1) {
+	    PrepTool.concatenateParts(fs, toPath(prepDir), reducerCount);
+	    partDir = prepDir;
+	}
+	return partDir;
+    }
+
+    /**
+     * Writes the most used predicates, one per line, for the vertical index.
+     */
+    private void writeTopPredicates(File predicatesFile) throws IOException {
+	List<String[]> predicateCounts = new ArrayList<String[]>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(predicatesFile), UTF8));
+	try {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		String[] countAndPredicate = line.split("\t", 2);
+		if (countAndPredicate.length == 2) {
+		    predicateCounts.add(countAndPredicate);
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+	Collections.sort(predicateCounts, new Comparator<String[]>() {
+	    @Override
+	    public int compare(String[] o1, String[] o2) {
+		return Long.valueOf(o2[0]).compareTo(Long.valueOf(o1[0]));
+	    }
+	});
+
+	Writer writer = new OutputStreamWriter(new FileOutputStream(new File(kbDir, "topPredicates")), UTF8);
+	try {
+	    for (String[] countAndPredicate : predicateCounts.subList(0, Math.min(verticalPredicates, predicateCounts.size()))) {
+		writer.write(countAndPredicate[1]);
+		writer.write('\n');
+	    }
+	} finally {
+	    writer.close();
+	}
+    }
+
+    /**
+     * Builds the horizontal and vertical indexes in one pass over the
+     * bySubject records.
+     */
+    private void buildIndexes(long numberOfDocs) throws Exception {
+	buildIndexes(new File(kbDir, "bySubject.bz2"), new File(kbDir, "all.map").getAbsolutePath(), new File(kbDir, "topPredicates"), numberOfDocs);
+    }
+
+    /**
+     * Builds the horizontal and vertical indexes of the given bySubject file
+     * into the kb dir.
+     * 
+     * @param resourcesHash
+     *            the serialized map from resources to doc ids.
+     * @param predicatesFile
+     *            the predicates to build vertical indexes for.
+     */
+    @SuppressWarnings("deprecation")
+    void buildIndexes(File input, String resourcesHash, File predicatesFile, long numberOfDocs) throws Exception {
+	File partsDir = new File(kbDir, TMP_DIR + "/index");
+
+	Job job = TripleIndexGenerator.createJob(new Configuration(conf), toPath(input), toPath(partsDir));
+	Configuration jobConf = job.getConfiguration();
+	jobConf.setLong(TripleIndexGenerator.NUMBER_OF_DOCUMENTS, numberOfDocs);
+	jobConf.setBoolean(DocumentMapper.AGGREGATE_POSTINGS, true);
+	jobConf.setBoolean(TripleIndexGenerator.QUASI_SUCCINCT, quasiSuccinct);
+	// The reduce threads share this JVM's memory.
+	jobConf.setLong(TripleIndexGenerator.INDEX_WRITER_MEMORY, IndexRecordWriter.DEFAULT_WRITER_MEMORY / threads);
+
+	CombinedDocumentFactory.setupConf(jobConf, withContexts, resourcesHash, RESOURCE_ID_PREFIX, predicatesFile.getAbsolutePath());
+	if (ontologyFilename != null) {
+	    URI ontologyUri = new File(ontologyFilename).getAbsoluteFile().toURI();
+	    DistributedCache.addCacheFile(new URI(ontologyUri.getScheme(), ontologyUri.getSchemeSpecificPart(), OntologyLoader.ONTOLOGY_SYMBOLIC_NAME),
+		    jobConf);
+	}
+
+	// At least one split per thread.
+	FileInputFormat.setMaxInputSplitSize(job, Math.max(1, input.length() / threads));
+	job.setNumReduceTasks(partitions);
+	TermRangePartitioner.sample(job, TripleIndexGenerator.SAMPLE_MAX_SPLITS, TripleIndexGenerator.SAMPLE_RECORDS_PER_SPLIT);
+	job.setPartitionerClass(TermRangePartitioner.class);
+	mapReduce.run(job);
+
+	// The kb dirs that RDFIndex expects are 'horizontal' and 'vertical'.
+	for (IndexType type : new IndexType[] { IndexType.HORIZONTAL, IndexType.VERTICAL }) {
+	    String dirName = type.name().toLowerCase();
+	    concatenate(new File(partsDir, dirName), new File(kbDir, dirName));
+	}
+	FileUtil.fullyDelete(partsDir);
+    }
+
+    /**
+     * Concatenates the sub indexes of each field and builds the term maps.
+     */
+    private void concatenate(File partsDir, File indexDir) throws Exception {
+	indexDir.mkdirs();
+	List<String> indexNames = new ArrayList<String>();
+	for (String filename : new File(partsDir, FIRST_PART).list()) {
+	    if (filename.endsWith(DiskBasedIndex.PROPERTIES_EXTENSION)) {
+		indexNames.add(filename.substring(0, filename.length() - DiskBasedIndex.PROPERTIES_EXTENSION.length()));
+	    }
+	}
+
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	try {
+	    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+	    for (final String indexName : indexNames) {
+		final String[] inputBasenames = new String[partitions];
+		for (int partition = 0; partition < partitions; partition++) {
+		    inputBasenames[partition] = new File(partsDir, String.format("part-r-%05d", partition) + "/" + indexName).getPath();
+		}
+		final String outputBasename = new File(indexDir, indexName).getPath();
+		futures.add(executor.submit(new Callable<Void>() {
+		    @Override
+		    public Void call() throws Exception {
+			ConcatenateSubIndexesTool.concatenate(outputBasename, inputBasenames);
+			TermMapTool.buildTermMap(outputBasename);
+			return null;
+		    }
+		}));
+	    }
+	    for (Future<Void> future : futures) {
+		future.get();
+	    }
+	} finally {
+	    executor.shutdownNow();
+	}
+	LOG.info("Concatenated " + indexNames.size() + " indexes into " + indexDir);
+    }
+
+    private void moveToKb(File dir, String filename, String kbFilename) throws IOException {
+	File file = new File(dir, filename);
+	if (!file.renameTo(new File(kbDir, kbFilename))) {
+	    throw new IOException("Failed to move " + file + " to " + kbDir);
+	}
+    }
+
+    static Path toPath(File file) {
+	return new Path(file.getAbsoluteFile().toURI());
+    }
+
+    public static void main(String[] args) throws Exception {
+	SimpleJSAP jsap = new SimpleJSAP(LocalIndexBuilder.class.getName(), "Builds the Glimmer indexes for a tuples file on this machine.", new Parameter[] {
+		new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 't',
+			THREADS_ARG, "Number of map/reduce threads. Default is the number of processors."),
+		new FlaggedOption(PARTITIONS_ARG, JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'r', PARTITIONS_ARG,
+			"Number of sub indexes per index. Default is the number of threads."),
+		new FlaggedOption(SORT_BUFFER_ARG, JSAP.INTEGER_PARSER, "64", JSAP.NOT_REQUIRED, 's', SORT_BUFFER_ARG,
+			"Map output buffer size per thread in MB. Default is 64."),
+		new FlaggedOption(ONTOLOGY_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'O', ONTOLOGY_ARG),
+		new Switch(NO_CONTEXTS_ARG, 'C', NO_CONTEXTS_ARG, "Don't process the contexts for each tuple."),
+		new FlaggedOption(VERTICAL_PREDICATES_ARG, JSAP.INTEGER_PARSER, "200", JSAP.NOT_REQUIRED, 'n', VERTICAL_PREDICATES_ARG,
+			"Number of most used predicates to build vertical indexes for. Default is 200."),
+		new Switch(QUASI_SUCCINCT_ARG, 'Q', QUASI_SUCCINCT_ARG, "Build quasi succinct indexes."),
+		new UnflaggedOption(INPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The tuples file."),
+		new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The kb root dir to create."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.print(jsap.getUsage());
+	    System.exit(1);
+	}
+
+	int threads = jsapResult.getInt(THREADS_ARG);
+	int partitions = jsapResult.contains(PARTITIONS_ARG) ? jsapResult.getInt(PARTITIONS_ARG) : threads;
+	LocalIndexBuilder builder = new LocalIndexBuilder(new File(jsapResult.getString(OUTPUT_ARG)), threads, partitions,
+		jsapResult.getInt(SORT_BUFFER_ARG) * 1024 * 1024);
+	builder.setOntologyFilename(jsapResult.getString(ONTOLOGY_ARG));
+	builder.setWithContexts(!jsapResult.getBoolean(NO_CONTEXTS_ARG, false));
+	builder.setVerticalPredicates(jsapResult.getInt(VERTICAL_PREDICATES_ARG));
+	builder.setQuasiSuccinct(jsapResult.getBoolean(QUASI_SUCCINCT_ARG, false));
+	builder.build(jsapResult.getString(INPUT_ARG));
+    }
+}
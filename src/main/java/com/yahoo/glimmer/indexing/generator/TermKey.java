@@ -14,12 +14,12 @@ package com.yahoo.glimmer.indexing.generator;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
-import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
 
 /**
@@ -62,15 +62,24 @@ public class TermKey implements WritableComparable<TermKey> {
     }
 
     public void readFields(DataInput in) throws IOException {
-	value.readFields(in);
-	index = in.readInt();
-	term = Text.readString(in);
+	byte[] termBytes = new byte[(int) VarInt.readUnsigned(in)];
+	in.readFully(termBytes);
+	term = Text.decode(termBytes);
+	index = (int) VarInt.readSigned(in);
+	value.readSortFields(in);
     }
 
     public void write(DataOutput out) throws IOException {
-	value.write(out);
-	out.writeInt(index);
-	Text.writeString(out, term);
+	// Keys sort by index before term, but the index is written after the
+	// term. The comparator skips the term using its length prefix to read
+	// the index, and compares the term's UTF-8 bytes in place without
+	// decoding them.
+	ByteBuffer termBytes = Text.encode(term);
+	VarInt.writeUnsigned(out, termBytes.limit());
+	out.write(termBytes.array(), termBytes.arrayOffset(), termBytes.limit());
+	VarInt.writeSigned(out, index);
+	// Any POSTINGS payload is only written with the value.
+	value.writeSortFields(out);
     }
 
     public int compareTo(TermKey top) {
@@ -103,57 +112,77 @@ public class TermKey implements WritableComparable<TermKey> {
 	return Integer.toString(index) + ":" + term + ":" + (value == null ? "null" : value.toString());
     }
 
-    private static final int TYPE_BYTE_OFFSET = 0;
-    private static final int V1_BYTE_OFFSET = Integer.SIZE / 8;
-    private static final int V2_BYTE_OFFSET = V1_BYTE_OFFSET + Long.SIZE / 8;
-    private static final int INDEX_BYTE_OFFSET = V2_BYTE_OFFSET + Integer.SIZE / 8;
-    private static final int TERM_BYTE_OFFSET = INDEX_BYTE_OFFSET + Integer.SIZE / 8;
+    /**
+     * Compares the index and then the term of two serialized keys. The index
+     * is read by skipping over the length prefixed term.
+     * 
+     * @param offsets
+     *            set to the offsets of the values in b1 and b2 when the index
+     *            and term are equal.
+     */
+    private static int compareIndexAndTerm(byte[] b1, int s1, byte[] b2, int s2, int[] offsets) {
+	int termLength1 = (int) VarInt.readUnsigned(b1, s1);
+	int termLength2 = (int) VarInt.readUnsigned(b2, s2);
+	int termStart1 = s1 + VarInt.size(b1, s1);
+	int termStart2 = s2 + VarInt.size(b2, s2);
+	int indexStart1 = termStart1 + termLength1;
+	int indexStart2 = termStart2 + termLength2;
+
+	// Compare the index
+	long index1 = VarInt.readSigned(b1, indexStart1);
+	long index2 = VarInt.readSigned(b2, indexStart2);
+	if (index1 != index2) {
+	    return index1 < index2 ? -1 : 1;
+	}
+	// Compare the term
+	int d = WritableComparator.compareBytes(b1, termStart1, termLength1, b2, termStart2, termLength2);
+	if (d == 0 && offsets != null) {
+	    offsets[0] = indexStart1 + VarInt.size(b1, indexStart1);
+	    offsets[1] = indexStart2 + VarInt.size(b2, indexStart2);
+	}
+	return d;
+    }
 
-    /** A Comparator that compares serialized TermKey objects. */
+    /**
+     * A Comparator that compares serialized TermKey objects.
+     * 
+     * A key is serialized as the term's length as a varint, the term's UTF-8
+     * bytes, the index and then the value's type as a byte and v1 and v2.
+     * Numbers are zig-zag varints. Keys are sorted by index, term, type, v1 and
+     * v2.
+     */
     public static class Comparator extends WritableComparator {
+	// Hadoop uses a comparator instance from a single thread.
+	private final int[] offsets = new int[2];
+
 	public Comparator() {
 	    super(TermKey.class, true);
 	}
 
 	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
-	    // Compare the index
-	    int index1 = WritableComparator.readInt(b1, s1 + INDEX_BYTE_OFFSET);
-	    int index2 = WritableComparator.readInt(b2, s2 + INDEX_BYTE_OFFSET);
-	    int d = index1 - index2;
-	    if (d == 0) {
-		// Compare the term
-
-		// first byte of string encodes the length of the size
-		// length1 & 2 are the byte length of the serialized strings
-		// length
-		int length1 = WritableUtils.decodeVIntSize(b1[s1 + TERM_BYTE_OFFSET]);
-		int length2 = WritableUtils.decodeVIntSize(b2[s2 + TERM_BYTE_OFFSET]);
-		d = compareBytes(b1, s1 + TERM_BYTE_OFFSET + length1, l1 - TERM_BYTE_OFFSET - length1, b2, s2 + TERM_BYTE_OFFSET + length2, l2
-			- TERM_BYTE_OFFSET - length2);
-
-		if (d == 0) {
-		    // Compare the values types
-		    int type1 = WritableComparator.readInt(b1, s1 + TYPE_BYTE_OFFSET);
-		    int type2 = WritableComparator.readInt(b2, s2 + TYPE_BYTE_OFFSET);
-		    d = type1 - type2;
-		    if (d == 0) {
-			// Compare the values v1s
-			long v11 = WritableComparator.readLong(b1, s1 + V1_BYTE_OFFSET);
-			long v12 = WritableComparator.readLong(b2, s2 + V1_BYTE_OFFSET);
-			long dl = v11 - v12;
-			if (dl != 0) {
-			    d = dl > 0 ? 1 : -1;
-			} else {
-			    // Compare the values v2s
-			    int v21 = WritableComparator.readInt(b1, s1 + V2_BYTE_OFFSET);
-			    int v22 = WritableComparator.readInt(b2, s2 + V2_BYTE_OFFSET);
-			    d = v21 - v22;
-			}
-		    }
-		}
+	    int d = compareIndexAndTerm(b1, s1, b2, s2, offsets);
+	    if (d != 0) {
+		return d;
 	    }
-
-	    return d;
+	    int p1 = offsets[0];
+	    int p2 = offsets[1];
+	    // Compare the values types
+	    d = b1[p1] - b2[p2];
+	    if (d != 0) {
+		return d;
+	    }
+	    p1++;
+	    p2++;
+	    // Compare the values v1s
+	    long v11 = VarInt.readSigned(b1, p1);
+	    long v12 = VarInt.readSigned(b2, p2);
+	    if (v11 != v12) {
+		return v11 < v12 ? -1 : 1;
+	    }
+	    // Compare the values v2s
+	    long v21 = VarInt.readSigned(b1, p1 + VarInt.size(b1, p1));
+	    long v22 = VarInt.readSigned(b2, p2 + VarInt.size(b2, p2));
+	    return v21 < v22 ? -1 : (v21 == v22 ? 0 : 1);
 	}
     }
 
@@ -166,22 +195,7 @@ public class TermKey implements WritableComparable<TermKey> {
     public static class FirstGroupingComparator implements RawComparator<TermKey> {
 
 	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
-	    // Compare the index
-	    int index1 = WritableComparator.readInt(b1, s1 + INDEX_BYTE_OFFSET);
-	    int index2 = WritableComparator.readInt(b2, s2 + INDEX_BYTE_OFFSET);
-	    int d = index1 - index2;
-	    if (d == 0) {
-		// Compare the term
-
-		// first byte of string encodes the length of the size
-		// length1 & 2 are the byte length of the serialized strings
-		// length
-		int length1 = WritableUtils.decodeVIntSize(b1[s1 + TERM_BYTE_OFFSET]);
-		int length2 = WritableUtils.decodeVIntSize(b2[s2 + TERM_BYTE_OFFSET]);
-		d = WritableComparator.compareBytes(b1, s1 + TERM_BYTE_OFFSET + length1, l1 - TERM_BYTE_OFFSET - length1, b2, s2 + TERM_BYTE_OFFSET + length2,
-			l2 - TERM_BYTE_OFFSET - length2);
-	    }
-	    return d;
+	    return compareIndexAndTerm(b1, s1, b2, s2, null);
 	}
 
 	public int compare(TermKey o1, TermKey o2) {
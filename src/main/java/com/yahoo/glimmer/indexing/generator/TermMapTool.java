@@ -0,0 +1,84 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.dsi.big.util.ImmutableExternalPrefixMap;
+import it.unimi.dsi.big.util.StringMap;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.io.FileLinesCollection;
+import it.unimi.dsi.util.Properties;
+
+import java.io.IOException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.indexing.ResourceRefTermProcessor;
+import com.yahoo.glimmer.util.ResourceIdTermMap;
+
+/**
+ * Builds the .termmap of an index from its .terms file. Fields whose terms
+ * are all resource ids(subject, predicate, context..) get a
+ * ResourceIdTermMap, other fields an ImmutableExternalPrefixMap.
+ *
+ * The resource id prefix is read from the index's properties.
+ */
+public class TermMapTool {
+    private static final Log LOG = LogFactory.getLog(TermMapTool.class);
+    private static final String BASENAME_ARG = "basename";
+
+    public static final String TERMMAP_DUMP_EXTENSION = DiskBasedIndex.TERMMAP_EXTENSION + ".dump";
+
+    public static void main(String[] args) throws IOException, ConfigurationException, JSAPException {
+	SimpleJSAP jsap = new SimpleJSAP(TermMapTool.class.getName(), "Builds the term maps of indexes.", new Parameter[] { new UnflaggedOption(
+		BASENAME_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.GREEDY, "The basenames of the indexes."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.println();
+	    System.err.println("Usage: java " + TermMapTool.class.getName());
+	    System.err.println("                " + jsap.getUsage());
+	    System.err.println();
+	    System.exit(1);
+	}
+
+	for (String basename : jsapResult.getStringArray(BASENAME_ARG)) {
+	    buildTermMap(basename);
+	}
+    }
+
+    public static StringMap<? extends CharSequence> buildTermMap(String basename) throws IOException, ConfigurationException {
+	Properties properties = new Properties(basename + DiskBasedIndex.PROPERTIES_EXTENSION);
+	String resourceIdPrefix = properties.getString(ResourceRefTermProcessor.PropertyKeys.REF_PREFIX, null);
+	FileLinesCollection terms = new FileLinesCollection(basename + DiskBasedIndex.TERMS_EXTENSION, "UTF-8");
+
+	StringMap<? extends CharSequence> termMap = null;
+	if (resourceIdPrefix != null) {
+	    termMap = ResourceIdTermMap.build(terms, resourceIdPrefix);
+	}
+	if (termMap != null) {
+	    LOG.info("Built resource id term map of " + basename + " with " + termMap.size64() + " terms.");
+	} else {
+	    termMap = new ImmutableExternalPrefixMap(terms, basename + TERMMAP_DUMP_EXTENSION);
+	}
+	BinIO.storeObject(termMap, basename + DiskBasedIndex.TERMMAP_EXTENSION);
+	return termMap;
+    }
+}
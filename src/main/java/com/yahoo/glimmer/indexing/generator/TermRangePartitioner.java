@@ -0,0 +1,236 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DefaultStringifier;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import com.yahoo.glimmer.indexing.CombinedDocumentFactory;
+import com.yahoo.glimmer.indexing.RDFDocument;
+import com.yahoo.glimmer.indexing.RDFDocumentFactory;
+import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
+import com.yahoo.glimmer.indexing.generator.TermValue.Type;
+
+/**
+ * Total order partitioner over the index and term of TermKeys.
+ *
+ * Reducer n gets all the terms between split point n - 1 and split point n,
+ * so the sub indexes written by consecutive reducers hold consecutive ranges
+ * of terms and can be concatenated rather than merged. See
+ * ConcatenateSubIndexesTool.
+ *
+ * The order has to match TermKey.Comparator, that is index first and then the
+ * term's UTF-8 bytes(which is Unicode code point order).
+ *
+ * The split points are chosen by sampling the input with sample() and passed
+ * to the tasks in the job's configuration.
+ */
+public class TermRangePartitioner extends Partitioner<TermKey, TermValue> implements Configurable {
+    private static final Log LOG = LogFactory.getLog(TermRangePartitioner.class);
+    static final String SPLIT_POINTS_KEY = "TermRangePartitioner.splitPoints";
+
+    private static final Comparator<TermKey> INDEX_TERM_ORDER = new Comparator<TermKey>() {
+	@Override
+	public int compare(TermKey o1, TermKey o2) {
+	    return TermRangePartitioner.compare(o1.getIndex(), o1.getTerm(), o2.getIndex(), o2.getTerm());
+	}
+    };
+
+    private Configuration conf;
+    private TermKey[] splitPoints;
+
+    @Override
+    public void setConf(Configuration conf) {
+	this.conf = conf;
+	if (conf.get(SPLIT_POINTS_KEY) == null) {
+	    // A single partition.
+	    splitPoints = new TermKey[0];
+	    return;
+	}
+	try {
+	    splitPoints = DefaultStringifier.loadArray(conf, SPLIT_POINTS_KEY, TermKey.class);
+	} catch (IOException e) {
+	    throw new IllegalStateException("Failed to load split points from config key " + SPLIT_POINTS_KEY, e);
+	}
+    }
+
+    @Override
+    public Configuration getConf() {
+	return conf;
+    }
+
+    @Override
+    public int getPartition(TermKey key, TermValue value, int numPartitions) {
+	if (splitPoints.length != numPartitions - 1) {
+	    throw new IllegalStateException("There are " + splitPoints.length + " split points for " + numPartitions + " partitions.");
+	}
+	// Binary search for the number of split points <= key.
+	int low = 0;
+	int high = splitPoints.length;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (INDEX_TERM_ORDER.compare(splitPoints[mid], key) <= 0) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    static int compare(int index1, String term1, int index2, String term2) {
+	if (index1 != index2) {
+	    return index1 < index2 ? -1 : 1;
+	}
+	return compareCodePoints(term1, term2);
+    }
+
+    /**
+     * Compares Strings in Unicode code point order, which is the order of
+     * their UTF-8 bytes. String.compareTo() orders supplementary characters
+     * before U+E000 to U+FFFF.
+     */
+    static int compareCodePoints(String s1, String s2) {
+	int length = Math.min(s1.length(), s2.length());
+	for (int i = 0; i < length; i++) {
+	    char c1 = s1.charAt(i);
+	    char c2 = s2.charAt(i);
+	    if (c1 != c2) {
+		if (c1 >= Character.MIN_SURROGATE && c2 >= Character.MIN_SURROGATE) {
+		    // Move the surrogates above U+E000 to U+FFFF.
+		    c1 += c1 >= 0xE000 ? -0x800 : 0x2000;
+		    c2 += c2 >= 0xE000 ? -0x800 : 0x2000;
+		}
+		return c1 - c2;
+	    }
+	}
+	return s1.length() - s2.length();
+    }
+
+    public static void setSplitPoints(Configuration conf, TermKey[] splitPoints) throws IOException {
+	DefaultStringifier.storeArray(conf, splitPoints, SPLIT_POINTS_KEY);
+    }
+
+    /**
+     * Picks numPartitions - 1 split points from the sorted sample so that each
+     * partition gets about the same number of sampled occurrences.
+     */
+    static TermKey[] getSplitPoints(List<TermKey> sample, int numPartitions) {
+	Collections.sort(sample, INDEX_TERM_ORDER);
+	TermKey[] splitPoints = new TermKey[numPartitions - 1];
+	for (int i = 0; i < splitPoints.length; i++) {
+	    TermKey sampled = sample.get((int) ((long) sample.size() * (i + 1) / numPartitions));
+	    splitPoints[i] = new TermKey(sampled.getTerm(), sampled.getIndex(), new TermValue(Type.TERM_STATS, 0, 0));
+	}
+	return splitPoints;
+    }
+
+    /**
+     * Samples the term occurrences of the first records of up to maxSplits of
+     * the jobs input splits and sets split points in the jobs configuration.
+     * The jobs configuration has to be set up for the RDFDocumentFactory
+     * already.
+     */
+    public static void sample(Job job, int maxSplits, int recordsPerSplit) throws IOException, InterruptedException {
+	Configuration conf = job.getConfiguration();
+	int numPartitions = job.getNumReduceTasks();
+	if (numPartitions <= 1) {
+	    return;
+	}
+
+	TextInputFormat inputFormat = new TextInputFormat();
+	List<InputSplit> splits = inputFormat.getSplits(job);
+	if (splits.isEmpty()) {
+	    // No input so no map output to partition.
+	    LOG.info("No input splits to sample.");
+	    return;
+	}
+
+	String[] fields = RDFDocumentFactory.getFieldsFromConf(conf);
+	RDFDocument doc = RDFDocumentFactory.buildFactory(conf).getDocument();
+	int splitsToSample = Math.min(maxSplits, splits.size());
+	int step = splits.size() / splitsToSample;
+
+	List<TermKey> sample = new ArrayList<TermKey>();
+	MutableString term = new MutableString();
+	MutableString nonWord = new MutableString();
+	for (int i = 0; i < splitsToSample; i++) {
+	    InputSplit split = splits.get(i * step);
+	    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+	    RecordReader<LongWritable, Text> reader = inputFormat.createRecordReader(split, context);
+	    reader.initialize(split, context);
+	    int records = 0;
+	    while (records < recordsPerSplit && reader.nextKeyValue()) {
+		// Records without a subject count too so that the whole split
+		// isn't read when few records have one.
+		records++;
+		Text record = reader.getCurrentValue();
+		doc.setContent(record.getBytes(), record.getLength());
+		if (doc.getSubject() == null) {
+		    continue;
+		}
+		for (int indexId = 0; indexId < fields.length; indexId++) {
+		    if (fields[indexId].startsWith("NOINDEX")) {
+			continue;
+		    }
+		    IndexType indexType = doc.getIndexType();
+		    if (indexType == IndexType.COMBINED) {
+			indexType = CombinedDocumentFactory.getFieldIndexType(indexId);
+		    }
+		    WordReader termReader = doc.content(indexId);
+		    while (termReader.next(term, nonWord)) {
+			if (term.length() > 0) {
+			    String termString = term.toString();
+			    sample.add(new TermKey(termString, indexId, null));
+			    if (indexType == IndexType.VERTICAL) {
+				sample.add(new TermKey(termString, DocumentMapper.ALIGNMENT_INDEX, null));
+			    }
+			}
+		    }
+		}
+	    }
+	    reader.close();
+	}
+	LOG.info("Sampled " + sample.size() + " term occurrences from " + splitsToSample + " of " + splits.size() + " splits.");
+
+	if (sample.isEmpty()) {
+	    throw new IllegalStateException("No terms found when sampling the input.");
+	}
+	TermKey[] splitPoints = getSplitPoints(sample, numPartitions);
+	for (TermKey splitPoint : splitPoints) {
+	    LOG.info("Split point " + splitPoint.getIndex() + ":" + splitPoint.getTerm());
+	}
+	setSplitPoints(conf, splitPoints);
+    }
+}
@@ -17,6 +17,8 @@ import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Reducer;
 
@@ -32,6 +34,10 @@ public class TermReduce extends Reducer<TermKey, TermValue, IntWritable, IndexRe
     private IndexRecordWriterDocValue writerDocValue;
     private IndexRecordWriterSizeValue writerSizeValue;
     private ArrayList<Long> predicatedIds;
+    private int[] positions;
+    private DataOutputBuffer postingsBuffer;
+    private DataInputBuffer postingsInput;
+    private TermValue postingsValue;
     private long termKeysProcessed;
 
     @Override
@@ -42,6 +48,10 @@ public class TermReduce extends Reducer<TermKey, TermValue, IntWritable, IndexRe
 	writerDocValue = new IndexRecordWriterDocValue();
 	writerSizeValue = new IndexRecordWriterSizeValue();
 	predicatedIds = new ArrayList<Long>();
+	positions = new int[4096];
+	postingsBuffer = new DataOutputBuffer();
+	postingsInput = new DataInputBuffer();
+	postingsValue = new TermValue();
     };
 
     @Override
@@ -114,6 +124,12 @@ public class TermReduce extends Reducer<TermKey, TermValue, IntWritable, IndexRe
 		sumOfMaxTermPositions += value.getV2();
 	    }
 
+	    if (Type.POSTINGS == value.getType() && termFrequency == 0) {
+		// The mapper aggregated the postings and wrote no TERM_STATS.
+		writePostings(key, value, valuesIt, context);
+		termKeysProcessed++;
+		return;
+	    }
 	    if (Type.OCCURRENCE != value.getType()) {
 		throw new IllegalStateException("Got a " + value.getType() + " value when expecting only " + Type.OCCURRENCE);
 	    }
@@ -184,4 +200,60 @@ public class TermReduce extends Reducer<TermKey, TermValue, IntWritable, IndexRe
 	}
 	termKeysProcessed++;
     }
-}
\ No newline at end of file
+
+    /**
+     * The mapper has already aggregated the positions of each doc, so there is
+     * one POSTINGS value per doc. The term's stats are summed from the values,
+     * so the values are kept in serialized form until the stats have been
+     * written.
+     */
+    private void writePostings(TermKey key, TermValue value, Iterator<TermValue> valuesIt, Context context) throws IOException, InterruptedException {
+	int termFrequency = 0;
+	int termCount = 0;
+	long sumOfMaxTermPositions = 0;
+	postingsBuffer.reset();
+	long prevDocId = -1;
+	while (true) {
+	    if (Type.POSTINGS != value.getType()) {
+		throw new IllegalStateException("Got a " + value.getType() + " value when expecting only " + Type.POSTINGS);
+	    }
+	    long docId = value.getV1();
+	    if (docId < 0) {
+		throw new IllegalStateException("Negative DocID. Key:" + key + "\nValue:" + value);
+	    }
+	    if (docId == prevDocId) {
+		throw new IllegalStateException("For indexId " + key.getIndex() + " and term " + key.getTerm() + " got a duplicate posting " + value.toString());
+	    }
+	    termFrequency++;
+	    termCount += value.getV2();
+	    sumOfMaxTermPositions += value.getLastPosition();
+	    value.write(postingsBuffer);
+
+	    prevDocId = docId;
+	    if (!valuesIt.hasNext()) {
+		break;
+	    }
+	    value = valuesIt.next();
+	}
+
+	writerTermValue.setTerm(key.getTerm());
+	writerTermValue.setOccurrenceCount(termCount);
+	writerTermValue.setTermFrequency(termFrequency);
+	writerTermValue.setSumOfMaxTermPositions(sumOfMaxTermPositions);
+	context.write(writerKey, writerTermValue);
+
+	postingsInput.reset(postingsBuffer.getData(), postingsBuffer.getLength());
+	for (int posting = 0; posting < termFrequency; posting++) {
+	    postingsValue.readFields(postingsInput);
+	    positions = postingsValue.getPositions(positions);
+
+	    writerDocValue.clearOccerrences();
+	    writerDocValue.setDocument(postingsValue.getV1());
+	    for (int i = 0; i < postingsValue.getV2(); i++) {
+		writerDocValue.addOccurrence(positions[i]);
+	    }
+	    context.write(writerKey, writerDocValue);
+	    writerDocValue.clearOccerrences();
+	}
+    }
+}
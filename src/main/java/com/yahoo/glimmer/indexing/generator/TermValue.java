@@ -14,6 +14,7 @@ package com.yahoo.glimmer.indexing.generator;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.WritableComparable;
 
@@ -31,8 +32,9 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
      */
     public enum Type {
 	/**
-	 * For every doc a DOC_STATS is written. v1 = term occurrence count in
-	 * doc. v2 = position of last term occurrence.
+	 * For every doc a DOC_STATS is written when the mapper doesn't aggregate
+	 * postings. v1 = term occurrence count in doc. v2 = position of last term
+	 * occurrence.
 	 */
 	TERM_STATS,
 
@@ -47,8 +49,16 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	 * = terms position.
 	 */
 	OCCURRENCE,
-	
-	
+
+	/**
+	 * Used instead of TERM_STATS and OCCURRENCE when the mapper aggregates
+	 * postings. For every term in every doc a single POSTINGS is written. v1
+	 * = doc id, v2 = number of positions. The position of the last occurrence
+	 * and the positions themselves, delta and varint encoded, are in the
+	 * values payload.
+	 */
+	POSTINGS,
+
 	/**
 	 * To generate the doc sizes for each index we need to know the number of terms per doc per index.
 	 * Unlike the other types the term here is irrelevant. And will be set to TermKey.DOC_SIZE_TERM.
@@ -59,9 +69,17 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	DOC_SIZE;
     }
 
+    private static final Type[] TYPES = Type.values();
+
     private Type type;
     private long v1;
     private int v2;
+    // Only used for POSTINGS.
+    private byte[] payload = EMPTY_PAYLOAD;
+    private int payloadLength;
+    private int lastPosition;
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
 
     public TermValue(Type type, long v1) {
 	if (type != Type.INDEX_ID) {
@@ -80,6 +98,20 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	this.v2 = v2;
     }
 
+    /**
+     * Creates a POSTINGS value.
+     * 
+     * @param docId
+     * @param positions
+     *            in ascending order.
+     * @param count
+     *            the number of positions to take from the positions array.
+     */
+    public TermValue(long docId, int[] positions, int count) {
+	this.type = Type.POSTINGS;
+	setPositions(docId, positions, count);
+    }
+
     public TermValue() {
     }
 
@@ -91,6 +123,70 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	type = that.type;
 	v1 = that.v1;
 	v2 = that.v2;
+	if (that.payloadLength > payload.length) {
+	    payload = new byte[that.payloadLength];
+	}
+	System.arraycopy(that.payload, 0, payload, 0, that.payloadLength);
+	payloadLength = that.payloadLength;
+	lastPosition = that.lastPosition;
+    }
+
+    /**
+     * Sets this value to a POSTINGS value reusing the payload buffer.
+     */
+    public void setPositions(long docId, int[] positions, int count) {
+	type = Type.POSTINGS;
+	v1 = docId;
+	v2 = count;
+	if (payload.length < count * VarInt.MAX_INT_SIZE) {
+	    payload = new byte[count * VarInt.MAX_INT_SIZE];
+	}
+	payloadLength = 0;
+	int last = 0;
+	for (int i = 0; i < count; i++) {
+	    int delta = positions[i] - last;
+	    if (delta < 0 || (i > 0 && delta == 0)) {
+		throw new IllegalArgumentException("Positions are not in ascending order. " + Arrays.toString(Arrays.copyOf(positions, count)));
+	    }
+	    payloadLength = VarInt.writeUnsigned(payload, payloadLength, delta);
+	    last = positions[i];
+	}
+	lastPosition = last;
+    }
+
+    /**
+     * Decodes the positions of a POSTINGS value.
+     * 
+     * @param positions
+     *            array to decode into. If it's too small a new one is
+     *            allocated.
+     * @return the array holding the getV2() positions.
+     */
+    public int[] getPositions(int[] positions) {
+	if (type != Type.POSTINGS) {
+	    throw new IllegalStateException("Type " + type + " doesn't have positions.");
+	}
+	if (positions == null || positions.length < v2) {
+	    positions = new int[v2];
+	}
+	int offset = 0;
+	int last = 0;
+	for (int i = 0; i < v2; i++) {
+	    last += (int) VarInt.readUnsigned(payload, offset);
+	    offset += VarInt.size(payload, offset);
+	    positions[i] = last;
+	}
+	return positions;
+    }
+
+    /**
+     * @return the position of the last occurrence of a POSTINGS value.
+     */
+    public int getLastPosition() {
+	if (type != Type.POSTINGS) {
+	    throw new IllegalStateException("Type " + type + " doesn't have positions.");
+	}
+	return lastPosition;
     }
 
     public Type getType() {
@@ -106,22 +202,62 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
     }
 
     public void readFields(DataInput in) throws IOException {
-	type = Type.values()[in.readInt()];
-	v1 = in.readLong();
-	v2 = in.readInt();
+	readSortFields(in);
+	if (type == Type.POSTINGS) {
+	    lastPosition = (int) VarInt.readUnsigned(in);
+	    payloadLength = (int) VarInt.readUnsigned(in);
+	    if (payload.length < payloadLength) {
+		payload = new byte[payloadLength];
+	    }
+	    in.readFully(payload, 0, payloadLength);
+	} else {
+	    payloadLength = 0;
+	}
     }
 
     public void write(DataOutput out) throws IOException {
-	out.writeInt(type.ordinal());
-	out.writeLong(v1);
-	out.writeInt(v2);
+	writeSortFields(out);
+	if (type == Type.POSTINGS) {
+	    VarInt.writeUnsigned(out, lastPosition);
+	    VarInt.writeUnsigned(out, payloadLength);
+	    out.write(payload, 0, payloadLength);
+	}
+    }
+
+    /**
+     * Only the fields used for sorting. Written by TermKey so that the
+     * positions payload isn't duplicated in the map output key.
+     * 
+     * The type is a single byte followed by v1 and v2 as zig-zag varints. See
+     * TermKey.Comparator.
+     */
+    void readSortFields(DataInput in) throws IOException {
+	type = TYPES[in.readByte()];
+	v1 = VarInt.readSigned(in);
+	v2 = (int) VarInt.readSigned(in);
+	payloadLength = 0;
+	lastPosition = 0;
+    }
+
+    void writeSortFields(DataOutput out) throws IOException {
+	out.writeByte(type.ordinal());
+	VarInt.writeSigned(out, v1);
+	VarInt.writeSigned(out, v2);
     }
 
     @Override
     public boolean equals(Object o) {
 	if (o instanceof TermValue) {
 	    TermValue that = (TermValue) o;
-	    return type == that.type && v1 == that.v1 && v2 == that.v2;
+	    if (type != that.type || v1 != that.v1 || v2 != that.v2 || payloadLength != that.payloadLength || lastPosition != that.lastPosition) {
+		return false;
+	    }
+	    for (int i = 0; i < payloadLength; i++) {
+		if (payload[i] != that.payload[i]) {
+		    return false;
+		}
+	    }
+	    return true;
 	}
 	return false;
     }
@@ -136,6 +272,9 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
     }
 
     public String toString() {
+	if (type == Type.POSTINGS) {
+	    return type.name() + "(" + v1 + "," + Arrays.toString(getPositions(null)) + ")";
+	}
 	return type.name() + "(" + v1 + "," + v2 + ")";
     }
 
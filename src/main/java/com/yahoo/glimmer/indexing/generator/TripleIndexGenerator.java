@@ -11,6 +11,8 @@ package com.yahoo.glimmer.indexing.generator;
  *  See accompanying LICENSE file.
  */
 
+import java.io.IOException;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
@@ -30,6 +32,7 @@ import com.martiansoftware.jsap.Parameter;
 import com.martiansoftware.jsap.SimpleJSAP;
 import com.martiansoftware.jsap.Switch;
 import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.indexing.CombinedDocumentFactory;
 import com.yahoo.glimmer.indexing.HorizontalDocumentFactory;
 import com.yahoo.glimmer.indexing.VerticalDocumentFactory;
 
@@ -41,17 +44,28 @@ public class TripleIndexGenerator extends Configured implements Tool {
     private static final String METHOD_ARG = "method";
     private static final String METHOD_ARG_VALUE_VERTICAL = "vertical";
     private static final String METHOD_ARG_VALUE_HORIZONTAL = "horizontal";
+    private static final String METHOD_ARG_VALUE_COMBINED = "combined";
     private static final String PREDICATES_ARG = "properties";
     private static final String NO_CONTEXTS_ARG = "noContexts";
     private static final String RESOURCE_PREFIX_ARG = "resourcePrefix";
     private static final String RESOURCES_HASH_ARG = "resourcesHash";
+    private static final String AGGREGATE_POSTINGS_ARG = "aggregatePostings";
+    private static final String RANGE_PARTITION_ARG = "rangePartition";
+    private static final String QUASI_SUCCINCT_ARG = "quasiSuccinct";
+    private static final String WRITER_MEMORY_ARG = "writerMemoryMB";
+    static final int SAMPLE_MAX_SPLITS = 20;
+    static final int SAMPLE_RECORDS_PER_SPLIT = 1000;
 
     // Job configuration attribute names
     static final String OUTPUT_DIR = "OUTPUT_DIR";
     static final String NUMBER_OF_DOCUMENTS = "numberOfDocs";
     static final String ALIGNMENT_INDEX_NAME = "alignment";
     static final String METHOD = "method";
+    /** The largest buffer size of a single index writer. */
     static final String INDEX_WRITER_CACHE_SIZE = "indexWriterCacheSize";
+    /** The memory in bytes shared by the buffers of a reducer's index writers. */
+    static final String INDEX_WRITER_MEMORY = "indexWriterMemory";
+    static final String QUASI_SUCCINCT = "quasiSuccinct";
 
 
     static { // register comparator
@@ -61,11 +75,19 @@ public class TripleIndexGenerator extends Configured implements Tool {
     public int run(String[] args) throws Exception {
 	SimpleJSAP jsap = new SimpleJSAP(TripleIndexGenerator.class.getName(), "Generates a keyword index from RDF data.", new Parameter[] {
 		new Switch(NO_CONTEXTS_ARG, 'C', "withoutContexts", "Don't process the contexts for each tuple."),
-		new FlaggedOption(METHOD_ARG, JSAP.STRING_PARSER, "horizontal", JSAP.REQUIRED, 'm', METHOD_ARG, "horizontal or vertical."),
+		new Switch(AGGREGATE_POSTINGS_ARG, 'A', AGGREGATE_POSTINGS_ARG,
+			"Aggregate the positions of each term in a doc in the mapper. Greatly reduces the map output size."),
+		new Switch(RANGE_PARTITION_ARG, 'R', RANGE_PARTITION_ARG,
+			"Partition the terms by sampled ranges so that the sub indexes can be concatenated with ConcatenateSubIndexesTool instead of merged."),
+		new Switch(QUASI_SUCCINCT_ARG, 'Q', QUASI_SUCCINCT_ARG, "Write quasi succinct indexes instead of gamma/delta coded bit stream indexes."),
+		new FlaggedOption(METHOD_ARG, JSAP.STRING_PARSER, "horizontal", JSAP.REQUIRED, 'm', METHOD_ARG,
+			"horizontal, vertical or combined. Combined builds both in one pass into the output's horizontal and vertical dirs."),
 		new FlaggedOption(PREDICATES_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'p', PREDICATES_ARG,
 			"Subset of the properties to be indexed."),
 		new FlaggedOption(RESOURCE_PREFIX_ARG, JSAP.STRING_PARSER, "@", JSAP.NOT_REQUIRED, 'r', RESOURCE_PREFIX_ARG,
 			"Prefix to add to object resource hash values when indexing. Stops queries for numbers matching resource hash values. Default is '@'"),
+		new FlaggedOption(WRITER_MEMORY_ARG, JSAP.INTEGER_PARSER, Long.toString(IndexRecordWriter.DEFAULT_WRITER_MEMORY / (1024 * 1024)), JSAP.NOT_REQUIRED,
+			'w', WRITER_MEMORY_ARG, "Memory in MB for the write buffers of the index a reducer is writing. A reducer writes its indexes one at a time."),
 
 		new UnflaggedOption("input", JSAP.STRING_PARSER, JSAP.REQUIRED, "HDFS location for the input data."),
 		new UnflaggedOption(NUMBER_OF_DOCS_ARG, JSAP.LONG_PARSER, JSAP.REQUIRED, "Number of documents to index"),
@@ -85,39 +107,21 @@ public class TripleIndexGenerator extends Configured implements Tool {
 	    System.exit(1);
 	}
 
-	Job job = Job.getInstance(getConf());
-	job.setJarByClass(TripleIndexGenerator.class);
-	job.setJobName("TripleIndexGenerator" + System.currentTimeMillis());
-
-	FileInputFormat.setInputPaths(job, new Path(jsapResult.getString("input")));
-	job.setInputFormatClass(TextInputFormat.class);
-
-	job.setMapperClass(DocumentMapper.class);
-	job.setMapOutputKeyClass(TermKey.class);
-	job.setMapOutputValueClass(TermValue.class);
-
-	job.setPartitionerClass(TermKey.FirstPartitioner.class);
-	job.setGroupingComparatorClass(TermKey.FirstGroupingComparator.class);
-
-	job.setReducerClass(TermReduce.class);
-	job.setOutputKeyClass(IntWritable.class);
-	job.setOutputValueClass(IndexRecordWriterValue.class);
-	job.setOutputFormatClass(IndexRecordWriter.OutputFormat.class);
-	FileOutputFormat.setOutputPath(job, new Path(jsapResult.getString("output")));
-
+	Job job = createJob(getConf(), new Path(jsapResult.getString("input")), new Path(jsapResult.getString("output")));
 	Configuration conf = job.getConfiguration();
 
-	conf.setClass("mapred.output.key.comparator.class", TermKey.Comparator.class, WritableComparator.class);
-	conf.set("mapreduce.user.classpath.first", "true");
-
 	long numDocs = jsapResult.getLong(NUMBER_OF_DOCS_ARG);
 	conf.setLong(NUMBER_OF_DOCUMENTS, numDocs);
-	// Set this in a attempt to get around the 2GB of ram task limit on our cluster.
-	// Setting this in the hope of fixing Direct buffer memory errors
-	conf.setInt(INDEX_WRITER_CACHE_SIZE, 1024 * 1024);
+	// Only one index is open at a time and its buffers, some of them
+	// direct, get the whole budget. So the number of vertical indexes
+	// doesn't change a reducer's memory use.
+	conf.setLong(INDEX_WRITER_MEMORY, jsapResult.getInt(WRITER_MEMORY_ARG) * 1024l * 1024);
 
 	conf.set(OUTPUT_DIR, jsapResult.getString("output"));
 
+	conf.setBoolean(DocumentMapper.AGGREGATE_POSTINGS, jsapResult.getBoolean(AGGREGATE_POSTINGS_ARG, false));
+	conf.setBoolean(QUASI_SUCCINCT, jsapResult.getBoolean(QUASI_SUCCINCT_ARG, false));
+
 	boolean withContexts = !jsapResult.getBoolean(NO_CONTEXTS_ARG, false);
 	if (jsapResult.getString(METHOD_ARG).equalsIgnoreCase(METHOD_ARG_VALUE_HORIZONTAL)) {
 	    HorizontalDocumentFactory.setupConf(conf, withContexts, jsapResult.getString(RESOURCES_HASH_ARG), jsapResult.getString(RESOURCE_PREFIX_ARG));
@@ -126,17 +130,60 @@ public class TripleIndexGenerator extends Configured implements Tool {
 		throw new IllegalArgumentException("When '" + METHOD_ARG + "' is '" + METHOD_ARG_VALUE_VERTICAL + "' you have to give a predicates file too.");
 	    }
 	    VerticalDocumentFactory.setupConf(conf, withContexts, jsapResult.getString(RESOURCES_HASH_ARG), jsapResult.getString(RESOURCE_PREFIX_ARG), jsapResult.getString(PREDICATES_ARG));
+	} else if (jsapResult.getString(METHOD_ARG).equalsIgnoreCase(METHOD_ARG_VALUE_COMBINED)) {
+	    if (!jsapResult.contains(PREDICATES_ARG)) {
+		throw new IllegalArgumentException("When '" + METHOD_ARG + "' is '" + METHOD_ARG_VALUE_COMBINED + "' you have to give a predicates file too.");
+	    }
+	    CombinedDocumentFactory.setupConf(conf, withContexts, jsapResult.getString(RESOURCES_HASH_ARG), jsapResult.getString(RESOURCE_PREFIX_ARG), jsapResult.getString(PREDICATES_ARG));
 	} else {
-	    throw new IllegalArgumentException(METHOD_ARG + " should be '" + METHOD_ARG_VALUE_HORIZONTAL + "' or '" + METHOD_ARG_VALUE_VERTICAL + "'");
+	    throw new IllegalArgumentException(METHOD_ARG + " should be '" + METHOD_ARG_VALUE_HORIZONTAL + "', '" + METHOD_ARG_VALUE_VERTICAL + "' or '"
+		    + METHOD_ARG_VALUE_COMBINED + "'");
 	}
 
-	conf.setInt("mapreduce.input.linerecordreader.line.maxlength", 1024 * 1024);
+	if (jsapResult.getBoolean(RANGE_PARTITION_ARG, false)) {
+	    // Needs the conf set up for the document factory.
+	    TermRangePartitioner.sample(job, SAMPLE_MAX_SPLITS, SAMPLE_RECORDS_PER_SPLIT);
+	    job.setPartitionerClass(TermRangePartitioner.class);
+	}
 
 	boolean success = job.waitForCompletion(true);
 
 	return success ? 0 : 1;
     }
 
+    /**
+     * Sets up the job's classes. The caller still has to set up the conf for
+     * the RDFDocumentFactory and the number of documents. Also used by the
+     * LocalIndexBuilder to run the job without a cluster.
+     */
+    public static Job createJob(Configuration conf, Path input, Path output) throws IOException {
+	Job job = Job.getInstance(conf);
+	job.setJarByClass(TripleIndexGenerator.class);
+	job.setJobName("TripleIndexGenerator" + System.currentTimeMillis());
+
+	FileInputFormat.setInputPaths(job, input);
+	job.setInputFormatClass(TextInputFormat.class);
+
+	job.setMapperClass(DocumentMapper.class);
+	job.setMapOutputKeyClass(TermKey.class);
+	job.setMapOutputValueClass(TermValue.class);
+
+	job.setPartitionerClass(TermKey.FirstPartitioner.class);
+	job.setGroupingComparatorClass(TermKey.FirstGroupingComparator.class);
+
+	job.setReducerClass(TermReduce.class);
+	job.setOutputKeyClass(IntWritable.class);
+	job.setOutputValueClass(IndexRecordWriterValue.class);
+	job.setOutputFormatClass(IndexRecordWriter.OutputFormat.class);
+	FileOutputFormat.setOutputPath(job, output);
+
+	Configuration jobConf = job.getConfiguration();
+	jobConf.setClass("mapred.output.key.comparator.class", TermKey.Comparator.class, WritableComparator.class);
+	jobConf.set("mapreduce.user.classpath.first", "true");
+	jobConf.setInt("mapreduce.input.linerecordreader.line.maxlength", 1024 * 1024);
+	return job;
+    }
+
     public static void main(String[] args) throws Exception {
 	int ret = ToolRunner.run(new TripleIndexGenerator(), args);
 	System.exit(ret);
@@ -0,0 +1,110 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Little endian base 128 varints as used in the map output of the
+ * TripleIndexGenerator. Signed values are zig-zag encoded first so that small
+ * negative numbers(the alignment index) are also short.
+ *
+ * Unlike Hadoop's WritableUtils vints, a value's size can be found from the
+ * continuation bits without decoding it, which is what the raw comparators
+ * need.
+ */
+class VarInt {
+    /** The maximum number of bytes a long takes. */
+    static final int MAX_LONG_SIZE = 10;
+    /** The maximum number of bytes an int takes. */
+    static final int MAX_INT_SIZE = 5;
+
+    private VarInt() {
+    }
+
+    static long zigZag(long value) {
+	return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+	return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeUnsigned(DataOutput out, long value) throws IOException {
+	while ((value & ~0x7FL) != 0) {
+	    out.writeByte((int) ((value & 0x7F) | 0x80));
+	    value >>>= 7;
+	}
+	out.writeByte((int) value);
+    }
+
+    /**
+     * @return the offset after the written bytes.
+     */
+    static int writeUnsigned(byte[] buffer, int offset, long value) {
+	while ((value & ~0x7FL) != 0) {
+	    buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+	    value >>>= 7;
+	}
+	buffer[offset++] = (byte) value;
+	return offset;
+    }
+
+    static long readUnsigned(DataInput in) throws IOException {
+	long value = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    b = in.readByte();
+	    value |= (long) (b & 0x7F) << shift;
+	    shift += 7;
+	} while (b < 0);
+	return value;
+    }
+
+    static long readUnsigned(byte[] buffer, int offset) {
+	long value = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    b = buffer[offset++];
+	    value |= (long) (b & 0x7F) << shift;
+	    shift += 7;
+	} while (b < 0);
+	return value;
+    }
+
+    static void writeSigned(DataOutput out, long value) throws IOException {
+	writeUnsigned(out, zigZag(value));
+    }
+
+    static long readSigned(DataInput in) throws IOException {
+	return unZigZag(readUnsigned(in));
+    }
+
+    static long readSigned(byte[] buffer, int offset) {
+	return unZigZag(readUnsigned(buffer, offset));
+    }
+
+    /**
+     * @return the number of bytes of the varint starting at offset.
+     */
+    static int size(byte[] buffer, int offset) {
+	int size = 1;
+	while (buffer[offset++] < 0) {
+	    size++;
+	}
+	return size;
+    }
+}
@@ -0,0 +1,271 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Pattern with the same find() result, but when the regex is only an
+ * alternation of literals like "^http://a/|^http://b/|/c" it's
+ * compiled into a trie of the '^' anchored literals and an Aho-Corasick
+ * automaton of the others. Then each find() is one scan of the text whatever
+ * the number of literals. Other regexs are run with a reused Matcher.
+ *
+ * Not thread safe.
+ */
+public abstract class CompiledPattern {
+    /** Chars that make a regex more than literals. '^' and '|' are handled. */
+    private static final String META_CHARS = "[](){}.*+?^$";
+
+    private final Pattern pattern;
+
+    private CompiledPattern(Pattern pattern) {
+	this.pattern = pattern;
+    }
+
+    public static CompiledPattern compile(Pattern pattern) {
+	if (pattern.flags() == 0) {
+	    List<String> prefixes = new ArrayList<String>();
+	    List<String> substrings = new ArrayList<String>();
+	    if (parseLiterals(pattern.pattern(), prefixes, substrings)) {
+		return new LiteralsPattern(pattern, prefixes, substrings);
+	    }
+	}
+	return new RegexPattern(pattern);
+    }
+
+    public abstract boolean find(CharSequence text);
+
+    public abstract boolean isLiterals();
+
+    public Pattern getPattern() {
+	return pattern;
+    }
+
+    @Override
+    public String toString() {
+	return pattern.toString();
+    }
+
+    /**
+     * Splits the regex into its '^' anchored and unanchored literals.
+     *
+     * @return false if the regex is more than an alternation of literals.
+     */
+    static boolean parseLiterals(String regex, List<String> prefixes, List<String> substrings) {
+	StringBuilder literal = new StringBuilder();
+	boolean anchored = false;
+	boolean atStart = true;
+	for (int i = 0; i <= regex.length(); i++) {
+	    if (i == regex.length() || regex.charAt(i) == '|') {
+		(anchored ? prefixes : substrings).add(literal.toString());
+		literal.setLength(0);
+		anchored = false;
+		atStart = true;
+		continue;
+	    }
+	    char c = regex.charAt(i);
+	    if (c == '\\') {
+		// A backslash before a letter or digit is a class, back reference..
+		if (++i == regex.length() || Character.isLetterOrDigit(regex.charAt(i))) {
+		    return false;
+		}
+		literal.append(regex.charAt(i));
+	    } else if (c == '^' && atStart) {
+		anchored = true;
+	    } else if (META_CHARS.indexOf(c) >= 0) {
+		return false;
+	    } else {
+		literal.append(c);
+	    }
+	    atStart = false;
+	}
+	return true;
+    }
+
+    private static class RegexPattern extends CompiledPattern {
+	private final Matcher matcher;
+
+	public RegexPattern(Pattern pattern) {
+	    super(pattern);
+	    matcher = pattern.matcher("");
+	}
+
+	@Override
+	public boolean find(CharSequence text) {
+	    return matcher.reset(text).find();
+	}
+
+	@Override
+	public boolean isLiterals() {
+	    return false;
+	}
+    }
+
+    private static class LiteralsPattern extends CompiledPattern {
+	private final Trie prefixes;
+	private final Trie substrings;
+
+	public LiteralsPattern(Pattern pattern, List<String> prefixes, List<String> substrings) {
+	    super(pattern);
+	    this.prefixes = prefixes.isEmpty() ? null : new Trie(prefixes, false);
+	    this.substrings = substrings.isEmpty() ? null : new Trie(substrings, true);
+	}
+
+	@Override
+	public boolean find(CharSequence text) {
+	    return (prefixes != null && prefixes.startsAny(text)) || (substrings != null && substrings.containsAny(text));
+	}
+
+	@Override
+	public boolean isLiterals() {
+	    return true;
+	}
+    }
+
+    /**
+     * Node 0 is the root. Each node's children are kept as sorted arrays of
+     * chars and the matching node numbers.
+     */
+    static class Trie {
+	private final char[][] labels;
+	private final int[][] children;
+	/** The nodes at the end of a literal. */
+	private final boolean[] ends;
+	/**
+	 * For an Aho-Corasick automaton the node of the longest proper suffix
+	 * of each node, otherwise null.
+	 */
+	private final int[] fails;
+
+	public Trie(List<String> literals, boolean withFails) {
+	    List<TreeMap<Character, Integer>> nodes = new ArrayList<TreeMap<Character, Integer>>();
+	    nodes.add(new TreeMap<Character, Integer>());
+	    BitSet endNodes = new BitSet();
+	    for (String literal : literals) {
+		int node = 0;
+		for (int i = 0; i < literal.length(); i++) {
+		    Integer child = nodes.get(node).get(literal.charAt(i));
+		    if (child == null) {
+			child = nodes.size();
+			nodes.get(node).put(literal.charAt(i), child);
+			nodes.add(new TreeMap<Character, Integer>());
+		    }
+		    node = child;
+		}
+		endNodes.set(node);
+	    }
+
+	    int size = nodes.size();
+	    labels = new char[size][];
+	    children = new int[size][];
+	    ends = new boolean[size];
+	    for (int node = 0; node < size; node++) {
+		TreeMap<Character, Integer> nodeChildren = nodes.get(node);
+		labels[node] = new char[nodeChildren.size()];
+		children[node] = new int[nodeChildren.size()];
+		int i = 0;
+		for (Map.Entry<Character, Integer> entry : nodeChildren.entrySet()) {
+		    labels[node][i] = entry.getKey();
+		    children[node][i] = entry.getValue();
+		    i++;
+		}
+		ends[node] = endNodes.get(node);
+	    }
+
+	    if (withFails) {
+		fails = new int[size];
+		// Breadth first, so that the fail of each parent is set before
+		// its children. The root's children fail to the root.
+		int[] queue = new int[size];
+		int head = 0;
+		int tail = 0;
+		for (int child : children[0]) {
+		    queue[tail++] = child;
+		}
+		while (head < tail) {
+		    int node = queue[head++];
+		    for (int i = 0; i < children[node].length; i++) {
+			int child = children[node][i];
+			int fail = fails[node];
+			int next;
+			while ((next = next(fail, labels[node][i])) < 0 && fail != 0) {
+			    fail = fails[fail];
+			}
+			fails[child] = next < 0 ? 0 : next;
+			// A literal that ends a suffix of child also ends at child.
+			ends[child] |= ends[fails[child]];
+			queue[tail++] = child;
+		    }
+		}
+	    } else {
+		fails = null;
+	    }
+	}
+
+	/**
+	 * @return true if the text starts with one of the literals.
+	 */
+	public boolean startsAny(CharSequence text) {
+	    int node = 0;
+	    if (ends[node]) {
+		return true;
+	    }
+	    for (int i = 0; i < text.length(); i++) {
+		node = next(node, text.charAt(i));
+		if (node < 0) {
+		    return false;
+		}
+		if (ends[node]) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	/**
+	 * Only for a Trie built with fails.
+	 *
+	 * @return true if the text contains one of the literals.
+	 */
+	public boolean containsAny(CharSequence text) {
+	    int node = 0;
+	    if (ends[node]) {
+		return true;
+	    }
+	    for (int i = 0; i < text.length(); i++) {
+		char c = text.charAt(i);
+		int next;
+		while ((next = next(node, c)) < 0 && node != 0) {
+		    node = fails[node];
+		}
+		node = next < 0 ? 0 : next;
+		if (ends[node]) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	private int next(int node, char c) {
+	    int i = Arrays.binarySearch(labels[node], c);
+	    return i < 0 ? -1 : children[node][i];
+	}
+    }
+}
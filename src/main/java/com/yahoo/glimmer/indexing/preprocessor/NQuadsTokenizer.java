@@ -0,0 +1,285 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.nio.charset.CharacterCodingException;
+
+import org.apache.hadoop.io.Text;
+
+import com.yahoo.glimmer.indexing.preprocessor.TupleElement.Type;
+
+/**
+ * A byte level scanner for lines of N-Triples/N-Quads. The nodes of a line are
+ * found as offsets into the lines UTF-8 bytes so that nothing is allocated
+ * per line. Escapes are left as they are.
+ *
+ * For each node there are two spans. The N3 span is the node as it is in the
+ * line, eg. &lt;http://a/b&gt;, _:node1 or "label"@en. The text span is the
+ * resource, the blank node id or the literals label without the quotes.
+ */
+public class NQuadsTokenizer {
+    private final int maxNodes;
+    private final Type[] types;
+    private final int[] n3Starts;
+    private final int[] n3Ends;
+    private final int[] textStarts;
+    private final int[] textEnds;
+
+    private byte[] bytes;
+    private int nodeCount;
+
+    /**
+     * @param maxNodes
+     *            lines with more nodes than this are rejected.
+     */
+    public NQuadsTokenizer(int maxNodes) {
+	this.maxNodes = maxNodes;
+	types = new Type[maxNodes];
+	n3Starts = new int[maxNodes];
+	n3Ends = new int[maxNodes];
+	textStarts = new int[maxNodes];
+	textEnds = new int[maxNodes];
+    }
+
+    public int tokenize(Text line) {
+	return tokenize(line.getBytes(), 0, line.getLength());
+    }
+
+    /**
+     * Scans the nodes of the line up to the terminating '.' or the end of the
+     * line.
+     *
+     * @return the number of nodes found, 0 for empty and comment lines,
+     *         maxNodes + 1 if the line has more than maxNodes nodes or -1 if
+     *         the line couldn't be parsed.
+     */
+    public int tokenize(byte[] bytes, int start, int end) {
+	this.bytes = bytes;
+	nodeCount = 0;
+	int i = skipWhitespace(bytes, start, end);
+	if (i < end && bytes[i] == '#') {
+	    return 0;
+	}
+	while (i < end) {
+	    byte b = bytes[i];
+	    if (b == '.') {
+		// The final dot. Only whitespace may follow.
+		if (skipWhitespace(bytes, i + 1, end) != end) {
+		    return -1;
+		}
+		break;
+	    }
+	    if (nodeCount == maxNodes) {
+		return maxNodes + 1;
+	    }
+	    int nodeEnd;
+	    if (b == '<') {
+		nodeEnd = scanResource(i, end);
+	    } else if (b == '_') {
+		nodeEnd = scanBNode(i, end);
+	    } else if (b == '"') {
+		nodeEnd = scanLiteral(i, end);
+	    } else {
+		return -1;
+	    }
+	    if (nodeEnd < 0) {
+		return -1;
+	    }
+	    // Nodes have to be separated by whitespace or followed by the final
+	    // dot.
+	    if (nodeEnd < end && !isWhitespace(bytes[nodeEnd]) && bytes[nodeEnd] != '.') {
+		return -1;
+	    }
+	    nodeCount++;
+	    i = skipWhitespace(bytes, nodeEnd, end);
+	}
+	return nodeCount;
+    }
+
+    private int scanResource(int start, int end) {
+	for (int i = start + 1; i < end; i++) {
+	    if (bytes[i] == '>') {
+		setNode(Type.RESOURCE, start, i + 1, start + 1, i);
+		return i + 1;
+	    }
+	}
+	return -1;
+    }
+
+    private int scanBNode(int start, int end) {
+	if (start + 2 >= end || bytes[start + 1] != ':') {
+	    return -1;
+	}
+	int i = start + 2;
+	while (i < end && !isWhitespace(bytes[i])) {
+	    i++;
+	}
+	// A '.' directly after the id is the final dot.
+	if (bytes[i - 1] == '.' && skipWhitespace(bytes, i, end) == end) {
+	    i--;
+	}
+	if (i == start + 2) {
+	    return -1;
+	}
+	setNode(Type.BNODE, start, i, start + 2, i);
+	return i;
+    }
+
+    private int scanLiteral(int start, int end) {
+	int i = start + 1;
+	while (i < end && bytes[i] != '"') {
+	    if (bytes[i] == '\\') {
+		i++;
+	    }
+	    i++;
+	}
+	if (i >= end) {
+	    return -1;
+	}
+	int labelEnd = i;
+	i++;
+	if (i < end && bytes[i] == '@') {
+	    // Language tag.
+	    i++;
+	    while (i < end && !isWhitespace(bytes[i]) && bytes[i] != '.') {
+		i++;
+	    }
+	} else if (i + 2 < end && bytes[i] == '^' && bytes[i + 1] == '^' && bytes[i + 2] == '<') {
+	    // Datatype.
+	    i += 3;
+	    while (i < end && bytes[i] != '>') {
+		i++;
+	    }
+	    if (i == end) {
+		return -1;
+	    }
+	    i++;
+	}
+	setNode(Type.LITERAL, start, i, start + 1, labelEnd);
+	return i;
+    }
+
+    private void setNode(Type type, int n3Start, int n3End, int textStart, int textEnd) {
+	types[nodeCount] = type;
+	n3Starts[nodeCount] = n3Start;
+	n3Ends[nodeCount] = n3End;
+	textStarts[nodeCount] = textStart;
+	textEnds[nodeCount] = textEnd;
+    }
+
+    private static int skipWhitespace(byte[] bytes, int i, int end) {
+	while (i < end && isWhitespace(bytes[i])) {
+	    i++;
+	}
+	return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+	// Bytes of multi byte UTF-8 chars are negative.
+	return b >= 0 && b <= ' ';
+    }
+
+    public int getNodeCount() {
+	return nodeCount;
+    }
+
+    public Type getType(int node) {
+	return types[node];
+    }
+
+    public byte[] getBytes() {
+	return bytes;
+    }
+
+    public int getTextStart(int node) {
+	return textStarts[node];
+    }
+
+    public int getTextLength(int node) {
+	return textEnds[node] - textStarts[node];
+    }
+
+    public int getN3Start(int node) {
+	return n3Starts[node];
+    }
+
+    public int getN3Length(int node) {
+	return n3Ends[node] - n3Starts[node];
+    }
+
+    public void getText(int node, Text text) {
+	text.set(bytes, getTextStart(node), getTextLength(node));
+    }
+
+    public void appendN3(int node, Text text) {
+	text.append(bytes, getN3Start(node), getN3Length(node));
+    }
+
+    public String getTextString(int node) throws CharacterCodingException {
+	return Text.decode(bytes, getTextStart(node), getTextLength(node));
+    }
+
+    public String getN3String(int node) throws CharacterCodingException {
+	return Text.decode(bytes, getN3Start(node), getN3Length(node));
+    }
+
+    /**
+     * A lightweight check that a resource node is a valid URI reference. Only
+     * rejects the characters that are never allowed in a URI(ASCII controls,
+     * space, &lt;&gt;"{}|\^`), malformed % escapes and more than one '#'.
+     * Unlike java.net.URI non ASCII characters are allowed anywhere.
+     */
+    public boolean isValidResource(int node) {
+	int end = textEnds[node];
+	boolean seenHash = false;
+	for (int i = textStarts[node]; i < end; i++) {
+	    byte b = bytes[i];
+	    if (b < 0) {
+		// Part of a multi byte UTF-8 char.
+		continue;
+	    }
+	    switch (b) {
+	    case '<':
+	    case '>':
+	    case '"':
+	    case '{':
+	    case '}':
+	    case '|':
+	    case '\\':
+	    case '^':
+	    case '`':
+		return false;
+	    case '#':
+		if (seenHash) {
+		    return false;
+		}
+		seenHash = true;
+		break;
+	    case '%':
+		if (i + 2 >= end || !isHexDigit(bytes[i + 1]) || !isHexDigit(bytes[i + 2])) {
+		    return false;
+		}
+		i += 2;
+		break;
+	    default:
+		if (b <= ' ' || b == 0x7f) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
+    private static boolean isHexDigit(byte b) {
+	return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+    }
+}
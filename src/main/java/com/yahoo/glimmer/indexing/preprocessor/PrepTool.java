@@ -11,18 +11,29 @@ package com.yahoo.glimmer.indexing.preprocessor;
  *  See accompanying LICENSE file.
  */
 
+import it.unimi.dsi.fastutil.io.BinIO;
+
+import java.io.BufferedReader;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.semanticweb.owlapi.model.OWLClass;
@@ -36,6 +47,7 @@ import com.martiansoftware.jsap.SimpleJSAP;
 import com.martiansoftware.jsap.Switch;
 import com.martiansoftware.jsap.UnflaggedOption;
 import com.yahoo.glimmer.indexing.OntologyLoader;
+import com.yahoo.glimmer.util.BlockOffsets;
 
 public class PrepTool extends Configured implements Tool {
     private static final int DEFAULT_REDUCER_COUNT = 1;
@@ -44,6 +56,13 @@ public class PrepTool extends Configured implements Tool {
     private static final String REDUCER_COUNT_ARG = "reducers";
     private static final String OUTPUT_ARG = "output";
     private static final String INPUT_ARG = "input";
+    private static final int SAMPLE_MAX_SPLITS = 20;
+    private static final int SAMPLE_RECORDS_PER_SPLIT = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final String PARTITION_FILE_SUFFIX = "_partitions";
+    public static final String COUNTS_DIR_SUFFIX = "_counts";
+    static final String BY_SUBJECT_BZ2 = "bySubject.bz2";
+    static final String BY_SUBJECT_BLOCK_OFFSETS = "bySubject.blockOffsets";
 
     public static void main(String[] args) throws Exception {
 	int ret = ToolRunner.run(new PrepTool(), args);
@@ -74,21 +93,83 @@ public class PrepTool extends Configured implements Tool {
 	// The ontology if any...
 	String ontologyFilename = jsapResult.getString(ONTOLOGY_ARG);
 	if (ontologyFilename != null) {
-	    // Load the ontology
-	    InputStream ontologyInputStream = new FileInputStream(ontologyFilename);
-	    OWLOntology ontology = OntologyLoader.load(ontologyInputStream);
-	    System.out.println("Loaded ontology from " + ontologyFilename + " with " + ontology.getAxiomCount() + " axioms.");
-
-	    ArrayList<String> ontologyClasses = new ArrayList<String>();
-	    for (OWLClass owlClass : ontology.getClassesInSignature()) {
-		ontologyClasses.add(owlClass.getIRI().toString());
-	    }
-	    System.out.println("Adding " + ontologyClasses.size() + " classes from ontology.");
-	    config.setStrings(TuplesToResourcesMapper.EXTRA_RESOURCES, ontologyClasses.toArray(new String[0]));
+	    addOntologyClasses(config, ontologyFilename);
 	} else {
 	    System.out.println("No ontology filename set in conf.  No ontology has been loaded.");
 	}
 
+	int reducerCount = jsapResult.getInt(REDUCER_COUNT_ARG, DEFAULT_REDUCER_COUNT);
+	Path input = new Path(jsapResult.getString(INPUT_ARG));
+	Path outputDir = new Path(jsapResult.getString(OUTPUT_ARG));
+	FileSystem fs = outputDir.getFileSystem(config);
+
+	boolean multipleReducers = reducerCount > 1;
+	Path partitionFile = new Path(outputDir.getParent(), outputDir.getName() + PARTITION_FILE_SUFFIX);
+	Path countsDir = new Path(outputDir.getParent(), outputDir.getName() + COUNTS_DIR_SUFFIX);
+	if (multipleReducers) {
+	    // We assign 'global' ids in the reducers. For this to work the
+	    // resources are range partitioned and each reducer needs to know the
+	    // number of resources in the partitions before its own. Count them
+	    // first with a job that only shuffles the resources.
+	    Job countJob = createCountJob(config, input, countsDir, partitionFile, reducerCount);
+	    if (!countJob.waitForCompletion(true)) {
+		System.err.println("Failed to count resources from " + input);
+		return 1;
+	    }
+	    reducerCount = countJob.getNumReduceTasks();
+	    setDocIdOffsets(fs, countsDir, reducerCount, config);
+	}
+
+	Job job = createJob(config, input, outputDir, reducerCount);
+	if (reducerCount > 1) {
+	    ResourceSampler.setPartitionFile(job, partitionFile);
+	}
+
+	if (!job.waitForCompletion(true)) {
+	    System.err.println("Failed to process tuples from " + input);
+	    return 1;
+	}
+
+	// WE NOW HAVE
+	// One file per reducer containing lists of urls(recourses) for
+	// subjects, predicates, objects and contexts.
+	// One file per reducer that contains all resources. subjects +
+	// predicates + objects + contexts.
+	// One file per reducer that contains the subjects + all <predicate>
+	// <object>|"Literal" <context> on that subject.
+
+	// IF THERE WAS MORE THAN ONE REDUCER THE FILES ARE CONCATENATED INTO
+	// THE OUTPUT DIR.
+	if (multipleReducers) {
+	    concatenateParts(fs, outputDir, reducerCount);
+	    fs.delete(partitionFile, false);
+	    fs.delete(countsDir, true);
+	}
+	return 0;
+    }
+
+    /**
+     * Adds the classes of the given ontology as extra resources so that they
+     * get resource ids even if they don't occur in the tuples.
+     */
+    public static void addOntologyClasses(Configuration config, String ontologyFilename) throws IOException {
+	InputStream ontologyInputStream = new FileInputStream(ontologyFilename);
+	OWLOntology ontology = OntologyLoader.load(ontologyInputStream);
+	System.out.println("Loaded ontology from " + ontologyFilename + " with " + ontology.getAxiomCount() + " axioms.");
+
+	ArrayList<String> ontologyClasses = new ArrayList<String>();
+	for (OWLClass owlClass : ontology.getClassesInSignature()) {
+	    ontologyClasses.add(owlClass.getIRI().toString());
+	}
+	System.out.println("Adding " + ontologyClasses.size() + " classes from ontology.");
+	config.setStrings(TuplesToResourcesMapper.EXTRA_RESOURCES, ontologyClasses.toArray(new String[0]));
+    }
+
+    /**
+     * Sets up the job. Also used by the LocalIndexBuilder to run the job
+     * without a cluster.
+     */
+    public static Job createJob(Configuration config, Path input, Path outputDir, int reducerCount) throws IOException {
 	Job job = Job.getInstance(config);
 	job.setJarByClass(PrepTool.class);
 
@@ -98,46 +179,146 @@ public class PrepTool extends Configured implements Tool {
 	job.setMapperClass(TuplesToResourcesMapper.class);
 	job.setMapOutputKeyClass(Text.class);
 	job.setMapOutputValueClass(Text.class);
+	job.setCombinerClass(ResourcesReducer.Combiner.class);
 
-	int reducerCount = jsapResult.getInt(REDUCER_COUNT_ARG, DEFAULT_REDUCER_COUNT);
+	// We assign 'global' ids in the reducer. With more than one reducer the
+	// caller has to set up the range partitioning and doc id offsets. Using
+	// just one reducer, we run out of local disk space during the
+	// pre-reduce merge with big data sets like WCC.
 	job.setNumReduceTasks(reducerCount);
-	if (reducerCount == 1) {
-	    // We assign 'global' ids in the reducer. For this to work, there
-	    // can be only one. But using just one reducer, we run out of local disk space during the
-	    // pre-reduce merge with big data sets like WCC.
-	    
-	    job.setReducerClass(ResourcesReducer.class);
-	    job.setOutputKeyClass(Text.class);
-	    job.setOutputValueClass(Object.class);
-	    job.setOutputFormatClass(ResourceRecordWriter.OutputFormat.class);
-	} else {
-	    /*
-	     * TODO: Take the functionality of the reducer and move it to run on
-	     * the gateway. We then use n identity reducers, the output of which
-	     * will be read and merged as streams on the gateway.
-	     */
-	}
+	job.setReducerClass(ResourcesReducer.class);
+	job.setOutputKeyClass(Text.class);
+	job.setOutputValueClass(Object.class);
+	job.setOutputFormatClass(ResourceRecordWriter.OutputFormat.class);
 
-	FileInputFormat.setInputPaths(job, new Path(jsapResult.getString(INPUT_ARG)));
+	FileInputFormat.setInputPaths(job, input);
+	FileOutputFormat.setOutputPath(job, outputDir);
+	return job;
+    }
 
-	Path outputDir = new Path(jsapResult.getString(OUTPUT_ARG));
+    /**
+     * Sets up a job that counts the resources in each partition. The
+     * resources are sampled and the split points written to partitionFile,
+     * which the main job has to use too. The sampling may reduce the number
+     * of reducers, use the count jobs getNumReduceTasks() for the main job.
+     */
+    public static Job createCountJob(Configuration config, Path input, Path outputDir, Path partitionFile, int reducerCount) throws IOException,
+	    InterruptedException {
+	Job job = Job.getInstance(config);
+	job.setJarByClass(PrepTool.class);
+
+	job.setJobName(PrepTool.class.getName() + "-count-" + System.currentTimeMillis());
+	job.setInputFormatClass(TextInputFormat.class);
+	job.getConfiguration().setBoolean(TuplesToResourcesMapper.RESOURCES_ONLY_KEY, true);
+
+	job.setMapperClass(TuplesToResourcesMapper.class);
+	job.setMapOutputKeyClass(Text.class);
+	job.setMapOutputValueClass(Text.class);
+	job.setCombinerClass(ResourceCountReducer.Combiner.class);
+
+	job.setNumReduceTasks(reducerCount);
+	job.setReducerClass(ResourceCountReducer.class);
+	job.setOutputKeyClass(LongWritable.class);
+	job.setOutputValueClass(LongWritable.class);
+	job.setOutputFormatClass(TextOutputFormat.class);
+
+	FileInputFormat.setInputPaths(job, input);
 	FileOutputFormat.setOutputPath(job, outputDir);
 
-	if (!job.waitForCompletion(true)) {
-	    System.err.println("Failed to process tuples from " + jsapResult.getString(INPUT_ARG));
-	    return 1;
+	ResourceSampler.writePartitionFile(job, partitionFile, SAMPLE_MAX_SPLITS, SAMPLE_RECORDS_PER_SPLIT);
+	return job;
+    }
+
+    /**
+     * Reads the ResourceCountReducer outputs and sets the prefix sums of the
+     * counts as the ResourcesReducers doc id offsets.
+     * 
+     * @return the total number of resources.
+     */
+    public static long setDocIdOffsets(FileSystem fs, Path countsDir, int partitions, Configuration config) throws IOException {
+	long[] docIdOffsets = new long[partitions];
+	long[] previousSubjectIds = new long[partitions];
+	long docIdOffset = 0;
+	long previousSubjectId = -1;
+	for (int partition = 0; partition < partitions; partition++) {
+	    BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(new Path(countsDir, partName(partition))), "UTF-8"));
+	    String[] countAndLastSubject;
+	    try {
+		countAndLastSubject = reader.readLine().split("\t");
+	    } finally {
+		reader.close();
+	    }
+	    long count = Long.parseLong(countAndLastSubject[0]);
+	    long lastSubjectIndex = Long.parseLong(countAndLastSubject[1]);
+
+	    docIdOffsets[partition] = docIdOffset;
+	    previousSubjectIds[partition] = previousSubjectId;
+	    if (lastSubjectIndex >= 0) {
+		previousSubjectId = docIdOffset + lastSubjectIndex;
+	    }
+	    docIdOffset += count;
 	}
+	ResourcesReducer.setDocIdOffsets(config, docIdOffsets, previousSubjectIds);
+	System.out.println("Counted " + docIdOffset + " resources in " + partitions + " partitions.");
+	return docIdOffset;
+    }
 
-	// IF THERE WAS ONLY ONE REDUCER WE NOW HAVE
-	// One file per reducer containing lists of urls(recourses) for
-	// subjects, predicates, objects and contexts.
-	// One file per reducer that contains all resources. subjects +
-	// predicates + objects + contexts.
-	// One file per reducer that contains the subjects + all <predicate>
-	// <object>|"Literal" <context> on that subject.
-	
-	// IF THERE WAS MORE THAN ONE REDUCER WE NOW HAVE N FILES THAT NEED TO BE MERGED ON THE GATEWAY. TODO.
-	
-	return 0;
+    /**
+     * Concatenates the files in the part-r-????? dirs into the outputDir and
+     * deletes the part dirs. The files aren't parsed or decompressed. The
+     * bySubject parts are BZip2 streams that are read as one stream when
+     * concatenated, their BlockOffsets are stitched together with
+     * BlockOffsets.concatenate().
+     */
+    public static void concatenateParts(FileSystem fs, Path outputDir, int partitions) throws IOException {
+	Path[] partDirs = new Path[partitions];
+	for (int partition = 0; partition < partitions; partition++) {
+	    partDirs[partition] = new Path(outputDir, partName(partition));
+	}
+
+	for (FileStatus fileStatus : fs.listStatus(partDirs[0])) {
+	    String filename = fileStatus.getPath().getName();
+	    if (BY_SUBJECT_BLOCK_OFFSETS.equals(filename)) {
+		continue;
+	    }
+	    OutputStream out = fs.create(new Path(outputDir, filename), false);
+	    try {
+		for (Path partDir : partDirs) {
+		    InputStream in = fs.open(new Path(partDir, filename));
+		    IOUtils.copyBytes(in, out, BUFFER_SIZE, false);
+		    in.close();
+		}
+	    } finally {
+		out.close();
+	    }
+	}
+
+	BlockOffsets[] blockOffsets = new BlockOffsets[partitions];
+	long[] byteLengths = new long[partitions];
+	for (int partition = 0; partition < partitions; partition++) {
+	    InputStream in = fs.open(new Path(partDirs[partition], BY_SUBJECT_BLOCK_OFFSETS));
+	    try {
+		blockOffsets[partition] = (BlockOffsets) BinIO.loadObject(in);
+	    } catch (ClassNotFoundException e) {
+		throw new IOException("Failed to load the BlockOffsets of partition " + partition, e);
+	    } finally {
+		in.close();
+	    }
+	    byteLengths[partition] = fs.getFileStatus(new Path(partDirs[partition], BY_SUBJECT_BZ2)).getLen();
+	}
+	OutputStream out = fs.create(new Path(outputDir, BY_SUBJECT_BLOCK_OFFSETS), false);
+	try {
+	    BlockOffsets.concatenate(blockOffsets, byteLengths).save(out);
+	} finally {
+	    out.close();
+	}
+
+	for (Path partDir : partDirs) {
+	    fs.delete(partDir, true);
+	}
+    }
+
+    private static String partName(int partition) {
+	return String.format("part-r-%05d", partition);
     }
 }
@@ -14,7 +14,9 @@ package com.yahoo.glimmer.indexing.preprocessor;
 import java.util.regex.Pattern;
 
 /**
- * Simple filter that applies regex matches to each element.
+ * Simple filter that applies regex matches to each element. Each regex is
+ * compiled to a CompiledPattern, so that regexs that are alternations of
+ * literals cost one scan of the element.
  * 
  * @author tep
  */
@@ -24,12 +26,18 @@ public class RegexTupleFilter implements TupleFilter {
     private Pattern objectPattern;
     private Pattern contextPattern;
     private boolean andNotOrConjunction;
+    // Not serialized. Set by compileMatchers().
+    private transient CompiledPattern subjectMatcher;
+    private transient CompiledPattern predicateMatcher;
+    private transient CompiledPattern objectMatcher;
+    private transient CompiledPattern contextMatcher;
 
     public Pattern getSubjectPattern() {
 	return subjectPattern;
     }
     public void setSubjectRegex(String regex) {
         this.subjectPattern = Pattern.compile(regex);
+        compileMatchers();
     }
 
     public Pattern getPredicatePattern() {
@@ -37,6 +45,7 @@ public class RegexTupleFilter implements TupleFilter {
     }
     public void setPredicateRegex(String regex) {
         this.predicatePattern = Pattern.compile(regex);
+        compileMatchers();
     }
 
     public Pattern getObjectPattern() {
@@ -44,6 +53,7 @@ public class RegexTupleFilter implements TupleFilter {
     }
     public void setObjectRegex(String regex) {
         this.objectPattern = Pattern.compile(regex);
+        compileMatchers();
     }
 
     public Pattern getContextPattern() {
@@ -51,6 +61,7 @@ public class RegexTupleFilter implements TupleFilter {
     }
     public void setContextRegex(String regex) {
         this.contextPattern = Pattern.compile(regex);
+        compileMatchers();
     }
 
     public boolean isAndNotOrConjunction() {
@@ -60,41 +71,58 @@ public class RegexTupleFilter implements TupleFilter {
         this.andNotOrConjunction = andNotOrConjunction;
     }
 
+    // XStream doesn't call the constructor or setters. See PredicatePrefixTupleFilter.
+    private Object readResolve() {
+	compileMatchers();
+	return this;
+    }
+
+    private void compileMatchers() {
+	subjectMatcher = compile(subjectPattern);
+	predicateMatcher = compile(predicatePattern);
+	objectMatcher = compile(objectPattern);
+	contextMatcher = compile(contextPattern);
+    }
+
+    private static CompiledPattern compile(Pattern pattern) {
+	return pattern == null ? null : CompiledPattern.compile(pattern);
+    }
+
     @Override
     public boolean filter(Tuple tuple) {
 	int tried = 0;
 	int matched = 0;
 	
-	if (subjectPattern != null) {
+	if (subjectMatcher != null) {
 	    tried++;
-	    if (subjectPattern.matcher(tuple.subject.n3).find()) {
+	    if (subjectMatcher.find(tuple.subject.n3)) {
 		if (!andNotOrConjunction) {
 		    return true;
 		}
 		matched++;
 	    }
 	}
-	if (predicatePattern != null) {
+	if (predicateMatcher != null) {
 	    tried++;
-	    if (predicatePattern.matcher(tuple.predicate.n3).find()) {
+	    if (predicateMatcher.find(tuple.predicate.n3)) {
 		if (!andNotOrConjunction) {
 		    return true;
 		}
 		matched++;
 	    }
 	}
-	if (objectPattern != null) {
+	if (objectMatcher != null) {
 	    tried++;
-	    if (objectPattern.matcher(tuple.object.n3).find()) {
+	    if (objectMatcher.find(tuple.object.n3)) {
 		if (!andNotOrConjunction) {
 		    return true;
 		}
 		matched++;
 	    }
 	}
-	if (contextPattern != null && tuple.context.n3 != null) {
+	if (contextMatcher != null && tuple.context.n3 != null) {
 	    tried++;
-	    if (contextPattern.matcher(tuple.context.n3).find()) {
+	    if (contextMatcher.find(tuple.context.n3)) {
 		if (!andNotOrConjunction) {
 		    return true;
 		}
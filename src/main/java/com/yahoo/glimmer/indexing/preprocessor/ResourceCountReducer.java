@@ -0,0 +1,70 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper.TupleElementName;
+
+/**
+ * Counts the resources in a partition of the TuplesToResourcesMapper output
+ * when run with TuplesToResourcesMapper.RESOURCES_ONLY_KEY set.
+ *
+ * Writes a single line with the number of resources(which is the number of doc
+ * ids the ResourcesReducer for the same partition will use) and the index of
+ * the last subject resource in the partition, or -1 if there are no subjects.
+ */
+public class ResourceCountReducer extends Reducer<Text, Text, LongWritable, LongWritable> {
+    private static final Text SUBJECT_TEXT = new Text(TupleElementName.SUBJECT.name());
+
+    private long count;
+    private long lastSubjectIndex = -1;
+
+    @Override
+    protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+	for (Text value : values) {
+	    if (SUBJECT_TEXT.equals(value)) {
+		lastSubjectIndex = count;
+		break;
+	    }
+	}
+	count++;
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+	context.write(new LongWritable(count), new LongWritable(lastSubjectIndex));
+    }
+
+    /**
+     * Reduces the values for a key to a single value. "SUBJECT" if the key
+     * occurred as a subject, otherwise an empty string.
+     */
+    public static class Combiner extends Reducer<Text, Text, Text, Text> {
+	private static final Text EMPTY_TEXT = new Text();
+
+	@Override
+	protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+	    for (Text value : values) {
+		if (SUBJECT_TEXT.equals(value)) {
+		    context.write(key, SUBJECT_TEXT);
+		    return;
+		}
+	    }
+	    context.write(key, EMPTY_TEXT);
+	}
+    }
+}
@@ -54,7 +54,7 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 
     public static class OutputCount {
 	public OUTPUT output;
-	public int count;
+	public long count;
 
 	@Override
 	public String toString() {
@@ -72,8 +72,28 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
     private long docCount;
     private long lastBlockStartBitOffset;
     private long lastFirstDocId;
+    private final boolean lastPart;
+    private final long firstDocId;
 
     public ResourceRecordWriter(FileSystem fs, Path taskWorkPath, CompressionCodec codecIfAny) throws IOException {
+	this(fs, taskWorkPath, codecIfAny, true, true, 0);
+    }
+
+    /**
+     * When the output is written by more than one reducer each writes a part
+     * of the bySubject file. So that the parts can be concatenated into the
+     * same file a single reducer would write, only the last part ends with a
+     * RECORD_DELIMITER and the records of the other parts are all preceded by
+     * one.
+     * 
+     * @param firstDocId
+     *            the global doc id of this parts first resource.
+     */
+    public ResourceRecordWriter(FileSystem fs, Path taskWorkPath, CompressionCodec codecIfAny, boolean firstPart, boolean lastPart, long firstDocId)
+	    throws IOException {
+	this.bySubjectFirstRecord = firstPart;
+	this.lastPart = lastPart;
+	this.firstDocId = firstDocId;
 	if (fs.exists(taskWorkPath)) {
 	    throw new IOException("Task work path already exists:" + taskWorkPath.toString());
 	}
@@ -133,7 +153,7 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 	    Writer writer = writersMap.get(outputCount.output);
 
 	    if (outputCount.output.includeCounts) {
-		writer.write(Integer.toString(outputCount.count));
+		writer.write(Long.toString(outputCount.count));
 		writer.write('\t');
 	    }
 	    writer.write(key.toString());
@@ -178,11 +198,13 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 	for (Writer writer : writersMap.values()) {
 	    writer.close();
 	}
-	bySubjectWriter.write(BySubjectRecord.RECORD_DELIMITER);
+	if (lastPart) {
+	    bySubjectWriter.write(BySubjectRecord.RECORD_DELIMITER);
+	}
 	bySubjectWriter.flush();
 	bySubjectWriter.close();
 
-	BlockOffsets blockOffsets = blockOffsetsBuilder.build(docCount, allCount);
+	BlockOffsets blockOffsets = blockOffsetsBuilder.build(docCount, firstDocId + allCount);
 	blockOffsets.printTo(System.err);
 	blockOffsets.save(bySubjectOffsetsOutputStream);
 	bySubjectOffsetsOutputStream.close();
@@ -201,7 +223,10 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 
 	    FileSystem fs = FileSystem.get(conf);
 
-	    return new ResourceRecordWriter(fs, taskWorkPath, outputCompressionCodec);
+	    int partition = job.getTaskAttemptID().getTaskID().getId();
+	    int partitions = job.getNumReduceTasks();
+	    long firstDocId = ResourcesReducer.getDocIdOffset(conf, partition);
+	    return new ResourceRecordWriter(fs, taskWorkPath, outputCompressionCodec, partition == 0, partition == partitions - 1, firstDocId);
 	}
     }
 }
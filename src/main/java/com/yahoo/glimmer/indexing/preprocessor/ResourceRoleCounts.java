@@ -0,0 +1,103 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper.TupleElementName;
+
+/**
+ * The number of times a resource was seen as a predicate, object and context.
+ *
+ * The TuplesToResourcesMapper writes a "PREDICATE", "OBJECT" or "CONTEXT"
+ * value for each occurrence. The ResourcesReducer.Combiner sums these into a
+ * single compact value per key, a 0 byte followed by the three counts as
+ * VLongs. As relation values start with '&lt;' a count value can't be
+ * mistaken for one. The ResourcesReducer sums both forms.
+ */
+public class ResourceRoleCounts {
+    private static final byte MARKER = 0;
+    private static final Text PREDICATE_TEXT = new Text(TupleElementName.PREDICATE.name());
+    private static final Text OBJECT_TEXT = new Text(TupleElementName.OBJECT.name());
+    private static final Text CONTEXT_TEXT = new Text(TupleElementName.CONTEXT.name());
+
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private long predicateCount;
+    private long objectCount;
+    private long contextCount;
+
+    public void clear() {
+	predicateCount = 0;
+	objectCount = 0;
+	contextCount = 0;
+    }
+
+    /**
+     * Adds the counts of the value if it's a "PREDICATE", "OBJECT" or
+     * "CONTEXT" value or an encoded count value.
+     *
+     * @return false if the value isn't a count value.
+     */
+    public boolean add(Text value) throws IOException {
+	if (value.getLength() > 0 && value.getBytes()[0] == MARKER) {
+	    byte[] bytes = value.getBytes();
+	    int offset = 1;
+	    predicateCount += WritableComparator.readVLong(bytes, offset);
+	    offset += WritableUtils.decodeVIntSize(bytes[offset]);
+	    objectCount += WritableComparator.readVLong(bytes, offset);
+	    offset += WritableUtils.decodeVIntSize(bytes[offset]);
+	    contextCount += WritableComparator.readVLong(bytes, offset);
+	} else if (PREDICATE_TEXT.equals(value)) {
+	    predicateCount++;
+	} else if (OBJECT_TEXT.equals(value)) {
+	    objectCount++;
+	} else if (CONTEXT_TEXT.equals(value)) {
+	    contextCount++;
+	} else {
+	    return false;
+	}
+	return true;
+    }
+
+    public boolean isEmpty() {
+	return predicateCount == 0 && objectCount == 0 && contextCount == 0;
+    }
+
+    /**
+     * Encodes the counts into the given Text.
+     */
+    public void write(Text value) throws IOException {
+	buffer.reset();
+	buffer.writeByte(MARKER);
+	WritableUtils.writeVLong(buffer, predicateCount);
+	WritableUtils.writeVLong(buffer, objectCount);
+	WritableUtils.writeVLong(buffer, contextCount);
+	value.set(buffer.getData(), 0, buffer.getLength());
+    }
+
+    public long getPredicateCount() {
+	return predicateCount;
+    }
+
+    public long getObjectCount() {
+	return objectCount;
+    }
+
+    public long getContextCount() {
+	return contextCount;
+    }
+}
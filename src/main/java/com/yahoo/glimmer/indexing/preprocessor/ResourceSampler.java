@@ -0,0 +1,139 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import com.yahoo.glimmer.indexing.preprocessor.TupleElement.Type;
+
+/**
+ * Samples the resources of the tuples in a PrepTool jobs input to pick the
+ * split points for a TotalOrderPartitioner. With the resources range
+ * partitioned the outputs of the ResourcesReducers are in global order and can
+ * be concatenated.
+ */
+public class ResourceSampler {
+    private static final Log LOG = LogFactory.getLog(ResourceSampler.class);
+    // Subject, predicate, object and context.
+    private static final int RESOURCE_NODES = 4;
+
+    /**
+     * Samples the first records of up to maxSplits of the jobs input splits,
+     * writes the split points to partitionFile and sets the job to use a
+     * TotalOrderPartitioner with them. If there are fewer distinct sampled
+     * resources than reduce tasks the number of reduce tasks is reduced.
+     */
+    public static void writePartitionFile(Job job, Path partitionFile, int maxSplits, int recordsPerSplit) throws IOException, InterruptedException {
+	Configuration conf = job.getConfiguration();
+	int numPartitions = job.getNumReduceTasks();
+	if (numPartitions <= 1) {
+	    return;
+	}
+
+	TextInputFormat inputFormat = new TextInputFormat();
+	List<InputSplit> splits = inputFormat.getSplits(job);
+	int splitsToSample = Math.min(maxSplits, splits.size());
+	int step = splits.size() / splitsToSample;
+
+	List<String> sample = new ArrayList<String>();
+	NQuadsTokenizer tokenizer = new NQuadsTokenizer(RESOURCE_NODES);
+	for (int i = 0; i < splitsToSample; i++) {
+	    InputSplit split = splits.get(i * step);
+	    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+	    RecordReader<LongWritable, Text> reader = inputFormat.createRecordReader(split, context);
+	    reader.initialize(split, context);
+	    int records = 0;
+	    while (records < recordsPerSplit && reader.nextKeyValue()) {
+		int nodeCount = tokenizer.tokenize(reader.getCurrentValue());
+		for (int n = 0; n < nodeCount && n < RESOURCE_NODES; n++) {
+		    Type type = tokenizer.getType(n);
+		    if (type == Type.RESOURCE || type == Type.BNODE) {
+			sample.add(tokenizer.getTextString(n));
+		    }
+		}
+		records++;
+	    }
+	    reader.close();
+	}
+	LOG.info("Sampled " + sample.size() + " resources from " + splitsToSample + " of " + splits.size() + " splits.");
+
+	List<Text> splitPoints = getSplitPoints(sample, numPartitions);
+	if (splitPoints.size() < numPartitions - 1) {
+	    LOG.warn("Only " + (splitPoints.size() + 1) + " partitions of the " + numPartitions + " requested could be sampled.");
+	    job.setNumReduceTasks(splitPoints.size() + 1);
+	    if (splitPoints.isEmpty()) {
+		return;
+	    }
+	}
+
+	FileSystem fs = partitionFile.getFileSystem(conf);
+	SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, partitionFile, Text.class, NullWritable.class);
+	try {
+	    for (Text splitPoint : splitPoints) {
+		writer.append(splitPoint, NullWritable.get());
+	    }
+	} finally {
+	    writer.close();
+	}
+	setPartitionFile(job, partitionFile);
+    }
+
+    /**
+     * Sets the job to use a TotalOrderPartitioner with the split points in
+     * the given partitionFile.
+     */
+    public static void setPartitionFile(Job job, Path partitionFile) {
+	TotalOrderPartitioner.setPartitionFile(job.getConfiguration(), partitionFile);
+	job.setPartitionerClass(TotalOrderPartitioner.class);
+    }
+
+    /**
+     * Picks up to numPartitions - 1 distinct split points from the sample so
+     * that each partition gets about the same number of sampled resources.
+     * The order is that of Text keys, which is the order of their UTF-8 bytes.
+     */
+    static List<Text> getSplitPoints(List<String> sample, int numPartitions) {
+	List<Text> sorted = new ArrayList<Text>(sample.size());
+	for (String resource : sample) {
+	    sorted.add(new Text(resource));
+	}
+	Collections.sort(sorted);
+
+	TreeSet<Text> splitPoints = new TreeSet<Text>();
+	for (int i = 1; i < numPartitions && !sorted.isEmpty(); i++) {
+	    splitPoints.add(sorted.get((int) ((long) sorted.size() * i / numPartitions)));
+	}
+	return new ArrayList<Text>(splitPoints);
+    }
+}
@@ -13,6 +13,7 @@ package com.yahoo.glimmer.indexing.preprocessor;
 
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
@@ -32,26 +33,70 @@ import com.yahoo.glimmer.util.BySubjectRecord;
 public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
     private OutputCount outputCount = new OutputCount();
     private BySubjectRecord bySubjectRecord = new BySubjectRecord();
-    // Given that there is only 1 reducer writing a sorted list of subjects we
-    // can use the order of docs to deduce the document ID and add it to bysubjects
+    private ResourceRoleCounts roleCounts = new ResourceRoleCounts();
+    // Given that the reducers write a sorted list of subjects we can use the
+    // order of docs to deduce the document ID and add it to bysubjects.
     // The alternative would be to generate a MPH over the list of subjects but
     // that would require more memory when building the indices.
+    // With more than one(total order partitioned) reducer each starts at the
+    // number of resources in the partitions before it. See PrepTool.
     private long docId;
+
+    static final String DOC_ID_OFFSETS_KEY = "ResourcesReducer.docIdOffsets";
+    static final String PREVIOUS_SUBJECT_IDS_KEY = "ResourcesReducer.previousSubjectIds";
     
     static enum Counters {
 	TOO_MANY_RELATIONS, DUPLICATE_RELATIONS, KEYS, KEY_SUBJECT, KEY_PREDICATE, KEY_OBJECT, KEY_CONTEXT, VALUES;
     }
     
     private final static Text SUBJECT_TEXT = new Text(TupleElementName.SUBJECT.name());
-    private final static Text PREDICATE_TEXT = new Text(TupleElementName.PREDICATE.name());
-    private final static Text OBJECT_TEXT = new Text(TupleElementName.OBJECT.name());
-    private final static Text CONTEXT_TEXT = new Text(TupleElementName.CONTEXT.name());
+
+    @Override
+    protected void setup(Reducer<Text, Text, Text, Object>.Context context) throws IOException, InterruptedException {
+	Configuration conf = context.getConfiguration();
+	int partition = context.getTaskAttemptID().getTaskID().getId();
+	docId = getDocIdOffset(conf, partition);
+	String[] previousSubjectIds = conf.getStrings(PREVIOUS_SUBJECT_IDS_KEY);
+	if (previousSubjectIds != null) {
+	    long previousSubjectId = Long.parseLong(previousSubjectIds[partition]);
+	    if (previousSubjectId >= 0) {
+		bySubjectRecord.setPreviousId(previousSubjectId);
+	    }
+	}
+    }
+
+    /**
+     * @return the global doc id of the first resource in the given partition.
+     */
+    static long getDocIdOffset(Configuration conf, int partition) {
+	String[] offsets = conf.getStrings(DOC_ID_OFFSETS_KEY);
+	if (offsets == null) {
+	    return 0;
+	}
+	return Long.parseLong(offsets[partition]);
+    }
+
+    /**
+     * @param docIdOffsets
+     *            the global doc id of the first resource in each partition.
+     * @param previousSubjectIds
+     *            the global doc id of the last subject before each partition
+     *            or -1.
+     */
+    static void setDocIdOffsets(Configuration conf, long[] docIdOffsets, long[] previousSubjectIds) {
+	String[] offsets = new String[docIdOffsets.length];
+	String[] previous = new String[docIdOffsets.length];
+	for (int i = 0; i < docIdOffsets.length; i++) {
+	    offsets[i] = Long.toString(docIdOffsets[i]);
+	    previous[i] = Long.toString(previousSubjectIds[i]);
+	}
+	conf.setStrings(DOC_ID_OFFSETS_KEY, offsets);
+	conf.setStrings(PREVIOUS_SUBJECT_IDS_KEY, previous);
+    }
 
     protected void reduce(Text key, Iterable<Text> values, Reducer<Text, Text, Text, Object>.Context context) throws IOException, InterruptedException {
 	context.getCounter(Counters.KEYS).increment(1);
-	int keyPredicateCount = 0;
-	int keyObjectCount = 0;
-	int keyContextCount = 0;
+	roleCounts.clear();
 	int relationsCount = 0;
 	int duplicateRelatations = 0;
 	
@@ -65,12 +110,9 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
 	
 	for (Text value : values) {
 	    context.getCounter(Counters.VALUES).increment(1);
-	    if (PREDICATE_TEXT.equals(value)) {
-		keyPredicateCount++;
-	    } else if (OBJECT_TEXT.equals(value)) {
-		keyObjectCount++;
-	    } else if (CONTEXT_TEXT.equals(value)) {
-		keyContextCount++;
+	    if (roleCounts.add(value)) {
+		// A "PREDICATE", "OBJECT" or "CONTEXT" value or the counts from
+		// the Combiner.
 	    } else if (SUBJECT_TEXT.equals(value)) {
 		throw new IllegalArgumentException("Reducer got a SUBJECT value!?.  Should only be \"PREDICATE\", \"OBJECT\", \"CONTEXT\" or a relation String.");
 	    } else if (value.getLength() > 0) {
@@ -105,25 +147,49 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
 	    context.getCounter(Counters.KEY_SUBJECT).increment(relationsCount);
 	}
 
-	if (keyPredicateCount > 0) {
+	if (roleCounts.getPredicateCount() > 0) {
 	    outputCount.output = OUTPUT.PREDICATE;
-	    outputCount.count = keyPredicateCount;
+	    outputCount.count = roleCounts.getPredicateCount();
 	    context.write(key, outputCount);
-	    context.getCounter(Counters.KEY_PREDICATE).increment(keyPredicateCount);
+	    context.getCounter(Counters.KEY_PREDICATE).increment(roleCounts.getPredicateCount());
 	}
-	if (keyObjectCount > 0) {
+	if (roleCounts.getObjectCount() > 0) {
 	    outputCount.output = OUTPUT.OBJECT;
-	    outputCount.count = keyObjectCount;
+	    outputCount.count = roleCounts.getObjectCount();
 	    context.write(key, outputCount);
-	    context.getCounter(Counters.KEY_OBJECT).increment(keyObjectCount);
+	    context.getCounter(Counters.KEY_OBJECT).increment(roleCounts.getObjectCount());
 	}
-	if (keyContextCount > 0) {
+	if (roleCounts.getContextCount() > 0) {
 	    outputCount.output = OUTPUT.CONTEXT;
-	    outputCount.count = keyContextCount;
+	    outputCount.count = roleCounts.getContextCount();
 	    context.write(key, outputCount);
-	    context.getCounter(Counters.KEY_CONTEXT).increment(keyContextCount);
+	    context.getCounter(Counters.KEY_CONTEXT).increment(roleCounts.getContextCount());
 	}
 	
 	docId++;
     };
+
+    /**
+     * Sums the "PREDICATE", "OBJECT" and "CONTEXT" values for a key into a
+     * single ResourceRoleCounts value. Relation values are passed through
+     * unchanged.
+     */
+    public static class Combiner extends Reducer<Text, Text, Text, Text> {
+	private final ResourceRoleCounts roleCounts = new ResourceRoleCounts();
+	private final Text countsText = new Text();
+
+	@Override
+	protected void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+	    roleCounts.clear();
+	    for (Text value : values) {
+		if (!roleCounts.add(value)) {
+		    context.write(key, value);
+		}
+	    }
+	    if (!roleCounts.isEmpty()) {
+		roleCounts.write(countsText);
+		context.write(key, countsText);
+	    }
+	}
+    }
 }
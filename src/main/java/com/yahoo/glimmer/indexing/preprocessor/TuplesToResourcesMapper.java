@@ -11,8 +11,8 @@ package com.yahoo.glimmer.indexing.preprocessor;
  *  See accompanying LICENSE file.
  */
 
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -22,9 +22,6 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
-import org.semanticweb.yars.nx.Node;
-import org.semanticweb.yars.nx.parser.NxParser;
-import org.semanticweb.yars.nx.parser.ParseException;
 
 /**
  * Maps each input line containing a tuple of 3 or more elements to Key/Value
@@ -50,17 +47,41 @@ public class TuplesToResourcesMapper extends Mapper<LongWritable, Text, Text, Ob
 
     public static final String INCLUDE_CONTEXTS_KEY = "includeContexts";
     public static final String EXTRA_RESOURCES = "extraResources";
+    /**
+     * When set the subject is written with a value of "SUBJECT" instead of
+     * the "&lt;predicate&gt; &lt;object&gt; &lt;context&gt; ." relation.
+     * Used to count the resources in each partition. See PrepTool.
+     */
+    public static final String RESOURCES_ONLY_KEY = "resourcesOnly";
+    private static final Text SUBJECT_VALUE = new Text(TupleElementName.SUBJECT.name());
+    private static final Text PREDICATE_VALUE = new Text(TupleElementName.PREDICATE.name());
+    private static final Text OBJECT_VALUE = new Text(TupleElementName.OBJECT.name());
+    private static final Text CONTEXT_VALUE = new Text(TupleElementName.CONTEXT.name());
+    private static final byte[] SPACE = { ' ' };
+    private static final byte[] SPACE_DOT = { ' ', '.' };
 
     enum Counters {
-	NX_PARSER_EXCEPTION, NX_PARSER_RETRY_EXCEPTION, LONG_TUPLE, LONG_TUPLES, SHORT_TUPLE, LONG_TUPLE_ELEMENT, INVALID_RESOURCE, UNEXPECTED_SUBJECT_TYPE, UNEXPECTED_PREDICATE_TYPE, UNEXPECTED_CONTEXT_TYPE, WRITTEN_RESOURCES_CACHE_HIT
+	PARSE_EXCEPTION, LONG_TUPLE, LONG_TUPLES, SHORT_TUPLE, LONG_TUPLE_ELEMENT, INVALID_RESOURCE, UNEXPECTED_SUBJECT_TYPE, UNEXPECTED_PREDICATE_TYPE, UNEXPECTED_CONTEXT_TYPE, WRITTEN_RESOURCES_CACHE_HIT
     }
 
     public static enum TupleElementName {
 	SUBJECT, PREDICATE, OBJECT, CONTEXT;
     }
 
+    private static final TupleElementName[] ELEMENT_NAMES = TupleElementName.values();
+    private static final int SUBJECT = TupleElementName.SUBJECT.ordinal();
+    private static final int PREDICATE = TupleElementName.PREDICATE.ordinal();
+    private static final int OBJECT = TupleElementName.OBJECT.ordinal();
+    private static final int CONTEXT = TupleElementName.CONTEXT.ordinal();
+
     private boolean includeContexts = true;
-    private StringBuilder predicateObjectContextDot = new StringBuilder();
+    private boolean resourcesOnly;
+    // Parses the lines in place and the Texts written are reused so that
+    // nothing is allocated per line unless there is a filter.
+    private final NQuadsTokenizer tokenizer = new NQuadsTokenizer(MAX_NODES);
+    private final Text subjectText = new Text();
+    private final Text resourceText = new Text();
+    private final Text relationText = new Text();
     private Tuple tuple = new Tuple();
     private TupleFilter filter;
     private String[] extraResources;
@@ -75,6 +96,7 @@ public class TuplesToResourcesMapper extends Mapper<LongWritable, Text, Text, Ob
 	Configuration conf = context.getConfiguration();
 	boolean includeContexts = conf.getBoolean(INCLUDE_CONTEXTS_KEY, true);
 	setIncludeContexts(includeContexts);
+	resourcesOnly = conf.getBoolean(RESOURCES_ONLY_KEY, false);
 
 	TupleFilter filter = TupleFilterSerializer.deserialize(conf);
 	if (filter != null) {
@@ -117,117 +139,130 @@ public class TuplesToResourcesMapper extends Mapper<LongWritable, Text, Text, Ob
 	    }
 	}
 
-	String value = valueText.toString().trim();
-	if (value.isEmpty()) {
+	int nodeCount = tokenizer.tokenize(valueText);
+	if (nodeCount == 0) {
 	    return;
 	}
-	Node[] nodes;
-	try {
-	    nodes = NxParser.parseNodes(value);
-	} catch (ParseException e) {
-	    // NxParser 1.2.2 has problems with typed literals like:
-	    // "27"^^<int uri>. This is fixed in 1.2.3
-	    context.getCounter(Counters.NX_PARSER_EXCEPTION).increment(1l);
-	    String s = value.replaceAll("\\^\\^<[^>]+>", "");
-	    try {
-		nodes = NxParser.parseNodes(s);
-		LOG.info("Only parsed after remove of literal types:" + value);
-	    } catch (ParseException e1) {
-		context.getCounter(Counters.NX_PARSER_RETRY_EXCEPTION).increment(1l);
-		LOG.info("Failed parsing even after remove of literal types:" + value);
-		return;
-	    }
+	if (nodeCount < 0) {
+	    context.getCounter(Counters.PARSE_EXCEPTION).increment(1l);
+	    LOG.info("Failed parsing tuple at position " + key.toString());
+	    return;
 	}
-
-	if (nodes.length < 3) {
+	if (nodeCount < 3) {
 	    context.getCounter(Counters.SHORT_TUPLE).increment(1l);
 	    LOG.info("Line parsed with less than 3 nodes at position" + key.toString());
 	    return;
 	}
-	if (nodes.length > MAX_NODES) {
+	if (nodeCount > MAX_NODES) {
 	    context.getCounter(Counters.LONG_TUPLE).increment(1l);
 	    LOG.info("Line parsed with more than " + MAX_NODES + " nodes at position" + key.toString());
 	    return;
 	}
 
-	for (TupleElementName name : TupleElementName.values()) {
-	    TupleElement element = tuple.getElement(name);
-
-	    if (nodes.length > name.ordinal()) {
-		Node node = nodes[name.ordinal()];
-
-		String text = node.toString();
-		if (text.length() > 5000) {
-		    System.out.println("Long tuple element " + name.name() + ". Length:" + text.length() + " starting with " + text.substring(0, 100));
-		    context.getCounter(Counters.LONG_TUPLE_ELEMENT).increment(1);
-		    return;
-		}
-
-		element.type = TupleElement.Type.valueOf(node.getClass().getSimpleName().toUpperCase());
-		if (element.type == TupleElement.Type.RESOURCE) {
-		    try {
-			new URI(text);
-		    } catch (URISyntaxException e) {
-			context.getCounter(Counters.INVALID_RESOURCE).increment(1l);
-			LOG.info("Bad resource near position " + key.toString());
-			return;
-		    }
-		}
-		element.text = text;
-		element.n3 = node.toN3();
-	    } else {
-		element.type = null;
-		element.text = null;
-		element.n3 = null;
+	int elementCount = Math.min(nodeCount, ELEMENT_NAMES.length);
+	for (int i = 0; i < elementCount; i++) {
+	    int length = tokenizer.getTextLength(i);
+	    if (length > 5000) {
+		System.out.println("Long tuple element " + ELEMENT_NAMES[i].name() + ". Length:" + length + " starting with "
+			+ Text.decode(tokenizer.getBytes(), tokenizer.getTextStart(i), 100, true));
+		context.getCounter(Counters.LONG_TUPLE_ELEMENT).increment(1);
+		return;
+	    }
+	    if (tokenizer.getType(i) == TupleElement.Type.RESOURCE && !tokenizer.isValidResource(i)) {
+		context.getCounter(Counters.INVALID_RESOURCE).increment(1l);
+		LOG.info("Bad resource near position " + key.toString());
+		return;
 	    }
 	}
 
 	if (filter != null) {
+	    // Filters work on Strings and may rewrite the elements.
+	    for (int i = 0; i < ELEMENT_NAMES.length; i++) {
+		TupleElement element = tuple.getElement(ELEMENT_NAMES[i]);
+		if (i < elementCount) {
+		    element.type = tokenizer.getType(i);
+		    element.text = tokenizer.getTextString(i);
+		    element.n3 = tokenizer.getN3String(i);
+		} else {
+		    element.type = null;
+		    element.text = null;
+		    element.n3 = null;
+		}
+	    }
 	    if (!filter.filter(tuple)) {
 		// Skip tuple.
 		return;
 	    }
 	}
 
-	predicateObjectContextDot.setLength(0);
-
-	if (!tuple.subject.isOfType(TupleElement.Type.RESOURCE, TupleElement.Type.BNODE)) {
+	if (!isOfType(SUBJECT, TupleElement.Type.RESOURCE, TupleElement.Type.BNODE)) {
 	    context.getCounter(Counters.UNEXPECTED_SUBJECT_TYPE).increment(1l);
 	    return;
 	}
-	Text subject = new Text(tuple.subject.text);
+	setText(SUBJECT, subjectText);
 
-	if (!tuple.predicate.isOfType(TupleElement.Type.RESOURCE)) {
+	if (!isOfType(PREDICATE, TupleElement.Type.RESOURCE)) {
 	    context.getCounter(Counters.UNEXPECTED_PREDICATE_TYPE).increment(1l);
 	    return;
 	}
 
-	context.write(new Text(tuple.predicate.text), new Text(TupleElementName.PREDICATE.name()));
-	predicateObjectContextDot.append(tuple.predicate.n3);
+	setText(PREDICATE, resourceText);
+	context.write(resourceText, PREDICATE_VALUE);
+	relationText.clear();
+	appendN3(PREDICATE, relationText);
 
-	if (tuple.object.isOfType(TupleElement.Type.RESOURCE, TupleElement.Type.BNODE)) {
-	    context.write(new Text(tuple.object.text), new Text(TupleElementName.OBJECT.name()));
+	if (isOfType(OBJECT, TupleElement.Type.RESOURCE, TupleElement.Type.BNODE)) {
+	    setText(OBJECT, resourceText);
+	    context.write(resourceText, OBJECT_VALUE);
 	}
-	predicateObjectContextDot.append(' ');
-	predicateObjectContextDot.append(tuple.object.n3);
-
-	if (includeContexts && tuple.context.text != null) {
-	    if (tuple.context.isOfType(TupleElement.Type.RESOURCE)) {
-		context.write(new Text(tuple.context.text), new Text(TupleElementName.CONTEXT.name()));
-		predicateObjectContextDot.append(' ');
-		predicateObjectContextDot.append(tuple.context.n3);
+	relationText.append(SPACE, 0, SPACE.length);
+	appendN3(OBJECT, relationText);
+
+	if (includeContexts && elementCount > CONTEXT) {
+	    if (isOfType(CONTEXT, TupleElement.Type.RESOURCE)) {
+		setText(CONTEXT, resourceText);
+		context.write(resourceText, CONTEXT_VALUE);
+		relationText.append(SPACE, 0, SPACE.length);
+		appendN3(CONTEXT, relationText);
 	    } else {
 		context.getCounter(Counters.UNEXPECTED_CONTEXT_TYPE).increment(1l);
 	    }
 	}
-	predicateObjectContextDot.append(" .");
+	relationText.append(SPACE_DOT, 0, SPACE_DOT.length);
 
-	if (predicateObjectContextDot.length() > 10000) {
-	    System.out.println("Long tuple. Length:" + predicateObjectContextDot.length() + " starting with " + predicateObjectContextDot.substring(0, 100));
+	if (relationText.getLength() > 10000) {
+	    System.out.println("Long tuple. Length:" + relationText.getLength() + " starting with " + relationText.toString().substring(0, 100));
 	    context.getCounter(Counters.LONG_TUPLES).increment(1);
 	} else {
 	    // Write subject with predicate, object, context as value
-	    context.write(subject, new Text(predicateObjectContextDot.toString()));
+	    context.write(subjectText, resourcesOnly ? SUBJECT_VALUE : relationText);
+	}
+    }
+
+    private boolean isOfType(int element, TupleElement.Type... types) {
+	TupleElement.Type elementType = tokenizer.getType(element);
+	for (TupleElement.Type type : types) {
+	    if (elementType == type) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private void setText(int element, Text text) {
+	if (filter == null) {
+	    tokenizer.getText(element, text);
+	} else {
+	    text.set(tuple.getElement(ELEMENT_NAMES[element]).text);
+	}
+    }
+
+    private void appendN3(int element, Text text) throws CharacterCodingException {
+	if (filter == null) {
+	    tokenizer.appendN3(element, text);
+	} else {
+	    ByteBuffer n3 = Text.encode(tuple.getElement(ELEMENT_NAMES[element]).n3);
+	    text.append(n3.array(), 0, n3.limit());
 	}
     }
 }
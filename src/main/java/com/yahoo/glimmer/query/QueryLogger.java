@@ -13,11 +13,18 @@ package com.yahoo.glimmer.query;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Times queries, logs a line per query and records the timings in a QueryMetrics.
+ * 
+ * Thread safe.
+ */
 public class QueryLogger {
     private final static Logger LOGGER = Logger.getLogger(QueryLogger.class);
     public static final int ROLLING_WINDOW_SIZE = 50;
     public static final String LOG_SEPARATOR = "\t";
 
+    private final QueryMetrics metrics;
+
     /**
      * The number of queries seen so far (for statistical purposes).
      */
@@ -40,18 +47,19 @@ public class QueryLogger {
 
     public class QueryTimer {
 	private final long startTime = System.currentTimeMillis();
-	private int searchDuration;
-	private int duration;
+	private final long startNanos = System.nanoTime();
+	private long searchNanos = -1;
+	private long durationNanos = -1;
 	
 	public QueryTimer endSearch() {
-	    if (searchDuration == 0) {
-		searchDuration = (int) (System.currentTimeMillis() - startTime);
+	    if (searchNanos == -1) {
+		searchNanos = System.nanoTime() - startNanos;
 	    }
 	    return this;
 	}
 	public QueryTimer end() {
-	    if (duration == 0) {
-		duration = (int) (System.currentTimeMillis() - startTime);
+	    if (durationNanos == -1) {
+		durationNanos = System.nanoTime() - startNanos;
 	    }
 	    return this;
 	}
@@ -60,33 +68,61 @@ public class QueryLogger {
 	    return startTime;
 	}
 	public int getSearchDuration() {
-	    return searchDuration;
+	    return searchNanos == -1 ? 0 : (int) (searchNanos / 1000000);
 	}
 	public int getDuration() {
-	    return duration;
+	    return durationNanos == -1 ? 0 : (int) (durationNanos / 1000000);
+	}
+	public long getSearchDurationMicros() {
+	    return searchNanos == -1 ? 0 : searchNanos / 1000;
+	}
+	public long getDurationMicros() {
+	    return durationNanos == -1 ? 0 : durationNanos / 1000;
 	}
     }
+    
+    public QueryLogger() {
+	this(new QueryMetrics());
+    }
+    
+    public QueryLogger(QueryMetrics metrics) {
+	this.metrics = metrics;
+    }
 
     public QueryTimer start() {
 	return new QueryTimer();
     }
 
-    public int endQuery(QueryTimer timer, String query, int numResults) {
+    public int endQuery(QueryTimer timer, String indexName, String endpoint, String query, int numResults) {
 	timer.endSearch().end();
+	int duration = timer.getDuration();
+	
+	metrics.record(indexName, endpoint, timer);
 	
-	numQueries += 1;
-	sumTime += timer.duration;
-	if (numQueries % ROLLING_WINDOW_SIZE == 0) {
-	    rollingSum = timer.duration;
-	    rollingCount = 1;
-	} else {
-	    rollingSum += timer.duration;
-	    rollingCount += 1;
+	long numQueriesCopy, sumTimeCopy, rollingSumCopy, rollingCountCopy;
+	synchronized (this) {
+	    numQueries += 1;
+	    sumTime += duration;
+	    if (numQueries % ROLLING_WINDOW_SIZE == 0) {
+		rollingSum = duration;
+		rollingCount = 1;
+	    } else {
+		rollingSum += duration;
+		rollingCount += 1;
+	    }
+	    numQueriesCopy = numQueries;
+	    sumTimeCopy = sumTime;
+	    rollingSumCopy = rollingSum;
+	    rollingCountCopy = rollingCount;
 	}
 
-	LOGGER.info("#" + LOG_SEPARATOR + numQueries + LOG_SEPARATOR + query + LOG_SEPARATOR + timer.searchDuration + LOG_SEPARATOR + timer.duration + LOG_SEPARATOR
-		+ ((double) sumTime / (double) numQueries) + LOG_SEPARATOR + rollingSum + LOG_SEPARATOR + rollingCount + LOG_SEPARATOR
-		+ ((double) rollingSum / (double) rollingCount) + LOG_SEPARATOR + numResults);
-	return timer.duration;
+	LOGGER.info("#" + LOG_SEPARATOR + numQueriesCopy + LOG_SEPARATOR + query + LOG_SEPARATOR + timer.getSearchDuration() + LOG_SEPARATOR + duration + LOG_SEPARATOR
+		+ ((double) sumTimeCopy / (double) numQueriesCopy) + LOG_SEPARATOR + rollingSumCopy + LOG_SEPARATOR + rollingCountCopy + LOG_SEPARATOR
+		+ ((double) rollingSumCopy / (double) rollingCountCopy) + LOG_SEPARATOR + numResults);
+	return duration;
+    }
+    
+    public QueryMetrics getMetrics() {
+	return metrics;
     }
 }
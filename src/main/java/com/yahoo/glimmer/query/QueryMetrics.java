@@ -0,0 +1,285 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yahoo.glimmer.query.QueryLogger.QueryTimer;
+import com.yahoo.glimmer.util.BlockCache;
+import com.yahoo.glimmer.util.LatencyHistogram;
+
+/**
+ * Latency histograms of queries per index and endpoint plus counters for the
+ * document collection block caches and derefs.
+ *
+ * Thread safe. Times are recorded in microseconds.
+ *
+ * The getters are intended to be exported as JMX attributes and report over all
+ * indexes and endpoints.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+    private static final String ALL = "*";
+
+    /**
+     * The histograms for one index and endpoint. Results is the time after
+     * the search, spent building the result items.
+     */
+    public static class Timers {
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final LatencyHistogram search = new LatencyHistogram();
+	private final LatencyHistogram results = new LatencyHistogram();
+
+	private void record(QueryTimer timer) {
+	    total.record(timer.getDurationMicros());
+	    search.record(timer.getSearchDurationMicros());
+	    results.record(timer.getDurationMicros() - timer.getSearchDurationMicros());
+	}
+
+	public LatencyHistogram getTotal() {
+	    return total;
+	}
+
+	public LatencyHistogram getSearch() {
+	    return search;
+	}
+
+	public LatencyHistogram getResults() {
+	    return results;
+	}
+    }
+
+    public static class TimersSnapshot {
+	private final String index;
+	private final String endpoint;
+	private final LatencyHistogram.Snapshot total;
+	private final LatencyHistogram.Snapshot search;
+	private final LatencyHistogram.Snapshot results;
+
+	private TimersSnapshot(String index, String endpoint, Timers timers) {
+	    this.index = index;
+	    this.endpoint = endpoint;
+	    total = timers.total.getSnapshot();
+	    search = timers.search.getSnapshot();
+	    results = timers.results.getSnapshot();
+	}
+    }
+
+    public static class BlockCacheSnapshot {
+	private final String index;
+	private final long requests;
+	private final long loads;
+	private final double hitRate;
+	private final long decompressionMicros;
+
+	private BlockCacheSnapshot(String index, BlockCache blockCache) {
+	    this.index = index;
+	    requests = blockCache.getRequestCount();
+	    loads = blockCache.getLoadCount();
+	    hitRate = blockCache.getHitRate();
+	    decompressionMicros = blockCache.getLoadNanos() / 1000;
+	}
+    }
+
+    /**
+     * A point in time copy of the metrics. Serializes to JSON with Gson and
+     * toString() gives a plain text rendering, one value per line.
+     */
+    public static class Snapshot {
+	private final List<TimersSnapshot> timers = new ArrayList<TimersSnapshot>();
+	private final List<BlockCacheSnapshot> blockCaches = new ArrayList<BlockCacheSnapshot>();
+	private long derefs;
+	private long derefCacheHits;
+
+	@Override
+	public String toString() {
+	    StringBuilder sb = new StringBuilder();
+	    for (TimersSnapshot t : timers) {
+		appendHistogram(sb, t, "total", t.total);
+		appendHistogram(sb, t, "search", t.search);
+		appendHistogram(sb, t, "results", t.results);
+	    }
+	    for (BlockCacheSnapshot b : blockCaches) {
+		String labels = "{index=\"" + b.index + "\"}";
+		sb.append("block_cache_requests").append(labels).append(' ').append(b.requests).append('\n');
+		sb.append("block_cache_loads").append(labels).append(' ').append(b.loads).append('\n');
+		sb.append("block_cache_hit_rate").append(labels).append(' ').append(b.hitRate).append('\n');
+		sb.append("block_decompression_micros").append(labels).append(' ').append(b.decompressionMicros).append('\n');
+	    }
+	    sb.append("derefs ").append(derefs).append('\n');
+	    sb.append("deref_cache_hits ").append(derefCacheHits).append('\n');
+	    return sb.toString();
+	}
+
+	private static void appendHistogram(StringBuilder sb, TimersSnapshot t, String phase, LatencyHistogram.Snapshot h) {
+	    String prefix = "query_" + phase + "_micros{index=\"" + t.index + "\",endpoint=\"" + t.endpoint + "\"";
+	    sb.append(prefix).append(",stat=\"count\"} ").append(h.getCount()).append('\n');
+	    sb.append(prefix).append(",stat=\"mean\"} ").append(h.getMean()).append('\n');
+	    sb.append(prefix).append(",stat=\"p50\"} ").append(h.getP50()).append('\n');
+	    sb.append(prefix).append(",stat=\"p90\"} ").append(h.getP90()).append('\n');
+	    sb.append(prefix).append(",stat=\"p99\"} ").append(h.getP99()).append('\n');
+	    sb.append(prefix).append(",stat=\"p999\"} ").append(h.getP999()).append('\n');
+	    sb.append(prefix).append(",stat=\"max\"} ").append(h.getMax()).append('\n');
+	}
+    }
+
+    // Keyed on index name + '\t' + endpoint.
+    private final ConcurrentMap<String, Timers> timersMap = new ConcurrentHashMap<String, Timers>();
+    private final Timers allTimers = new Timers();
+    private final AtomicLong derefs = new AtomicLong();
+    private final AtomicLong derefCacheHits = new AtomicLong();
+
+    private Map<String, RDFIndex> indexes = Collections.emptyMap();
+
+    public void record(String indexName, String endpoint, QueryTimer timer) {
+	getTimers(indexName, endpoint).record(timer);
+	allTimers.record(timer);
+    }
+
+    public Timers getTimers(String indexName, String endpoint) {
+	String key = indexName + '\t' + endpoint;
+	Timers timers = timersMap.get(key);
+	if (timers == null) {
+	    timers = new Timers();
+	    Timers existing = timersMap.putIfAbsent(key, timers);
+	    if (existing != null) {
+		timers = existing;
+	    }
+	}
+	return timers;
+    }
+
+    /**
+     * Count a lookup of an objects subject document.
+     *
+     * @param cacheHit
+     *            true if the result came from a cache.
+     */
+    public void recordDeref(boolean cacheHit) {
+	derefs.incrementAndGet();
+	if (cacheHit) {
+	    derefCacheHits.incrementAndGet();
+	}
+    }
+
+    public Snapshot getSnapshot() {
+	Snapshot snapshot = new Snapshot();
+	snapshot.timers.add(new TimersSnapshot(ALL, ALL, allTimers));
+	for (Map.Entry<String, Timers> entry : timersMap.entrySet()) {
+	    String[] indexAndEndpoint = entry.getKey().split("\t", 2);
+	    snapshot.timers.add(new TimersSnapshot(indexAndEndpoint[0], indexAndEndpoint[1], entry.getValue()));
+	}
+	for (Map.Entry<String, RDFIndex> entry : indexes.entrySet()) {
+	    BlockCache blockCache = entry.getValue().getBlockCache();
+	    if (blockCache != null) {
+		snapshot.blockCaches.add(new BlockCacheSnapshot(entry.getKey(), blockCache));
+	    }
+	}
+	snapshot.derefs = derefs.get();
+	snapshot.derefCacheHits = derefCacheHits.get();
+	return snapshot;
+    }
+
+    /**
+     * @param indexes
+     *            the indexes to report block cache stats for.
+     */
+    public void setIndexes(Map<String, RDFIndex> indexes) {
+	this.indexes = indexes;
+    }
+
+    @Override
+    public long getQueryCount() {
+	return allTimers.total.getCount();
+    }
+
+    @Override
+    public double getTotalTimeMeanMicros() {
+	return allTimers.total.getMean();
+    }
+
+    @Override
+    public long getTotalTimeP50Micros() {
+	return allTimers.total.getPercentile(0.5);
+    }
+
+    @Override
+    public long getTotalTimeP99Micros() {
+	return allTimers.total.getPercentile(0.99);
+    }
+
+    @Override
+    public long getTotalTimeMaxMicros() {
+	return allTimers.total.getMax();
+    }
+
+    @Override
+    public long getSearchTimeP50Micros() {
+	return allTimers.search.getPercentile(0.5);
+    }
+
+    @Override
+    public long getSearchTimeP99Micros() {
+	return allTimers.search.getPercentile(0.99);
+    }
+
+    @Override
+    public long getResultsTimeP50Micros() {
+	return allTimers.results.getPercentile(0.5);
+    }
+
+    @Override
+    public long getResultsTimeP99Micros() {
+	return allTimers.results.getPercentile(0.99);
+    }
+
+    @Override
+    public double getBlockCacheHitRate() {
+	long requests = 0;
+	long loads = 0;
+	for (RDFIndex index : indexes.values()) {
+	    BlockCache blockCache = index.getBlockCache();
+	    if (blockCache != null) {
+		requests += blockCache.getRequestCount();
+		loads += blockCache.getLoadCount();
+	    }
+	}
+	return requests == 0 ? 0 : (double) (requests - loads) / requests;
+    }
+
+    @Override
+    public long getBlockDecompressionMicros() {
+	long nanos = 0;
+	for (RDFIndex index : indexes.values()) {
+	    BlockCache blockCache = index.getBlockCache();
+	    if (blockCache != null) {
+		nanos += blockCache.getLoadNanos();
+	    }
+	}
+	return nanos / 1000;
+    }
+
+    @Override
+    public long getDerefCount() {
+	return derefs.get();
+    }
+
+    @Override
+    public long getDerefCacheHitCount() {
+	return derefCacheHits.get();
+    }
+}
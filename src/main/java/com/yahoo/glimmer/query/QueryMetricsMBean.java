@@ -0,0 +1,43 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+/**
+ * JMX view of QueryMetrics. Values are over all indexes and endpoints.
+ */
+public interface QueryMetricsMBean {
+    public long getQueryCount();
+
+    public double getTotalTimeMeanMicros();
+
+    public long getTotalTimeP50Micros();
+
+    public long getTotalTimeP99Micros();
+
+    public long getTotalTimeMaxMicros();
+
+    public long getSearchTimeP50Micros();
+
+    public long getSearchTimeP99Micros();
+
+    public long getResultsTimeP50Micros();
+
+    public long getResultsTimeP99Micros();
+
+    public double getBlockCacheHitRate();
+
+    public long getBlockDecompressionMicros();
+
+    public long getDerefCount();
+
+    public long getDerefCacheHitCount();
+}
@@ -13,19 +13,19 @@ package com.yahoo.glimmer.query;
 
 import it.unimi.di.big.mg4j.document.DocumentCollection;
 import it.unimi.di.big.mg4j.document.IdentityDocumentFactory;
-import it.unimi.di.big.mg4j.index.BitStreamIndex;
 import it.unimi.di.big.mg4j.index.DiskBasedIndex;
 import it.unimi.di.big.mg4j.index.Index;
 import it.unimi.di.big.mg4j.index.Index.UriKeys;
 import it.unimi.di.big.mg4j.index.IndexIterator;
-import it.unimi.di.big.mg4j.index.QuasiSuccinctIndex;
 import it.unimi.di.big.mg4j.index.TermProcessor;
 import it.unimi.di.big.mg4j.query.QueryEngine;
 import it.unimi.di.big.mg4j.query.SelectedInterval;
 import it.unimi.di.big.mg4j.query.nodes.Query;
 import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
 import it.unimi.di.big.mg4j.query.nodes.Select;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
 import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
+import it.unimi.di.big.mg4j.search.score.AbstractWeightedScorer;
 import it.unimi.di.big.mg4j.search.score.CountScorer;
 import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
 import it.unimi.di.big.mg4j.search.score.Scorer;
@@ -33,14 +33,19 @@ import it.unimi.dsi.big.util.ImmutableExternalPrefixMap;
 import it.unimi.dsi.big.util.LongBigListSignedStringMap;
 import it.unimi.dsi.big.util.SemiExternalGammaBigList;
 import it.unimi.dsi.big.util.StringMap;
+import it.unimi.dsi.bits.BitVector;
+import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.fastutil.BigList;
 import it.unimi.dsi.fastutil.Hash;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.objects.Object2LongFunction;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ReferenceLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ReferenceMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectBigList;
+import it.unimi.dsi.fastutil.objects.ObjectHeapPriorityQueue;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
 import it.unimi.dsi.fastutil.objects.Reference2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Reference2DoubleOpenHashMap;
@@ -59,6 +64,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -71,7 +77,12 @@ import org.apache.log4j.Logger;
 import org.semanticweb.yars.nx.namespace.RDF;
 
 import com.yahoo.glimmer.indexing.TitleListDocumentCollection;
+import com.yahoo.glimmer.util.BlockCache;
 import com.yahoo.glimmer.util.BlockCompressedDocumentCollection;
+import com.yahoo.glimmer.util.DeltaSegment;
+import com.yahoo.glimmer.util.ResourceIdTermMap;
+import com.yahoo.glimmer.util.SegmentedDocumentCollection;
+import com.yahoo.glimmer.util.SegmentedResourcesMap;
 import com.yahoo.glimmer.util.Util;
 
 public class RDFIndex {
@@ -88,13 +99,17 @@ public class RDFIndex {
     private final static String PREDICATE_INDEX_KEY = "predicate";
     private final static String OBJECT_INDEX_KEY = "object";
     private final static String CONTEXT_INDEX_KEY = "context";
+    private final static String PREDICATE_OBJECT_INDEX_KEY = "predicateObject";
     private static final String[] HORIZONTAL_INDECIES = new String[] { SUBJECT_INDEX_KEY, SUBJECT_TEXT_INDEX_KEY, PREDICATE_INDEX_KEY, OBJECT_INDEX_KEY,
-	    CONTEXT_INDEX_KEY };
+	    CONTEXT_INDEX_KEY, PREDICATE_OBJECT_INDEX_KEY };
     private static final String[] MANDITORY_HORIZONTAL_INDECIES = new String[] { PREDICATE_INDEX_KEY, OBJECT_INDEX_KEY };
 
     private final String indexName;
     /** The query engine. */
     private QueryEngine queryEngine;
+    /** The builder visitor and scorer used by the query engine. Copies are used for processAfter(). */
+    private DocumentIteratorBuilderVisitor builderVisitor;
+    private Scorer scorer;
     /** The document collection. */
     private DocumentCollection documentCollection = null;
     /** Term counts in the token index */
@@ -107,6 +122,10 @@ public class RDFIndex {
     protected FileLinesList allIdsToResources;
     /** The alignment index **/
     protected Index alignmentIndex;
+    /** The delta indexes, oldest first. */
+    private final List<DeltaIndex> deltaIndexes = new ArrayList<DeltaIndex>();
+    /** The base and delta collections. Null if there are no deltas. */
+    private SegmentedDocumentCollection segmentedCollection;
 
     private String resourceIdPrefix = "@";
 
@@ -186,18 +205,34 @@ public class RDFIndex {
 
 	resourceIdPrefix = context.getResourceIdPrefix();
 
-	// Load all resources hash function
-	allResourcesToIds = loadObjectOfType(context.getAllResourcesMapFile());
-	if (allResourcesToIds == null) {
-	    LOGGER.warn("Warning, no resources map specified!");
-	} else {
-	    LOGGER.info("Loaded resourses map " + context.getAllResourcesMapFile().getPath() + " with " + allResourcesToIds.size() + " entries.");
+	List<DeltaSegment> deltas;
+	try {
+	    deltas = DeltaSegment.list(kbRootPath);
+	} catch (IOException e) {
+	    throw new RDFIndexException("Couldn't list the deltas of " + kbRootPath, e);
 	}
 
-	try {
-	    allResourcesToIds = new LongBigListSignedStringMap(allResourcesToIds, context.getAllResourcesSignatureFile().getPath());
-	} catch (Exception e) {
-	    throw new RDFIndexException("Exception while creating 'all' resources signed map", e);
+	if (deltas.isEmpty()) {
+	    // Load all resources hash function
+	    allResourcesToIds = loadObjectOfType(context.getAllResourcesMapFile());
+	    if (allResourcesToIds == null) {
+		LOGGER.warn("Warning, no resources map specified!");
+	    } else {
+		LOGGER.info("Loaded resourses map " + context.getAllResourcesMapFile().getPath() + " with " + allResourcesToIds.size() + " entries.");
+	    }
+
+	    try {
+		allResourcesToIds = new LongBigListSignedStringMap(allResourcesToIds, context.getAllResourcesSignatureFile().getPath());
+	    } catch (Exception e) {
+		throw new RDFIndexException("Exception while creating 'all' resources signed map", e);
+	    }
+	} else {
+	    try {
+		allResourcesToIds = SegmentedResourcesMap.load(context.getAllResourcesMapFile(), context.getAllResourcesSignatureFile(), deltas);
+	    } catch (IOException e) {
+		throw new RDFIndexException("Exception while loading the base and delta resources maps", e);
+	    }
+	    LOGGER.info("Loaded resources maps of the base and " + deltas.size() + " deltas with " + allResourcesToIds.size() + " entries.");
 	}
 
 	// Load the reverse all resource function.
@@ -212,7 +247,8 @@ public class RDFIndex {
 	}
 
 	// Load vertical indexes
-	Object2ReferenceMap<String, Index> indexMap = loadIndexesFromDir(verticalIndexDir, context.getLoadDocumentSizes(), context.getLoadIndexesInMemory());
+	Object2ReferenceMap<String, Index> indexMap = loadIndexesFromDir(verticalIndexDir, context.getLoadDocumentSizes(), context.getLoadIndexesInMemory(),
+		documentCollection.size());
 	LOGGER.info("Loaded " + indexMap.size() + " vertical indices.");
 
 	verticalPredicates = Collections.unmodifiableSet(new HashSet<String>(indexMap.keySet()));
@@ -227,7 +263,7 @@ public class RDFIndex {
 	}
 
 	// Load horizontal indexes
-	indexMap.putAll(loadIndexesFromDir(horizontalIndexDir, true, context.getLoadIndexesInMemory()));
+	indexMap.putAll(loadIndexesFromDir(horizontalIndexDir, true, context.getLoadIndexesInMemory(), documentCollection.size()));
 
 	for (String indexKey : MANDITORY_HORIZONTAL_INDECIES) {
 	    if (!indexMap.containsKey(indexKey)) {
@@ -238,20 +274,13 @@ public class RDFIndex {
 	if (!indexMap.containsKey(CONTEXT_INDEX_KEY)) {
 	    LOGGER.info("No context index found.");
 	}
+	if (!indexMap.containsKey(PREDICATE_OBJECT_INDEX_KEY)) {
+	    LOGGER.info("No " + PREDICATE_OBJECT_INDEX_KEY + " index found. Predicate/object queries will use Align.");
+	}
 
 	// Loading frequencies
 	Index objectIndex = indexMap.get(OBJECT_INDEX_KEY);
-	String filename = (String) objectIndex.properties.getProperty(BASENAME_INDEX_PROPERTY_KEY);
-	filename += DiskBasedIndex.FREQUENCIES_EXTENSION;
-	try {
-	    LOGGER.info("Loading frequencies from " + filename);
-	    frequencies = new SemiExternalGammaBigList(new InputBitStream(filename), 1, objectIndex.numberOfTerms);
-	    if (frequencies.size64() != objectIndex.numberOfDocuments) {
-		LOGGER.warn("Loaded " + frequencies.size64() + " frequency values but objectIndex.numberOfDocuments is " + objectIndex.numberOfDocuments);
-	    }
-	} catch (Exception e) {
-	    throw new IllegalArgumentException("Failed to load frequences for objectText index from " + filename, e);
-	}
+	frequencies = loadFrequencies(objectIndex);
 
 	try {
 	    predicateDistribution = Collections.unmodifiableMap(getTermDistribution(indexMap.get(PREDICATE_INDEX_KEY), true));
@@ -313,7 +342,7 @@ public class RDFIndex {
 
 	// This is empty for non-payload indices
 	Reference2ReferenceMap<Index, Object> index2Parser = new Reference2ReferenceOpenHashMap<Index, Object>();
-	DocumentIteratorBuilderVisitor builderVisitor = new DocumentIteratorBuilderVisitor(indexMap, index2Parser, objectIndex, MAX_STEMMING);
+	builderVisitor = new DocumentIteratorBuilderVisitor(indexMap, index2Parser, objectIndex, MAX_STEMMING);
 	// QueryParser is null as we will only pass in parsed queries
 	queryEngine = new QueryEngine(null, builderVisitor, indexMap);
 
@@ -324,6 +353,10 @@ public class RDFIndex {
 	queryEngine.multiplex = false;
 	queryEngine.intervalSelector = null;
 
+	if (!deltas.isEmpty()) {
+	    loadDeltas(context, deltas);
+	}
+
 	// Load priors
 	documentPriors = loadObjectOfType(context.getDocumentPriorsFile());
 	if (documentPriors != null) {
@@ -347,7 +380,8 @@ public class RDFIndex {
 	return indexName;
     }
 
-    private Object2ReferenceMap<String, Index> loadIndexesFromDir(File indexDir, boolean loadDocSizes, boolean inMemory) throws RDFIndexException {
+    private Object2ReferenceMap<String, Index> loadIndexesFromDir(File indexDir, boolean loadDocSizes, boolean inMemory, long numberOfDocuments)
+	    throws RDFIndexException {
 	EnumMap<UriKeys, String> indexOptionsmap = new EnumMap<UriKeys, String>(UriKeys.class);
 	if (inMemory) {
 	    indexOptionsmap.put(UriKeys.INMEMORY, "true");
@@ -375,7 +409,67 @@ public class RDFIndex {
 	}
 
 	Reference2DoubleOpenHashMap<Index> index2Weight = new Reference2DoubleOpenHashMap<Index>();
-	return loadIndicesFromSpec(indexBasenames, documentCollection.size(), index2Weight, loadDocSizes, indexOptionsmap);
+	return loadIndicesFromSpec(indexBasenames, numberOfDocuments, index2Weight, loadDocSizes, indexOptionsmap);
+    }
+
+    private static SemiExternalGammaBigList loadFrequencies(Index objectIndex) {
+	String filename = (String) objectIndex.properties.getProperty(BASENAME_INDEX_PROPERTY_KEY);
+	filename += DiskBasedIndex.FREQUENCIES_EXTENSION;
+	try {
+	    LOGGER.info("Loading frequencies from " + filename);
+	    SemiExternalGammaBigList frequencies = new SemiExternalGammaBigList(new InputBitStream(filename), 1, objectIndex.numberOfTerms);
+	    if (frequencies.size64() != objectIndex.numberOfDocuments) {
+		LOGGER.warn("Loaded " + frequencies.size64() + " frequency values but objectIndex.numberOfDocuments is " + objectIndex.numberOfDocuments);
+	    }
+	    return frequencies;
+	} catch (Exception e) {
+	    throw new IllegalArgumentException("Failed to load frequences for objectText index from " + filename, e);
+	}
+    }
+
+    /**
+     * Loads the indexes and collections of the deltas. The base's document
+     * collection is replaced with one that reads the current record of a doc
+     * from the newest segment that has it.
+     */
+    private void loadDeltas(Context context, List<DeltaSegment> deltas) throws RDFIndexException {
+	if (!(documentCollection instanceof BlockCompressedDocumentCollection)) {
+	    throw new RDFIndexException("Deltas need the base's bySubject collection.");
+	}
+	DocumentCollection[] collections = new DocumentCollection[deltas.size() + 1];
+	BitVector[] deleted = new BitVector[deltas.size() + 1];
+	collections[0] = documentCollection;
+	deleted[0] = LongArrayBitVector.getInstance();
+
+	for (int i = 0; i < deltas.size(); i++) {
+	    DeltaSegment delta = deltas.get(i);
+	    LOGGER.info("Loading delta " + delta);
+	    File deltaDir = delta.getDir();
+	    DeltaIndex deltaIndex = new DeltaIndex(delta);
+	    try {
+		collections[i + 1] = SegmentedDocumentCollection.openBySubject(deltaDir);
+		deleted[i + 1] = delta.loadDeleted();
+		if (delta.hasResources()) {
+		    deltaIndex.idsToResources = new FileLinesList(delta.getResourcesFile().getPath(), "UTF-8");
+		}
+	    } catch (IOException e) {
+		throw new RDFIndexException("Failed to open delta " + deltaDir, e);
+	    }
+
+	    deltaIndex.indexMap = loadIndexesFromDir(new File(deltaDir, "vertical"), context.getLoadDocumentSizes(), context.getLoadIndexesInMemory(),
+		    delta.getNumberOfDocs());
+	    deltaIndex.indexMap.putAll(loadIndexesFromDir(new File(deltaDir, "horizontal"), true, context.getLoadIndexesInMemory(), delta.getNumberOfDocs()));
+	    Index objectIndex = deltaIndex.indexMap.get(OBJECT_INDEX_KEY);
+	    if (objectIndex == null) {
+		throw new IllegalStateException("No " + OBJECT_INDEX_KEY + " index found in delta " + deltaDir);
+	    }
+	    deltaIndex.frequencies = loadFrequencies(objectIndex);
+	    deltaIndex.builderVisitor = new DocumentIteratorBuilderVisitor(deltaIndex.indexMap, new Reference2ReferenceOpenHashMap<Index, Object>(),
+		    objectIndex, MAX_STEMMING);
+	    deltaIndexes.add(deltaIndex);
+	}
+	segmentedCollection = new SegmentedDocumentCollection(collections, deleted);
+	documentCollection = segmentedCollection;
     }
 
     /**
@@ -470,42 +564,50 @@ public class RDFIndex {
 	}
     }
 
-    private Reference2DoubleOpenHashMap<Index> loadB(Context context) {
+    private Reference2DoubleOpenHashMap<Index> loadB(Context context, Object2ReferenceMap<String, Index> indexMap) {
 	Reference2DoubleOpenHashMap<Index> b = new Reference2DoubleOpenHashMap<Index>();
 
 	double db = context.getB();
 
-	for (String indexName : getIndexedFields()) {
+	for (Index index : indexMap.values()) {
 	    // TODO load from file if needed
-	    b.put(getField(indexName), db);
+	    b.put(index, db);
 	}
-	b.put(queryEngine.indexMap.get(OBJECT_INDEX_KEY), db);
+	b.put(indexMap.get(OBJECT_INDEX_KEY), db);
 	return b;
     }
 
     /**
      * Compute index weights from context
      * 
+     * The predicateObject index holds the object terms again, so it gets the
+     * weight of the object index and isn't counted in the multiplier. That
+     * way having it doesn't change the weights of the other indexes.
      * 
      * @param context
      * @return
      */
-    private Reference2DoubleOpenHashMap<Index> loadWeights(Context context) {
+    static Reference2DoubleOpenHashMap<Index> loadWeights(Context context, Object2ReferenceMap<String, Index> indexMap) {
 	Reference2DoubleOpenHashMap<Index> index2Weight = new Reference2DoubleOpenHashMap<Index>();
 
-	ObjectSet<String> indexNames = queryEngine.indexMap.keySet();
+	ObjectSet<String> indexNames = indexMap.keySet();
+	int multiplier = indexNames.size();
+	if (indexNames.contains(PREDICATE_OBJECT_INDEX_KEY)) {
+	    multiplier--;
+	}
 	for (String indexName : indexNames) {
-	    Index index = queryEngine.indexMap.get(indexName);
-	    String w = context.getString("w." + indexName);
+	    Index index = indexMap.get(indexName);
+	    String weightName = PREDICATE_OBJECT_INDEX_KEY.equals(indexName) ? OBJECT_INDEX_KEY : indexName;
+	    String w = context.getString("w." + weightName);
 	    if (w == null) { // unimportant
-		index2Weight.put(index, context.getWfUnimportant() * indexNames.size());
+		index2Weight.put(index, context.getWfUnimportant() * multiplier);
 	    } else {
 		if (w.equals(SetDocumentPriors.IMPORTANT))
-		    index2Weight.put(index, context.getWfImportant() * indexNames.size());
+		    index2Weight.put(index, context.getWfImportant() * multiplier);
 		else if (w.equals(SetDocumentPriors.UNIMPORTANT))
-		    index2Weight.put(index, context.getWfUnimportant() * indexNames.size());
+		    index2Weight.put(index, context.getWfUnimportant() * multiplier);
 		else if (w.equals(SetDocumentPriors.NEUTRAL))
-		    index2Weight.put(index, context.getWfNeutral() * indexNames.size());
+		    index2Weight.put(index, context.getWfNeutral() * multiplier);
 	    }
 	}
 
@@ -514,22 +616,22 @@ public class RDFIndex {
     }
 
     protected Scorer configureScorer(Context context) throws FileNotFoundException, IOException {
+	return configureScorer(context, queryEngine.indexMap, frequencies);
+    }
 
-	Reference2DoubleOpenHashMap<Index> bByIndex = loadB(context);
+    private Scorer configureScorer(Context context, Object2ReferenceMap<String, Index> indexMap, SemiExternalGammaBigList frequencies) {
+	Reference2DoubleOpenHashMap<Index> bByIndex = loadB(context, indexMap);
 
 	double[] documentWeights = new double[3];
 	documentWeights[Integer.parseInt(SetDocumentPriors.IMPORTANT)] = context.getWsImportant();
 	documentWeights[Integer.parseInt(SetDocumentPriors.UNIMPORTANT)] = context.getWsUnimportant();
 	documentWeights[Integer.parseInt(SetDocumentPriors.NEUTRAL)] = context.getWsNeutral();
 
-	StringMap<? extends CharSequence> objectTermMap;
-	Index objectIndex = getObjectIndex();
-	if (objectIndex instanceof BitStreamIndex) {
-	    objectTermMap = ((BitStreamIndex) objectIndex).termMap;
-	} else if (objectIndex instanceof QuasiSuccinctIndex) {
-	    objectTermMap = ((QuasiSuccinctIndex) objectIndex).termMap;
-	} else {
-	    throw new IllegalStateException("Subject index is not a BitStreamIndex. Don't know how to get its termMap.");
+	Index objectIndex = indexMap.get(OBJECT_INDEX_KEY);
+	// Both BitStreamIndex and QuasiSuccinctIndex load their term maps.
+	StringMap<? extends CharSequence> objectTermMap = objectIndex.termMap;
+	if (objectTermMap == null) {
+	    throw new IllegalStateException("Object index " + objectIndex.getClass().getSimpleName() + " has no termMap.");
 	}
 	return new WOOScorer(context.getK1(), bByIndex, objectTermMap, frequencies, objectIndex.sizes, (double) objectIndex.numberOfOccurrences
 		/ objectIndex.numberOfDocuments, objectIndex.numberOfDocuments, context.getWMatches(), documentWeights, context.getDlCutoff(), documentPriors,
@@ -543,14 +645,27 @@ public class RDFIndex {
      */
     public void reconfigure(Context context) {
 	// Recomputes index weights
-	queryEngine.setWeights(loadWeights(context));
+	queryEngine.setWeights(loadWeights(context, queryEngine.indexMap));
 
 	// Configure scorer
 	try {
 
 	    // Configure scorer
 	    Scorer scorer = configureScorer(context);
+	    // The engine sets its weights on the scorer. processAfter() scores
+	    // with copies of the same scorer.
 	    queryEngine.score(scorer);
+	    this.scorer = scorer;
+
+	    for (DeltaIndex deltaIndex : deltaIndexes) {
+		Scorer deltaScorer = configureScorer(context, deltaIndex.indexMap, deltaIndex.frequencies);
+		// There is no engine for the deltas, so set their weights as the
+		// engine does.
+		if (deltaScorer instanceof AbstractWeightedScorer) {
+		    ((AbstractWeightedScorer) deltaScorer).setWeights(loadWeights(context, deltaIndex.indexMap));
+		}
+		deltaIndex.scorer = deltaScorer;
+	    }
 	    // Only valid if we have a scorer
 	    // ALERT WTF
 	    // queryEngine.equalize( context.SIZE_TOP_K );
@@ -607,6 +722,17 @@ public class RDFIndex {
 	return documentCollection;
     }
 
+    /**
+     * @return the cache of uncompressed blocks of the document collection or null if the collection isn't block compressed.
+     */
+    public BlockCache getBlockCache() {
+	DocumentCollection baseCollection = segmentedCollection == null ? documentCollection : segmentedCollection.getSegment(0);
+	if (baseCollection instanceof BlockCompressedDocumentCollection) {
+	    return ((BlockCompressedDocumentCollection) baseCollection).getBlockCache();
+	}
+	return null;
+    }
+
     public Index getAlignmentIndex() {
 	return alignmentIndex;
     }
@@ -620,7 +746,19 @@ public class RDFIndex {
     }
 
     public synchronized String lookupResourceById(long id) {
-	MutableString value = allIdsToResources.get((int) id);
+	FileLinesList idsToResources = allIdsToResources;
+	for (int i = deltaIndexes.size(); i-- != 0;) {
+	    DeltaSegment delta = deltaIndexes.get(i).segment;
+	    if (id >= delta.getFirstDocId()) {
+		if (id >= delta.getNumberOfDocs()) {
+		    return null;
+		}
+		idsToResources = deltaIndexes.get(i).idsToResources;
+		id -= delta.getFirstDocId();
+		break;
+	    }
+	}
+	MutableString value = idsToResources.get((int) id);
 	if (value != null) {
 	    return value.toString();
 	}
@@ -641,6 +779,9 @@ public class RDFIndex {
 
     public int process(final int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results,
 	    final Query... queries) throws QueryBuilderVisitorException, IOException {
+	if (!deltaIndexes.isEmpty()) {
+	    return processSegments(offset, length, results, queries);
+	}
 	QueryEngine engine = queryEngine.copy();
 	if (queries.length == 1 && queries[0] instanceof Select) {
 	    // If it is only a query by type disable the scorer for this query
@@ -652,6 +793,239 @@ public class RDFIndex {
 	return engine.process(queries, offset, length, results);
     }
 
+    /**
+     * process() when there are deltas. As the QueryEngine does, the queries
+     * are tried in order and each one only adds the documents that the ones
+     * before it didn't return, until there are offset + length results. The
+     * count is the sum of the counts of the queries tried. The results have
+     * no intervals, as the QueryEngine's interval selector is null.
+     */
+    private int processSegments(final int offset, final int length,
+	    final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results, final Query... queries)
+	    throws QueryBuilderVisitorException, IOException {
+	final int wanted = offset + length;
+	// The top offset + length of the merged segments.
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> top = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	LongOpenHashSet seen = new LongOpenHashSet();
+	int count = 0;
+	for (int i = 0; i < queries.length && top.size() < wanted; i++) {
+	    ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> queryTop = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	    // Enough for the missing results even if all those seen match again.
+	    count += processAfter(0, -1, wanted - top.size() + seen.size(), queryTop, queries[i]);
+	    for (DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi : queryTop) {
+		if (top.size() == wanted) {
+		    break;
+		}
+		if (seen.add(dsi.document)) {
+		    top.add(dsi);
+		}
+	    }
+	}
+	for (int i = offset; i < top.size(); i++) {
+	    results.add(top.get(i));
+	}
+	return count;
+    }
+
+    /**
+     * Builds an unscored iterator over the current documents matching the
+     * given query in the base and the deltas in document id order. Thread
+     * safe. The caller must dispose() the returned iterator.
+     * 
+     * @param query
+     * @return the iterator.
+     * @throws QueryBuilderVisitorException
+     */
+    public DocumentIds getDocumentIds(final Query query) throws QueryBuilderVisitorException {
+	DocumentIterator[] iterators = new DocumentIterator[deltaIndexes.size() + 1];
+	BitVector[] masks = new BitVector[iterators.length];
+	iterators[0] = getDocumentIterator(query);
+	for (int i = 0; i < deltaIndexes.size(); i++) {
+	    DeltaIndex deltaIndex = deltaIndexes.get(i);
+	    Query deltaQuery = query.accept(new SelectPruningVisitor(deltaIndex.indexMap.keySet()));
+	    iterators[i + 1] = deltaQuery.accept(deltaIndex.builderVisitor.copy().prepare());
+	}
+	if (segmentedCollection != null) {
+	    for (int i = 0; i < masks.length; i++) {
+		masks[i] = segmentedCollection.getMask(i);
+	    }
+	}
+	return new DocumentIds(iterators, masks);
+    }
+
+    private DocumentIterator getDocumentIterator(final Query query) throws QueryBuilderVisitorException {
+	DocumentIteratorBuilderVisitor visitor = builderVisitor.copy();
+	return query.accept(visitor.prepare());
+    }
+
+    /**
+     * Merges the document ids of the segment's iterators, skipping the
+     * masked ones. A current document is only in one segment, so no id is
+     * returned twice.
+     */
+    public static class DocumentIds {
+	private final DocumentIterator[] iterators;
+	private final BitVector[] masks;
+	private final long[] heads;
+	private boolean started;
+
+	private DocumentIds(DocumentIterator[] iterators, BitVector[] masks) {
+	    this.iterators = iterators;
+	    this.masks = masks;
+	    heads = new long[iterators.length];
+	}
+
+	private long advance(int segment) throws IOException {
+	    BitVector mask = masks[segment];
+	    long document;
+	    while ((document = iterators[segment].nextDocument()) != DocumentIterator.END_OF_LIST && mask != null && document < mask.length()
+		    && mask.getBoolean(document)) {
+	    }
+	    return document;
+	}
+
+	/**
+	 * @return the next document id or DocumentIterator.END_OF_LIST.
+	 */
+	public long nextDocument() throws IOException {
+	    if (!started) {
+		for (int segment = 0; segment < heads.length; segment++) {
+		    heads[segment] = advance(segment);
+		}
+		started = true;
+	    }
+	    // END_OF_LIST is bigger than any id.
+	    int next = 0;
+	    for (int segment = 1; segment < heads.length; segment++) {
+		if (heads[segment] < heads[next]) {
+		    next = segment;
+		}
+	    }
+	    long document = heads[next];
+	    if (document != DocumentIterator.END_OF_LIST) {
+		heads[next] = advance(next);
+	    }
+	    return document;
+	}
+
+	public void dispose() throws IOException {
+	    for (DocumentIterator iterator : iterators) {
+		iterator.dispose();
+	    }
+	}
+    }
+
+    /**
+     * Orders by descending score then ascending document id. The order of the
+     * results of processAfter().
+     */
+    public static final Comparator<DocumentScoreInfo<?>> RANK_ORDER = new Comparator<DocumentScoreInfo<?>>() {
+	@Override
+	public int compare(DocumentScoreInfo<?> o1, DocumentScoreInfo<?> o2) {
+	    int c = Double.compare(o2.score, o1.score);
+	    if (c == 0) {
+		c = o1.document < o2.document ? -1 : (o1.document == o2.document ? 0 : 1);
+	    }
+	    return c;
+	}
+    };
+
+    /**
+     * Like process() but instead of an offset the results returned are the
+     * top length documents that rank after the document with id afterDocument
+     * and score afterScore. Only length candidates are kept at any time,
+     * so the cost of a page doesn't depend on how deep it is.
+     * 
+     * Results are ordered by RANK_ORDER.
+     * 
+     * @param afterScore
+     * @param afterDocument
+     *            -1 for the first page.
+     * @param length
+     * @param results
+     * @param query
+     * @return the total number of matching documents.
+     * @throws QueryBuilderVisitorException
+     * @throws IOException
+     */
+    public int processAfter(final double afterScore, final long afterDocument, final int length,
+	    final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results, final Query query)
+	    throws QueryBuilderVisitorException, IOException {
+	// As in process() queries only by type are not scored.
+	boolean scored = !(query instanceof Select && TYPE_FEILD_NAME.equals(((Select) query).index));
+
+	// Head of the queue is the worst ranked candidate.
+	ObjectHeapPriorityQueue<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> top = new ObjectHeapPriorityQueue<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>(
+		length + 1, Collections.reverseOrder(RANK_ORDER));
+
+	int count = collect(getDocumentIterator(query), scored ? scorer : null, segmentedCollection == null ? null : segmentedCollection.getMask(0),
+		afterScore, afterDocument, length, top);
+	// Each doc is current in only one segment, so the counts add up.
+	for (int i = 0; i < deltaIndexes.size(); i++) {
+	    DeltaIndex deltaIndex = deltaIndexes.get(i);
+	    Query deltaQuery = query.accept(new SelectPruningVisitor(deltaIndex.indexMap.keySet()));
+	    DocumentIterator documentIterator = deltaQuery.accept(deltaIndex.builderVisitor.copy().prepare());
+	    count += collect(documentIterator, scored ? deltaIndex.scorer : null, segmentedCollection.getMask(i + 1), afterScore, afterDocument, length, top);
+	}
+
+	int start = results.size();
+	results.size(start + top.size());
+	for (int i = results.size(); i-- != start;) {
+	    results.set(i, top.dequeue());
+	}
+	return count;
+    }
+
+    /**
+     * Adds the documents of the given iterator that rank after the cursor to
+     * top, keeping only the best length.
+     * 
+     * @param scorer
+     *            copied for the iterator or null to not score.
+     * @param mask
+     *            the ids of documents to skip or null.
+     * @return the number of matching documents not masked.
+     */
+    private static int collect(DocumentIterator documentIterator, Scorer scorer, BitVector mask, final double afterScore, final long afterDocument,
+	    final int length, ObjectHeapPriorityQueue<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> top) throws IOException {
+	Scorer documentScorer = null;
+	if (scorer != null) {
+	    documentScorer = scorer.copy();
+	    documentScorer.wrap(documentIterator);
+	}
+
+	int count = 0;
+	try {
+	    long document;
+	    while ((document = (documentScorer == null ? documentIterator.nextDocument() : documentScorer.nextDocument())) != DocumentIterator.END_OF_LIST) {
+		if (mask != null && document < mask.length() && mask.getBoolean(document)) {
+		    // Replaced or deleted by a delta.
+		    continue;
+		}
+		count++;
+		double score = documentScorer == null ? 0 : documentScorer.score();
+		if (afterDocument != -1 && (score > afterScore || (score == afterScore && document <= afterDocument))) {
+		    // Ranks before or is the cursor.
+		    continue;
+		}
+		if (top.size() == length) {
+		    if (length == 0) {
+			continue;
+		    }
+		    DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> worst = top.first();
+		    if (score < worst.score || (score == worst.score && document > worst.document)) {
+			continue;
+		    }
+		    top.dequeue();
+		}
+		top.enqueue(new DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>(document, score));
+	    }
+	} finally {
+	    documentIterator.dispose();
+	}
+	return count;
+    }
+
     public void destroy() {
 	try {
 	    if (documentCollection != null)
@@ -662,38 +1036,53 @@ public class RDFIndex {
     }
 
     private Map<String, Integer> getTermDistribution(Index index, boolean termsAreResourceIds) throws IOException {
-	StringMap<? extends CharSequence> termMap = null;
-	if (index instanceof BitStreamIndex) {
-	    termMap = ((BitStreamIndex) index).termMap;
-	} else if (index instanceof QuasiSuccinctIndex) {
-	    termMap = ((QuasiSuccinctIndex) index).termMap;
-	}
-
+	StringMap<? extends CharSequence> termMap = index.termMap;
 	if (termMap == null) {
 	    throw new IllegalArgumentException("termMap is null. Index is for field:" + index.field + ". Index class is:" + index.getClass().getSimpleName());
 	}
 
 	Map<String, Integer> histogram = new HashMap<String, Integer>();
 
-	for (CharSequence term : termMap.list()) {
-	    long docId = termMap.get(term);
-	    IndexIterator it = index.documents(((int) docId));
+	// The i-th term of the list has term number i.
+	ObjectBigList<? extends CharSequence> terms = termMap.list();
+	ResourceIdTermMap resourceIdTermMap = termMap instanceof ResourceIdTermMap ? (ResourceIdTermMap) termMap : null;
+	for (long termNumber = 0; termNumber < terms.size64(); termNumber++) {
+	    IndexIterator it = index.documents(termNumber);
 	    int frequency = it.frequency() > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) it.frequency();
-	    if (termsAreResourceIds) {
-		String termString = term.toString();
+	    if (resourceIdTermMap != null && termsAreResourceIds) {
+		histogram.put(lookupResourceById(resourceIdTermMap.getResourceId(termNumber)), frequency);
+	    } else if (termsAreResourceIds) {
+		String termString = terms.get(termNumber).toString();
 		if (!termString.startsWith(resourceIdPrefix)) {
 		    throw new RuntimeException("Expected resource id " + termString + " to be prefix with " + resourceIdPrefix);
 		}
-		int termAsId = Integer.parseInt(termString.substring(resourceIdPrefix.length()));
+		long termAsId = Long.parseLong(termString.substring(resourceIdPrefix.length()));
 		histogram.put(lookupResourceById(termAsId), frequency);
 	    } else {
-		histogram.put(term.toString(), frequency);
+		histogram.put(terms.get(termNumber).toString(), frequency);
 	    }
 	    it.dispose();
 	}
 	return histogram;
     }
 
+    /**
+     * The indexes of a delta and what is needed to query them.
+     */
+    private static class DeltaIndex {
+	final DeltaSegment segment;
+	Object2ReferenceMap<String, Index> indexMap;
+	DocumentIteratorBuilderVisitor builderVisitor;
+	SemiExternalGammaBigList frequencies;
+	Scorer scorer;
+	/** Decodes the ids of the new resources of the delta. Null if none. */
+	FileLinesList idsToResources;
+
+	DeltaIndex(DeltaSegment segment) {
+	    this.segment = segment;
+	}
+    }
+
     public static class RDFIndexException extends Exception {
 	private static final long serialVersionUID = -6825941506094477867L;
 
@@ -715,6 +1104,17 @@ public class RDFIndex {
     }
 
     public Integer getDocumentSize(int docId) {
+	if (segmentedCollection != null) {
+	    int segment;
+	    try {
+		segment = segmentedCollection.getSegmentOf(docId);
+	    } catch (IOException e) {
+		throw new RuntimeException(e);
+	    }
+	    if (segment > 0) {
+		return deltaIndexes.get(segment - 1).indexMap.get(OBJECT_INDEX_KEY).sizes.get(docId);
+	    }
+	}
 	return getObjectIndex().sizes.get(docId);
     }
 
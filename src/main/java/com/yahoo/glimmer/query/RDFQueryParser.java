@@ -54,6 +54,8 @@ import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
+import com.yahoo.glimmer.indexing.HorizontalDocumentFactory;
+
 public class RDFQueryParser implements QueryParser {
     private final static Logger LOGGER = Logger.getLogger(RDFQueryParser.class);
 
@@ -68,6 +70,7 @@ public class RDFQueryParser implements QueryParser {
     private Object2LongFunction<CharSequence> resourcesMap;
     private final static Pattern RESOURCE_PATTERN = Pattern.compile("\\((http://.*)\\)");
     private final static Pattern FIELD_NAME_PATTEN = Pattern.compile("(\\w+):");
+    private final static String PREDICATE_FIELD = "predicate";
 
     public RDFQueryParser(Index alignmentIndex, List<String> properties, Map<String,String> fieldNameSuffixToFieldNameMap, String defaultField,
 	    final Map<String, ? extends TermProcessor> termProcessors, final Object2LongFunction<CharSequence> resourcesMap) {
@@ -321,9 +324,53 @@ public class RDFQueryParser implements QueryParser {
 	}
 
 	public Query visitPost(Align node, Query[] subNode) throws QueryBuilderVisitorException {
+	    Query predicateObjectQuery = toPredicateObjectQuery(subNode[0], subNode[1]);
+	    if (predicateObjectQuery != null) {
+		return predicateObjectQuery;
+	    }
 	    return new Align(subNode[0], subNode[1]);
 	}
 
+	/**
+	 * Rewrites predicate:p ^ object:(t1 | t2..) as a lookup of the predicate
+	 * tagged terms p:t1, p:t2.. in the predicateObject field, when the index
+	 * has one.
+	 * 
+	 * @return null if the Align isn't of that form.
+	 */
+	private Query toPredicateObjectQuery(Query predicateQuery, Query objectQuery) {
+	    if (!fieldNamesSet.contains(HorizontalDocumentFactory.PREDICATE_OBJECT_FIELD)) {
+		return null;
+	    }
+	    if (!(predicateQuery instanceof Select) || !(objectQuery instanceof Select)) {
+		return null;
+	    }
+	    Select predicateSelect = (Select) predicateQuery;
+	    Select objectSelect = (Select) objectQuery;
+	    if (!PREDICATE_FIELD.equals(predicateSelect.index.toString()) || !defaultField.equals(objectSelect.index.toString())
+		    || !(predicateSelect.query instanceof Term)) {
+		return null;
+	    }
+	    CharSequence predicateId = ((Term) predicateSelect.query).term;
+
+	    Query[] objectTerms;
+	    if (objectSelect.query instanceof Term) {
+		objectTerms = new Query[] { objectSelect.query };
+	    } else if (objectSelect.query instanceof Or) {
+		objectTerms = ((Or) objectSelect.query).query;
+	    } else {
+		return null;
+	    }
+	    Query[] taggedTerms = new Query[objectTerms.length];
+	    for (int i = 0; i < objectTerms.length; i++) {
+		if (!(objectTerms[i] instanceof Term)) {
+		    return null;
+		}
+		taggedTerms[i] = new Term(HorizontalDocumentFactory.tagObject(predicateId, ((Term) objectTerms[i]).term));
+	    }
+	    return new Select(HorizontalDocumentFactory.PREDICATE_OBJECT_FIELD, taggedTerms.length == 1 ? taggedTerms[0] : new Or(taggedTerms));
+	}
+
 	public Query visitPost(MultiTerm node, Query[] subNode) throws QueryBuilderVisitorException {
 	    return new Or(subNode);
 	}
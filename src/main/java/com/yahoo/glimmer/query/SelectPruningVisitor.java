@@ -0,0 +1,146 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.query.nodes.AbstractQueryBuilderVisitor;
+import it.unimi.di.big.mg4j.query.nodes.Align;
+import it.unimi.di.big.mg4j.query.nodes.And;
+import it.unimi.di.big.mg4j.query.nodes.Annotation;
+import it.unimi.di.big.mg4j.query.nodes.Consecutive;
+import it.unimi.di.big.mg4j.query.nodes.Difference;
+import it.unimi.di.big.mg4j.query.nodes.False;
+import it.unimi.di.big.mg4j.query.nodes.LowPass;
+import it.unimi.di.big.mg4j.query.nodes.MultiTerm;
+import it.unimi.di.big.mg4j.query.nodes.Not;
+import it.unimi.di.big.mg4j.query.nodes.Or;
+import it.unimi.di.big.mg4j.query.nodes.OrderedAnd;
+import it.unimi.di.big.mg4j.query.nodes.Prefix;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitor;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.nodes.Range;
+import it.unimi.di.big.mg4j.query.nodes.Remap;
+import it.unimi.di.big.mg4j.query.nodes.Select;
+import it.unimi.di.big.mg4j.query.nodes.Term;
+import it.unimi.di.big.mg4j.query.nodes.True;
+import it.unimi.di.big.mg4j.query.nodes.Weight;
+
+import java.util.Set;
+
+/**
+ * Copies a query, replacing the Selects on fields that aren't in the given
+ * set with False. A delta index only has the fields that its records have
+ * values for, so queries parsed for the base are pruned before they are run
+ * on a delta.
+ */
+class SelectPruningVisitor extends AbstractQueryBuilderVisitor<Query> {
+    private final Set<String> fields;
+
+    public SelectPruningVisitor(Set<String> fields) {
+	this.fields = fields;
+    }
+
+    public Query[] newArray(int len) {
+	return new Query[len];
+    }
+
+    public QueryBuilderVisitor<Query> prepare() {
+	return this;
+    }
+
+    @Override
+    public Query visit(Term node) throws QueryBuilderVisitorException {
+	return node;
+    }
+
+    @Override
+    public Query visit(Prefix node) throws QueryBuilderVisitorException {
+	return node;
+    }
+
+    @Override
+    public Query visit(Range node) throws QueryBuilderVisitorException {
+	return node;
+    }
+
+    @Override
+    public Query visit(True node) throws QueryBuilderVisitorException {
+	return node;
+    }
+
+    @Override
+    public Query visit(False node) throws QueryBuilderVisitorException {
+	return node;
+    }
+
+    public Query visitPost(And node, Query[] subNode) throws QueryBuilderVisitorException {
+	return new And(subNode);
+    }
+
+    public Query visitPost(Consecutive node, Query[] subNode) throws QueryBuilderVisitorException {
+	return new Consecutive(subNode);
+    }
+
+    public Query visitPost(OrderedAnd node, Query[] subNode) throws QueryBuilderVisitorException {
+	return new OrderedAnd(subNode);
+    }
+
+    public Query visitPost(Difference node, Query[] subNode) throws QueryBuilderVisitorException {
+	return new Difference(subNode[0], subNode[1]);
+    }
+
+    public Query visitPost(LowPass node, Query subNode) throws QueryBuilderVisitorException {
+	return new LowPass(subNode, node.k);
+    }
+
+    public Query visitPost(Not node, Query subNode) throws QueryBuilderVisitorException {
+	return new Not(subNode);
+    }
+
+    public Query visitPost(Or node, Query[] subNode) throws QueryBuilderVisitorException {
+	return new Or(subNode);
+    }
+
+    public Query visitPost(Align node, Query[] subNode) throws QueryBuilderVisitorException {
+	return new Align(subNode[0], subNode[1]);
+    }
+
+    public Query visitPost(MultiTerm node, Query[] subNode) throws QueryBuilderVisitorException {
+	// As in RDFQueryParser.
+	return new Or(subNode);
+    }
+
+    public Query visitPost(Select node, Query subNode) throws QueryBuilderVisitorException {
+	if (!fields.contains(node.index)) {
+	    return new False();
+	}
+	return new Select(node.index, subNode);
+    }
+
+    public Query visitPost(Remap node, Query subNode) throws QueryBuilderVisitorException {
+	return new Remap(subNode, node.indexRemapping);
+    }
+
+    public Query visitPost(Weight node, Query subNode) throws QueryBuilderVisitorException {
+	return new Weight(node.weight, subNode);
+    }
+
+    @Override
+    public Query visitPost(Annotation node, Query subNode) throws QueryBuilderVisitorException {
+	return new Annotation(subNode);
+    }
+
+    @Override
+    public SelectPruningVisitor copy() {
+	return new SelectPruningVisitor(fields);
+    }
+}
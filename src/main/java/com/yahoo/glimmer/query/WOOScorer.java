@@ -32,6 +32,9 @@ import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 
+import com.yahoo.glimmer.util.QueryTrace;
+import com.yahoo.glimmer.util.QueryTrace.Counter;
+
 public class WOOScorer extends AbstractWeightedScorer implements DelegatingScorer {
     private static final Logger LOGGER = Logger.getLogger(BM25FScorer.class);
     private static final boolean DEBUG = true;
@@ -161,6 +164,7 @@ public class WOOScorer extends AbstractWeightedScorer implements DelegatingScore
     }
 
     public double score() throws IOException {
+	QueryTrace.increment(Counter.DOCUMENTS_SCORED);
 	setupVisitor.clear();
 	documentIterator.acceptOnTruePaths(counterCollectionVisitor);
 
@@ -15,12 +15,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.yahoo.glimmer.util.QueryTrace.Counter;
+import com.yahoo.glimmer.util.QueryTrace.Phase;
 
 /**
  * A LRU cache of fixed size byte arrays(blocks). Intended use is for caching
@@ -85,6 +88,11 @@ public class BlockCache {
     private final ConcurrentLinkedQueue<Block> freeBlocks;
     private final long lastBlockIndex;
     private final int inputStreamBufferSize;
+    
+    // Stats. Hits are requestCount - loadCount.
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
 
     public BlockCache(final BlockReader blockReader, final long lastBlockIndex, final int blockSize, final int cacheSizeInBlocks) {
 	// Fixed size LRU with block recycling.
@@ -105,11 +113,17 @@ public class BlockCache {
 		}
 
 		int bytesRead = -1;
+		long startNanos = System.nanoTime();
 		try {
 		    bytesRead = blockReader.readBlock(blockIndex, block.bytes);
 		} catch (Exception e) {
 		    freeBlocks.add(block);
 		    throw e;
+		} finally {
+		    loadCount.incrementAndGet();
+		    loadNanos.addAndGet(System.nanoTime() - startNanos);
+		    QueryTrace.increment(Counter.BLOCKS_DECOMPRESSED);
+		    QueryTrace.add(Phase.DECOMPRESS, startNanos);
 		}
 
 		if (bytesRead < 0 || bytesRead > block.bytes.length) {
@@ -141,6 +155,8 @@ public class BlockCache {
 	if (blockIndex < 0 || blockIndex > lastBlockIndex) {
 	    return null;
 	}
+	requestCount.incrementAndGet();
+	QueryTrace.increment(Counter.BLOCK_REQUESTS);
 	try {
 	    return blocksCache.get(blockIndex);
 	} catch (ExecutionException e) {
@@ -154,6 +170,33 @@ public class BlockCache {
 	}
     }
 
+    public long getRequestCount() {
+	return requestCount.get();
+    }
+
+    /**
+     * @return the number of times a block was read using the BlockReader.
+     */
+    public long getLoadCount() {
+	return loadCount.get();
+    }
+
+    /**
+     * @return the total time spent in the BlockReader.
+     */
+    public long getLoadNanos() {
+	return loadNanos.get();
+    }
+
+    public double getHitRate() {
+	long requests = requestCount.get();
+	if (requests == 0) {
+	    return 0;
+	}
+	long hits = requests - loadCount.get();
+	return hits < 0 ? 0 : (double) hits / requests;
+    }
+
     public InputStream getInputStream(final long blockIndex, final int startByteIndexInFirstBlock) throws IOException {
 	return new BlockInputStream(blockIndex, startByteIndexInFirstBlock, inputStreamBufferSize);
     }
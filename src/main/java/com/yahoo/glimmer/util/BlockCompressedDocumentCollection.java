@@ -103,6 +103,10 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 	}, blockOffsets.getBlockCount() - 1, uncompressedBlockSize, 1024);
     }
 
+    public BlockCache getBlockCache() {
+	return blockCache;
+    }
+
     @Override
     public long size() {
 	return blockOffsets.getLastDocId();
@@ -116,6 +116,37 @@ public class BlockOffsets implements Serializable {
 	BinIO.storeObject(this, outputStream);
     }
 
+    /**
+     * Builds the BlockOffsets of the BZip2 file that is the byte by byte
+     * concatenation of the given parts. The parts doc ids have to be global
+     * already and in order.
+     *
+     * @param parts
+     *            the BlockOffsets of each part.
+     * @param partByteLengths
+     *            the length in bytes of each parts BZip2 file.
+     */
+    public static BlockOffsets concatenate(BlockOffsets[] parts, long[] partByteLengths) {
+	LongBigArrayBigList firstDocIds = new LongBigArrayBigList();
+	LongBigArrayBigList blockStartBitOffsets = new LongBigArrayBigList();
+	long docCount = 0;
+	long lastDocId = 0;
+	long partStartBitOffset = 0;
+	long fileSizeInBits = 0;
+	for (int i = 0; i < parts.length; i++) {
+	    BlockOffsets part = parts[i];
+	    for (long j = 0; j < part.getBlockCount(); j++) {
+		firstDocIds.add(part.firstDocIds.getLong(j));
+		blockStartBitOffsets.add(partStartBitOffset + part.blockStartBitOffsets.getLong(j));
+	    }
+	    docCount += part.docCount;
+	    lastDocId = Math.max(lastDocId, part.lastDocId);
+	    fileSizeInBits = partStartBitOffset + part.fileSizeInBits;
+	    partStartBitOffset += partByteLengths[i] * 8;
+	}
+	return new BlockOffsets(firstDocIds, blockStartBitOffsets, docCount, lastDocId, fileSizeInBits);
+    }
+
     public static class Builder {
 	private final LongBigArrayBigList firstDocIds = new LongBigArrayBigList();
 	private final LongBigArrayBigList blockStartBitOffsets = new LongBigArrayBigList();
@@ -19,10 +19,13 @@ import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
 import it.unimi.dsi.io.FastBufferedReader;
 import it.unimi.dsi.io.SafelyCloseable;
 import it.unimi.dsi.lang.MutableString;
-import it.unimi.dsi.sux4j.mph.AbstractHashFunction;
 import it.unimi.dsi.sux4j.mph.HollowTrieMonotoneMinimalPerfectHashFunction;
 
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
@@ -31,11 +34,20 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.SequenceInputStream;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -67,10 +79,19 @@ public class ComputeHashTool extends Configured implements Tool {
     private static final String WRITE_INFO_ARG = "info";
     private static final String NUMBER_OF_ELEMENTS_ARG = "numElements";
     private static final String FILE_ENCODING_ARG = "encoding";
+    private static final String THREADS_ARG = "threads";
+    private static final String KEYS_PER_SHARD_ARG = "keysPerShard";
+    private static final String TMP_DIR_ARG = "tmpDir";
     public static final FsPermission ALL_PERMISSIONS = new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.ALL);
     private static final String DOT_UNSIGNED = ".map";
     private static final String DOT_SIGNED = ".smap";
     private static final String DOT_MAPINFO = ".mapinfo";
+    private static final Charset SHARD_CHARSET = Charset.forName("UTF-8");
+    public static final int DEFAULT_KEYS_PER_SHARD = 1 << 24;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int keysPerShard = DEFAULT_KEYS_PER_SHARD;
+    private File tmpDir;
 
     @Override
     public int run(String[] args) throws Exception {
@@ -82,6 +103,12 @@ public class ComputeHashTool extends Configured implements Tool {
 				"Sign the hash with a hash width of w bits."),
 		new FlaggedOption(FILE_ENCODING_ARG, ForNameStringParser.getParser(Charset.class), "UTF-8", JSAP.NOT_REQUIRED, FILE_ENCODING_ARG.charAt(0), FILE_ENCODING_ARG,
 			"Set the input file encoding(default is UTF-8)."),
+		new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(threads), JSAP.NOT_REQUIRED, THREADS_ARG.charAt(0), THREADS_ARG,
+			"Number of threads to build the shard hashes with. Default is the number of processors."),
+		new FlaggedOption(KEYS_PER_SHARD_ARG, JSAP.INTEGER_PARSER, Integer.toString(DEFAULT_KEYS_PER_SHARD), JSAP.NOT_REQUIRED, KEYS_PER_SHARD_ARG.charAt(0),
+			KEYS_PER_SHARD_ARG, "Number of keys in each shard of the unsigned hash. Default is " + DEFAULT_KEYS_PER_SHARD + "."),
+		new FlaggedOption(TMP_DIR_ARG, JSAP.STRING_PARSER, null, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, TMP_DIR_ARG,
+			"Local dir to write the unsigned hash's shard files to. Default is the output files dir if it's local, else java.io.tmpdir."),
 		new UnflaggedOption(SRC_FILES_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.GREEDY,
 			"The filenames (or HDFS dirs if building hashes) to work with.") });
 
@@ -91,6 +118,11 @@ public class ComputeHashTool extends Configured implements Tool {
 	}
 
 	String[] srcFilenames = jsapResult.getStringArray(SRC_FILES_ARG);
+	threads = jsapResult.getInt(THREADS_ARG);
+	keysPerShard = jsapResult.getInt(KEYS_PER_SHARD_ARG);
+	if (jsapResult.contains(TMP_DIR_ARG)) {
+	    tmpDir = new File(jsapResult.getString(TMP_DIR_ARG));
+	}
 	
 	Long numElements = null;
 	if (jsapResult.contains(NUMBER_OF_ELEMENTS_ARG)) {
@@ -125,6 +157,30 @@ public class ComputeHashTool extends Configured implements Tool {
 	return 0;
     }
 
+    public void setThreads(int threads) {
+	this.threads = threads;
+    }
+
+    public void setKeysPerShard(int keysPerShard) {
+	this.keysPerShard = keysPerShard;
+    }
+
+    /**
+     * @param tmpDir
+     *            local dir for the shard files. If null they are written to
+     *            the output files dir when it's a local dir and to
+     *            java.io.tmpdir otherwise.
+     */
+    public void setTmpDir(File tmpDir) {
+	this.tmpDir = tmpDir;
+    }
+
+    /**
+     * Reads the sorted input once. The signatures are written as the lines
+     * are read and the lines are split into shards of keysPerShard lines in
+     * local temp files, see {@link #setTmpDir(File)}. The shard functions are then built in parallel from
+     * the temp files.
+     */
     public long buildHash(FileSystem fs, String srcFilename, Long numElements, boolean generateUnsigned, boolean generateSigned, final Charset charset, boolean writeInfoFile)
 	    throws IOException, ClassNotFoundException {
 	final MapReducePartInputStreamEnumeration inputStreamEnumeration;
@@ -145,53 +201,67 @@ public class ComputeHashTool extends Configured implements Tool {
 	String destFilename = inputStreamEnumeration.removeCompressionSuffixIfAny(srcFilename);
 	Path unsigendPath = new Path(destFilename + DOT_UNSIGNED);
 
-	HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence> unsignedHash;
+	ShardFiles shardFiles = null;
 	if (generateUnsigned) {
-//	    if (numElements != null) {
-//		LOGGER.info("\tBuilding unsigned hash with given number of elements:" + numElements);
-//	    } else {
-//		LOGGER.info("\tBuilding unsigned hash. Getting number of elements from collection...");
-//		long timeToGetSize = System.currentTimeMillis();
-//		numElements = inCollection.size64();
-//		timeToGetSize = System.currentTimeMillis() - timeToGetSize;
-//		LOGGER.info("\tNumber of elements is " + numElements + " found in " + timeToGetSize / 1000 + " seconds");
-//	    }
-//	    unsignedHash = new LcpMonotoneMinimalPerfectHashFunction<CharSequence>(inCollection, numElements, TransformationStrategies.prefixFreeUtf16());
-	    unsignedHash = new HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>(inCollection, TransformationStrategies.prefixFreeUtf32());
-	    LOGGER.info("\tSaving unsigned hash as " + unsigendPath.toString());
-	    writeMapToFile(unsignedHash, fs, unsigendPath);
-	} else {
-	    LOGGER.info("\tLoading unsigned hash from " + unsigendPath.toString());
-	    unsignedHash = (HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>)readMpHashFromFile(fs, unsigendPath);
+	    File shardDir = tmpDir;
+	    if (shardDir == null) {
+		shardDir = new File(destFilename).getAbsoluteFile().getParentFile();
+		if (shardDir != null && !shardDir.isDirectory()) {
+		    // Not a local dir, as when building hashes of files in HDFS.
+		    shardDir = null;
+		}
+	    }
+	    shardFiles = new ShardFiles(keysPerShard, shardDir);
 	}
-
-	if (generateSigned) {
-	    LOGGER.info("\tBuilding signed hash...");
-//	    ShiftAddXorSignedStringMap signedHash = new ShiftAddXorSignedStringMap(inCollection.iterator(), unsignedHash, signatureWidth);
-	    Path signedPath = new Path(destFilename + DOT_SIGNED);
-	    DataOutputStream signedDataOutputStream = null;
-	    try {
-		signedDataOutputStream  = new DataOutputStream( new FastBufferedOutputStream(createOutputStream(fs, signedPath)));
-		LongBigListSignedStringMap.sign(inCollection.iterator(), signedDataOutputStream, null);
-	    } finally {
-		if (signedDataOutputStream != null) {
-		    signedDataOutputStream.close();
+	AbstractObject2LongFunction<CharSequence> unsignedHash;
+	try {
+	    SplittingIterator lines = new SplittingIterator(inCollection.iterator(), shardFiles);
+	    if (generateSigned) {
+		LOGGER.info("\tBuilding signed hash...");
+		Path signedPath = new Path(destFilename + DOT_SIGNED);
+		DataOutputStream signedDataOutputStream = null;
+		try {
+		    signedDataOutputStream = new DataOutputStream(new FastBufferedOutputStream(createOutputStream(fs, signedPath)));
+		    LongBigListSignedStringMap.sign(lines, signedDataOutputStream, null);
+		} finally {
+		    if (signedDataOutputStream != null) {
+			signedDataOutputStream.close();
+		    }
+		}
+		LOGGER.info("\tSaving signed hash as " + signedPath.toString());
+	    } else {
+		while (lines.hasNext()) {
+		    lines.next();
 		}
 	    }
-		
-	    LOGGER.info("\tSaving signed hash as " + signedPath.toString());
+	    LOGGER.info("\tRead " + lines.getCount() + " elements.");
+
+	    if (generateUnsigned) {
+		shardFiles.close();
+		unsignedHash = buildUnsignedHash(shardFiles, lines.getCount());
+		LOGGER.info("\tSaving unsigned hash as " + unsigendPath.toString());
+		writeMapToFile(unsignedHash, fs, unsigendPath);
+	    } else {
+		LOGGER.info("\tLoading unsigned hash from " + unsigendPath.toString());
+		unsignedHash = readMpHashFromFile(fs, unsigendPath);
+	    }
+	} finally {
+	    if (shardFiles != null) {
+		shardFiles.delete();
+	    }
 	}
 
+	long size = ((Size64) unsignedHash).size64();
 	if (writeInfoFile) {
 	    Path infoPath = new Path(destFilename + DOT_MAPINFO);
 	    FSDataOutputStream infoStream = fs.create(infoPath, true);// overwrite
 	    fs.setPermission(infoPath, ALL_PERMISSIONS);
 	    OutputStreamWriter infoWriter = new OutputStreamWriter(infoStream);
 	    infoWriter.write("size\t");
-	    infoWriter.write(Long.toString(unsignedHash.size64()));
+	    infoWriter.write(Long.toString(size));
 	    infoWriter.write("\n");
 	    infoWriter.write("unsignedBits\t");
-	    infoWriter.write(Long.toString((unsignedHash).numBits()));
+	    infoWriter.write(Long.toString(numBits(unsignedHash)));
 	    infoWriter.write("\n");
 	    if (generateSigned) {
 		infoWriter.write("signedWidth\t64\n");
@@ -200,7 +270,81 @@ public class ComputeHashTool extends Configured implements Tool {
 	    infoStream.close();
 	}
 
-	return unsignedHash.size64();
+	return size;
+    }
+
+    /**
+     * A single shard is built as a plain HollowTrieMonotoneMinimalPerfectHashFunction
+     * so small inputs give the same map as before.
+     */
+    @SuppressWarnings("unchecked")
+    private AbstractObject2LongFunction<CharSequence> buildUnsignedHash(ShardFiles shardFiles, long size) throws IOException {
+	List<File> files = shardFiles.getFiles();
+	if (files.size() <= 1) {
+	    LOGGER.info("\tBuilding unsigned hash...");
+	    if (files.isEmpty()) {
+		return new HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>(Collections.<CharSequence> emptyList(),
+			TransformationStrategies.prefixFreeUtf32());
+	    }
+	    return buildShardHash(files.get(0));
+	}
+
+	LOGGER.info("\tBuilding unsigned hash in " + files.size() + " shards with " + threads + " threads...");
+	ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+	HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>[] functions = new HollowTrieMonotoneMinimalPerfectHashFunction[files.size()];
+	try {
+	    List<Future<HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>>> futures = new ArrayList<Future<HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>>>();
+	    for (final File file : files) {
+		futures.add(executor.submit(new Callable<HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>>() {
+		    @Override
+		    public HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence> call() throws Exception {
+			return buildShardHash(file);
+		    }
+		}));
+	    }
+	    for (int i = 0; i < functions.length; i++) {
+		try {
+		    functions[i] = futures.get(i).get();
+		} catch (ExecutionException e) {
+		    throw new IOException("Building the hash of shard " + i + " failed.", e.getCause());
+		} catch (InterruptedException e) {
+		    throw new IOException("Interrupted while building the shard hashes.", e);
+		}
+	    }
+	} finally {
+	    executor.shutdownNow();
+	}
+
+	// All shards but the last have keysPerShard keys.
+	long[] offsets = new long[functions.length + 1];
+	for (int i = 0; i < functions.length; i++) {
+	    offsets[i] = (long) i * keysPerShard;
+	}
+	offsets[functions.length] = size;
+	List<String> firstKeys = shardFiles.getFirstKeys();
+	return new ShardedHashFunction(firstKeys.subList(1, firstKeys.size()).toArray(new String[firstKeys.size() - 1]), offsets, functions);
+    }
+
+    private static HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence> buildShardHash(final File file) {
+	LineReaderCollection collection = new LineReaderCollection(new LineReaderCollection.ReaderFactory() {
+	    @Override
+	    public Reader newReader() {
+		try {
+		    return new InputStreamReader(new FileInputStream(file), SHARD_CHARSET);
+		} catch (FileNotFoundException e) {
+		    throw new RuntimeException(e);
+		}
+	    }
+	});
+	return new HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>(collection, TransformationStrategies.prefixFreeUtf32());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long numBits(AbstractObject2LongFunction<CharSequence> hash) {
+	if (hash instanceof ShardedHashFunction) {
+	    return ((ShardedHashFunction) hash).numBits();
+	}
+	return ((HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>) hash).numBits();
     }
 
     private static OutputStream createOutputStream(FileSystem fs, Path path) throws IOException {
@@ -228,7 +372,7 @@ public class ComputeHashTool extends Configured implements Tool {
     }
 
     @SuppressWarnings("unchecked")
-    private static AbstractHashFunction<CharSequence> readMpHashFromFile(FileSystem fs, Path path) throws IOException, ClassNotFoundException {
+    private static AbstractObject2LongFunction<CharSequence> readMpHashFromFile(FileSystem fs, Path path) throws IOException, ClassNotFoundException {
 	FSDataInputStream inStream = null;
 	try {
 	    inStream = fs.open(path);
@@ -236,7 +380,7 @@ public class ComputeHashTool extends Configured implements Tool {
 	    try {
     	    	oInStream = new ObjectInputStream(inStream);
     	    	Object object = oInStream.readObject();
-    	    	return (AbstractHashFunction<CharSequence>) object;
+    	    	return (AbstractObject2LongFunction<CharSequence>) object;
 	    } finally {
 		if (oInStream != null) {
 		    oInStream.close();
@@ -254,6 +398,108 @@ public class ComputeHashTool extends Configured implements Tool {
 	System.exit(ret);
     }
 
+    /**
+     * Passes the lines through while counting them and, if given a
+     * ShardFiles, copying them to it.
+     */
+    private static class SplittingIterator implements Iterator<MutableString> {
+	private final Iterator<MutableString> lines;
+	private final ShardFiles shardFiles;
+	private long count;
+
+	public SplittingIterator(Iterator<MutableString> lines, ShardFiles shardFiles) {
+	    this.lines = lines;
+	    this.shardFiles = shardFiles;
+	}
+
+	@Override
+	public boolean hasNext() {
+	    return lines.hasNext();
+	}
+
+	@Override
+	public MutableString next() {
+	    MutableString line = lines.next();
+	    if (shardFiles != null) {
+		try {
+		    shardFiles.add(line);
+		} catch (IOException e) {
+		    throw new RuntimeException(e);
+		}
+	    }
+	    count++;
+	    return line;
+	}
+
+	@Override
+	public void remove() {
+	    throw new UnsupportedOperationException();
+	}
+
+	public long getCount() {
+	    return count;
+	}
+    }
+
+    /**
+     * Writes consecutive runs of keysPerShard lines to local temp files in dir
+     * and keeps the first line of each. A null dir is java.io.tmpdir.
+     */
+    private static class ShardFiles {
+	private final int keysPerShard;
+	private final File dir;
+	private final List<File> files = new ArrayList<File>();
+	private final List<String> firstKeys = new ArrayList<String>();
+	private Writer writer;
+	private long count;
+
+	public ShardFiles(int keysPerShard, File dir) {
+	    this.keysPerShard = keysPerShard;
+	    this.dir = dir;
+	}
+
+	public void add(MutableString line) throws IOException {
+	    if (count % keysPerShard == 0) {
+		close();
+		File file = File.createTempFile("shard", ".keys", dir);
+		files.add(file);
+		firstKeys.add(line.toString());
+		writer = new OutputStreamWriter(new FastBufferedOutputStream(new FileOutputStream(file)), SHARD_CHARSET);
+	    }
+	    line.write(writer);
+	    writer.write('\n');
+	    count++;
+	}
+
+	public void close() throws IOException {
+	    if (writer != null) {
+		writer.close();
+		writer = null;
+	    }
+	}
+
+	public List<File> getFiles() {
+	    return files;
+	}
+
+	public List<String> getFirstKeys() {
+	    return firstKeys;
+	}
+
+	public void delete() {
+	    try {
+		close();
+	    } catch (IOException e) {
+		LOGGER.warn("Failed to close shard file", e);
+	    }
+	    for (File file : files) {
+		if (!file.delete()) {
+		    LOGGER.warn("Failed to delete " + file);
+		}
+	    }
+	}
+    }
+
     /**
      * Presents a Reader as a Collection of MutableStrings with each line read
      * from the Reader as an element of the Collection.
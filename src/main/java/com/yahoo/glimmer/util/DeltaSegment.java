@@ -0,0 +1,189 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A delta index dir under a kb root dir's 'deltas' dir. A delta holds the
+ * records of the subjects added or changed since the base kb was built, laid
+ * out like a kb root dir: bySubject.bz2, bySubject.blockOffsets, the
+ * horizontal and vertical index dirs and all.txt, all.map and all.smap for the
+ * resources that are new in the delta.
+ *
+ * Doc ids are global. A new resource gets an id after the ids of the base and
+ * of the earlier deltas, so the new resources of a delta have ids in
+ * [firstDocId, numberOfDocs). A changed subject keeps its id and the delta's
+ * record replaces the record in the earlier segments. The ids that a delta
+ * replaces or deletes in the earlier segments are set in its 'deleted'
+ * bitmap.
+ *
+ * The delta.properties file is written last, so only dirs that have one are
+ * listed.
+ */
+public class DeltaSegment {
+    public static final String DELTAS_DIR = "deltas";
+    public static final String PROPERTIES_FILENAME = "delta.properties";
+    public static final String DELETED_FILENAME = "deleted";
+    private static final String DELTA_DIR_PREFIX = "delta-";
+    private static final String FIRST_DOC_ID_KEY = "firstDocId";
+    private static final String NUMBER_OF_DOCS_KEY = "numberOfDocs";
+
+    private final File dir;
+    private final long firstDocId;
+    private final long numberOfDocs;
+
+    private DeltaSegment(File dir, long firstDocId, long numberOfDocs) {
+	this.dir = dir;
+	this.firstDocId = firstDocId;
+	this.numberOfDocs = numberOfDocs;
+    }
+
+    /**
+     * @return the complete deltas of the given kb root dir, oldest first.
+     */
+    public static List<DeltaSegment> list(File kbDir) throws IOException {
+	File[] dirs = new File(kbDir, DELTAS_DIR).listFiles(new FilenameFilter() {
+	    @Override
+	    public boolean accept(File dir, String name) {
+		return name.startsWith(DELTA_DIR_PREFIX) && new File(new File(dir, name), PROPERTIES_FILENAME).exists();
+	    }
+	});
+	List<DeltaSegment> segments = new ArrayList<DeltaSegment>();
+	if (dirs == null) {
+	    return segments;
+	}
+	Arrays.sort(dirs);
+	for (File dir : dirs) {
+	    segments.add(open(dir));
+	}
+	return segments;
+    }
+
+    /**
+     * @return the dir for the next delta of the given kb root dir.
+     */
+    public static File nextDir(File kbDir) {
+	File deltasDir = new File(kbDir, DELTAS_DIR);
+	String[] names = deltasDir.list();
+	int next = 0;
+	if (names != null) {
+	    for (String name : names) {
+		if (name.startsWith(DELTA_DIR_PREFIX)) {
+		    next = Math.max(next, Integer.parseInt(name.substring(DELTA_DIR_PREFIX.length())) + 1);
+		}
+	    }
+	}
+	return new File(deltasDir, String.format(DELTA_DIR_PREFIX + "%05d", next));
+    }
+
+    public static DeltaSegment open(File dir) throws IOException {
+	Properties properties = new Properties();
+	InputStream in = new FileInputStream(new File(dir, PROPERTIES_FILENAME));
+	try {
+	    properties.load(in);
+	} finally {
+	    in.close();
+	}
+	try {
+	    return new DeltaSegment(dir, Long.parseLong(properties.getProperty(FIRST_DOC_ID_KEY)), Long.parseLong(properties
+		    .getProperty(NUMBER_OF_DOCS_KEY)));
+	} catch (NumberFormatException e) {
+	    throw new IOException("Bad " + PROPERTIES_FILENAME + " in " + dir, e);
+	}
+    }
+
+    /**
+     * Writes the delta.properties file, which makes the delta visible to
+     * list(). Call it when everything else in the dir has been written.
+     */
+    public static DeltaSegment create(File dir, long firstDocId, long numberOfDocs) throws IOException {
+	Properties properties = new Properties();
+	properties.setProperty(FIRST_DOC_ID_KEY, Long.toString(firstDocId));
+	properties.setProperty(NUMBER_OF_DOCS_KEY, Long.toString(numberOfDocs));
+	OutputStream out = new FileOutputStream(new File(dir, PROPERTIES_FILENAME));
+	try {
+	    properties.store(out, null);
+	} finally {
+	    out.close();
+	}
+	return new DeltaSegment(dir, firstDocId, numberOfDocs);
+    }
+
+    public File getDir() {
+	return dir;
+    }
+
+    /**
+     * @return the id of the first resource that is new in this delta.
+     */
+    public long getFirstDocId() {
+	return firstDocId;
+    }
+
+    /**
+     * @return the number of doc ids allocated up to and including this delta.
+     */
+    public long getNumberOfDocs() {
+	return numberOfDocs;
+    }
+
+    public boolean hasResources() {
+	return numberOfDocs > firstDocId;
+    }
+
+    public File getResourcesFile() {
+	return new File(dir, "all.txt");
+    }
+
+    public File getResourcesMapFile() {
+	return new File(dir, "all.map");
+    }
+
+    public File getResourcesSignaturesFile() {
+	return new File(dir, "all.smap");
+    }
+
+    /**
+     * @return the ids of the earlier segments that this delta replaces or
+     *         deletes.
+     */
+    public LongArrayBitVector loadDeleted() throws IOException {
+	try {
+	    return (LongArrayBitVector) BinIO.loadObject(new File(dir, DELETED_FILENAME));
+	} catch (ClassNotFoundException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    public static void saveDeleted(File dir, LongArrayBitVector deleted) throws IOException {
+	BinIO.storeObject(deleted, new File(dir, DELETED_FILENAME));
+    }
+
+    @Override
+    public String toString() {
+	return dir.getName() + "[" + firstDocId + "," + numberOfDocs + ")";
+    }
+}
@@ -0,0 +1,191 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non negative values(typically latencies in
+ * microseconds).
+ *
+ * Values are counted in log-linear buckets. Values less than SUB_BUCKETS have
+ * their own bucket, larger values share a bucket with values that have the
+ * same highest SUB_BUCKET_BITS + 1 bits. This bounds the relative error of
+ * reported percentiles to 1/SUB_BUCKETS.
+ *
+ * record() can be called from any number of threads. Snapshots taken while
+ * values are being recorded are not atomic but each counter is consistent.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values >= 2^(MAX_EXPONENT + 1) are counted in the last bucket.
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public static class Snapshot {
+	private final long count;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long p999;
+	private final long max;
+
+	private Snapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+	    this.count = count;
+	    this.mean = mean;
+	    this.p50 = p50;
+	    this.p90 = p90;
+	    this.p99 = p99;
+	    this.p999 = p999;
+	    this.max = max;
+	}
+
+	public long getCount() {
+	    return count;
+	}
+
+	public double getMean() {
+	    return mean;
+	}
+
+	public long getP50() {
+	    return p50;
+	}
+
+	public long getP90() {
+	    return p90;
+	}
+
+	public long getP99() {
+	    return p99;
+	}
+
+	public long getP999() {
+	    return p999;
+	}
+
+	public long getMax() {
+	    return max;
+	}
+    }
+
+    static int bucketIndex(long value) {
+	if (value < SUB_BUCKETS) {
+	    return value < 0 ? 0 : (int) value;
+	}
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	if (exponent > MAX_EXPONENT) {
+	    return BUCKET_COUNT - 1;
+	}
+	int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+	return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * @param bucketIndex
+     * @return the smallest value counted in the given bucket.
+     */
+    static long bucketLowerBound(int bucketIndex) {
+	if (bucketIndex < SUB_BUCKETS) {
+	    return bucketIndex;
+	}
+	int exponent = bucketIndex / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+	long mantissa = bucketIndex % SUB_BUCKETS;
+	return (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public void record(long value) {
+	if (value < 0) {
+	    value = 0;
+	}
+	buckets.incrementAndGet(bucketIndex(value));
+	count.incrementAndGet();
+	sum.addAndGet(value);
+
+	long currentMax;
+	while (value > (currentMax = max.get())) {
+	    if (max.compareAndSet(currentMax, value)) {
+		break;
+	    }
+	}
+    }
+
+    public long getCount() {
+	return count.get();
+    }
+
+    public double getMean() {
+	long c = count.get();
+	return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    public long getMax() {
+	return max.get();
+    }
+
+    /**
+     * @param percentile
+     *            in the range 0 to 1.
+     * @return the upper bound of the bucket containing the given percentile.
+     *         Never more than the max recorded value.
+     */
+    public long getPercentile(double percentile) {
+	return getPercentile(percentile, copyBuckets());
+    }
+
+    private long[] copyBuckets() {
+	long[] copy = new long[BUCKET_COUNT];
+	for (int i = 0; i < BUCKET_COUNT; i++) {
+	    copy[i] = buckets.get(i);
+	}
+	return copy;
+    }
+
+    private long getPercentile(double percentile, long[] bucketCounts) {
+	long total = 0;
+	for (long bucketCount : bucketCounts) {
+	    total += bucketCount;
+	}
+	if (total == 0) {
+	    return 0;
+	}
+	long target = (long) Math.ceil(percentile * total);
+	if (target < 1) {
+	    target = 1;
+	}
+
+	long currentMax = max.get();
+	long cumulative = 0;
+	for (int i = 0; i < BUCKET_COUNT; i++) {
+	    cumulative += bucketCounts[i];
+	    if (cumulative >= target) {
+		long upperBound = i + 1 < BUCKET_COUNT ? bucketLowerBound(i + 1) - 1 : currentMax;
+		return upperBound < currentMax ? upperBound : currentMax;
+	    }
+	}
+	return currentMax;
+    }
+
+    public Snapshot getSnapshot() {
+	long[] bucketCounts = copyBuckets();
+	return new Snapshot(getCount(), getMean(), getPercentile(0.5, bucketCounts), getPercentile(0.9, bucketCounts), getPercentile(0.99, bucketCounts),
+		getPercentile(0.999, bucketCounts), getMax());
+    }
+}
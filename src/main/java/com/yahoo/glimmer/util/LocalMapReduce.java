@@ -0,0 +1,755 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Runs a mapreduce Job in this JVM on a pool of threads, without a cluster.
+ *
+ * The Job is set up as it would be for the cluster(mapper, reducer,
+ * partitioner, comparators, input and output formats and the number of
+ * reduce tasks) and run() runs one map task per input split and then one
+ * reduce task per partition, each using all the threads.
+ *
+ * Map output is serialized into a buffer of sortBufferSize bytes. When the
+ * buffer is full it's sorted by partition and key and spilled to a run file in
+ * tmpDir. The last run of a map task is kept in memory while the total size of
+ * the runs kept in memory is less than inMemoryRunsSize. If the job has a
+ * combiner it's run over each partition of a sorted buffer as it's spilled.
+ * Each reduce task
+ * merges its segment of all the runs, first in passes of MERGE_FACTOR runs if
+ * there are more runs than that.
+ *
+ * Only jobs with at least one reduce task are supported. There are no
+ * retries or speculative execution.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class LocalMapReduce {
+    private static final Log LOG = LogFactory.getLog(LocalMapReduce.class);
+    private static final int MERGE_FACTOR = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger JOB_IDS = new AtomicInteger();
+    private static final String COMBINER_GROUP = LocalMapReduce.class.getSimpleName();
+
+    private final int threads;
+    private final int sortBufferSize;
+    private final long inMemoryRunsSize;
+    private final File tmpDir;
+
+    private final AtomicLong inMemoryRunsBytes = new AtomicLong();
+
+    public LocalMapReduce(int threads, int sortBufferSize, long inMemoryRunsSize, File tmpDir) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads should be at least 1. Got " + threads);
+	}
+	this.threads = threads;
+	this.sortBufferSize = sortBufferSize;
+	this.inMemoryRunsSize = inMemoryRunsSize;
+	this.tmpDir = tmpDir;
+    }
+
+    /**
+     * @return the counters of all the jobs tasks.
+     */
+    public Counters run(Job job) throws IOException, InterruptedException, ClassNotFoundException {
+	long startTime = System.currentTimeMillis();
+	final JobID jobId = new JobID("local" + startTime, JOB_IDS.incrementAndGet());
+	final JobContext jobContext = new JobContextImpl(job.getConfiguration(), jobId);
+	final Configuration conf = jobContext.getConfiguration();
+	final int numPartitions = jobContext.getNumReduceTasks();
+	if (numPartitions < 1) {
+	    throw new IllegalArgumentException("Job " + job.getJobName() + " has no reduce tasks.");
+	}
+
+	final InputFormat inputFormat = ReflectionUtils.newInstance(jobContext.getInputFormatClass(), conf);
+	List<InputSplit> splits = inputFormat.getSplits(jobContext);
+
+	OutputFormat outputFormat = ReflectionUtils.newInstance(jobContext.getOutputFormatClass(), conf);
+	outputFormat.checkOutputSpecs(jobContext);
+	TaskAttemptContext setupContext = new TaskAttemptContextImpl(conf, new TaskAttemptID(new TaskID(jobId, TaskType.JOB_SETUP, 0), 0));
+	OutputCommitter jobCommitter = outputFormat.getOutputCommitter(setupContext);
+	jobCommitter.setupJob(jobContext);
+
+	LOG.info("Running job " + job.getJobName() + " with " + splits.size() + " map tasks and " + numPartitions + " reduce tasks on " + threads
+		+ " threads.");
+	final Counters counters = new Counters();
+	final List<Run> runs = new ArrayList<Run>();
+	ExecutorService executor = Executors.newFixedThreadPool(threads);
+	boolean success = false;
+	try {
+	    List<Future<List<Run>>> mapFutures = new ArrayList<Future<List<Run>>>();
+	    for (int i = 0; i < splits.size(); i++) {
+		final int taskId = i;
+		final InputSplit split = splits.get(i);
+		mapFutures.add(executor.submit(new Callable<List<Run>>() {
+		    @Override
+		    public List<Run> call() throws Exception {
+			return runMapTask(jobContext, inputFormat, new TaskID(jobId, TaskType.MAP, taskId), split, numPartitions, counters);
+		    }
+		}));
+	    }
+	    for (List<Run> taskRuns : getAll(mapFutures)) {
+		runs.addAll(taskRuns);
+	    }
+	    LOG.info("Map tasks of job " + job.getJobName() + " finished with " + runs.size() + " runs after " + (System.currentTimeMillis() - startTime)
+		    + "ms.");
+
+	    List<Future<Void>> reduceFutures = new ArrayList<Future<Void>>();
+	    for (int i = 0; i < numPartitions; i++) {
+		final int partition = i;
+		reduceFutures.add(executor.submit(new Callable<Void>() {
+		    @Override
+		    public Void call() throws Exception {
+			runReduceTask(jobContext, new TaskID(jobId, TaskType.REDUCE, partition), runs, counters);
+			return null;
+		    }
+		}));
+	    }
+	    getAll(reduceFutures);
+
+	    jobCommitter.commitJob(jobContext);
+	    success = true;
+	} finally {
+	    executor.shutdownNow();
+	    for (Run run : runs) {
+		run.delete();
+	    }
+	    inMemoryRunsBytes.set(0);
+	    if (!success) {
+		jobCommitter.abortJob(jobContext, JobStatus.State.FAILED);
+	    }
+	}
+	LOG.info("Job " + job.getJobName() + " finished after " + (System.currentTimeMillis() - startTime) + "ms.");
+	return counters;
+    }
+
+    private List<Run> runMapTask(JobContext jobContext, InputFormat inputFormat, TaskID taskId, InputSplit split, int numPartitions, Counters jobCounters)
+	    throws IOException, InterruptedException, ClassNotFoundException {
+	Configuration conf = jobContext.getConfiguration();
+	TaskAttemptID attemptId = new TaskAttemptID(taskId, 0);
+	TaskAttemptContext taskContext = new TaskAttemptContextImpl(conf, attemptId);
+	TaskReporter reporter = new TaskReporter();
+
+	Partitioner partitioner = ReflectionUtils.newInstance(jobContext.getPartitionerClass(), conf);
+	// A new comparator per task as they aren't all thread safe.
+	RawComparator comparator = jobContext.getSortComparator();
+	MapOutputBuffer output = new MapOutputBuffer(conf, jobContext.getMapOutputKeyClass(), jobContext.getMapOutputValueClass(), partitioner,
+		numPartitions, comparator, reporter.getCounter(TaskCounter.MAP_OUTPUT_RECORDS));
+	if (jobContext.getCombinerClass() != null) {
+	    output.setCombiner((Reducer) ReflectionUtils.newInstance(jobContext.getCombinerClass(), conf), jobContext.getGroupingComparator(),
+		    attemptId, reporter);
+	}
+
+	RecordReader reader = inputFormat.createRecordReader(split, taskContext);
+	MapContextImpl mapContext = new MapContextImpl(conf, attemptId, reader, output, null, reporter, split);
+	Mapper.Context context = new WrappedMapper().getMapContext(mapContext);
+	reader.initialize(split, context);
+
+	Mapper mapper = ReflectionUtils.newInstance(jobContext.getMapperClass(), conf);
+	try {
+	    mapper.run(context);
+	} finally {
+	    reader.close();
+	}
+	output.close(taskContext);
+
+	synchronized (jobCounters) {
+	    jobCounters.incrAllCounters(reporter.counters);
+	}
+	return output.runs;
+    }
+
+    private void runReduceTask(JobContext jobContext, TaskID taskId, List<Run> runs, Counters jobCounters) throws IOException, InterruptedException,
+	    ClassNotFoundException {
+	Configuration conf = jobContext.getConfiguration();
+	int partition = taskId.getId();
+	TaskAttemptID attemptId = new TaskAttemptID(taskId, 0);
+	TaskAttemptContext taskContext = new TaskAttemptContextImpl(conf, attemptId);
+	TaskReporter reporter = new TaskReporter();
+	RawComparator comparator = jobContext.getSortComparator();
+
+	List<SegmentReader> segments = new ArrayList<SegmentReader>();
+	for (Run run : runs) {
+	    segments.add(run.openSegment(partition));
+	}
+	List<Run> intermediateRuns = new ArrayList<Run>();
+	try {
+	    // Limit the number of open files.
+	    while (segments.size() > MERGE_FACTOR) {
+		List<SegmentReader> toMerge = new ArrayList<SegmentReader>(segments.subList(0, MERGE_FACTOR));
+		segments.subList(0, MERGE_FACTOR).clear();
+		Run intermediateRun = writeRun(new MergingIterator(toMerge, comparator));
+		intermediateRuns.add(intermediateRun);
+		segments.add(intermediateRun.openSegment(0));
+	    }
+
+	    // A new instance per task as FileOutputFormat keeps the task's
+	    // committer.
+	    OutputFormat outputFormat = ReflectionUtils.newInstance(jobContext.getOutputFormatClass(), conf);
+	    OutputCommitter committer = outputFormat.getOutputCommitter(taskContext);
+	    committer.setupTask(taskContext);
+	    RecordWriter writer = outputFormat.getRecordWriter(taskContext);
+
+	    ReduceContextImpl reduceContext = new ReduceContextImpl(conf, attemptId, new MergingIterator(segments, comparator),
+		    reporter.getCounter(TaskCounter.REDUCE_INPUT_GROUPS), reporter.getCounter(TaskCounter.REDUCE_INPUT_RECORDS), writer, committer, reporter,
+		    jobContext.getGroupingComparator(), jobContext.getMapOutputKeyClass(), jobContext.getMapOutputValueClass());
+	    Reducer.Context context = new WrappedReducer().getReducerContext(reduceContext);
+	    Reducer reducer = ReflectionUtils.newInstance(jobContext.getReducerClass(), conf);
+	    reducer.run(context);
+	    writer.close(taskContext);
+
+	    if (committer.needsTaskCommit(taskContext)) {
+		committer.commitTask(taskContext);
+	    }
+	} finally {
+	    for (SegmentReader segment : segments) {
+		segment.close();
+	    }
+	    for (Run run : intermediateRuns) {
+		run.delete();
+	    }
+	}
+
+	synchronized (jobCounters) {
+	    jobCounters.incrAllCounters(reporter.counters);
+	}
+    }
+
+    /**
+     * Writes the records of a single partition to a run file.
+     */
+    private Run writeRun(RawKeyValueIterator records) throws IOException {
+	File file = File.createTempFile("merge", ".run", tmpDir);
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+	long length = 0;
+	try {
+	    while (records.next()) {
+		DataInputBuffer key = records.getKey();
+		DataInputBuffer value = records.getValue();
+		length += writeRecord(out, key.getData(), key.getPosition(), key.getLength() - key.getPosition(), value.getData(), value.getPosition(),
+			value.getLength() - value.getPosition());
+	    }
+	} finally {
+	    records.close();
+	    out.close();
+	}
+	return new Run(file, null, new long[] { 0, length });
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    private static int writeRecord(DataOutputStream out, byte[] keyBytes, int keyStart, int keyLength, byte[] valueBytes, int valueStart, int valueLength)
+	    throws IOException {
+	WritableUtils.writeVInt(out, keyLength);
+	WritableUtils.writeVInt(out, valueLength);
+	out.write(keyBytes, keyStart, keyLength);
+	out.write(valueBytes, valueStart, valueLength);
+	return WritableUtils.getVIntSize(keyLength) + WritableUtils.getVIntSize(valueLength) + keyLength + valueLength;
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws IOException, InterruptedException {
+	List<T> results = new ArrayList<T>(futures.size());
+	for (Future<T> future : futures) {
+	    try {
+		results.add(future.get());
+	    } catch (ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException) {
+		    throw (IOException) cause;
+		} else if (cause instanceof RuntimeException) {
+		    throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+		    throw (Error) cause;
+		}
+		throw new IOException("Task failed.", cause);
+	    }
+	}
+	return results;
+    }
+
+    /**
+     * Collects a map tasks output, sorting and spilling it to runs.
+     */
+    private class MapOutputBuffer extends RecordWriter {
+	private final Partitioner partitioner;
+	private final int numPartitions;
+	private final RawComparator comparator;
+	private final Counter outputRecords;
+	private final Serializer keySerializer;
+	private final Serializer valueSerializer;
+
+	private final Configuration conf;
+	private final Class<?> keyClass;
+	private final Class<?> valueClass;
+	private Reducer combiner;
+	private RawComparator combinerGroupingComparator;
+	private TaskAttemptID attemptId;
+	private TaskReporter reporter;
+
+	private final DataOutputBuffer data = new DataOutputBuffer();
+	private final IntArrayList partitions = new IntArrayList();
+	private final IntArrayList keyStarts = new IntArrayList();
+	private final IntArrayList valueStarts = new IntArrayList();
+	private final IntArrayList valueEnds = new IntArrayList();
+	private final List<Run> runs = new ArrayList<Run>();
+
+	public MapOutputBuffer(Configuration conf, Class<?> keyClass, Class<?> valueClass, Partitioner partitioner, int numPartitions,
+		RawComparator comparator, Counter outputRecords) throws IOException {
+	    this.conf = conf;
+	    this.keyClass = keyClass;
+	    this.valueClass = valueClass;
+	    this.partitioner = partitioner;
+	    this.numPartitions = numPartitions;
+	    this.comparator = comparator;
+	    this.outputRecords = outputRecords;
+	    SerializationFactory serializationFactory = new SerializationFactory(conf);
+	    keySerializer = serializationFactory.getSerializer(keyClass);
+	    keySerializer.open(data);
+	    valueSerializer = serializationFactory.getSerializer(valueClass);
+	    valueSerializer.open(data);
+	}
+
+	/**
+	 * @param groupingComparator
+	 *            groups the keys of the combiners input. As in Hadoop 0.23
+	 *            it's the jobs grouping comparator, not the sort comparator.
+	 */
+	public void setCombiner(Reducer combiner, RawComparator groupingComparator, TaskAttemptID attemptId, TaskReporter reporter) {
+	    this.combiner = combiner;
+	    this.combinerGroupingComparator = groupingComparator;
+	    this.attemptId = attemptId;
+	    this.reporter = reporter;
+	}
+
+	@Override
+	public void write(Object key, Object value) throws IOException, InterruptedException {
+	    int partition = numPartitions == 1 ? 0 : partitioner.getPartition(key, value, numPartitions);
+	    if (partition < 0 || partition >= numPartitions) {
+		throw new IOException("Illegal partition " + partition + " for key " + key);
+	    }
+	    partitions.add(partition);
+	    keyStarts.add(data.getLength());
+	    keySerializer.serialize(key);
+	    valueStarts.add(data.getLength());
+	    valueSerializer.serialize(value);
+	    valueEnds.add(data.getLength());
+	    outputRecords.increment(1);
+
+	    if (data.getLength() >= sortBufferSize) {
+		spill(false);
+	    }
+	}
+
+	@Override
+	public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+	    if (!partitions.isEmpty()) {
+		spill(true);
+	    }
+	}
+
+	private void spill(boolean last) throws IOException, InterruptedException {
+	    final byte[] bytes = data.getData();
+	    final int[] partitionsArray = partitions.elements();
+	    final int[] keyStartsArray = keyStarts.elements();
+	    final int[] valueStartsArray = valueStarts.elements();
+	    final int[] valueEndsArray = valueEnds.elements();
+	    int[] order = new int[partitions.size()];
+	    for (int i = 0; i < order.length; i++) {
+		order[i] = i;
+	    }
+	    IntArrays.quickSort(order, new AbstractIntComparator() {
+		@Override
+		public int compare(int a, int b) {
+		    if (partitionsArray[a] != partitionsArray[b]) {
+			return partitionsArray[a] < partitionsArray[b] ? -1 : 1;
+		    }
+		    return comparator.compare(bytes, keyStartsArray[a], valueStartsArray[a] - keyStartsArray[a], bytes, keyStartsArray[b],
+			    valueStartsArray[b] - keyStartsArray[b]);
+		}
+	    });
+
+	    boolean inMemory = last && inMemoryRunsBytes.addAndGet(data.getLength()) <= inMemoryRunsSize;
+	    DataOutputBuffer memoryOut = null;
+	    File file = null;
+	    DataOutputStream out;
+	    if (inMemory) {
+		memoryOut = new DataOutputBuffer(data.getLength() + 10 * order.length);
+		out = memoryOut;
+	    } else {
+		if (last) {
+		    inMemoryRunsBytes.addAndGet(-data.getLength());
+		}
+		file = File.createTempFile("spill", ".run", tmpDir);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+	    }
+
+	    long[] segmentOffsets = new long[numPartitions + 1];
+	    long offset = 0;
+	    int from = 0;
+	    try {
+		for (int partition = 0; partition < numPartitions; partition++) {
+		    segmentOffsets[partition] = offset;
+		    int to = from;
+		    while (to < order.length && partitionsArray[order[to]] == partition) {
+			to++;
+		    }
+		    if (combiner != null && to > from) {
+			BufferIterator input = new BufferIterator(bytes, order, from, to, keyStartsArray, valueStartsArray, valueEndsArray);
+			CombineOutput output = new CombineOutput(out);
+			ReduceContextImpl combineContext = new ReduceContextImpl(conf, attemptId, input, reporter.getCounter(COMBINER_GROUP,
+				"COMBINE_INPUT_GROUPS"), reporter.getCounter(TaskCounter.COMBINE_INPUT_RECORDS), output, null, reporter,
+				combinerGroupingComparator, keyClass, valueClass);
+			combiner.run(new WrappedReducer().getReducerContext(combineContext));
+			offset += output.length;
+		    } else {
+			for (int j = from; j < to; j++) {
+			    int i = order[j];
+			    int keyStart = keyStartsArray[i];
+			    int valueStart = valueStartsArray[i];
+			    offset += writeRecord(out, bytes, keyStart, valueStart - keyStart, bytes, valueStart, valueEndsArray[i] - valueStart);
+			}
+		    }
+		    from = to;
+		}
+		segmentOffsets[numPartitions] = offset;
+	    } finally {
+		out.close();
+	    }
+
+	    runs.add(new Run(file, inMemory ? memoryOut.getData() : null, segmentOffsets));
+	    data.reset();
+	    partitions.clear();
+	    keyStarts.clear();
+	    valueStarts.clear();
+	    valueEnds.clear();
+	}
+
+	/**
+	 * Serializes the combiners output records into a run.
+	 */
+	private class CombineOutput extends RecordWriter {
+	    private final DataOutputStream out;
+	    private final DataOutputBuffer buffer = new DataOutputBuffer();
+	    private final Serializer keySerializer;
+	    private final Serializer valueSerializer;
+	    private final Counter outputRecords;
+	    private long length;
+
+	    public CombineOutput(DataOutputStream out) throws IOException {
+		this.out = out;
+		SerializationFactory serializationFactory = new SerializationFactory(conf);
+		keySerializer = serializationFactory.getSerializer(keyClass);
+		keySerializer.open(buffer);
+		valueSerializer = serializationFactory.getSerializer(valueClass);
+		valueSerializer.open(buffer);
+		outputRecords = reporter.getCounter(TaskCounter.COMBINE_OUTPUT_RECORDS);
+	    }
+
+	    @Override
+	    public void write(Object key, Object value) throws IOException {
+		buffer.reset();
+		keySerializer.serialize(key);
+		int keyLength = buffer.getLength();
+		valueSerializer.serialize(value);
+		length += writeRecord(out, buffer.getData(), 0, keyLength, buffer.getData(), keyLength, buffer.getLength() - keyLength);
+		outputRecords.increment(1);
+	    }
+
+	    @Override
+	    public void close(TaskAttemptContext context) {
+	    }
+	}
+    }
+
+    /**
+     * Iterates over a range of the sorted records in a MapOutputBuffer.
+     */
+    private static class BufferIterator implements RawKeyValueIterator {
+	private final byte[] bytes;
+	private final int[] order;
+	private final int to;
+	private final int[] keyStarts;
+	private final int[] valueStarts;
+	private final int[] valueEnds;
+	private final DataInputBuffer key = new DataInputBuffer();
+	private final DataInputBuffer value = new DataInputBuffer();
+	private final Progress progress = new Progress();
+	private int index;
+
+	public BufferIterator(byte[] bytes, int[] order, int from, int to, int[] keyStarts, int[] valueStarts, int[] valueEnds) {
+	    this.bytes = bytes;
+	    this.order = order;
+	    this.to = to;
+	    this.keyStarts = keyStarts;
+	    this.valueStarts = valueStarts;
+	    this.valueEnds = valueEnds;
+	    index = from - 1;
+	}
+
+	@Override
+	public DataInputBuffer getKey() throws IOException {
+	    return key;
+	}
+
+	@Override
+	public DataInputBuffer getValue() throws IOException {
+	    return value;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+	    if (++index >= to) {
+		return false;
+	    }
+	    int i = order[index];
+	    key.reset(bytes, keyStarts[i], valueStarts[i] - keyStarts[i]);
+	    value.reset(bytes, valueStarts[i], valueEnds[i] - valueStarts[i]);
+	    return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+
+	@Override
+	public Progress getProgress() {
+	    return progress;
+	}
+    }
+
+    /**
+     * Sorted records in segments, one per partition, either in a file or in
+     * memory.
+     */
+    private class Run {
+	private final File file;
+	private byte[] bytes;
+	private final long[] segmentOffsets;
+
+	public Run(File file, byte[] bytes, long[] segmentOffsets) {
+	    this.file = file;
+	    this.bytes = bytes;
+	    this.segmentOffsets = segmentOffsets;
+	}
+
+	public SegmentReader openSegment(int partition) throws IOException {
+	    long start = segmentOffsets[partition];
+	    long length = segmentOffsets[partition + 1] - start;
+	    if (file == null) {
+		return new SegmentReader(new DataInputStream(new ByteArrayInputStream(bytes, (int) start, (int) length)), length);
+	    }
+	    FileInputStream in = new FileInputStream(file);
+	    in.getChannel().position(start);
+	    return new SegmentReader(new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE)), length);
+	}
+
+	public void delete() {
+	    if (file != null && !file.delete()) {
+		LOG.warn("Failed to delete " + file);
+	    }
+	    bytes = null;
+	}
+    }
+
+    private static class SegmentReader {
+	private final DataInputStream in;
+	private long remaining;
+	private byte[] key = new byte[64];
+	private int keyLength;
+	private byte[] value = new byte[64];
+	private int valueLength;
+
+	public SegmentReader(DataInputStream in, long length) {
+	    this.in = in;
+	    this.remaining = length;
+	}
+
+	public boolean next() throws IOException {
+	    if (remaining == 0) {
+		return false;
+	    }
+	    keyLength = WritableUtils.readVInt(in);
+	    valueLength = WritableUtils.readVInt(in);
+	    if (key.length < keyLength) {
+		key = new byte[Math.max(keyLength, key.length * 2)];
+	    }
+	    in.readFully(key, 0, keyLength);
+	    if (value.length < valueLength) {
+		value = new byte[Math.max(valueLength, value.length * 2)];
+	    }
+	    in.readFully(value, 0, valueLength);
+	    remaining -= WritableUtils.getVIntSize(keyLength) + WritableUtils.getVIntSize(valueLength) + keyLength + valueLength;
+	    return true;
+	}
+
+	public void close() throws IOException {
+	    in.close();
+	}
+    }
+
+    /**
+     * Merges sorted segments for a ReduceContext.
+     */
+    private static class MergingIterator implements RawKeyValueIterator {
+	private final List<SegmentReader> segments;
+	private final PriorityQueue<SegmentReader> queue;
+	private final DataInputBuffer key = new DataInputBuffer();
+	private final DataInputBuffer value = new DataInputBuffer();
+	private final Progress progress = new Progress();
+	private SegmentReader current;
+	private boolean started;
+
+	public MergingIterator(List<SegmentReader> segments, final RawComparator comparator) {
+	    this.segments = segments;
+	    queue = new PriorityQueue<SegmentReader>(Math.max(1, segments.size()), new java.util.Comparator<SegmentReader>() {
+		@Override
+		public int compare(SegmentReader s1, SegmentReader s2) {
+		    return comparator.compare(s1.key, 0, s1.keyLength, s2.key, 0, s2.keyLength);
+		}
+	    });
+	}
+
+	@Override
+	public DataInputBuffer getKey() throws IOException {
+	    return key;
+	}
+
+	@Override
+	public DataInputBuffer getValue() throws IOException {
+	    return value;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+	    if (!started) {
+		started = true;
+		for (SegmentReader segment : segments) {
+		    if (segment.next()) {
+			queue.add(segment);
+		    }
+		}
+	    } else if (current != null && current.next()) {
+		queue.add(current);
+	    }
+	    current = queue.poll();
+	    if (current == null) {
+		return false;
+	    }
+	    key.reset(current.key, 0, current.keyLength);
+	    value.reset(current.value, 0, current.valueLength);
+	    return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+	    for (SegmentReader segment : segments) {
+		segment.close();
+	    }
+	}
+
+	@Override
+	public Progress getProgress() {
+	    return progress;
+	}
+    }
+
+    private static class TaskReporter extends StatusReporter {
+	private final Counters counters = new Counters();
+
+	@Override
+	public Counter getCounter(Enum<?> name) {
+	    return counters.findCounter(name);
+	}
+
+	@Override
+	public Counter getCounter(String group, String name) {
+	    return counters.findCounter(group, name);
+	}
+
+	@Override
+	public void progress() {
+	}
+
+	@Override
+	public float getProgress() {
+	    return 0;
+	}
+
+	@Override
+	public void setStatus(String status) {
+	}
+    }
+}
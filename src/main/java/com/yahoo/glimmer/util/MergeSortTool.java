@@ -11,12 +11,9 @@ package com.yahoo.glimmer.util;
  *  See accompanying LICENSE file.
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -44,6 +41,7 @@ public class MergeSortTool extends Configured implements Tool {
     private static final String OUTPUT_ARG = "output";
     private static final String INPUT_ARG = "input";
     private static final String COUNT_ARG = "count";
+    private static final int IO_BUFFER_SIZE = 1 << 20;
 
     public static void main(String[] args) throws Exception {
 	int ret = ToolRunner.run(new MergeSortTool(), args);
@@ -65,14 +63,6 @@ public class MergeSortTool extends Configured implements Tool {
 	    System.exit(1);
 	}
 
-	// FileSystem fs = FileSystem.get(getConf());
-	// CompressionCodecFactory factory = new
-	// CompressionCodecFactory(getConf());
-	// mergeSort(fs, sourcePaths, outputPath, factory);
-
-	// Maybe quicker to use a MR job with one reducer.. Currently
-	// decompression, merge and compression are all done in this thread..
-
 	Path inputGlobPath = new Path(jsapResult.getString(INPUT_ARG));
 	
 	Configuration config = getConf();
@@ -105,22 +95,22 @@ public class MergeSortTool extends Configured implements Tool {
 	    countsOutputStream = fs.create(countsPath);
 	}
 
-	int lineCount = MergeSortTool.mergeSort(fs, sourcePaths, outputPath, factory);
+	long lineCount = MergeSortTool.mergeSort(fs, sourcePaths, outputPath, factory);
 	System.out.println("Merged " + lineCount + " lines into " + outputPath.toString());
 	if (countsOutputStream != null) {
 	    countsOutputStream.writeBytes("" + lineCount + '\n');
+	    countsOutputStream.flush();
+	    countsOutputStream.close();
 	}
-	countsOutputStream.flush();
-	countsOutputStream.close();
 
 	return 0;
     }
 
-    public static int mergeSort(FileSystem fs, List<Path> sourcePaths, Path outputPath, CompressionCodecFactory compressionCodecFactory) throws IOException {
+    public static long mergeSort(FileSystem fs, List<Path> sourcePaths, Path outputPath, CompressionCodecFactory compressionCodecFactory) throws IOException {
 	assert sourcePaths.size() > 0 : "No source paths given.";
 
 	LOG.info("Sorted merge into " + outputPath.toString());
-	OutputStream outputStream = fs.create(outputPath);
+	OutputStream outputStream = fs.create(outputPath, true, IO_BUFFER_SIZE);
 
 	CompressionCodec inputCompressionCodec = compressionCodecFactory.getCodec(sourcePaths.get(0));
 	if (inputCompressionCodec != null) {
@@ -133,26 +123,26 @@ public class MergeSortTool extends Configured implements Tool {
 	    outputStream = outputCompressionCodec.createOutputStream(outputStream);
 	}
 
-	List<BufferedReader> readers = new ArrayList<BufferedReader>();
-	OutputStreamWriter writer = new OutputStreamWriter(outputStream);
-
-	for (Path partPath : sourcePaths) {
-	    LOG.info("\tAdding source " + partPath.toString());
-	    InputStream inputStream = fs.open(partPath);
-	    if (inputCompressionCodec != null) {
-		inputStream = inputCompressionCodec.createInputStream(inputStream);
+	// The streams are read, and decompressed, on StreamsMergeSort's reader threads.
+	List<InputStream> inputStreams = new ArrayList<InputStream>();
+	long count;
+	try {
+	    for (Path partPath : sourcePaths) {
+		LOG.info("\tAdding source " + partPath.toString());
+		InputStream inputStream = fs.open(partPath, IO_BUFFER_SIZE);
+		if (inputCompressionCodec != null) {
+		    inputStream = inputCompressionCodec.createInputStream(inputStream);
+		}
+		inputStreams.add(inputStream);
 	    }
-	    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-	    readers.add(reader);
-	}
-
-	int count = ReadersWriterMergeSort.mergeSort(readers, writer);
 
-	writer.close();
-	for (BufferedReader reader : readers) {
-	    reader.close();
+	    count = StreamsMergeSort.mergeSort(inputStreams, outputStream);
+	} finally {
+	    outputStream.close();
+	    for (InputStream inputStream : inputStreams) {
+		inputStream.close();
+	    }
 	}
-	readers.clear();
 	LOG.info("Processed " + count + " lines into " + outputPath.toString());
 	return count;
     }
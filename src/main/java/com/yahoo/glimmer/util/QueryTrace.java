@@ -0,0 +1,172 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per request break down of where the time went.
+ *
+ * A trace is bound to the thread that started it so that code deep in the
+ * call stack(the block cache, the scorer..) can add to it without having it
+ * passed in. When no trace is active the static methods do nothing and
+ * time() doesn't read the clock.
+ *
+ * Phase times are inclusive, DECOMPRESS time is also counted in the FETCH
+ * and DEREF phases it happens in.
+ *
+ * Usage:
+ *
+ * <pre>
+ * long t = QueryTrace.time();
+ * doWork();
+ * QueryTrace.add(Phase.X, t);
+ * </pre>
+ */
+public class QueryTrace {
+    public enum Phase {
+	/** Query parsing and expansion. */
+	PARSE,
+	/** Posting iteration and scoring. */
+	SEARCH,
+	/** Reading result documents from the collection. */
+	FETCH,
+	/** Decompressing blocks of the collection. */
+	DECOMPRESS,
+	/** Parsing the relations of result documents. */
+	RELATION_PARSE,
+	/** Looking up labels of objects. */
+	DEREF
+    }
+
+    public enum Counter {
+	DOCUMENTS_SCORED, DOCUMENTS_FETCHED, BLOCK_REQUESTS, BLOCKS_DECOMPRESSED, RELATIONS_PARSED, DEREFS
+    }
+
+    private static final ThreadLocal<QueryTrace> CURRENT = new ThreadLocal<QueryTrace>();
+
+    private final long startNanos = System.nanoTime();
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final long[] counters = new long[Counter.values().length];
+    private long durationNanos = -1;
+
+    /**
+     * Start a trace on the current thread replacing any existing trace.
+     */
+    public static QueryTrace start() {
+	QueryTrace trace = new QueryTrace();
+	CURRENT.set(trace);
+	return trace;
+    }
+
+    /**
+     * @return the trace active on the current thread or null.
+     */
+    public static QueryTrace current() {
+	return CURRENT.get();
+    }
+
+    /**
+     * Unbinds any trace from the current thread, ended or not. Call when a
+     * pooled thread finishes a task so the next task run on it doesn't add
+     * to a trace it didn't start.
+     */
+    public static void clear() {
+	CURRENT.remove();
+    }
+
+    /**
+     * @return the current System.nanoTime() if a trace is active on this thread, otherwise 0.
+     */
+    public static long time() {
+	return CURRENT.get() == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Add the time since startNanos to the given phase of the current thread's trace.
+     *
+     * @param phase
+     * @param startNanos
+     *            as returned by time()
+     */
+    public static void add(Phase phase, long startNanos) {
+	QueryTrace trace = CURRENT.get();
+	if (trace != null && startNanos != 0) {
+	    trace.phaseNanos[phase.ordinal()] += System.nanoTime() - startNanos;
+	}
+    }
+
+    public static void increment(Counter counter) {
+	QueryTrace trace = CURRENT.get();
+	if (trace != null) {
+	    trace.counters[counter.ordinal()]++;
+	}
+    }
+
+    /**
+     * Ends the trace and unbinds it from the current thread.
+     */
+    public QueryTrace end() {
+	if (durationNanos == -1) {
+	    durationNanos = System.nanoTime() - startNanos;
+	}
+	if (CURRENT.get() == this) {
+	    CURRENT.remove();
+	}
+	return this;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+	return phaseNanos[phase.ordinal()];
+    }
+
+    public long getCounter(Counter counter) {
+	return counters[counter.ordinal()];
+    }
+
+    public long getDurationNanos() {
+	return durationNanos == -1 ? System.nanoTime() - startNanos : durationNanos;
+    }
+
+    /**
+     * @return times in milliseconds and counters keyed on their lower case names.
+     */
+    public Map<String, Object> toMap() {
+	Map<String, Object> map = new LinkedHashMap<String, Object>();
+	map.put("total", nanosToMillis(getDurationNanos()));
+	for (Phase phase : Phase.values()) {
+	    map.put(phase.name().toLowerCase(), nanosToMillis(phaseNanos[phase.ordinal()]));
+	}
+	for (Counter counter : Counter.values()) {
+	    map.put(counter.name().toLowerCase(), counters[counter.ordinal()]);
+	}
+	map.put("block_cache_hits", getCounter(Counter.BLOCK_REQUESTS) - getCounter(Counter.BLOCKS_DECOMPRESSED));
+	return map;
+    }
+
+    private static double nanosToMillis(long nanos) {
+	return nanos / 1000 / 1000.0d;
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder();
+	for (Map.Entry<String, Object> entry : toMap().entrySet()) {
+	    if (sb.length() > 0) {
+		sb.append(' ');
+	    }
+	    sb.append(entry.getKey()).append(':').append(entry.getValue());
+	}
+	return sb.toString();
+    }
+}
@@ -0,0 +1,210 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.big.util.StringMap;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.fastutil.objects.AbstractObjectBigList;
+import it.unimi.dsi.fastutil.objects.ObjectBigList;
+
+import java.util.Arrays;
+
+/**
+ * A term map for fields whose terms are all resource ids, the prefix followed
+ * by the id in decimal(eg. @12345). The term number of an id is read from an
+ * array indexed by the id minus the smallest id of the field, so a lookup is
+ * a parse of the digits and an array access rather than a search of a string
+ * dictionary.
+ *
+ * The array covers the range of ids of the field. Where the ids are too
+ * sparse for that, as for the predicate and context fields, the ids are kept
+ * sorted with their term numbers and a lookup is a binary search.
+ */
+public class ResourceIdTermMap extends AbstractObject2LongFunction<CharSequence> implements StringMap<CharSequence> {
+    private static final long serialVersionUID = -1473928150262830542L;
+
+    /** The largest range of ids, relative to the number of terms, that an array indexed by id is built for. */
+    public static final int MAX_IDS_PER_TERM = 4;
+    /** More digits than this could overflow a long. */
+    private static final int MAX_DIGITS = 18;
+
+    private final String prefix;
+    private final long firstId;
+    /**
+     * Indexed by id - firstId, -1 for ids that aren't terms of the field. Or
+     * if sortedIds isn't null, the term numbers of sortedIds.
+     */
+    private final int[] termNumbers;
+    /** The ids in increasing order or null if termNumbers is indexed by id. */
+    private final long[] sortedIds;
+    /** Indexed by term number. */
+    private final long[] ids;
+
+    private ResourceIdTermMap(String prefix, long firstId, int[] termNumbers, long[] sortedIds, long[] ids) {
+	this.prefix = prefix;
+	this.firstId = firstId;
+	this.termNumbers = termNumbers;
+	this.sortedIds = sortedIds;
+	this.ids = ids;
+	defRetValue = -1;
+    }
+
+    /**
+     * @param terms
+     *            the terms of the field in term number order.
+     * @return null if a term isn't a resource id.
+     */
+    public static ResourceIdTermMap build(Iterable<? extends CharSequence> terms, String prefix) {
+	LongArrayList ids = new LongArrayList();
+	long minId = Long.MAX_VALUE;
+	long maxId = Long.MIN_VALUE;
+	for (CharSequence term : terms) {
+	    long id = parseId(term, prefix);
+	    if (id < 0) {
+		return null;
+	    }
+	    ids.add(id);
+	    minId = Math.min(minId, id);
+	    maxId = Math.max(maxId, id);
+	}
+	if (ids.isEmpty()) {
+	    return new ResourceIdTermMap(prefix, 0, new int[0], null, new long[0]);
+	}
+	long range = maxId - minId + 1;
+	if (range > Integer.MAX_VALUE || range > (long) MAX_IDS_PER_TERM * ids.size()) {
+	    return buildSparse(ids, prefix);
+	}
+
+	int[] termNumbers = new int[(int) range];
+	Arrays.fill(termNumbers, -1);
+	for (int termNumber = 0; termNumber < ids.size(); termNumber++) {
+	    int i = (int) (ids.getLong(termNumber) - minId);
+	    if (termNumbers[i] != -1) {
+		throw new IllegalArgumentException("Term " + prefix + ids.getLong(termNumber) + " occurs more than once.");
+	    }
+	    termNumbers[i] = termNumber;
+	}
+	return new ResourceIdTermMap(prefix, minId, termNumbers, null, ids.toLongArray());
+    }
+
+    private static ResourceIdTermMap buildSparse(LongArrayList ids, String prefix) {
+	final long[] idsArray = ids.toLongArray();
+	int[] termNumbers = new int[idsArray.length];
+	for (int i = 0; i < termNumbers.length; i++) {
+	    termNumbers[i] = i;
+	}
+	IntArrays.quickSort(termNumbers, new AbstractIntComparator() {
+	    @Override
+	    public int compare(int a, int b) {
+		return idsArray[a] < idsArray[b] ? -1 : idsArray[a] == idsArray[b] ? 0 : 1;
+	    }
+	});
+
+	long[] sortedIds = new long[idsArray.length];
+	for (int i = 0; i < sortedIds.length; i++) {
+	    sortedIds[i] = idsArray[termNumbers[i]];
+	    if (i > 0 && sortedIds[i] == sortedIds[i - 1]) {
+		throw new IllegalArgumentException("Term " + prefix + sortedIds[i] + " occurs more than once.");
+	    }
+	}
+	return new ResourceIdTermMap(prefix, 0, termNumbers, sortedIds, idsArray);
+    }
+
+    /**
+     * @return the id or -1 if the term isn't the prefix followed by a decimal
+     *         number without leading zeros.
+     */
+    static long parseId(CharSequence term, String prefix) {
+	int length = term.length();
+	int prefixLength = prefix.length();
+	if (length <= prefixLength || length - prefixLength > MAX_DIGITS) {
+	    return -1;
+	}
+	for (int i = 0; i < prefixLength; i++) {
+	    if (term.charAt(i) != prefix.charAt(i)) {
+		return -1;
+	    }
+	}
+	if (term.charAt(prefixLength) == '0' && length > prefixLength + 1) {
+	    return -1;
+	}
+	long id = 0;
+	for (int i = prefixLength; i < length; i++) {
+	    char c = term.charAt(i);
+	    if (c < '0' || c > '9') {
+		return -1;
+	    }
+	    id = id * 10 + (c - '0');
+	}
+	return id;
+    }
+
+    @Override
+    public long getLong(Object o) {
+	long id = parseId((CharSequence) o, prefix);
+	return id < 0 ? defRetValue : getTermNumber(id);
+    }
+
+    /**
+     * @return the term number of the resource id or -1 if it isn't a term of
+     *         the field.
+     */
+    public long getTermNumber(long id) {
+	if (sortedIds != null) {
+	    int i = LongArrays.binarySearch(sortedIds, id);
+	    return i < 0 ? defRetValue : termNumbers[i];
+	}
+	long i = id - firstId;
+	if (i < 0 || i >= termNumbers.length) {
+	    return defRetValue;
+	}
+	return termNumbers[(int) i];
+    }
+
+    public long getResourceId(long termNumber) {
+	return ids[(int) termNumber];
+    }
+
+    @Override
+    public boolean containsKey(Object o) {
+	return getLong(o) != -1;
+    }
+
+    @Override
+    public ObjectBigList<? extends CharSequence> list() {
+	return new AbstractObjectBigList<CharSequence>() {
+	    @Override
+	    public CharSequence get(long termNumber) {
+		return prefix + getResourceId(termNumber);
+	    }
+
+	    @Override
+	    public long size64() {
+		return ids.length;
+	    }
+	};
+    }
+
+    @Override
+    public long size64() {
+	return ids.length;
+    }
+
+    @Override
+    public int size() {
+	return ids.length;
+    }
+}
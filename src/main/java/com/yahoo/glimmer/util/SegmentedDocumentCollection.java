@@ -0,0 +1,190 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.document.AbstractDocumentCollection;
+import it.unimi.di.big.mg4j.document.Document;
+import it.unimi.di.big.mg4j.document.DocumentCollection;
+import it.unimi.di.big.mg4j.document.DocumentFactory;
+import it.unimi.di.big.mg4j.document.IdentityDocumentFactory;
+import it.unimi.dsi.bits.BitVector;
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.List;
+
+/**
+ * The bySubject collection of a base kb and its deltas. A doc is read from
+ * the newest segment that has a record for it, unless a newer segment's
+ * deleted bitmap says it was deleted.
+ *
+ * Segment 0 is the base and segment i is the i'th delta.
+ */
+public class SegmentedDocumentCollection extends AbstractDocumentCollection {
+    private static final String BY_SUBJECT = "bySubject";
+    private static final int CACHE_SIZE = 100000;
+
+    private final DocumentCollection[] collections;
+    private final BitVector[] deleted;
+    private final BitVector[] masks;
+    private final long size;
+
+    /**
+     * @param collections
+     *            the base collection followed by the delta collections, oldest
+     *            first.
+     * @param deleted
+     *            the deleted bitmap of each segment. The base's is ignored.
+     */
+    public SegmentedDocumentCollection(DocumentCollection[] collections, BitVector[] deleted) {
+	if (collections.length != deleted.length) {
+	    throw new IllegalArgumentException("Expected a deleted bitmap for each collection.");
+	}
+	this.collections = collections;
+	this.deleted = deleted;
+
+	long size = 0;
+	for (DocumentCollection collection : collections) {
+	    size = Math.max(size, collection.size());
+	}
+	this.size = size;
+
+	// The mask of a segment is the union of the deleted bitmaps of the newer
+	// segments.
+	masks = new BitVector[collections.length];
+	LongArrayBitVector mask = LongArrayBitVector.ofLength(size);
+	for (int segment = collections.length - 1; segment >= 0; segment--) {
+	    masks[segment] = mask.copy();
+	    if (segment > 0) {
+		BitVector segmentDeleted = deleted[segment];
+		for (long id = segmentDeleted.nextOne(0); id != -1; id = segmentDeleted.nextOne(id + 1)) {
+		    mask.set(id);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Opens the bySubject collections of the given kb root dir and its deltas.
+     */
+    public static SegmentedDocumentCollection open(File kbDir, List<DeltaSegment> deltas) throws IOException {
+	DocumentCollection[] collections = new DocumentCollection[deltas.size() + 1];
+	BitVector[] deleted = new BitVector[deltas.size() + 1];
+	collections[0] = openBySubject(kbDir);
+	deleted[0] = LongArrayBitVector.getInstance();
+	for (int i = 0; i < deltas.size(); i++) {
+	    collections[i + 1] = openBySubject(deltas.get(i).getDir());
+	    deleted[i + 1] = deltas.get(i).loadDeleted();
+	}
+	return new SegmentedDocumentCollection(collections, deleted);
+    }
+
+    public static BlockCompressedDocumentCollection openBySubject(File dir) throws IOException {
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection(BY_SUBJECT, new IdentityDocumentFactory(), CACHE_SIZE);
+	collection.filename(new File(dir, BY_SUBJECT).getAbsolutePath());
+	return collection;
+    }
+
+    public int getSegmentCount() {
+	return collections.length;
+    }
+
+    public DocumentCollection getSegment(int segment) {
+	return collections[segment];
+    }
+
+    /**
+     * @return the ids that the newer segments replace or delete. Docs from
+     *         the given segment with these ids are not current.
+     */
+    public BitVector getMask(int segment) {
+	return masks[segment];
+    }
+
+    /**
+     * @return the segment with the current record of the given doc or -1 if
+     *         it has none.
+     */
+    public int getSegmentOf(long id) throws IOException {
+	InputStream[] stream = new InputStream[1];
+	int segment = find(id, stream);
+	if (stream[0] != null) {
+	    stream[0].close();
+	}
+	return segment;
+    }
+
+    private int find(long id, InputStream[] stream) throws IOException {
+	for (int segment = collections.length - 1; segment >= 0; segment--) {
+	    if (id < collections[segment].size()) {
+		PushbackInputStream in = new PushbackInputStream(collections[segment].stream(id));
+		int b = in.read();
+		if (b != -1) {
+		    in.unread(b);
+		    stream[0] = in;
+		    return segment;
+		}
+		in.close();
+	    }
+	    if (segment > 0 && id < deleted[segment].length() && deleted[segment].getBoolean(id)) {
+		// Deleted in this delta.
+		return -1;
+	    }
+	}
+	return -1;
+    }
+
+    @Override
+    public long size() {
+	return size;
+    }
+
+    @Override
+    public InputStream stream(long index) throws IOException {
+	InputStream[] stream = new InputStream[1];
+	find(index, stream);
+	return stream[0] == null ? new ByteArrayInputStream(new byte[0]) : stream[0];
+    }
+
+    @Override
+    public Document document(long index) throws IOException {
+	return factory().getDocument(stream(index), metadata(index));
+    }
+
+    @Override
+    public Reference2ObjectMap<Enum<?>, Object> metadata(long index) throws IOException {
+	return collections[0].metadata(index);
+    }
+
+    @Override
+    public DocumentFactory factory() {
+	return collections[0].factory();
+    }
+
+    @Override
+    public DocumentCollection copy() {
+	throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+	super.close();
+	for (DocumentCollection collection : collections) {
+	    collection.close();
+	}
+    }
+}
@@ -0,0 +1,145 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.big.util.LongBigListSignedStringMap;
+import it.unimi.dsi.fastutil.Size64;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the resources of a base kb and its deltas to their global doc ids.
+ * Each segment has a signed map from its resources to 0..n-1 and the id is
+ * that plus the segment's first doc id. A resource is only in the map of the
+ * segment where it first appeared, so the segments don't overlap.
+ *
+ * Only the filenames are serialized. The maps are loaded again when the
+ * object is deserialized, so it can be passed to the index build as the
+ * resources hash.
+ */
+public class SegmentedResourcesMap extends AbstractObject2LongFunction<CharSequence> {
+    private static final long serialVersionUID = 3604413873813718371L;
+
+    private final String[] mapFilenames;
+    private final String[] signaturesFilenames;
+    private final long[] firstDocIds;
+    private transient Object2LongFunction<CharSequence>[] maps;
+    private transient long numberOfDocs;
+
+    private SegmentedResourcesMap(String[] mapFilenames, String[] signaturesFilenames, long[] firstDocIds) throws IOException {
+	this.mapFilenames = mapFilenames;
+	this.signaturesFilenames = signaturesFilenames;
+	this.firstDocIds = firstDocIds;
+	defRetValue = -1;
+	load();
+    }
+
+    /**
+     * @param mapFile
+     *            the base kb's unsigned resources map. all.map
+     * @param signaturesFile
+     *            the base kb's resources signatures. all.smap
+     * @param deltas
+     *            oldest first.
+     */
+    public static SegmentedResourcesMap load(File mapFile, File signaturesFile, List<DeltaSegment> deltas) throws IOException {
+	SegmentedResourcesMap map = new SegmentedResourcesMap(new String[] { mapFile.getPath() }, new String[] { signaturesFile.getPath() },
+		new long[] { 0 });
+	for (DeltaSegment delta : deltas) {
+	    if (delta.hasResources()) {
+		map = map.append(delta.getResourcesMapFile(), delta.getResourcesSignaturesFile(), delta.getFirstDocId());
+	    }
+	}
+	return map;
+    }
+
+    public static SegmentedResourcesMap load(File kbDir) throws IOException {
+	return load(new File(kbDir, "all.map"), new File(kbDir, "all.smap"), DeltaSegment.list(kbDir));
+    }
+
+    /**
+     * @return a new map with the given segment added after the existing ones.
+     */
+    public SegmentedResourcesMap append(File mapFile, File signaturesFile, long firstDocId) throws IOException {
+	if (firstDocId < numberOfDocs) {
+	    throw new IllegalArgumentException("First doc id " + firstDocId + " overlaps the existing " + numberOfDocs + " docs.");
+	}
+	int segments = mapFilenames.length;
+	String[] newMapFilenames = Arrays.copyOf(mapFilenames, segments + 1);
+	String[] newSignaturesFilenames = Arrays.copyOf(signaturesFilenames, segments + 1);
+	long[] newFirstDocIds = Arrays.copyOf(firstDocIds, segments + 1);
+	newMapFilenames[segments] = mapFile.getPath();
+	newSignaturesFilenames[segments] = signaturesFile.getPath();
+	newFirstDocIds[segments] = firstDocId;
+	return new SegmentedResourcesMap(newMapFilenames, newSignaturesFilenames, newFirstDocIds);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load() throws IOException {
+	maps = new Object2LongFunction[mapFilenames.length];
+	for (int i = 0; i < maps.length; i++) {
+	    try {
+		Object2LongFunction<CharSequence> unsigned = (Object2LongFunction<CharSequence>) BinIO.loadObject(mapFilenames[i]);
+		maps[i] = new LongBigListSignedStringMap(unsigned, signaturesFilenames[i]);
+		numberOfDocs = firstDocIds[i] + ((Size64) unsigned).size64();
+	    } catch (IOException e) {
+		throw e;
+	    } catch (Exception e) {
+		throw new RuntimeException("Loading resources map " + mapFilenames[i], e);
+	    }
+	}
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+	in.defaultReadObject();
+	load();
+    }
+
+    /**
+     * @return the number of doc ids allocated to all segments.
+     */
+    public long getNumberOfDocs() {
+	return numberOfDocs;
+    }
+
+    @Override
+    public long getLong(Object key) {
+	for (int i = 0; i < maps.length; i++) {
+	    if (maps[i].containsKey(key)) {
+		return firstDocIds[i] + maps[i].getLong(key);
+	    }
+	}
+	return defRetValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+	for (Object2LongFunction<CharSequence> map : maps) {
+	    if (map.containsKey(key)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    @Override
+    public int size() {
+	return numberOfDocs > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) numberOfDocs;
+    }
+}
@@ -0,0 +1,131 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.Size64;
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.sux4j.mph.HollowTrieMonotoneMinimalPerfectHashFunction;
+
+/**
+ * A monotone minimal perfect hash function made of one function per shard of
+ * a sorted key list. Each shard is a contiguous range of the keys, so a key's
+ * shard is found by binary searching the first keys of the shards and its
+ * value is the shard's offset plus the key's rank in the shard. The values
+ * are the same as those of a single function built over all the keys.
+ *
+ * Keys are ordered by Unicode code point, which is the order of the UTF-8
+ * bytes the input is sorted by.
+ */
+public class ShardedHashFunction extends AbstractObject2LongFunction<CharSequence> implements Size64 {
+    private static final long serialVersionUID = 8167359210548117823L;
+
+    /** The first key of each shard after the first. */
+    private final String[] firstKeys;
+    /** The value of the first key of each shard followed by the total size. */
+    private final long[] offsets;
+    private final HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>[] functions;
+
+    public ShardedHashFunction(String[] firstKeys, long[] offsets, HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>[] functions) {
+	if (functions.length == 0 || firstKeys.length != functions.length - 1 || offsets.length != functions.length + 1) {
+	    throw new IllegalArgumentException("Expected " + functions.length + " shards but got " + (firstKeys.length + 1) + " first keys and "
+		    + (offsets.length - 1) + " offsets.");
+	}
+	this.firstKeys = firstKeys;
+	this.offsets = offsets;
+	this.functions = functions;
+	defRetValue = -1;
+    }
+
+    @Override
+    public long getLong(Object o) {
+	CharSequence key = (CharSequence) o;
+	int shard = shardOf(key);
+	long rank = functions[shard].getLong(key);
+	if (rank < 0 || rank >= offsets[shard + 1] - offsets[shard]) {
+	    return defRetValue;
+	}
+	return offsets[shard] + rank;
+    }
+
+    /**
+     * @return the index of the last shard whose first key is not greater than
+     *         the given key.
+     */
+    int shardOf(CharSequence key) {
+	int low = 0;
+	int high = firstKeys.length - 1;
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+	    int cmp = compare(firstKeys[mid], key);
+	    if (cmp <= 0) {
+		low = mid + 1;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * Compares by code point rather than by char, as String.compareTo() does,
+     * so that supplementary characters sort as they do in UTF-8.
+     */
+    static int compare(CharSequence a, CharSequence b) {
+	int i = 0;
+	int j = 0;
+	while (i < a.length() && j < b.length()) {
+	    int ca = Character.codePointAt(a, i);
+	    int cb = Character.codePointAt(b, j);
+	    if (ca != cb) {
+		return ca < cb ? -1 : 1;
+	    }
+	    i += Character.charCount(ca);
+	    j += Character.charCount(cb);
+	}
+	if (i < a.length()) {
+	    return 1;
+	}
+	return j < b.length() ? -1 : 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+	// Like the functions it's made of.
+	return true;
+    }
+
+    public int getShardCount() {
+	return functions.length;
+    }
+
+    public long numBits() {
+	long bits = offsets.length * (long) Long.SIZE;
+	for (String firstKey : firstKeys) {
+	    bits += firstKey.length() * (long) Character.SIZE;
+	}
+	for (HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence> function : functions) {
+	    bits += function.numBits();
+	}
+	return bits;
+    }
+
+    @Override
+    public long size64() {
+	return offsets[functions.length];
+    }
+
+    @Override
+    public int size() {
+	long size64 = size64();
+	return size64 > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size64;
+    }
+}
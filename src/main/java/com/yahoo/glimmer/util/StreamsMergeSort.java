@@ -0,0 +1,340 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Merges sorted streams of '\n' separated lines. Lines are compared as
+ * unsigned bytes, which for UTF-8 is code point order, the order Hadoop sorts
+ * Text keys in. Nothing is decoded.
+ *
+ * Each source is read (and decompressed, if its stream does that) on its own
+ * thread into blocks of whole lines. The merge thread picks the next line with
+ * a binary heap of the sources and copies it to an output block, and the
+ * output blocks are written on another thread.
+ */
+public class StreamsMergeSort {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    /** The number of blocks that can be queued for each source and for the output. */
+    private static final int QUEUE_LENGTH = 4;
+    private static final Block END = new Block(new byte[0], 0);
+
+    /**
+     * The streams aren't closed.
+     *
+     * @return the number of lines written.
+     * @throws IllegalStateException
+     *             if a line occurs more than once in the input.
+     */
+    public static long mergeSort(List<InputStream> sources, OutputStream output) throws IOException {
+	return mergeSort(sources, output, DEFAULT_BLOCK_SIZE);
+    }
+
+    static long mergeSort(List<InputStream> sources, OutputStream output, int blockSize) throws IOException {
+	ExecutorService executor = Executors.newFixedThreadPool(sources.size() + 1);
+	try {
+	    SourceReader[] readers = new SourceReader[sources.size()];
+	    for (int i = 0; i < readers.length; i++) {
+		readers[i] = new SourceReader(sources.get(i), blockSize);
+		executor.execute(readers[i]);
+	    }
+	    BlockWriter writer = new BlockWriter(output);
+	    executor.execute(writer);
+
+	    long count = merge(readers, writer, blockSize);
+	    writer.put(END);
+	    writer.await();
+	    return count;
+	} finally {
+	    // Stops the readers if the merge failed.
+	    executor.shutdownNow();
+	}
+    }
+
+    private static long merge(SourceReader[] sources, BlockWriter writer, int blockSize) throws IOException {
+	SourceReader[] heap = new SourceReader[sources.length];
+	int size = 0;
+	for (SourceReader source : sources) {
+	    if (source.nextLine()) {
+		heap[size++] = source;
+	    }
+	}
+	for (int i = size / 2 - 1; i >= 0; i--) {
+	    siftDown(heap, size, i);
+	}
+
+	byte[] out = new byte[blockSize];
+	int outLength = 0;
+	byte[] previous = new byte[64];
+	int previousLength = -1;
+	long count = 0;
+	while (size > 0) {
+	    SourceReader top = heap[0];
+	    byte[] bytes = top.block.bytes;
+	    int lineLength = top.end - top.start;
+
+	    if (lineLength == previousLength && compare(previous, 0, previousLength, bytes, top.start, top.end) == 0) {
+		throw new IllegalStateException("Duplicate line in input:" + new String(bytes, top.start, lineLength, UTF8));
+	    }
+	    if (previous.length < lineLength) {
+		previous = new byte[Math.max(lineLength, previous.length * 2)];
+	    }
+	    System.arraycopy(bytes, top.start, previous, 0, lineLength);
+	    previousLength = lineLength;
+
+	    // With the '\n'.
+	    if (outLength + lineLength + 1 > out.length) {
+		writer.put(new Block(out, outLength));
+		out = new byte[Math.max(blockSize, lineLength + 1)];
+		outLength = 0;
+	    }
+	    System.arraycopy(bytes, top.start, out, outLength, lineLength + 1);
+	    outLength += lineLength + 1;
+	    count++;
+
+	    if (!top.nextLine()) {
+		heap[0] = heap[--size];
+		heap[size] = null;
+	    }
+	    siftDown(heap, size, 0);
+	}
+	if (outLength > 0) {
+	    writer.put(new Block(out, outLength));
+	}
+	return count;
+    }
+
+    private static void siftDown(SourceReader[] heap, int size, int i) {
+	SourceReader source = heap[i];
+	int child;
+	while ((child = 2 * i + 1) < size) {
+	    if (child + 1 < size && compare(heap[child + 1], heap[child]) < 0) {
+		child++;
+	    }
+	    if (compare(source, heap[child]) <= 0) {
+		break;
+	    }
+	    heap[i] = heap[child];
+	    i = child;
+	}
+	if (i < size) {
+	    heap[i] = source;
+	}
+    }
+
+    private static int compare(SourceReader a, SourceReader b) {
+	return compare(a.block.bytes, a.start, a.end, b.block.bytes, b.start, b.end);
+    }
+
+    static int compare(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+	while (aStart < aEnd && bStart < bEnd) {
+	    int c = (a[aStart++] & 0xFF) - (b[bStart++] & 0xFF);
+	    if (c != 0) {
+		return c;
+	    }
+	}
+	return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    /**
+     * Whole lines, each ending with a '\n'.
+     */
+    private static class Block {
+	final byte[] bytes;
+	final int length;
+
+	public Block(byte[] bytes, int length) {
+	    this.bytes = bytes;
+	    this.length = length;
+	}
+    }
+
+    /**
+     * Reads blocks from a source on one thread and steps through their lines
+     * on the merge thread.
+     */
+    private static class SourceReader implements Runnable {
+	private final InputStream in;
+	private final int blockSize;
+	private final BlockingQueue<Block> blocks = new ArrayBlockingQueue<Block>(QUEUE_LENGTH);
+	private volatile IOException error;
+
+	// Used by the merge thread.
+	private Block block;
+	private int start;
+	/** The index of the '\n' at the end of the current line. */
+	private int end;
+
+	public SourceReader(InputStream in, int blockSize) {
+	    this.in = in;
+	    this.blockSize = blockSize;
+	}
+
+	@Override
+	public void run() {
+	    try {
+		try {
+		    read();
+		} catch (IOException e) {
+		    error = e;
+		}
+		blocks.put(END);
+	    } catch (InterruptedException e) {
+		// The merge was abandoned.
+	    }
+	}
+
+	private void read() throws IOException, InterruptedException {
+	    byte[] buffer = new byte[blockSize];
+	    int length = 0;
+	    int read;
+	    while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+		length += read;
+		if (length < buffer.length) {
+		    continue;
+		}
+		int blockLength = lastLineEnd(buffer, length);
+		if (blockLength == 0) {
+		    // A line longer than the buffer.
+		    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		    continue;
+		}
+		byte[] next = new byte[Math.max(blockSize, (length - blockLength) * 2)];
+		System.arraycopy(buffer, blockLength, next, 0, length - blockLength);
+		blocks.put(new Block(buffer, blockLength));
+		buffer = next;
+		length -= blockLength;
+	    }
+	    if (length > 0) {
+		if (buffer[length - 1] != '\n') {
+		    if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, length + 1);
+		    }
+		    buffer[length++] = '\n';
+		}
+		blocks.put(new Block(buffer, length));
+	    }
+	}
+
+	private static int lastLineEnd(byte[] buffer, int length) {
+	    for (int i = length - 1; i >= 0; i--) {
+		if (buffer[i] == '\n') {
+		    return i + 1;
+		}
+	    }
+	    return 0;
+	}
+
+	/**
+	 * @return false at the end of the source.
+	 */
+	public boolean nextLine() throws IOException {
+	    int next = block == null ? 0 : end + 1;
+	    if (block == null || next >= block.length) {
+		try {
+		    block = blocks.take();
+		} catch (InterruptedException e) {
+		    throw new InterruptedIOException("Interrupted while waiting for input.");
+		}
+		if (block == END) {
+		    if (error != null) {
+			throw error;
+		    }
+		    return false;
+		}
+		next = 0;
+	    }
+	    byte[] bytes = block.bytes;
+	    start = next;
+	    end = next;
+	    while (bytes[end] != '\n') {
+		end++;
+	    }
+	    return true;
+	}
+    }
+
+    /**
+     * Writes blocks on its own thread. After a failed write the remaining
+     * blocks are dropped so that the merge thread doesn't block.
+     */
+    private static class BlockWriter implements Runnable {
+	private final OutputStream out;
+	private final BlockingQueue<Block> blocks = new ArrayBlockingQueue<Block>(QUEUE_LENGTH);
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile IOException error;
+
+	public BlockWriter(OutputStream out) {
+	    this.out = out;
+	}
+
+	@Override
+	public void run() {
+	    try {
+		Block block;
+		while ((block = blocks.take()) != END) {
+		    if (error == null) {
+			try {
+			    out.write(block.bytes, 0, block.length);
+			} catch (IOException e) {
+			    error = e;
+			}
+		    }
+		}
+		if (error == null) {
+		    out.flush();
+		}
+	    } catch (IOException e) {
+		error = e;
+	    } catch (InterruptedException e) {
+		// The merge was abandoned.
+	    } finally {
+		done.countDown();
+	    }
+	}
+
+	public void put(Block block) throws IOException {
+	    try {
+		blocks.put(block);
+	    } catch (InterruptedException e) {
+		throw new InterruptedIOException("Interrupted while queuing output.");
+	    }
+	}
+
+	/**
+	 * Waits for the END block to be reached.
+	 */
+	public void await() throws IOException {
+	    try {
+		done.await();
+	    } catch (InterruptedException e) {
+		throw new InterruptedIOException("Interrupted while waiting for output to be written.");
+	    }
+	    if (error != null) {
+		throw error;
+	    }
+	}
+    }
+}
@@ -11,7 +11,9 @@ package com.yahoo.glimmer.web;
  *  See accompanying LICENSE file.
  */
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.text.DateFormat;
 import java.util.Map;
@@ -27,6 +29,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * @{View} that renders an Object as JSON or a JavaScript
@@ -34,6 +37,12 @@ import com.google.gson.JsonSerializer;
  * The Object is rendered as a callback only when the request has a 
  * parameter CALLBACK_PARAMETER defined.
  * 
+ * Output is written straight to the response's Writer.  For a QueryResult each
+ * QueryResultItem is serialized in turn so that large pages are never held in
+ * memory as a single String.
+ * Output is compact unless prettyPrinting is set or the request has a
+ * PRETTY_PARAMETER of true.
+ * 
  * This class uses Gson which is configured to render instances of the following class:
  * java.lang.CharSequence
  * org.semanticweb.yars.nx.Node
@@ -43,9 +52,11 @@ import com.google.gson.JsonSerializer;
  */
 public class JsObjectView implements View {
     private static final String CALLBACK_PARAMETER = "callback";
+    private static final String PRETTY_PARAMETER = "pretty";
+    private static final String PRETTY_INDENT = "  ";
     
     /** GsonBuilder object */
-    private static Gson gson = new GsonBuilder().setPrettyPrinting().setDateFormat(DateFormat.LONG)
+    private static Gson gson = new GsonBuilder().setDateFormat(DateFormat.LONG)
 	    .registerTypeAdapter(CharSequence.class, new JsonSerializer<Object>() {
 		public JsonElement serialize(Object object, Type arg1, JsonSerializationContext arg2) {
 		    if (object instanceof CharSequence) {
@@ -54,6 +65,8 @@ public class JsObjectView implements View {
 		    return null;
 		}
 	    }).create();
+    
+    private boolean prettyPrinting;
 
     @Override
     public String getContentType() {
@@ -71,14 +84,79 @@ public class JsObjectView implements View {
 	response.setContentType(getContentType());
 	PrintWriter writer = response.getWriter();
 	
+	boolean pretty = prettyPrinting || Boolean.parseBoolean(request.getParameter(PRETTY_PARAMETER));
+	
 	String callback = request.getParameter(CALLBACK_PARAMETER);
 	if (callback != null) {
 	    writer.write(callback);
 	    writer.write('(');
-	    writer.write(gson.toJson(object));
+	    write(object, writer, pretty);
 	    writer.write(");");
 	} else {
-	    writer.write(gson.toJson(object));
+	    write(object, writer, pretty);
+	}
+	writer.flush();
+    }
+    
+    /**
+     * Serializes the given object to the writer. The writer is flushed but not closed.
+     */
+    public static void write(Object object, Writer writer, boolean pretty) throws IOException {
+	JsonWriter jsonWriter = new JsonWriter(writer);
+	// Match Gson's defaults for the values written directly.
+	jsonWriter.setHtmlSafe(true);
+	if (pretty) {
+	    jsonWriter.setIndent(PRETTY_INDENT);
 	}
+	
+	if (object instanceof QueryResult) {
+	    writeQueryResult((QueryResult) object, jsonWriter);
+	} else {
+	    gson.toJson(object, object.getClass(), jsonWriter);
+	}
+	jsonWriter.flush();
+    }
+    
+    /**
+     * Writes the fields of the QueryResult in the same order and with the same names as Gson's
+     * reflective serialization would, but one QueryResultItem at a time.
+     * As with Gson's defaults null fields are omitted.
+     */
+    private static void writeQueryResult(QueryResult result, JsonWriter jsonWriter) throws IOException {
+	jsonWriter.beginObject();
+	
+	if (result.getResultItems() != null) {
+	    jsonWriter.name("resultItems");
+	    jsonWriter.beginArray();
+	    for (QueryResultItem item : result.getResultItems()) {
+		gson.toJson(item, QueryResultItem.class, jsonWriter);
+	    }
+	    jsonWriter.endArray();
+	}
+	
+	jsonWriter.name("numResults").value(result.getNumResults());
+	jsonWriter.name("pageStart").value(result.getPageStart());
+	jsonWriter.name("pageSize").value(result.getPageSize());
+	jsonWriter.name("time").value(result.getTime());
+	jsonWriter.name("searchTime").value(result.getSearchTime());
+	if (result.getQuery() != null) {
+	    jsonWriter.name("query").value(result.getQuery());
+	}
+	if (result.getParsedQuery() != null) {
+	    jsonWriter.name("parsedQuery").value(result.getParsedQuery());
+	}
+	if (result.getNextCursor() != null) {
+	    jsonWriter.name("nextCursor").value(result.getNextCursor());
+	}
+	if (result.getTrace() != null) {
+	    jsonWriter.name("trace");
+	    gson.toJson(result.getTrace(), Map.class, jsonWriter);
+	}
+	
+	jsonWriter.endObject();
+    }
+    
+    public void setPrettyPrinting(boolean prettyPrinting) {
+	this.prettyPrinting = prettyPrinting;
     }
 }
@@ -15,6 +15,7 @@ import it.unimi.di.big.mg4j.index.Index;
 import it.unimi.di.big.mg4j.query.SelectedInterval;
 import it.unimi.di.big.mg4j.query.nodes.Query;
 import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
 import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
@@ -22,6 +23,7 @@ import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -35,9 +37,14 @@ import org.semanticweb.yars.nx.parser.NxParser;
 
 import com.yahoo.glimmer.query.QueryLogger;
 import com.yahoo.glimmer.query.QueryLogger.QueryTimer;
+import com.yahoo.glimmer.query.QueryMetrics;
 import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.query.RDFIndex.DocumentIds;
 import com.yahoo.glimmer.util.BySubjectRecord;
 import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+import com.yahoo.glimmer.util.QueryTrace;
+import com.yahoo.glimmer.util.QueryTrace.Counter;
+import com.yahoo.glimmer.util.QueryTrace.Phase;
 import com.yahoo.glimmer.util.Util;
 
 /**
@@ -48,6 +55,10 @@ public class Querier {
     private final static Logger LOGGER = Logger.getLogger(Querier.class);
     private static final String DEFAULT_CONTEXT = "default:";
     private static final int CACHE_SIZE = 10000;
+    private static final int EXPORT_CHUNK_SIZE = 1024;
+    public static final String SEARCH_ENDPOINT = "search";
+    public static final String DOC_ENDPOINT = "doc";
+    public static final String EXPORT_ENDPOINT = "export";
 
     private final Map<String, Long> objectsSubjectsIdCache;
     private final Map<Long, String> objectLabelCache;
@@ -86,10 +97,63 @@ public class Querier {
 	int numResults;
 
 	results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	long traceTime = QueryTrace.time();
 	numResults = index.process(startItem, maxNumItems, results, query);
+	QueryTrace.add(Phase.SEARCH, traceTime);
 
 	timer.endSearch();
 
+	ObjectArrayList<QueryResultItem> resultItems = createRdfResultItems(index, results, deref, objectLengthLimit);
+
+	queryLogger.endQuery(timer, index.getIndexName(), SEARCH_ENDPOINT, query.toString(), numResults);
+	QueryResult result = new QueryResult(null, query != null ? query.toString() : "", numResults, startItem, maxNumItems, resultItems, timer.getDuration(), timer.getSearchDuration());
+	return result;
+    }
+
+    /**
+     * Returns the page of results that follow the given cursor. The result's
+     * nextCursor is set when there may be more results.
+     * 
+     * @param cursor
+     *            the cursor returned with the previous page or null for the
+     *            first page.
+     */
+    public QueryResult doQueryAfter(RDFIndex index, Query query, SearchCursor cursor, int maxNumItems, boolean deref, Integer objectLengthLimit)
+	    throws QueryBuilderVisitorException, IOException {
+	if (maxNumItems < 0 || maxNumItems > 10000) {
+	    throw new IllegalArgumentException("Bad item range - maxNumItems:" + maxNumItems);
+	}
+
+	QueryTimer timer = queryLogger.start();
+
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results;
+	results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	long traceTime = QueryTrace.time();
+	int numResults;
+	if (cursor == null) {
+	    numResults = index.processAfter(0, -1, maxNumItems, results, query);
+	} else {
+	    numResults = index.processAfter(cursor.getScore(), cursor.getDocument(), maxNumItems, results, query);
+	}
+	QueryTrace.add(Phase.SEARCH, traceTime);
+
+	timer.endSearch();
+
+	String nextCursor = null;
+	if (!results.isEmpty() && results.size() == maxNumItems) {
+	    DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> last = results.get(results.size() - 1);
+	    nextCursor = new SearchCursor(last.score, last.document, query.toString()).encode();
+	}
+
+	ObjectArrayList<QueryResultItem> resultItems = createRdfResultItems(index, results, deref, objectLengthLimit);
+
+	queryLogger.endQuery(timer, index.getIndexName(), SEARCH_ENDPOINT, query.toString(), numResults);
+	QueryResult result = new QueryResult(null, query.toString(), numResults, 0, maxNumItems, resultItems, timer.getDuration(), timer.getSearchDuration());
+	result.setNextCursor(nextCursor);
+	return result;
+    }
+
+    private ObjectArrayList<QueryResultItem> createRdfResultItems(RDFIndex index, ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results, boolean deref, Integer objectLengthLimit) throws IOException {
 	ObjectArrayList<QueryResultItem> resultItems = new ObjectArrayList<QueryResultItem>();
 	if (!results.isEmpty()) {
 	    for (int i = 0; i < results.size(); i++) {
@@ -104,17 +168,56 @@ public class Querier {
 		}
 	    }
 	}
+	return resultItems;
+    }
 
-	queryLogger.endQuery(timer, query.toString(), numResults);
-	QueryResult result = new QueryResult(null, query != null ? query.toString() : "", numResults, startItem, maxNumItems, resultItems, timer.getDuration(), timer.getSearchDuration());
-	return result;
+    /**
+     * Writes the ids of all documents matching the query, one per line in id
+     * order. The documents are not scored or read from the collection so
+     * memory use is constant however many documents match.
+     * 
+     * @param index
+     * @param query
+     * @param subjects
+     *            if true each id is followed by a tab and the subject's
+     *            resource.
+     * @param writer
+     *            flushed after every EXPORT_CHUNK_SIZE lines.
+     * @return the number of ids written.
+     */
+    public long export(RDFIndex index, Query query, boolean subjects, Writer writer) throws QueryBuilderVisitorException, IOException {
+	QueryTimer timer = queryLogger.start();
+	long count = 0;
+	DocumentIds documentIterator = index.getDocumentIds(query);
+	try {
+	    long document;
+	    while ((document = documentIterator.nextDocument()) != DocumentIterator.END_OF_LIST) {
+		writer.write(Long.toString(document));
+		if (subjects) {
+		    writer.write('\t');
+		    String subject = index.lookupResourceById(document);
+		    if (subject != null) {
+			writer.write(subject);
+		    }
+		}
+		writer.write('\n');
+		if (++count % EXPORT_CHUNK_SIZE == 0) {
+		    writer.flush();
+		}
+	    }
+	} finally {
+	    documentIterator.dispose();
+	}
+	writer.flush();
+	queryLogger.endQuery(timer, index.getIndexName(), EXPORT_ENDPOINT, query.toString(), count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count);
+	return count;
     }
 
     public QueryResult doQueryForDocId(RDFIndex index, long id, boolean deref, Integer objectLengthLimit) throws IOException {
 	QueryTimer timer = queryLogger.start();
 	timer.endSearch();
 	QueryResultItem resultItem = createRdfResultItem(index, id, 1.0d, deref, objectLengthLimit);
-	queryLogger.endQuery(timer, "getDoc " + Long.toString(id), 1);
+	queryLogger.endQuery(timer, index.getIndexName(), DOC_ENDPOINT, "getDoc " + Long.toString(id), 1);
 
 	List<QueryResultItem> results;
 	if (resultItem != null) {
@@ -125,8 +228,18 @@ public class Querier {
 	return new QueryResult("", null, results.size(), 0, 1, results, timer.getDuration(), timer.getSearchDuration());
     }
 
+    public void setQueryMetrics(QueryMetrics queryMetrics) {
+	queryLogger = new QueryLogger(queryMetrics);
+    }
+    
+    public QueryMetrics getQueryMetrics() {
+	return queryLogger.getMetrics();
+    }
+
     private QueryResultItem createRdfResultItem(RDFIndex index, long docId, double score, boolean lookupObjectLabels, Integer objectLengthLimit)
 	    throws IOException {
+	long traceTime = QueryTrace.time();
+	QueryTrace.increment(Counter.DOCUMENTS_FETCHED);
 	InputStream docInputStream;
 	try {
 	    docInputStream = index.getDocumentInputStream(docId);
@@ -143,6 +256,8 @@ public class Querier {
 	    LOGGER.warn("Failed to read doc with ID " + docId, e);
 	    return null;
 	    // throw new RuntimeException("Couldn't parse doc with id:" + docId);
+	} finally {
+	    QueryTrace.add(Phase.FETCH, traceTime);
 	}
 
 	if (docId != record.getId()) {
@@ -158,11 +273,14 @@ public class Querier {
 
 	for (String relationString : record.getRelations()) {
 	    Node[] predicateObjectContext;
+	    traceTime = QueryTrace.time();
 	    try {
 		predicateObjectContext = NxParser.parseNodes(relationString);
 	    } catch (Exception e) {
 		throw new RuntimeException("Error parsing tuple: " + relationString);
 	    }
+	    QueryTrace.increment(Counter.RELATIONS_PARSED);
+	    QueryTrace.add(Phase.RELATION_PARSE, traceTime);
 
 	    String predicate = predicateObjectContext[0].toString();
 	    String object = predicateObjectContext[1].toString().trim();
@@ -214,7 +332,11 @@ public class Querier {
 	    if (label == null && subjectIdOfObject != null && lookupObjectLabels) {
 		if (objectLabelCache.containsKey(subjectIdOfObject)) {
 		    label = objectLabelCache.get(subjectIdOfObject);
+		    queryLogger.getMetrics().recordDeref(true);
 		} else {
+		    queryLogger.getMetrics().recordDeref(false);
+		    QueryTrace.increment(Counter.DEREFS);
+		    traceTime = QueryTrace.time();
 		    // If the object is also a subject Resource/BNode this
 		    // will return that subjects id which is the same as the
 		    // docId. Parse the subject doc that this object refers
@@ -224,6 +346,7 @@ public class Querier {
 			label = objectItem.getLabel();
 		    }
 		    objectLabelCache.put(subjectIdOfObject, label);
+		    QueryTrace.add(Phase.DEREF, traceTime);
 		}
 	    }
 	    
@@ -30,6 +30,13 @@ public class QueryCommand {
     public int pageSize = 10;
     public boolean deref;
     public String format;
+    // Max time in ms the client will wait for a result.
+    @Min(1)
+    public Long deadline;
+    // Page through results with cursors instead of pageStart. '*' for the first page.
+    public String cursor;
+    // Include the per phase trace in the result.
+    public boolean debug;
     
     public String getQuery() {
         return query;
@@ -67,6 +74,24 @@ public class QueryCommand {
     public void setDeref(boolean deref) {
         this.deref = deref;
     }
+    public Long getDeadline() {
+        return deadline;
+    }
+    public void setDeadline(Long deadline) {
+        this.deadline = deadline;
+    }
+    public String getCursor() {
+        return cursor;
+    }
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+    public boolean isDebug() {
+        return debug;
+    }
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
     public String getFormat() {
 	return format;
     }
@@ -16,10 +16,15 @@ import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
 import it.unimi.di.big.mg4j.query.parser.QueryParserException;
 import it.unimi.di.big.mg4j.query.parser.SimpleParser;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,7 +45,11 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.query.QueryMetrics;
 import com.yahoo.glimmer.query.RDFIndexStatistics;
+import com.yahoo.glimmer.util.QueryTrace;
+import com.yahoo.glimmer.util.QueryTrace.Phase;
+import com.yahoo.glimmer.web.QueryExecutor.QueryRejectedException;
 
 @Controller()
 public class QueryController {
@@ -54,12 +63,18 @@ public class QueryController {
     private static final Pattern RESOURCE_PATTERN = Pattern.compile("(\\{(?:https?://[^}]+|_:[A-Za-z][A-Za-z0-9]*)\\})");
 
     private static final Integer DEFAULT_OBJECT_LENGTH_LIMIT = 300;
+    private static final long DEFAULT_TRACE_THRESHOLD_MILLIS = 1000;
+    private static final int DEFAULT_MAX_CONCURRENT_EXPORTS = 2;
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
 
     private IndexMap indexMap;
     private Querier querier;
     private QueryFilter queryFilter;
+    private QueryExecutor queryExecutor;
     
     private Integer defaultObjectLengthLimit = DEFAULT_OBJECT_LENGTH_LIMIT;
+    private long traceThresholdMillis = DEFAULT_TRACE_THRESHOLD_MILLIS;
+    private Semaphore exportPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_EXPORTS);
 
     // / For every request populate the dataset model attribute from the request
     // parameter.
@@ -91,9 +106,17 @@ public class QueryController {
 	return Collections.singletonMap(OBJECT_KEY, statistics);
     }
 
+    /**
+     * Query latency percentiles, block cache and deref counters. Use format=txt for plain text.
+     */
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    public Map<String, ?> getMetrics() {
+	QueryMetrics metrics = querier.getQueryMetrics();
+	return Collections.singletonMap(OBJECT_KEY, metrics.getSnapshot());
+    }
+
     @RequestMapping(value = {"/query", "/v1/search"} , method = RequestMethod.GET)
-    public Map<String, ?> query(@ModelAttribute(INDEX_KEY) RDFIndex index, @Valid QueryCommand command, HttpServletRequest httpServletRequest) throws QueryParserException,
-	    QueryBuilderVisitorException, IOException {
+    public Map<String, ?> query(@ModelAttribute(INDEX_KEY) final RDFIndex index, @Valid final QueryCommand command, HttpServletRequest httpServletRequest) throws Exception {
 	if (index == null) {
 	    throw new HttpMessageConversionException("No index given.");
 	}
@@ -103,20 +126,56 @@ public class QueryController {
 	    throw new HttpMessageConversionException("No query given.");
 	}
 	
-	QueryResult result;
 	if (queryFilter != null && queryFilter.filter(query)) {
 	    LOGGER.info("Blocking query:" + query + " from address:" + httpServletRequest.getRemoteAddr());
 	    throw new HttpMessageConversionException("Bad query given.");
 	}
+	
+	QueryResult result;
+	if (queryExecutor != null) {
+	    // Parse, search and deref on the query executors threads.
+	    result = queryExecutor.execute(new Callable<QueryResult>() {
+		@Override
+		public QueryResult call() throws Exception {
+		    return doQuery(index, command);
+		}
+	    }, command.getDeadline());
+	} else {
+	    result = doQuery(index, command);
+	}
 
-	query = decodeEntities(command.getQuery()).trim();
+	return Collections.singletonMap(OBJECT_KEY, result);
+    }
+    
+    private QueryResult doQuery(RDFIndex index, QueryCommand command) throws QueryParserException, QueryBuilderVisitorException, IOException {
+	QueryTrace trace = QueryTrace.start();
+	QueryResult result;
+	try {
+	    result = doTracedQuery(index, command);
+	} finally {
+	    trace.end();
+	}
+	if (trace.getDurationNanos() / 1000000 >= traceThresholdMillis) {
+	    LOGGER.warn("Slow query:" + command.getQuery() + " on index:" + index.getIndexName() + " " + trace.toString());
+	}
+	if (command.isDebug()) {
+	    result.setTrace(trace.toMap());
+	}
+	return result;
+    }
+    
+    private QueryResult doTracedQuery(RDFIndex index, QueryCommand command) throws QueryParserException, QueryBuilderVisitorException, IOException {
+	long traceTime = QueryTrace.time();
+	String query = decodeEntities(command.getQuery()).trim();
 	query = encodeResources(index, query);
 	
+	QueryResult result;
 	Query parsedQuery;
 	switch (command.getType()) {
 	case MG4J:
 	    parsedQuery = new SimpleParser().parse(query);
-	    result = querier.doQuery(index, parsedQuery, command.getPageStart(), command.getPageSize(), command.isDeref(), defaultObjectLengthLimit);
+	    QueryTrace.add(Phase.PARSE, traceTime);
+	    result = doQuery(index, parsedQuery, command);
 	    break;
 	case YAHOO:
 	    if (query.startsWith(DOC_PSEUDO_FIELD)) {
@@ -134,6 +193,7 @@ public class QueryController {
 			throw new IllegalArgumentException("subject " + idOrSubject + " is not in collection.");
 		    }
 		}
+		QueryTrace.add(Phase.PARSE, traceTime);
 		result = querier.doQueryForDocId(index, id, command.isDeref(), null);
 	    } else {
 		try {
@@ -141,18 +201,89 @@ public class QueryController {
 		} catch (QueryParserException e) {
 		    throw new IllegalArgumentException("Query failed to parse:" + query, e);
 		}
-		result = querier.doQuery(index, parsedQuery, command.getPageStart(), command.getPageSize(), command.isDeref(), defaultObjectLengthLimit);
+		QueryTrace.add(Phase.PARSE, traceTime);
+		result = doQuery(index, parsedQuery, command);
 	    }
 	    break;
 	default:
 	    throw new IllegalArgumentException("No query type given.");
 	}
+	return result;
+    }
 
-	return Collections.singletonMap(OBJECT_KEY, result);
+    private QueryResult doQuery(RDFIndex index, Query parsedQuery, QueryCommand command) throws QueryBuilderVisitorException, IOException {
+	if (command.getCursor() != null) {
+	    SearchCursor cursor = SearchCursor.decode(command.getCursor(), parsedQuery.toString());
+	    return querier.doQueryAfter(index, parsedQuery, cursor, command.getPageSize(), command.isDeref(), defaultObjectLengthLimit);
+	}
+	return querier.doQuery(index, parsedQuery, command.getPageStart(), command.getPageSize(), command.isDeref(), defaultObjectLengthLimit);
+    }
+
+    /**
+     * Streams the ids, and optionally the subjects, of all documents matching
+     * the query as text/plain lines. Exports run on the request thread, not
+     * the query executor, and only a few may run at once so they don't take
+     * threads from interactive queries.
+     */
+    @RequestMapping(value = {"/export", "/v1/export"}, method = RequestMethod.GET)
+    public void export(@ModelAttribute(INDEX_KEY) RDFIndex index, @RequestParam String query,
+	    @RequestParam(required = false, defaultValue = "YAHOO") QueryCommand.QueryType type,
+	    @RequestParam(required = false, defaultValue = "false") boolean subjects, HttpServletResponse response) throws Exception {
+	if (index == null) {
+	    throw new HttpMessageConversionException("No index given.");
+	}
+	if (query.isEmpty()) {
+	    throw new HttpMessageConversionException("No query given.");
+	}
+	if (queryFilter != null && queryFilter.filter(query)) {
+	    throw new HttpMessageConversionException("Bad query given.");
+	}
+
+	query = encodeResources(index, decodeEntities(query).trim());
+	Query parsedQuery;
+	switch (type) {
+	case MG4J:
+	    parsedQuery = new SimpleParser().parse(query);
+	    break;
+	case YAHOO:
+	    try {
+		parsedQuery = index.getParser().parse(query);
+	    } catch (QueryParserException e) {
+		throw new IllegalArgumentException("Query failed to parse:" + query, e);
+	    }
+	    break;
+	default:
+	    throw new IllegalArgumentException("No query type given.");
+	}
+
+	if (!exportPermits.tryAcquire()) {
+	    throw new QueryRejectedException(429, "Too many exports running.");
+	}
+	try {
+	    response.setContentType("text/plain; charset=UTF-8");
+	    Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"), EXPORT_BUFFER_SIZE);
+	    querier.export(index, parsedQuery, subjects, writer);
+	} catch (Exception e) {
+	    // Not rethrown as handleException's JSON view would call getWriter()
+	    // after getOutputStream(). Once some lines are sent the status can't
+	    // change and the client gets a truncated export.
+	    LOGGER.error("Export failed for query:" + query + " on index:" + index.getIndexName(), e);
+	    if (!response.isCommitted()) {
+		response.reset();
+		response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+	    }
+	} finally {
+	    exportPermits.release();
+	}
     }
 
     @ExceptionHandler(Exception.class)
     public Map<String, ?> handleException(Exception ex,  HttpServletRequest request, HttpServletResponse response) {
+	if (ex instanceof QueryRejectedException) {
+	    LOGGER.warn("Rejected query:" + request.getQueryString() + " " + ex.getMessage());
+	    response.setStatus(((QueryRejectedException) ex).getStatus());
+	    return Collections.singletonMap(OBJECT_KEY, ex.getMessage());
+	}
 	if (!(ex instanceof HttpMessageConversionException)) {
 	    LOGGER.error("Exception when processing:" + request.getQueryString(), ex);
 	}
@@ -225,8 +356,24 @@ public class QueryController {
 	this.queryFilter = queryFilter;
     }
     
+    @Resource
+    public void setQueryExecutor(QueryExecutor queryExecutor) {
+	this.queryExecutor = queryExecutor;
+    }
+    
     public void setDefaultObjectLengthLimit(Integer defaultObjectLengthLimit) {
 	this.defaultObjectLengthLimit = defaultObjectLengthLimit;
     }
+    
+    public void setMaxConcurrentExports(int maxConcurrentExports) {
+	exportPermits = new Semaphore(maxConcurrentExports);
+    }
+    
+    /**
+     * @param traceThresholdMillis queries that take longer than this are logged with their trace.
+     */
+    public void setTraceThresholdMillis(long traceThresholdMillis) {
+	this.traceThresholdMillis = traceThresholdMillis;
+    }
 }
 
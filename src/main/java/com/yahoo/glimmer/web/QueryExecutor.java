@@ -0,0 +1,207 @@
+package com.yahoo.glimmer.web;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import com.yahoo.glimmer.util.QueryTrace;
+
+/**
+ * Runs query work on a dedicated, bounded pool of threads.
+ *
+ * A query is admitted only if there is room in the queue and the predicted
+ * wait (queued tasks * mean service time / threads) is within the query's
+ * deadline. Otherwise it is rejected immediately with a
+ * QueryRejectedException so that bursts degrade into fast 503/429s rather
+ * than a backlog of container threads all stuck in decompression.
+ *
+ * A query that is admitted but doesn't complete before its deadline is
+ * cancelled if it's still queued. A running query isn't interrupted, it runs
+ * to the end and its result is dropped. Interrupting a thread that is in
+ * FileChannel.map() closes the channel, and the document collection's channel
+ * is shared by all queries.
+ */
+public class QueryExecutor {
+    private final static Logger LOGGER = Logger.getLogger(QueryExecutor.class);
+
+    private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+    private static final long DEFAULT_DEADLINE_MILLIS = 10000;
+    // Weight of the latest sample in the mean service time. 1/8
+    private static final int SERVICE_TIME_SHIFT = 3;
+
+    public static class QueryRejectedException extends RuntimeException {
+	private static final long serialVersionUID = 4236155092742627193L;
+	private final int status;
+
+	public QueryRejectedException(int status, String message) {
+	    super(message);
+	    this.status = status;
+	}
+
+	public int getStatus() {
+	    return status;
+	}
+    }
+
+    private int threads = DEFAULT_THREADS;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private long defaultDeadlineMillis = DEFAULT_DEADLINE_MILLIS;
+
+    private ThreadPoolExecutor executor;
+    // Exponentially weighted mean of the time a task takes once it starts running.
+    private final AtomicLong meanServiceTimeMicros = new AtomicLong();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    @PostConstruct
+    public void start() {
+	final AtomicInteger threadCount = new AtomicInteger();
+	ThreadFactory threadFactory = new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, "query-" + threadCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	    }
+	};
+	executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory,
+		new ThreadPoolExecutor.AbortPolicy());
+	executor.prestartAllCoreThreads();
+	LOGGER.info("Started query executor with " + threads + " threads and a queue of " + queueSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+	if (executor != null) {
+	    executor.shutdownNow();
+	}
+    }
+
+    /**
+     * Runs the task on one of the query threads and waits for its result.
+     *
+     * @param task
+     * @param deadlineMillis
+     *            the maximum time the caller is willing to wait, or null for
+     *            the default deadline.
+     * @return the result of the task.
+     * @throws QueryRejectedException
+     *             when the task isn't admitted or doesn't complete within the deadline.
+     * @throws Exception
+     *             thrown by the task.
+     */
+    public <T> T execute(final Callable<T> task, Long deadlineMillis) throws Exception {
+	long deadline = deadlineMillis == null ? defaultDeadlineMillis : deadlineMillis;
+
+	long predictedWaitMillis = getPredictedWaitMillis();
+	if (predictedWaitMillis > deadline) {
+	    rejectedCount.incrementAndGet();
+	    throw new QueryRejectedException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy. Predicted wait of " + predictedWaitMillis
+		    + "ms exceeds the deadline of " + deadline + "ms.");
+	}
+
+	Callable<T> timedTask = new Callable<T>() {
+	    @Override
+	    public T call() throws Exception {
+		long startTime = System.nanoTime();
+		try {
+		    return task.call();
+		} finally {
+		    recordServiceTime((System.nanoTime() - startTime) / 1000);
+		    QueryTrace.clear();
+		}
+	    }
+	};
+
+	Future<T> future;
+	try {
+	    future = executor.submit(timedTask);
+	} catch (RejectedExecutionException e) {
+	    rejectedCount.incrementAndGet();
+	    throw new QueryRejectedException(429, "Too many queries queued.");
+	}
+
+	try {
+	    return future.get(deadline, TimeUnit.MILLISECONDS);
+	} catch (TimeoutException e) {
+	    // Don't interrupt. See the class comment.
+	    future.cancel(false);
+	    throw new QueryRejectedException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Query didn't complete within the deadline of " + deadline + "ms.");
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof Exception) {
+		throw (Exception) cause;
+	    }
+	    throw new RuntimeException(cause);
+	}
+    }
+
+    private void recordServiceTime(long micros) {
+	long mean, newMean;
+	do {
+	    mean = meanServiceTimeMicros.get();
+	    newMean = mean == 0 ? micros : mean + ((micros - mean) >> SERVICE_TIME_SHIFT);
+	} while (!meanServiceTimeMicros.compareAndSet(mean, newMean));
+    }
+
+    public long getPredictedWaitMillis() {
+	int waiting = executor.getQueue().size() + executor.getActiveCount() - threads + 1;
+	if (waiting <= 0) {
+	    return 0;
+	}
+	return waiting * meanServiceTimeMicros.get() / threads / 1000;
+    }
+
+    public long getMeanServiceTimeMicros() {
+	return meanServiceTimeMicros.get();
+    }
+
+    public int getQueueDepth() {
+	return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+	return executor.getActiveCount();
+    }
+
+    public int getRejectedCount() {
+	return rejectedCount.get();
+    }
+
+    public void setThreads(int threads) {
+	this.threads = threads;
+    }
+
+    public void setQueueSize(int queueSize) {
+	this.queueSize = queueSize;
+    }
+
+    public void setDefaultDeadlineMillis(long defaultDeadlineMillis) {
+	this.defaultDeadlineMillis = defaultDeadlineMillis;
+    }
+}
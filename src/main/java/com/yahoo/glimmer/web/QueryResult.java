@@ -12,6 +12,7 @@ package com.yahoo.glimmer.web;
  */
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Wire Results object.
@@ -25,6 +26,10 @@ public class QueryResult {
     private final int searchTime;
     private final String query;
     private final String parsedQuery;
+    // Only set for cursor queries when there may be more results.
+    private String nextCursor;
+    // Only set when the query was run with debug set.
+    private Map<String, Object> trace;
 
     public QueryResult(String query, String parsedQuery, int numResults, int pageStart, int pageSize, List<QueryResultItem> resultItems, int time, int searchTime) {
 	super();
@@ -69,4 +74,20 @@ public class QueryResult {
     public String getParsedQuery() {
 	return parsedQuery;
     }
+    
+    public String getNextCursor() {
+	return nextCursor;
+    }
+    
+    public void setNextCursor(String nextCursor) {
+	this.nextCursor = nextCursor;
+    }
+    
+    public Map<String, Object> getTrace() {
+	return trace;
+    }
+    
+    public void setTrace(Map<String, Object> trace) {
+	this.trace = trace;
+    }
 }
@@ -0,0 +1,82 @@
+package com.yahoo.glimmer.web;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.nio.ByteBuffer;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * The position in a result set after the last result returned. Passed to and
+ * from clients as an opaque URL safe string.
+ *
+ * The string encodes the score and document id of the last result and a hash
+ * of the query so a cursor can't be used with a different query.
+ */
+public class SearchCursor {
+    /** The cursor value to give for the first page. */
+    public static final String FIRST = "*";
+    private static final int ENCODED_LENGTH = 8 + 8 + 4;
+
+    private final double score;
+    private final long document;
+    private final int queryHash;
+
+    public SearchCursor(double score, long document, String query) {
+	this(score, document, query.hashCode());
+    }
+
+    private SearchCursor(double score, long document, int queryHash) {
+	this.score = score;
+	this.document = document;
+	this.queryHash = queryHash;
+    }
+
+    public double getScore() {
+	return score;
+    }
+
+    public long getDocument() {
+	return document;
+    }
+
+    public String encode() {
+	ByteBuffer buffer = ByteBuffer.allocate(ENCODED_LENGTH);
+	buffer.putDouble(score);
+	buffer.putLong(document);
+	buffer.putInt(queryHash);
+	return Base64.encodeBase64URLSafeString(buffer.array());
+    }
+
+    /**
+     * @param encoded
+     * @param query
+     * @return the cursor or null if encoded is FIRST.
+     * @throws IllegalArgumentException
+     *             if encoded isn't a cursor for the given query.
+     */
+    public static SearchCursor decode(String encoded, String query) {
+	if (FIRST.equals(encoded)) {
+	    return null;
+	}
+	byte[] bytes = Base64.decodeBase64(encoded);
+	if (bytes == null || bytes.length != ENCODED_LENGTH) {
+	    throw new IllegalArgumentException("Invalid cursor " + encoded);
+	}
+	ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	SearchCursor cursor = new SearchCursor(buffer.getDouble(), buffer.getLong(), buffer.getInt());
+	if (cursor.queryHash != query.hashCode() || cursor.document < 0) {
+	    throw new IllegalArgumentException("Cursor " + encoded + " is not valid for this query.");
+	}
+	return cursor;
+    }
+}
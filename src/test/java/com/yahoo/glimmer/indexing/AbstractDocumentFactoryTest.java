@@ -55,6 +55,8 @@ public class AbstractDocumentFactoryTest {
 	taskContext = context.mock(TaskInputOutputContext.class, "taskContext");
 	conf = new Configuration();
 	resourcesHash = new Object2LongOpenHashMap<CharSequence>();
+	// Like the signed hash functions.
+	resourcesHash.defaultReturnValue(-1);
 	defineMocks(context);
 	
 	context.checking(defineExpectations());
@@ -0,0 +1,88 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
+
+public class CombinedDocumentFactoryTest extends AbstractDocumentFactoryTest {
+    private static final byte[] NO_RELATIONS_CONTENT_BYTES = "34\t22\thttp://subject/2\t".getBytes();
+
+    @Test
+    public void test() throws IOException {
+	RDFDocumentFactory.setupConf(conf, IndexType.COMBINED, true, null, "@", "subject", "subjectText", "object", "predicate", "context", "predicateObject",
+		"http://predicate/1", "http://predicate/2", "http://predicate/3");
+	CombinedDocumentFactory factory = (CombinedDocumentFactory) RDFDocumentFactory.buildFactory(conf);
+	factory.setResourcesHashFunction(resourcesHash);
+	assertEquals(9, factory.getFieldCount());
+	assertEquals(6, factory.getHorizontalFactory().getFieldCount());
+	assertEquals(3, factory.getVerticalFactory().getFieldCount());
+
+	assertEquals(IndexType.HORIZONTAL, CombinedDocumentFactory.getFieldIndexType(5));
+	assertEquals(5, CombinedDocumentFactory.getFieldIndexId(5));
+	assertEquals(IndexType.VERTICAL, CombinedDocumentFactory.getFieldIndexType(6));
+	assertEquals(0, CombinedDocumentFactory.getFieldIndexId(6));
+
+	RDFDocument document = factory.getDocument();
+	assertEquals(IndexType.COMBINED, document.getIndexType());
+	document.setContent(CONTENT_BYTES, CONTENT_BYTES.length);
+	assertEquals("http://subject/", document.getSubject());
+	assertEquals(33, document.getId());
+
+	// Horizontal fields.
+	assertEquals(Arrays.asList("@33"), words(document.content(0)));
+	assertEquals(Arrays.asList("@33", "subject"), words(document.content(1)));
+	assertEquals(Arrays.asList("@45", "@46", "@47", "object", "3", "@88"), words(document.content(2)));
+	assertEquals(Arrays.asList("@60", "@61", "@61", "@62", "@62", "@63"), words(document.content(3)));
+	assertEquals(Arrays.asList("@22", "", "", "@55", "@55", ""), words(document.content(4)));
+	assertEquals(Arrays.asList("@60:@45", "@61:@46", "@61:@47", "@62:object", "@62:3", "@63:@88"), words(document.content(5)));
+
+	// Vertical fields.
+	assertEquals(Arrays.asList("@45"), words(document.content(6)));
+	assertEquals(Arrays.asList("@46", "@47"), words(document.content(7)));
+	assertEquals(Arrays.asList("object", "3"), words(document.content(8)));
+
+	assertEquals(5l, factory.getHorizontalFactory().getCounter(RDFDocumentFactory.RdfCounters.INDEXED_TRIPLES).getValue());
+	assertEquals(4l, factory.getVerticalFactory().getCounter(RDFDocumentFactory.RdfCounters.INDEXED_TRIPLES).getValue());
+
+	// Nothing is left over from the previous record.
+	document.setContent(NO_RELATIONS_CONTENT_BYTES, NO_RELATIONS_CONTENT_BYTES.length);
+	assertEquals("http://subject/2", document.getSubject());
+	assertFalse(document.content(2).next(new MutableString(), new MutableString()));
+	assertFalse(document.content(7).next(new MutableString(), new MutableString()));
+
+	context.assertIsSatisfied();
+    }
+
+    private static List<String> words(WordReader reader) throws IOException {
+	List<String> words = new ArrayList<String>();
+	MutableString word = new MutableString();
+	MutableString nonWord = new MutableString();
+	while (reader.next(word, nonWord)) {
+	    assertTrue(nonWord.length() == 0);
+	    words.add(word.toString());
+	}
+	return words;
+    }
+}
@@ -27,7 +27,7 @@ public class HorizontalDocumentFactoryTest extends AbstractDocumentFactoryTest {
 	HorizontalDocumentFactory.setupConf(conf, true, null, "@");
 	HorizontalDocumentFactory factory = (HorizontalDocumentFactory)RDFDocumentFactory.buildFactory(conf);
 	factory.setResourcesHashFunction(resourcesHash);
-	assertEquals(5, factory.getFieldCount());
+	assertEquals(6, factory.getFieldCount());
 	
 	HorizontalDocument document = (HorizontalDocument)factory.getDocument();
 	document.setContent(CONTENT_BYTES, CONTENT_BYTES.length);
@@ -122,6 +122,14 @@ public class HorizontalDocumentFactoryTest extends AbstractDocumentFactoryTest {
 	assertFalse(predicateReader.next(word, nonWord));
 	assertFalse(contextReader.next(word, nonWord));
 	
+	// object tokens tagged with their predicate.
+	WordArrayReader predicateObjectReader = (WordArrayReader)document.content(5);
+	for (String predicateObject : new String[] { "@60:@45", "@61:@46", "@61:@47", "@62:object", "@62:3", "@63:@88" }) {
+	    assertTrue(predicateObjectReader.next(word, nonWord));
+	    assertEquals(predicateObject, word.toString());
+	}
+	assertFalse(predicateObjectReader.next(word, nonWord));
+	
 	context.assertIsSatisfied();
 	
 	assertEquals(5l, factory.getCounter(RDFDocumentFactory.RdfCounters.INDEXED_TRIPLES).getValue());
@@ -132,7 +140,7 @@ public class HorizontalDocumentFactoryTest extends AbstractDocumentFactoryTest {
 	HorizontalDocumentFactory.setupConf(conf, false, null, "@");
 	HorizontalDocumentFactory factory = (HorizontalDocumentFactory) RDFDocumentFactory.buildFactory(conf);
 	factory.setResourcesHashFunction(resourcesHash);
-	assertEquals(5, factory.getFieldCount());
+	assertEquals(6, factory.getFieldCount());
 	
 	HorizontalDocument document = (HorizontalDocument)factory.getDocument();
 	document.setContent(CONTENT_BYTES, CONTENT_BYTES.length);
@@ -0,0 +1,97 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TermListTest {
+    private TermList terms = new TermList("@");
+
+    @Test
+    public void test() throws IOException {
+	terms.addId(0);
+	terms.add(new MutableString("word"));
+	terms.add("");
+	terms.addId(1234567890123l);
+	terms.addTagged(61, 46);
+	terms.addTagged(62, new MutableString("object"));
+	terms.add("last");
+	assertEquals(7, terms.size());
+
+	assertEquals("@0", terms.get(0));
+	assertEquals("word", terms.get(1));
+	assertEquals("", terms.get(2));
+	assertEquals("@1234567890123", terms.get(3));
+	assertEquals("@61:@46", terms.get(4));
+	assertEquals(HorizontalDocumentFactory.tagObject("@62", "object"), terms.get(5));
+	assertEquals("last", terms.get(6));
+
+	// A longer word is shortened.
+	MutableString word = new MutableString("a long word");
+	terms.get(0, word);
+	assertEquals("@0", word.toString());
+
+	terms.clear();
+	assertEquals(0, terms.size());
+	terms.add("again");
+	WordArrayReader reader = new WordArrayReader(terms);
+	MutableString nonWord = new MutableString();
+	assertTrue(reader.next(word, nonWord));
+	assertEquals("again", word.toString());
+	assertFalse(reader.next(word, nonWord));
+    }
+
+    @Test
+    public void addIdsTest() {
+	terms.add("first");
+	terms.addIds(new long[] { 5, 6, 7 });
+	terms.addIds(new long[0]);
+	terms.add("last");
+	assertEquals(5, terms.size());
+	assertEquals("first", terms.get(0));
+	assertEquals("@5", terms.get(1));
+	assertEquals("@7", terms.get(3));
+	assertEquals("last", terms.get(4));
+
+	long[] ids = new long[40];
+	for (int i = 0; i < ids.length; i++) {
+	    ids[i] = i;
+	}
+	terms.addIds(ids);
+	assertEquals(45, terms.size());
+	assertEquals("@39", terms.get(44));
+    }
+
+    @Test
+    public void growTest() {
+	StringBuilder expected = new StringBuilder();
+	for (int i = 0; i < 1000; i++) {
+	    if (i % 2 == 0) {
+		terms.addId(i);
+	    } else {
+		terms.add("term" + i);
+	    }
+	}
+	for (int i = 0; i < 1000; i++) {
+	    expected.setLength(0);
+	    expected.append(i % 2 == 0 ? "@" : "term").append(i);
+	    assertEquals(expected.toString(), terms.get(i));
+	}
+    }
+}
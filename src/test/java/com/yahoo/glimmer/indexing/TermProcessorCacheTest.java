@@ -0,0 +1,48 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.lang.MutableString;
+
+import org.junit.Test;
+
+public class TermProcessorCacheTest {
+    private TermProcessorCache cache = new TermProcessorCache(CombinedTermProcessor.getInstance(), 3);
+
+    @Test
+    public void test() {
+	for (int i = 0; i < 2; i++) {
+	    MutableString token = new MutableString("Running");
+	    assertTrue(cache.processTerm(token));
+	    assertEquals("run", token.toString());
+
+	    assertFalse(cache.processTerm(new MutableString("the")));
+
+	    token = new MutableString("@123");
+	    assertTrue(cache.processTerm(token));
+	    assertEquals("@123", token.toString());
+	}
+	assertEquals(3, cache.getMisses());
+	assertEquals(3, cache.getHits());
+	assertEquals(3, cache.size());
+
+	// Full. Cleared before adding.
+	MutableString token = new MutableString("Dogs");
+	assertTrue(cache.processTerm(token));
+	assertEquals("dog", token.toString());
+	assertEquals(1, cache.size());
+	assertEquals(4, cache.getMisses());
+    }
+}
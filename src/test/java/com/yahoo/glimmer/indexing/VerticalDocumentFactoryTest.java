@@ -11,14 +11,17 @@ package com.yahoo.glimmer.indexing;
  *  See accompanying LICENSE file.
  */
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 
 import org.junit.Test;
@@ -121,5 +124,19 @@ public class VerticalDocumentFactoryTest extends AbstractDocumentFactoryTest {
 	
 	types = factory.getAncestors("http://schema.org/NotASchemaDotOrgType");
 	assertEquals(0, types.size());
+	
+	resourcesHash.put("http://schema.org/WebPage", 100l);
+	resourcesHash.put("http://schema.org/CreativeWork", 101l);
+	resourcesHash.put("http://schema.org/Thing", 102l);
+	factory.setResourcesHashFunction(resourcesHash);
+	
+	long[] ancestorIds = factory.getAncestorIds(100l, "http://schema.org/WebPage");
+	long[] sortedIds = ancestorIds.clone();
+	Arrays.sort(sortedIds);
+	assertArrayEquals(new long[] { 101l, 102l }, sortedIds);
+	// The second time is from the map.
+	assertSame(ancestorIds, factory.getAncestorIds(100l, "http://schema.org/WebPage"));
+	
+	assertEquals(0, factory.getAncestorIds(102l, "http://schema.org/Thing").length);
     }
 }
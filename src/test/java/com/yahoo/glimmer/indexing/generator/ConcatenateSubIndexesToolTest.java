@@ -0,0 +1,222 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index.PropertyKeys;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.IndexWriter;
+import it.unimi.di.big.mg4j.index.QuasiSuccinctIndexWriter;
+import it.unimi.dsi.io.InputBitStream;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.util.Properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConcatenateSubIndexesToolTest {
+    private static final String NAME = "field";
+    private static final int NUMBER_OF_DOCS = 20;
+    private static final int NUMBER_OF_TERMS = 12;
+    // The first term of each partition. Partition 1 is empty.
+    private static final int[] SPLIT_POINTS = { 0, 3, 3, 8, NUMBER_OF_TERMS };
+    // The partition that got the doc sizes.
+    private static final int SIZES_PARTITION = 2;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FileSystem fs = new RawLocalFileSystem();
+
+    @Before
+    public void before() throws Exception {
+	fs.initialize(new URI("file:///"), new Configuration());
+    }
+
+    private static String term(int term) {
+	return String.format("term%02d", term);
+    }
+
+    /**
+     * @return the positions of the term in the doc or null.
+     */
+    private static int[] positions(int term, int doc) {
+	if ((doc * 7 + term * 3) % 5 >= 2) {
+	    return null;
+	}
+	int[] positions = new int[1 + (doc + term) % 3];
+	for (int i = 0; i < positions.length; i++) {
+	    positions[i] = doc % 4 + i * 2;
+	}
+	return positions;
+    }
+
+    /**
+     * Writes the terms fromTerm to toTerm - 1 as a TermReduce would.
+     */
+    private String writeIndex(String dirName, int fromTerm, int toTerm, boolean sizes, boolean quasiSuccinct) throws IOException {
+	File dir = tempFolder.newFolder(dirName);
+	Index index = new Index(fs, new Path(dir.toURI()), NAME, NUMBER_OF_DOCS, true, quasiSuccinct, "@", 0);
+	index.open();
+	IndexWriter indexWriter = index.getIndexWriter();
+	long writtenOccurrences = 0;
+	for (int term = fromTerm; term < toTerm; term++) {
+	    long frequency = 0;
+	    long occurrences = 0;
+	    long sumOfMaxPositions = 0;
+	    for (int doc = 0; doc < NUMBER_OF_DOCS; doc++) {
+		int[] positions = positions(term, doc);
+		if (positions != null) {
+		    frequency++;
+		    occurrences += positions.length;
+		    sumOfMaxPositions += positions[positions.length - 1];
+		}
+	    }
+	    index.getTermsWriter().println(term(term));
+	    index.writeTermStats(frequency, occurrences);
+	    if (quasiSuccinct) {
+		((QuasiSuccinctIndexWriter) indexWriter).newInvertedList(frequency, occurrences, sumOfMaxPositions);
+	    } else {
+		indexWriter.newInvertedList();
+		indexWriter.writeFrequency(frequency);
+	    }
+	    for (int doc = 0; doc < NUMBER_OF_DOCS; doc++) {
+		int[] positions = positions(term, doc);
+		if (positions != null) {
+		    OutputBitStream out = indexWriter.newDocumentRecord();
+		    indexWriter.writeDocumentPointer(out, doc);
+		    indexWriter.writePositionCount(out, positions.length);
+		    indexWriter.writeDocumentPositions(out, positions, 0, positions.length, -1);
+		}
+	    }
+	    writtenOccurrences += occurrences;
+	}
+	if (sizes) {
+	    for (int doc = 0; doc < NUMBER_OF_DOCS; doc++) {
+		index.writeDocSize(doc, doc % 5);
+	    }
+	}
+	index.close(writtenOccurrences);
+	return new File(dir, NAME).getPath();
+    }
+
+    private String[] writeSubIndexes(boolean quasiSuccinct) throws IOException {
+	String[] basenames = new String[SPLIT_POINTS.length - 1];
+	for (int partition = 0; partition < basenames.length; partition++) {
+	    basenames[partition] = writeIndex("part" + partition, SPLIT_POINTS[partition], SPLIT_POINTS[partition + 1], partition == SIZES_PARTITION,
+		    quasiSuccinct);
+	}
+	return basenames;
+    }
+
+    private String concatenate(String[] inputBasenames) throws Exception {
+	String outputBasename = new File(tempFolder.newFolder("concatenated"), NAME).getPath();
+	ConcatenateSubIndexesTool.concatenate(outputBasename, inputBasenames);
+	return outputBasename;
+    }
+
+    @Test
+    public void bitStreamTest() throws Exception {
+	String expectedBasename = writeIndex("single", 0, NUMBER_OF_TERMS, true, false);
+	String[] inputBasenames = writeSubIndexes(false);
+	String actualBasename = concatenate(inputBasenames);
+
+	assertSameIndex(expectedBasename, actualBasename);
+
+	// The lists of each sub index start on a byte boundary, so the offsets
+	// of the last term of each sub index include the padding.
+	InputBitStream offsets = new InputBitStream(actualBasename + DiskBasedIndex.OFFSETS_EXTENSION);
+	try {
+	    assertEquals(0, offsets.readLongGamma());
+	    long position = 0;
+	    long subIndexesEnd = 0;
+	    for (int partition = 0; partition < inputBasenames.length; partition++) {
+		if (SPLIT_POINTS[partition] == SPLIT_POINTS[partition + 1]) {
+		    // Empty sub indexes are skipped.
+		    continue;
+		}
+		for (int term = SPLIT_POINTS[partition]; term < SPLIT_POINTS[partition + 1]; term++) {
+		    position += offsets.readLongGamma();
+		}
+		subIndexesEnd += new File(inputBasenames[partition] + DiskBasedIndex.INDEX_EXTENSION).length() * Byte.SIZE;
+		assertEquals(subIndexesEnd, position);
+	    }
+	    long indexBits = new File(actualBasename + DiskBasedIndex.INDEX_EXTENSION).length() * Byte.SIZE;
+	    assertEquals(indexBits, position);
+	    assertEquals(indexBits, new Properties(actualBasename + DiskBasedIndex.PROPERTIES_EXTENSION).getLong(PropertyKeys.SIZE));
+	} finally {
+	    offsets.close();
+	}
+    }
+
+    @Test
+    public void quasiSuccinctTest() throws Exception {
+	String expectedBasename = writeIndex("single", 0, NUMBER_OF_TERMS, true, true);
+	String actualBasename = concatenate(writeSubIndexes(true));
+
+	assertSameIndex(expectedBasename, actualBasename);
+    }
+
+    private void assertSameIndex(String expectedBasename, String actualBasename) throws Exception {
+	// The per term and per document files are the same codes in the same
+	// order.
+	for (String extension : new String[] { DiskBasedIndex.TERMS_EXTENSION, DiskBasedIndex.FREQUENCIES_EXTENSION,
+		DiskBasedIndex.OCCURRENCIES_EXTENSION, DiskBasedIndex.SIZES_EXTENSION }) {
+	    File expected = new File(expectedBasename + extension);
+	    assertTrue(expected.exists());
+	    assertTrue(extension, FileUtils.contentEquals(expected, new File(actualBasename + extension)));
+	}
+
+	Properties expectedProperties = new Properties(expectedBasename + DiskBasedIndex.PROPERTIES_EXTENSION);
+	Properties actualProperties = new Properties(actualBasename + DiskBasedIndex.PROPERTIES_EXTENSION);
+	for (String key : new String[] { PropertyKeys.TERMS, PropertyKeys.POSTINGS, PropertyKeys.OCCURRENCES, PropertyKeys.DOCUMENTS }) {
+	    assertEquals(key, expectedProperties.getLong(key), actualProperties.getLong(key));
+	}
+
+	it.unimi.di.big.mg4j.index.Index expected = DiskBasedIndex.getInstance(expectedBasename, true, true);
+	it.unimi.di.big.mg4j.index.Index actual = DiskBasedIndex.getInstance(actualBasename, true, true);
+	assertEquals(NUMBER_OF_TERMS, actual.numberOfTerms);
+	assertEquals(expected.sizes.toString(), actual.sizes.toString());
+	for (int term = 0; term < NUMBER_OF_TERMS; term++) {
+	    assertEquals(term(term), postings(expected.documents(term)), postings(actual.documents(term)));
+	}
+    }
+
+    private static String postings(IndexIterator documents) throws IOException {
+	StringBuilder postings = new StringBuilder();
+	postings.append(documents.frequency()).append(':');
+	long document;
+	while ((document = documents.nextDocument()) != IndexIterator.END_OF_LIST) {
+	    postings.append(" (").append(document).append(':');
+	    int position;
+	    while ((position = documents.nextPosition()) != IndexIterator.END_OF_POSITIONS) {
+		postings.append(' ').append(position);
+	    }
+	    postings.append(')');
+	}
+	documents.dispose();
+	return postings.toString();
+    }
+}
@@ -289,6 +289,110 @@ public class DocumentMapperTest {
 	assertEquals(11l, counters.findCounter(DocumentMapper.Counters.INDEXED_OCCURRENCES).getValue());
     }
     
+    @Test
+    public void combinedTest() throws IOException, InterruptedException {
+	mapperConf.setEnum("IndexType", IndexType.COMBINED);
+	mapperConf.setStrings("RdfFieldNames", "subject", "subjectText", "object", "predicate", "context", "predicateObject", "fieldZero");
+	
+	context.checking(new Expectations(){{
+	    allowing(mapperContext).getConfiguration();
+	    will(returnValue(mapperConf));
+	    
+	    one(doc).setContent(with(DOC_TEXT.getBytes()), with(DOC_TEXT.getLength()));
+	    
+	    allowing(mapperContext).setStatus(with(any(String.class)));
+	    allowing(mapperContext).getCounter(DocumentMapper.Counters.NUMBER_OF_RECORDS);
+	    will(returnValue(counters.findCounter(DocumentMapper.Counters.NUMBER_OF_RECORDS)));
+	    allowing(mapperContext).getCounter(DocumentMapper.Counters.INDEXED_OCCURRENCES);
+	    will(returnValue(counters.findCounter(DocumentMapper.Counters.INDEXED_OCCURRENCES)));
+	    
+	    allowing(doc).getSubject();
+	    will(returnValue("http://subject/"));
+	    allowing(doc).getId();
+	    will(returnValue(10l));
+	    
+	    allowing(doc).getIndexType();
+	    will(returnValue(IndexType.COMBINED));
+	    
+	    for (int field : new int[] {0, 1, 3, 4, 5}) {
+		allowing(doc).content(field);
+		will(returnValue(new DelimitedWordReader("".toCharArray(), DELIMITER)));
+	    }
+	    
+	    // A horizontal field has doc sizes but no alignment.
+	    allowing(doc).content(2);
+	    will(returnValue(new DelimitedWordReader("o1".toCharArray(), DELIMITER)));
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "o1", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "", Type.DOC_SIZE, 10, 1)), with(new TermValueMatcher(Type.DOC_SIZE, 10, 1)));
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "o1", Type.TERM_STATS, 1, 0)), with(new TermValueMatcher(Type.TERM_STATS, 1, 0)));
+	    
+	    // A vertical field has an alignment with the predicate id in the vertical index but no doc sizes.
+	    allowing(doc).content(6);
+	    will(returnValue(new DelimitedWordReader("a".toCharArray(), DELIMITER)));
+	    one(mapperContext).write(with(new TermKeyMatcher(6, "a", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(6, "a", Type.TERM_STATS, 1, 0)), with(new TermValueMatcher(Type.TERM_STATS, 1, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(DocumentMapper.ALIGNMENT_INDEX, "a", Type.INDEX_ID, 0)), with(new TermValueMatcher(Type.INDEX_ID, 0)));
+	}});
+	
+	DocumentMapper mapper = new DocumentMapper();
+	mapper.setup(mapperContext);
+	
+	assertEquals(IndexType.COMBINED, mapper.getDoc().getIndexType());
+	mapper.setDoc(doc);
+	
+	mapper.map(null, DOC_TEXT, mapperContext);
+	
+	context.assertIsSatisfied();
+	
+	assertEquals(2l, counters.findCounter(DocumentMapper.Counters.INDEXED_OCCURRENCES).getValue());
+    }
+    
+    @Test
+    public void aggregatePostingsTest() throws IOException, InterruptedException {
+	mapperConf.setEnum("IndexType", IndexType.HORIZONTAL);
+	mapperConf.setStrings("RdfFieldNames", "fieldZero");
+	mapperConf.setBoolean(DocumentMapper.AGGREGATE_POSTINGS, true);
+	
+	context.checking(new Expectations(){{
+	    allowing(mapperContext).getConfiguration();
+	    will(returnValue(mapperConf));
+	    
+	    one(doc).setContent(with(DOC_TEXT.getBytes()), with(DOC_TEXT.getLength()));
+	    
+	    allowing(mapperContext).setStatus(with(any(String.class)));
+	    allowing(mapperContext).getCounter(DocumentMapper.Counters.NUMBER_OF_RECORDS);
+	    will(returnValue(counters.findCounter(DocumentMapper.Counters.NUMBER_OF_RECORDS)));
+	    allowing(mapperContext).getCounter(DocumentMapper.Counters.INDEXED_OCCURRENCES);
+	    will(returnValue(counters.findCounter(DocumentMapper.Counters.INDEXED_OCCURRENCES)));
+	    
+	    allowing(doc).getSubject();
+	    will(returnValue("http://subject/"));
+	    allowing(doc).getId();
+	    will(returnValue(10l));
+	    
+	    allowing(doc).getIndexType();
+	    will(returnValue(IndexType.HORIZONTAL));
+	    
+	    allowing(doc).content(0);
+	    will(returnValue(new DelimitedWordReader("a b a a".toCharArray(), DELIMITER)));
+	    // The doc size.
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "", Type.DOC_SIZE, 10, 4)), with(new TermValueMatcher(Type.DOC_SIZE, 10, 4)));
+	    // One record per term with the positions. No TERM_STATS or OCCURRENCEs.
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "a", 10, 0, 2, 3)), with(new TermValueMatcher(10, 0, 2, 3)));
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "b", 10, 1)), with(new TermValueMatcher(10, 1)));
+	}});
+	
+	DocumentMapper mapper = new DocumentMapper();
+	mapper.setup(mapperContext);
+	mapper.setDoc(doc);
+	
+	mapper.map(null, DOC_TEXT, mapperContext);
+	
+	context.assertIsSatisfied();
+	
+	assertEquals(4l, counters.findCounter(DocumentMapper.Counters.INDEXED_OCCURRENCES).getValue());
+    }
+    
     private static class TermValueMatcher extends BaseMatcher<TermValue> {
 	private TermValue occurrence;
 	
@@ -298,6 +402,9 @@ public class DocumentMapperTest {
 	public TermValueMatcher(Type type, int v1, int v2) {
 	    occurrence = new TermValue(type, v1, v2);
 	}
+	public TermValueMatcher(long docId, int ... positions) {
+	    occurrence = new TermValue(docId, positions, positions.length);
+	}
 	
 	@Override
 	public boolean matches(Object object) {
@@ -14,9 +14,11 @@ package com.yahoo.glimmer.indexing.generator;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import it.unimi.di.big.mg4j.index.BitStreamIndex;
 import it.unimi.di.big.mg4j.index.DiskBasedIndex;
 import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.index.QuasiSuccinctIndex;
 
 import java.io.IOException;
 import java.net.URI;
@@ -73,6 +75,115 @@ public class IndexRecordWriterTest {
 
     @Test
     public void test() throws Exception {
+	String dir = writeIndexes();
+	BitStreamIndex index0 = (BitStreamIndex) DiskBasedIndex.getInstance(dir + "/index0", true, true);
+	assertEquals(8, index0.numberOfDocuments);
+	assertEquals(2, index0.numberOfTerms);
+	assertTrue(index0.hasPositions);
+	// term1
+	checkOccurrences(index0.documents(0), 3, "(3:11,15) (4:12) (7:14,17,18)");
+	// term2
+	checkOccurrences(index0.documents(1), 2, "(1:10,19) (7:13,16)");
+	assertEquals("[3, 0, 0, 1, 10, 0, 2, 0]", index0.sizes.toString());
+
+	BitStreamIndex index1 = (BitStreamIndex) DiskBasedIndex.getInstance(dir + "/index1", true, true);
+	assertEquals(8, index1.numberOfDocuments);
+	assertEquals(2, index1.numberOfTerms);
+	assertTrue(index0.hasPositions);
+	checkOccurrences(index1.documents(0), 1, "(1:14)");
+	// term3
+	checkOccurrences(index1.documents(1), 1, "(3:10,11)");
+	
+	BitStreamIndex indexAlignment = (BitStreamIndex) DiskBasedIndex.getInstance(dir + "/alignment", true);
+	assertEquals(8, indexAlignment.numberOfDocuments);
+	assertEquals(3, indexAlignment.numberOfTerms);
+	assertFalse(indexAlignment.hasPositions);
+	// term1
+	assertEquals(1, indexAlignment.documents(0).frequency());
+	// term2
+	assertEquals(2, indexAlignment.documents(1).frequency());
+	// term3
+	assertEquals(1, indexAlignment.documents(2).frequency());
+	assertEquals("[0, 0, 0, 3, 0, 0, 5, 0]", index1.sizes.toString());
+    }
+
+    @Test
+    public void quasiSuccinctTest() throws Exception {
+	conf.setBoolean(TripleIndexGenerator.QUASI_SUCCINCT, true);
+	String dir = writeIndexes();
+	QuasiSuccinctIndex index0 = (QuasiSuccinctIndex) DiskBasedIndex.getInstance(dir + "/index0", true, true);
+	assertEquals(8, index0.numberOfDocuments);
+	assertEquals(2, index0.numberOfTerms);
+	assertTrue(index0.hasPositions);
+	checkOccurrences(index0.documents(0), 3, "(3:11,15) (4:12) (7:14,17,18)");
+	checkOccurrences(index0.documents(1), 2, "(1:10,19) (7:13,16)");
+	assertEquals("[3, 0, 0, 1, 10, 0, 2, 0]", index0.sizes.toString());
+
+	QuasiSuccinctIndex index1 = (QuasiSuccinctIndex) DiskBasedIndex.getInstance(dir + "/index1", true, true);
+	checkOccurrences(index1.documents(0), 1, "(1:14)");
+	checkOccurrences(index1.documents(1), 1, "(3:10,11)");
+
+	// Written with a count of 1 for each document.
+	QuasiSuccinctIndex indexAlignment = (QuasiSuccinctIndex) DiskBasedIndex.getInstance(dir + "/alignment", true);
+	assertEquals(3, indexAlignment.numberOfTerms);
+	assertFalse(indexAlignment.hasPositions);
+	assertEquals(1, indexAlignment.documents(0).frequency());
+	assertEquals(2, indexAlignment.documents(1).frequency());
+	assertEquals(1, indexAlignment.documents(2).frequency());
+    }
+
+    @Test
+    public void bufferSizeTest() {
+	long memory = 256l * 1024 * 1024;
+	// The open index gets the whole budget.
+	assertEquals(memory / IndexRecordWriter.BUFFERS_PER_INDEX, IndexRecordWriter.getBufferSize(memory, Integer.MAX_VALUE));
+	// Capped at the max buffer size.
+	assertEquals(1024 * 1024, IndexRecordWriter.getBufferSize(memory, 1024 * 1024));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLittleMemoryTest() {
+	IndexRecordWriter.getBufferSize(IndexRecordWriter.BUFFERS_PER_INDEX * IndexRecordWriter.MIN_BUFFER_SIZE - 1, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void unsortedIndexesTest() throws Exception {
+	context.checking(new Expectations(){{
+	    allowing(taskContext).getConfiguration();
+	    will(returnValue(conf));
+	    allowing(taskContext).getTaskAttemptID();
+	    will(returnValue(taskAttemptID));
+	}});
+	conf.setStrings("RdfFieldNames", "index0", "index1");
+	conf.setEnum("IndexType", RDFDocumentFactory.IndexType.VERTICAL);
+	RecordWriter<IntWritable, IndexRecordWriterValue> recordWriter = new IndexRecordWriter.OutputFormat().getRecordWriter(taskContext);
+
+	IntWritable key = new IntWritable(DocumentMapper.ALIGNMENT_INDEX);
+	IndexRecordWriterTermValue termValue = new IndexRecordWriterTermValue();
+	IndexRecordWriterDocValue docValue = new IndexRecordWriterDocValue();
+	termValue.setTerm("term1");
+	termValue.setTermFrequency(1);
+	recordWriter.write(key, termValue);
+	docValue.setDocument(0);
+	recordWriter.write(key, docValue);
+
+	key.set(0);
+	termValue.setOccurrenceCount(1);
+	termValue.setSumOfMaxTermPositions(5);
+	recordWriter.write(key, termValue);
+	docValue.addOccurrence(5);
+	recordWriter.write(key, docValue);
+
+	// The alignment index was closed when index 0 was opened.
+	key.set(DocumentMapper.ALIGNMENT_INDEX);
+	try {
+	    recordWriter.write(key, termValue);
+	    fail();
+	} catch (IllegalStateException e) {
+	}
+    }
+
+    private String writeIndexes() throws Exception {
 	context.checking(new Expectations(){{
 	    allowing(taskContext).getConfiguration();
 	    will(returnValue(conf));
@@ -91,6 +202,7 @@ public class IndexRecordWriterTest {
 	IndexRecordWriterDocValue docValue = new IndexRecordWriterDocValue();
 	IndexRecordWriterSizeValue sizeValue = new IndexRecordWriterSizeValue();
 	
+	// Records come sorted by index and then term. See TermKey.Comparator.
 	// ALIGNEMENT_INDEX
 	key.set(DocumentMapper.ALIGNMENT_INDEX);
 	termValue.setTerm("term1");
@@ -102,8 +214,23 @@ public class IndexRecordWriterTest {
 	docValue.setDocument(0); // term1 occurs in index 0
 	recordWriter.write(key, docValue);
 	
+	termValue.setTerm("term2");
+	termValue.setTermFrequency(2);
+	recordWriter.write(key, termValue);
+	docValue.setDocument(0); // term2 occurs in index 0 & 1
+	recordWriter.write(key, docValue);
+	docValue.setDocument(1);
+	recordWriter.write(key, docValue);
+	
+	termValue.setTerm("term3");
+	termValue.setTermFrequency(1);
+	recordWriter.write(key, termValue);
+	docValue.setDocument(1); // term3 occurs in index 1
+	recordWriter.write(key, docValue);
+	
 	// Index 0
 	key.set(0);
+	termValue.setTerm("term1");
 	termValue.setTermFrequency(3);
 	termValue.setOccurrenceCount(6);
 	termValue.setSumOfMaxTermPositions(15 + 12 + 18);
@@ -124,27 +251,11 @@ public class IndexRecordWriterTest {
 	docValue.addOccurrence(18);
 	recordWriter.write(key, docValue);
 
-	// ALIGNEMENT_INDEX
-	key.set(DocumentMapper.ALIGNMENT_INDEX);
 	termValue.setTerm("term2");
 	termValue.setTermFrequency(2);
-	// The alignment index doesn't have positions/counts.
-	termValue.setOccurrenceCount(0);
-	termValue.setSumOfMaxTermPositions(0);
-	recordWriter.write(key, termValue);
-	docValue.clearOccerrences();
-	docValue.setDocument(0); // term2 occurs in index 0 & 1
-	recordWriter.write(key, docValue);
-	docValue.setDocument(1); // term2 occurs in index 0 & 1
-	recordWriter.write(key, docValue);
-	
-	// Index 0
-	key.set(0);
-	termValue.setTermFrequency(2);
 	termValue.setOccurrenceCount(4);
 	termValue.setSumOfMaxTermPositions(19 + 16);
 	recordWriter.write(key, termValue);
-	
 	docValue.setDocument(1);
 	docValue.clearOccerrences();
 	docValue.addOccurrence(10);
@@ -156,8 +267,23 @@ public class IndexRecordWriterTest {
 	docValue.addOccurrence(16);
 	recordWriter.write(key, docValue);
 	
+	// Doc Sizes.
+	sizeValue.setDocument(0);
+	sizeValue.setSize(3);
+	recordWriter.write(key, sizeValue);
+	sizeValue.setDocument(3);
+	sizeValue.setSize(1);
+	recordWriter.write(key, sizeValue);
+	sizeValue.setDocument(4);
+	sizeValue.setSize(10);
+	recordWriter.write(key, sizeValue);
+	sizeValue.setDocument(6);
+	sizeValue.setSize(2);
+	recordWriter.write(key, sizeValue);
+	
 	// Index 1
 	key.set(1);
+	termValue.setTerm("term2");
 	termValue.setTermFrequency(1);
 	termValue.setOccurrenceCount(1);
 	termValue.setSumOfMaxTermPositions(14);
@@ -167,21 +293,8 @@ public class IndexRecordWriterTest {
 	docValue.addOccurrence(14);
 	recordWriter.write(key, docValue);
 	
-	// ALIGNMENT_INDEX 
-	key.set(DocumentMapper.ALIGNMENT_INDEX);
 	termValue.setTerm("term3");
 	termValue.setTermFrequency(1);
-	// The alignment index doesn't have positions/counts.
-	termValue.setOccurrenceCount(0);
-	termValue.setSumOfMaxTermPositions(0);
-	recordWriter.write(key, termValue);
-	docValue.setDocument(1); // term3 occurs in index 1
-	recordWriter.write(key, docValue);
-	docValue.clearOccerrences();
-	
-	// Index 1
-	key.set(1);
-	termValue.setTermFrequency(1);
 	termValue.setOccurrenceCount(2);
 	termValue.setSumOfMaxTermPositions(11);
 	recordWriter.write(key, termValue);
@@ -192,21 +305,6 @@ public class IndexRecordWriterTest {
 	recordWriter.write(key, docValue);
 	
 	// Doc Sizes.
-	key.set(0);
-	sizeValue.setDocument(0);
-	sizeValue.setSize(3);
-	recordWriter.write(key, sizeValue);
-	sizeValue.setDocument(3);
-	sizeValue.setSize(1);
-	recordWriter.write(key, sizeValue);
-	sizeValue.setDocument(4);
-	sizeValue.setSize(10);
-	recordWriter.write(key, sizeValue);
-	sizeValue.setDocument(6);
-	sizeValue.setSize(2);
-	recordWriter.write(key, sizeValue);
-	
-	key.set(1);
 	sizeValue.setDocument(3);
 	sizeValue.setSize(3);
 	recordWriter.write(key, sizeValue);
@@ -220,36 +318,7 @@ public class IndexRecordWriterTest {
 	
 	Path workPath = outputFormat.getDefaultWorkFile(taskContext,"");
 	System.out.println("Default work file is " + workPath.toString());
-	String dir = workPath.toUri().getPath();
-	BitStreamIndex index0 = (BitStreamIndex) DiskBasedIndex.getInstance(dir + "/index0", true, true);
-	assertEquals(8, index0.numberOfDocuments);
-	assertEquals(2, index0.numberOfTerms);
-	assertTrue(index0.hasPositions);
-	// term1
-	checkOccurrences(index0.documents(0), 3, "(3:11,15) (4:12) (7:14,17,18)");
-	// term2
-	checkOccurrences(index0.documents(1), 2, "(1:10,19) (7:13,16)");
-	assertEquals("[3, 0, 0, 1, 10, 0, 2, 0]", index0.sizes.toString());
-
-	BitStreamIndex index1 = (BitStreamIndex) DiskBasedIndex.getInstance(dir + "/index1", true, true);
-	assertEquals(8, index1.numberOfDocuments);
-	assertEquals(2, index1.numberOfTerms);
-	assertTrue(index0.hasPositions);
-	checkOccurrences(index1.documents(0), 1, "(1:14)");
-	// term3
-	checkOccurrences(index1.documents(1), 1, "(3:10,11)");
-	
-	BitStreamIndex indexAlignment = (BitStreamIndex) DiskBasedIndex.getInstance(dir + "/alignment", true);
-	assertEquals(8, indexAlignment.numberOfDocuments);
-	assertEquals(3, indexAlignment.numberOfTerms);
-	assertFalse(indexAlignment.hasPositions);
-	// term1
-	assertEquals(1, indexAlignment.documents(0).frequency());
-	// term2
-	assertEquals(2, indexAlignment.documents(1).frequency());
-	// term3
-	assertEquals(1, indexAlignment.documents(2).frequency());
-	assertEquals("[0, 0, 0, 3, 0, 0, 5, 0]", index1.sizes.toString());
+	return workPath.toUri().getPath();
     }
 
     private void checkOccurrences(IndexIterator documents, int frequencey, String expected) throws IOException {
@@ -0,0 +1,142 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.yahoo.glimmer.indexing.generator.TermValue.Type;
+
+/**
+ * Compares the size and sort time of serialized map output keys in the
+ * current variable length format and the previous fixed width format(int
+ * type, long v1, int v2, int index, Text term).
+ *
+ * Not a unit test. Run with:
+ *
+ * <pre>
+ * java -cp ... com.yahoo.glimmer.indexing.generator.TermKeyBenchmark [numberOfKeys]
+ * </pre>
+ */
+public class TermKeyBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+	int numberOfKeys = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+	Random random = new Random(42);
+
+	// Something like a horizontal index. Skewed term and field
+	// distributions, docIds up to 50M, short docs.
+	String[] vocabulary = new String[50000];
+	for (int i = 0; i < vocabulary.length; i++) {
+	    vocabulary[i] = (i % 3 == 0 ? "http://schema.org/" : "") + Integer.toString(i * 7919, 36);
+	}
+
+	ByteArrayOutputStream currentBytes = new ByteArrayOutputStream();
+	DataOutputStream currentOut = new DataOutputStream(currentBytes);
+	ByteArrayOutputStream legacyBytes = new ByteArrayOutputStream();
+	DataOutputStream legacyOut = new DataOutputStream(legacyBytes);
+	int[] currentOffsets = new int[numberOfKeys + 1];
+	int[] legacyOffsets = new int[numberOfKeys + 1];
+
+	for (int i = 0; i < numberOfKeys; i++) {
+	    String term = vocabulary[(int) (vocabulary.length * Math.pow(random.nextDouble(), 3))];
+	    int index = random.nextInt(8) == 0 ? DocumentMapper.ALIGNMENT_INDEX : (int) (5 * Math.pow(random.nextDouble(), 2));
+	    TermValue value = new TermValue(Type.OCCURRENCE, random.nextInt(50000000), random.nextInt(20));
+
+	    currentOffsets[i] = currentOut.size();
+	    new TermKey(term, index, value).write(currentOut);
+
+	    legacyOffsets[i] = legacyOut.size();
+	    legacyOut.writeInt(value.getType().ordinal());
+	    legacyOut.writeLong(value.getV1());
+	    legacyOut.writeInt(value.getV2());
+	    legacyOut.writeInt(index);
+	    Text.writeString(legacyOut, term);
+	}
+	currentOffsets[numberOfKeys] = currentOut.size();
+	legacyOffsets[numberOfKeys] = legacyOut.size();
+
+	System.out.println("Keys:" + numberOfKeys);
+	System.out.println("Current format bytes:" + currentOut.size() + " (" + (double) currentOut.size() / numberOfKeys + " per key)");
+	System.out.println("Legacy format bytes: " + legacyOut.size() + " (" + (double) legacyOut.size() / numberOfKeys + " per key)");
+
+	byte[] current = currentBytes.toByteArray();
+	byte[] legacy = legacyBytes.toByteArray();
+	for (int round = 0; round < ROUNDS; round++) {
+	    long currentNanos = sort(current, currentOffsets, new TermKey.Comparator());
+	    long legacyNanos = sort(legacy, legacyOffsets, new LegacyComparator());
+	    System.out.println("Round " + round + " sort ms current:" + currentNanos / 1000000 + " legacy:" + legacyNanos / 1000000);
+	}
+    }
+
+    private static long sort(final byte[] bytes, final int[] offsets, final RawComparator<?> comparator) {
+	Integer[] order = new Integer[offsets.length - 1];
+	for (int i = 0; i < order.length; i++) {
+	    order[i] = i;
+	}
+	long start = System.nanoTime();
+	Arrays.sort(order, new Comparator<Integer>() {
+	    @Override
+	    public int compare(Integer a, Integer b) {
+		return comparator.compare(bytes, offsets[a], offsets[a + 1] - offsets[a], bytes, offsets[b], offsets[b + 1] - offsets[b]);
+	    }
+	});
+	return System.nanoTime() - start;
+    }
+
+    /**
+     * The fixed offset comparator used with the previous format.
+     */
+    private static class LegacyComparator extends WritableComparator {
+	private static final int V1_BYTE_OFFSET = 4;
+	private static final int V2_BYTE_OFFSET = 12;
+	private static final int INDEX_BYTE_OFFSET = 16;
+	private static final int TERM_BYTE_OFFSET = 20;
+
+	public LegacyComparator() {
+	    super(TermKey.class, false);
+	}
+
+	@Override
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+	    int d = readInt(b1, s1 + INDEX_BYTE_OFFSET) - readInt(b2, s2 + INDEX_BYTE_OFFSET);
+	    if (d == 0) {
+		int length1 = WritableUtils.decodeVIntSize(b1[s1 + TERM_BYTE_OFFSET]);
+		int length2 = WritableUtils.decodeVIntSize(b2[s2 + TERM_BYTE_OFFSET]);
+		d = compareBytes(b1, s1 + TERM_BYTE_OFFSET + length1, l1 - TERM_BYTE_OFFSET - length1, b2, s2 + TERM_BYTE_OFFSET + length2, l2
+			- TERM_BYTE_OFFSET - length2);
+		if (d == 0) {
+		    d = readInt(b1, s1) - readInt(b2, s2);
+		    if (d == 0) {
+			long dl = readLong(b1, s1 + V1_BYTE_OFFSET) - readLong(b2, s2 + V1_BYTE_OFFSET);
+			if (dl != 0) {
+			    d = dl > 0 ? 1 : -1;
+			} else {
+			    d = readInt(b1, s1 + V2_BYTE_OFFSET) - readInt(b2, s2 + V2_BYTE_OFFSET);
+			}
+		    }
+		}
+	    }
+	    return d;
+	}
+    }
+}
@@ -28,6 +28,9 @@ class TermKeyMatcher extends BaseMatcher<TermKey> {
     public TermKeyMatcher(int index, String term, Type type, long v1, int v2) {
 	pair = new TermKey(term, index, new TermValue(type, v1, v2));
     }
+    public TermKeyMatcher(int index, String term, long docId, int ... positions) {
+	pair = new TermKey(term, index, new TermValue(docId, positions, positions.length));
+    }
     
     @Override
     public boolean matches(Object object) {
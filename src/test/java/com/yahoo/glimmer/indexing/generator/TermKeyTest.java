@@ -13,6 +13,7 @@ package com.yahoo.glimmer.indexing.generator;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
@@ -72,6 +73,28 @@ public class TermKeyTest {
 	assertTrue(compare(new TermKey("", 4, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey("a", 4, new TermValue(Type.OCCURRENCE, 6, 67))) < 0);
     }
     
+    @Test
+    public void comparatorNegativeIndexTest() throws IOException {
+	comparator = new TermKey.Comparator();
+	// The alignment index sorts before the other indexes.
+	assertTrue(compare(new TermKey("term1", DocumentMapper.ALIGNMENT_INDEX, new TermValue(Type.INDEX_ID, 6)), new TermKey("term1", 0, new TermValue(Type.OCCURRENCE, 6, 67))) < 0);
+	assertTrue(compare(new TermKey("term1", 0, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey("a", DocumentMapper.ALIGNMENT_INDEX, new TermValue(Type.INDEX_ID, 6))) > 0);
+	// The index is compared before the term.
+	assertTrue(compare(new TermKey("b", 1, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey("a", 2, new TermValue(Type.OCCURRENCE, 6, 67))) < 0);
+	assertTrue(compare(new TermKey("b", 128, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey("a", 127, new TermValue(Type.OCCURRENCE, 6, 67))) > 0);
+	// Multi byte varints.
+	assertTrue(compare(new TermKey("a", 1, new TermValue(Type.OCCURRENCE, 6, 128)), new TermKey("a", 1, new TermValue(Type.OCCURRENCE, 6, 127))) > 0);
+	assertTrue(compare(new TermKey("a", 1, new TermValue(Type.OCCURRENCE, 300, 1)), new TermKey("a", 1, new TermValue(Type.OCCURRENCE, 2, 1000))) > 0);
+    }
+    
+    @Test
+    public void serializedSizeTest() throws IOException {
+	byteArrayOutputStream.reset();
+	new TermKey("term1", 4, new TermValue(Type.OCCURRENCE, 6, 67)).write(dataOutput);
+	// 1 byte term length, 5 term bytes, 1 byte index, 1 byte type, 1 byte v1, 2 bytes v2
+	assertEquals(11, byteArrayOutputStream.size());
+    }
+    
     @Test
     public void groupTest() throws IOException {
 	comparator = new TermKey.FirstGroupingComparator();
@@ -125,6 +148,29 @@ public class TermKeyTest {
 	assertEquals(key1, key2);
     }
     
+    @Test
+    public void postingsWriteReadTest() throws IOException {
+	TermValue value1 = new TermValue(Integer.MAX_VALUE + 6l, new int[] {0, 1, 127, 128, 100000}, 5);
+	byteArrayOutputStream.reset();
+	value1.write(dataOutput);
+	TermKey key1 = new TermKey("term1", 4, value1);
+	key1.write(dataOutput);
+	
+	DataInput dataInput = new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+	TermValue value2 = new TermValue();
+	value2.readFields(dataInput);
+	assertEquals(value1, value2);
+	assertArrayEquals(new int[] {0, 1, 127, 128, 100000}, value2.getPositions(null));
+	assertEquals(100000, value2.getLastPosition());
+	
+	// The key doesn't carry the positions.
+	TermKey key2 = new TermKey();
+	key2.readFields(dataInput);
+	assertEquals(Type.POSTINGS, key2.getValue().getType());
+	assertEquals(Integer.MAX_VALUE + 6l, key2.getValue().getV1());
+	assertEquals(5, key2.getValue().getV2());
+    }
+    
     @Test
     public void firstPartitionerTest() {
 	// The hashCode of "node178qbtfd0x20663837" is Integer.MIN_VALUE
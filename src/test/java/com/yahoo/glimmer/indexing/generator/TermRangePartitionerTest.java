@@ -0,0 +1,114 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.indexing.generator.TermValue.Type;
+
+public class TermRangePartitionerTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void partitionTest() throws IOException {
+	Configuration conf = new Configuration();
+	TermRangePartitioner.setSplitPoints(conf, new TermKey[] { key(0, "m"), key(1, "c"), key(1, "c") });
+	TermRangePartitioner partitioner = new TermRangePartitioner();
+	partitioner.setConf(conf);
+
+	assertEquals(0, partitioner.getPartition(key(DocumentMapper.ALIGNMENT_INDEX, "z"), null, 4));
+	assertEquals(0, partitioner.getPartition(key(0, TermKey.DOC_SIZE_TERM), null, 4));
+	assertEquals(0, partitioner.getPartition(key(0, "lzzz"), null, 4));
+	assertEquals(1, partitioner.getPartition(key(0, "m"), null, 4));
+	assertEquals(1, partitioner.getPartition(key(0, "zzz"), null, 4));
+	assertEquals(1, partitioner.getPartition(key(1, "b"), null, 4));
+	// Partition 2 is empty as the last two split points are the same.
+	assertEquals(3, partitioner.getPartition(key(1, "c"), null, 4));
+	assertEquals(3, partitioner.getPartition(key(2, "a"), null, 4));
+    }
+
+    @Test
+    public void singlePartitionTest() {
+	TermRangePartitioner partitioner = new TermRangePartitioner();
+	partitioner.setConf(new Configuration());
+	assertEquals(0, partitioner.getPartition(key(3, "a"), null, 1));
+    }
+
+    @Test
+    public void sampleNoSplitsTest() throws Exception {
+	File inputDir = tempFolder.newFolder("input");
+	Job job = Job.getInstance(new Configuration());
+	FileInputFormat.addInputPath(job, new Path(inputDir.toURI()));
+	job.setNumReduceTasks(2);
+	TermRangePartitioner.sample(job, 10, 10);
+	assertNull(job.getConfiguration().get(TermRangePartitioner.SPLIT_POINTS_KEY));
+    }
+
+    @Test
+    public void splitPointsTest() {
+	List<TermKey> sample = new ArrayList<TermKey>();
+	for (String term : new String[] { "h", "b", "a", "g", "c", "e", "f", "d" }) {
+	    sample.add(key(0, term));
+	}
+	TermKey[] splitPoints = TermRangePartitioner.getSplitPoints(sample, 4);
+	assertEquals(3, splitPoints.length);
+	assertEquals("c", splitPoints[0].getTerm());
+	assertEquals("e", splitPoints[1].getTerm());
+	assertEquals("g", splitPoints[2].getTerm());
+    }
+
+    @Test
+    public void codePointOrderTest() throws IOException {
+	String[] terms = { "", "a", "ab", "b", "\u00e9", "\uffe0", "\ud800\udc00", "\udbff\udfff" };
+	TermKey.Comparator comparator = new TermKey.Comparator();
+	for (int i = 0; i < terms.length; i++) {
+	    for (int j = 0; j < terms.length; j++) {
+		int expected = Integer.signum(Integer.valueOf(i).compareTo(j));
+		assertEquals(terms[i] + " " + terms[j], expected, Integer.signum(TermRangePartitioner.compareCodePoints(terms[i], terms[j])));
+		// Same order as the raw comparator.
+		byte[] b1 = serialize(key(0, terms[i]));
+		byte[] b2 = serialize(key(0, terms[j]));
+		assertEquals(expected, Integer.signum(comparator.compare(b1, 0, b1.length, b2, 0, b2.length)));
+	    }
+	}
+	// Unlike String.compareTo()
+	assertTrue("\uffe0".compareTo("\ud800\udc00") > 0);
+    }
+
+    private static byte[] serialize(TermKey key) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	key.write(new DataOutputStream(bytes));
+	return bytes.toByteArray();
+    }
+
+    private static TermKey key(int index, String term) {
+	return new TermKey(term, index, new TermValue(Type.OCCURRENCE, 0, 0));
+    }
+}
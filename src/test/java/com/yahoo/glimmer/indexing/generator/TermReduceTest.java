@@ -186,6 +186,38 @@ public class TermReduceTest {
 	context.assertIsSatisfied();
     }
     
+    @Test
+    public void postingsTest() throws Exception {
+	context.checking(new Expectations() {{
+	    allowing(reducerContext).setStatus(with(any(String.class)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterTermValueMatcher("term1", 3, 6, 15 + 12 + 300)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterDocValueMatcher(3, 11, 15)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterDocValueMatcher(4, 12)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterDocValueMatcher(7, 0, 200, 300)));
+	}});
+	
+	TermReduce reducer = new TermReduce();
+	reducer.setup(reducerContext);
+	
+	TermKey key = new TermKey("term1", 0, null);
+	ArrayList<TermValue> values = new ArrayList<TermValue>();
+	// The stats are summed from the postings.
+	values.add(new TermValue(3, new int[] {11, 15}, 2));
+	values.add(new TermValue(4, new int[] {12}, 1));
+	values.add(new TermValue(7, new int[] {0, 200, 300, 400}, 3));
+	reducer.reduce(key, values, reducerContext);
+	
+	context.assertIsSatisfied();
+    }
+    
     private static class IndexRecordWriterTermValueMatcher extends BaseMatcher<IndexRecordWriterTermValue> {
 	private final IndexRecordWriterTermValue termValue;
 
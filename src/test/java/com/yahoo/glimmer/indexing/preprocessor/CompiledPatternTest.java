@@ -0,0 +1,86 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class CompiledPatternTest {
+    private static final String[] TEXTS = { "", "<http://dbpedia.org/resource/Berlin>", "<http://dbpedia.org/ontology/city>",
+	    "<http://schema.org/Person>", "<http://xmlns.com/foaf/0.1/name>", "\"Berlin\"@de", "<http://example.org/a.b>",
+	    "<http://example.org/aab>", "ushers", "hers" };
+
+    @Test
+    public void literalsTest() {
+	assertLiterals("^<http://dbpedia\\.org/|^<http://schema\\.org/");
+	assertLiterals("foaf|ontology/c|@de");
+	assertLiterals("^<http://example\\.org/a\\.b>|aab>|\\<http");
+	assertLiterals("he|she|his|hers");
+	assertLiterals("^hers|ushers|^h");
+	assertLiterals("");
+	assertLiterals("^");
+	assertLiterals("xyz|");
+    }
+
+    @Test
+    public void regexTest() {
+	// An unescaped '.' is any char.
+	assertRegex("dbpedia.org");
+	assertRegex("^<http://dbpedia\\.org/.*>$");
+	assertRegex("http(s)?://schema");
+	assertRegex("\\d");
+	assertRegex("a^b");
+	assertRegex("[<]http");
+
+	CompiledPattern compiledPattern = CompiledPattern.compile(Pattern.compile("BERLIN", Pattern.CASE_INSENSITIVE));
+	assertFalse(compiledPattern.isLiterals());
+	assertTrue(compiledPattern.find("\"Berlin\"@de"));
+    }
+
+    @Test
+    public void manyLiteralsTest() {
+	StringBuilder regex = new StringBuilder("^<http://dbpedia\\.org/resource/");
+	for (int i = 0; i < 100; i++) {
+	    regex.append("|^<http://site").append(i).append("\\.org/|/path").append(i).append('>');
+	}
+	CompiledPattern compiledPattern = CompiledPattern.compile(Pattern.compile(regex.toString()));
+	assertTrue(compiledPattern.isLiterals());
+	assertTrue(compiledPattern.find("<http://site42.org/x>"));
+	assertTrue(compiledPattern.find("<http://other.org/path99>"));
+	assertFalse(compiledPattern.find("<http://other.org/site42.org/>"));
+	assertFalse(compiledPattern.find("<http://other.org/path100>"));
+    }
+
+    private static void assertLiterals(String regex) {
+	CompiledPattern compiledPattern = assertSameFinds(regex);
+	assertTrue(regex, compiledPattern.isLiterals());
+    }
+
+    private static void assertRegex(String regex) {
+	CompiledPattern compiledPattern = assertSameFinds(regex);
+	assertFalse(regex, compiledPattern.isLiterals());
+    }
+
+    private static CompiledPattern assertSameFinds(String regex) {
+	Pattern pattern = Pattern.compile(regex);
+	CompiledPattern compiledPattern = CompiledPattern.compile(pattern);
+	for (String text : TEXTS) {
+	    assertEquals(regex + " on " + text, pattern.matcher(text).find(), compiledPattern.find(text));
+	}
+	return compiledPattern;
+    }
+}
@@ -0,0 +1,212 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.NxParser;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper.TupleElementName;
+
+/**
+ * Compares the lines per second of TuplesToResourcesMapper, which parses with
+ * NQuadsTokenizer, with the previous NxParser and java.net.URI based parsing.
+ * The mapper is run with a Context that only counts the bytes written, the
+ * legacy path counts the bytes the mapper wrote with it. The bundled
+ * AbrahamLincoln.tuples is scaled up by repeating it with a different subject
+ * for each copy.
+ *
+ * Not a unit test. Run with:
+ *
+ * <pre>
+ * java -cp ... com.yahoo.glimmer.indexing.preprocessor.NQuadsTokenizerBenchmark [tuples file] [copies]
+ * </pre>
+ */
+public class NQuadsTokenizerBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+	String tuplesFilename = args.length > 0 ? args[0] : "scripts/AbrahamLincoln.tuples";
+	int copies = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+	List<String> tuples = new ArrayList<String>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tuplesFilename), "UTF-8"));
+	String line;
+	while ((line = reader.readLine()) != null) {
+	    tuples.add(line);
+	}
+	reader.close();
+
+	Text[] lines = new Text[tuples.size() * copies];
+	int i = 0;
+	for (int copy = 0; copy < copies; copy++) {
+	    for (String tuple : tuples) {
+		lines[i++] = new Text(tuple.replace("/Abraham_Lincoln>", "/Abraham_Lincoln_" + copy + ">"));
+	    }
+	}
+	System.out.println("Lines:" + lines.length);
+
+	for (int round = 0; round < ROUNDS; round++) {
+	    long start = System.nanoTime();
+	    long currentBytes = current(lines);
+	    long currentNanos = System.nanoTime() - start;
+	    start = System.nanoTime();
+	    long legacyBytes = legacy(lines);
+	    long legacyNanos = System.nanoTime() - start;
+	    System.out.println("Round " + round + " lines per second current:" + linesPerSecond(lines.length, currentNanos) + " legacy:"
+		    + linesPerSecond(lines.length, legacyNanos) + " (bytes written current:" + currentBytes + " legacy:" + legacyBytes + ")");
+	}
+    }
+
+    private static long linesPerSecond(int lines, long nanos) {
+	return lines * 1000000000l / nanos;
+    }
+
+    /**
+     * @return the number of bytes the mapper wrote.
+     */
+    private static long current(Text[] lines) throws IOException, InterruptedException {
+	ByteCountingWriter output = new ByteCountingWriter();
+	MapContextImpl<LongWritable, Text, Text, Object> mapContext = new MapContextImpl<LongWritable, Text, Text, Object>(new Configuration(),
+		new TaskAttemptID(), null, output, null, new CountersReporter(), new FileSplit(new Path("tuples"), 0, 0, null));
+	Mapper<LongWritable, Text, Text, Object>.Context context = new WrappedMapper<LongWritable, Text, Text, Object>().getMapContext(mapContext);
+
+	TuplesToResourcesMapper mapper = new TuplesToResourcesMapper();
+	mapper.setup(context);
+	LongWritable position = new LongWritable();
+	for (Text line : lines) {
+	    mapper.map(position, line, context);
+	    position.set(position.get() + line.getLength() + 1);
+	}
+	return output.bytes;
+    }
+
+    /**
+     * @return the number of bytes the mapper wrote before it used
+     *         NQuadsTokenizer.
+     */
+    private static long legacy(Text[] lines) {
+	StringBuilder relation = new StringBuilder();
+	long bytes = 0;
+	for (Text line : lines) {
+	    Node[] nodes;
+	    try {
+		nodes = NxParser.parseNodes(line.toString().trim());
+	    } catch (ParseException e) {
+		continue;
+	    }
+	    if (nodes.length < 3 || nodes.length > 5) {
+		continue;
+	    }
+	    int elementCount = Math.min(nodes.length, 4);
+	    boolean valid = true;
+	    for (int i = 0; i < elementCount; i++) {
+		if (nodes[i] instanceof Resource) {
+		    try {
+			new URI(nodes[i].toString());
+		    } catch (URISyntaxException e) {
+			valid = false;
+		    }
+		}
+	    }
+	    if (!valid || !(nodes[0] instanceof Resource || nodes[0] instanceof BNode) || !(nodes[1] instanceof Resource)) {
+		continue;
+	    }
+	    Text subject = new Text(nodes[0].toString());
+
+	    bytes += new Text(nodes[1].toString()).getLength() + TupleElementName.PREDICATE.name().length();
+	    relation.setLength(0);
+	    relation.append(nodes[1].toN3());
+	    if (nodes[2] instanceof Resource || nodes[2] instanceof BNode) {
+		bytes += new Text(nodes[2].toString()).getLength() + TupleElementName.OBJECT.name().length();
+	    }
+	    relation.append(' ');
+	    relation.append(nodes[2].toN3());
+	    if (elementCount > 3 && nodes[3] instanceof Resource) {
+		bytes += new Text(nodes[3].toString()).getLength() + TupleElementName.CONTEXT.name().length();
+		relation.append(' ');
+		relation.append(nodes[3].toN3());
+	    }
+	    relation.append(" .");
+	    bytes += subject.getLength() + new Text(relation.toString()).getLength();
+	}
+	return bytes;
+    }
+
+    private static class ByteCountingWriter extends RecordWriter<Text, Object> {
+	private long bytes;
+
+	@Override
+	public void write(Text key, Object value) {
+	    bytes += key.getLength();
+	    if (value instanceof Text) {
+		bytes += ((Text) value).getLength();
+	    }
+	}
+
+	@Override
+	public void close(TaskAttemptContext context) {
+	}
+    }
+
+    private static class CountersReporter extends StatusReporter {
+	private final Counters counters = new Counters();
+
+	@Override
+	public Counter getCounter(Enum<?> name) {
+	    return counters.findCounter(name);
+	}
+
+	@Override
+	public Counter getCounter(String group, String name) {
+	    return counters.findCounter(group, name);
+	}
+
+	@Override
+	public void progress() {
+	}
+
+	@Override
+	public float getProgress() {
+	    return 0;
+	}
+
+	@Override
+	public void setStatus(String status) {
+	}
+    }
+}
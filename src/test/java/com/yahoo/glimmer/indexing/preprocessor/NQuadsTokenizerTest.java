@@ -0,0 +1,99 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import com.yahoo.glimmer.indexing.preprocessor.TupleElement.Type;
+
+public class NQuadsTokenizerTest {
+    private NQuadsTokenizer tokenizer = new NQuadsTokenizer(5);
+
+    @Test
+    public void quadTest() throws IOException {
+	assertEquals(4, tokenizer.tokenize(new Text("  <http://s/1> <http://p/1>\t_:b1 <http://c/1> .  ")));
+	assertNode(0, Type.RESOURCE, "http://s/1", "<http://s/1>");
+	assertNode(1, Type.RESOURCE, "http://p/1", "<http://p/1>");
+	assertNode(2, Type.BNODE, "b1", "_:b1");
+	assertNode(3, Type.RESOURCE, "http://c/1", "<http://c/1>");
+
+	// No spaces before the final dot.
+	assertEquals(3, tokenizer.tokenize(new Text("_:s <http://p/1> _:o.")));
+	assertNode(0, Type.BNODE, "s", "_:s");
+	assertNode(2, Type.BNODE, "o", "_:o");
+	assertEquals(3, tokenizer.tokenize(new Text("_:s <http://p/1> <http://o/1>.")));
+	assertNode(2, Type.RESOURCE, "http://o/1", "<http://o/1>");
+    }
+
+    @Test
+    public void literalsTest() throws IOException {
+	assertEquals(3, tokenizer.tokenize(new Text("<http://s/1> <http://p/1> \"a \\\"quoted\\\" \u00e9t\u00e9\" .")));
+	assertNode(2, Type.LITERAL, "a \\\"quoted\\\" \u00e9t\u00e9", "\"a \\\"quoted\\\" \u00e9t\u00e9\"");
+
+	assertEquals(4, tokenizer.tokenize(new Text("<http://s/1> <http://p/1> \"Ray\"@en-GB <http://c/1> .")));
+	assertNode(2, Type.LITERAL, "Ray", "\"Ray\"@en-GB");
+
+	assertEquals(3, tokenizer.tokenize(new Text("<http://s/1> <http://p/1> \"27\"^^<http://www.w3.org/2001/XMLSchema#integer>.")));
+	assertNode(2, Type.LITERAL, "27", "\"27\"^^<http://www.w3.org/2001/XMLSchema#integer>");
+
+	assertEquals(3, tokenizer.tokenize(new Text("<http://s/1> <http://p/1> \"\" .")));
+	assertNode(2, Type.LITERAL, "", "\"\"");
+    }
+
+    @Test
+    public void badLinesTest() {
+	assertEquals(0, tokenizer.tokenize(new Text("")));
+	assertEquals(0, tokenizer.tokenize(new Text(" \t")));
+	assertEquals(0, tokenizer.tokenize(new Text("# <http://s/1> <http://p/1> <http://o/1> .")));
+
+	assertEquals(-1, tokenizer.tokenize(new Text("<http://s/1> <http://p/1> \"unterminated .")));
+	assertEquals(-1, tokenizer.tokenize(new Text("<http://s/1> <http://p/1 \"o\" .")));
+	assertEquals(-1, tokenizer.tokenize(new Text("<http://s/1><http://p/1> \"o\" .")));
+	assertEquals(-1, tokenizer.tokenize(new Text("<http://s/1> <http://p/1> \"o\" . <http://o/1>")));
+	assertEquals(-1, tokenizer.tokenize(new Text("<http://s/1> p \"o\" .")));
+	assertEquals(-1, tokenizer.tokenize(new Text("_: <http://p/1> \"o\" .")));
+
+	assertEquals(6, tokenizer.tokenize(new Text("_:a _:b _:c _:d _:e _:f .")));
+    }
+
+    @Test
+    public void validResourceTest() {
+	assertTrue(isValidResource("http://a/b?c=d&e=%20f#g"));
+	assertTrue(isValidResource("urn:x"));
+	assertTrue(isValidResource("http://a/\u00e9t\u00e9"));
+	assertFalse(isValidResource("http://a/b c"));
+	assertFalse(isValidResource("http://a/b{c}"));
+	assertFalse(isValidResource("http://a/b|c"));
+	assertFalse(isValidResource("http://a/b\\c"));
+	assertFalse(isValidResource("http://a/b%2"));
+	assertFalse(isValidResource("http://a/b%zz"));
+	assertFalse(isValidResource("http://a/b#c#d"));
+    }
+
+    private boolean isValidResource(String resource) {
+	assertEquals(3, tokenizer.tokenize(new Text("<" + resource + "> <http://p/1> \"o\" .")));
+	return tokenizer.isValidResource(0);
+    }
+
+    private void assertNode(int node, Type type, String text, String n3) throws IOException {
+	assertEquals(type, tokenizer.getType(node));
+	assertEquals(text, tokenizer.getTextString(node));
+	assertEquals(n3, tokenizer.getN3String(node));
+    }
+}
@@ -0,0 +1,210 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.fastutil.io.BinIO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.itadaki.bzip2.BZip2InputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OUTPUT;
+import com.yahoo.glimmer.util.BlockCompressedDocumentCollection;
+import com.yahoo.glimmer.util.BlockOffsets;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.LocalMapReduce;
+
+public class PrepToolTest {
+    private static final int SUBJECTS = 40;
+    private static final int PARTITIONS = 3;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Configuration conf;
+    private FileSystem fs;
+    private LocalMapReduce mapReduce;
+    private Path input;
+
+    @Before
+    public void before() throws IOException {
+	conf = new Configuration();
+	conf.set("fs.defaultFS", "file:///");
+	fs = FileSystem.getLocal(conf);
+	mapReduce = new LocalMapReduce(2, 64 * 1024, 0, tempFolder.newFolder("tmp"));
+
+	// The object only resources sort before the predicates and subjects,
+	// so some partitions start, or are made up of, resources that aren't
+	// subjects.
+	File inputFile = tempFolder.newFile("input.nt");
+	Writer writer = new OutputStreamWriter(new FileOutputStream(inputFile), "UTF-8");
+	try {
+	    for (int i = 0; i < SUBJECTS; i++) {
+		String subject = String.format("<http://s/%02d>", i);
+		writer.write(subject + " <http://p/" + i % 3 + "> " + String.format("<http://o/%02d>", i * 7 % SUBJECTS) + " .\n");
+		writer.write(subject + " <http://p/name> \"name " + i + "\" .\n");
+		if (i % 4 == 0) {
+		    // A subject that is also an object.
+		    writer.write(String.format("<http://o/%02d>", i) + " <http://p/sameAs> " + subject + " .\n");
+		}
+	    }
+	} finally {
+	    writer.close();
+	}
+	input = new Path(inputFile.toURI());
+	// Several map tasks.
+	conf.setLong(FileInputFormat.SPLIT_MAXSIZE, inputFile.length() / 4);
+    }
+
+    private File runSingleReducer() throws Exception {
+	File outputDir = new File(tempFolder.getRoot(), "single");
+	Job job = PrepTool.createJob(new Configuration(conf), input, new Path(outputDir.toURI()), 1);
+	mapReduce.run(job);
+	return new File(outputDir, "part-r-00000");
+    }
+
+    /**
+     * Runs the count job and the PrepTool job range partitioned as the
+     * LocalIndexBuilder does.
+     */
+    private File runPartitioned() throws Exception {
+	File outputDir = new File(tempFolder.getRoot(), "partitioned");
+	Configuration prepConf = new Configuration(conf);
+	Path countsDir = new Path(new File(tempFolder.getRoot(), "counts").toURI());
+	Path partitionFile = new Path(new File(tempFolder.getRoot(), "partitions").toURI());
+
+	Job countJob = PrepTool.createCountJob(prepConf, input, countsDir, partitionFile, PARTITIONS);
+	mapReduce.run(countJob);
+	int reducerCount = countJob.getNumReduceTasks();
+	assertEquals(PARTITIONS, reducerCount);
+	PrepTool.setDocIdOffsets(fs, countsDir, reducerCount, prepConf);
+
+	Job job = PrepTool.createJob(prepConf, input, new Path(outputDir.toURI()), reducerCount);
+	ResourceSampler.setPartitionFile(job, partitionFile);
+	mapReduce.run(job);
+
+	PrepTool.concatenateParts(fs, new Path(outputDir.toURI()), reducerCount);
+	return outputDir;
+    }
+
+    @Test
+    public void partitionedTest() throws Exception {
+	File expectedDir = runSingleReducer();
+	File actualDir = runPartitioned();
+
+	for (OUTPUT output : OUTPUT.values()) {
+	    File expected = new File(expectedDir, output.filename);
+	    if (expected.exists()) {
+		assertTrue(output.filename, FileUtils.contentEquals(expected, new File(actualDir, output.filename)));
+	    }
+	}
+	List<String> resources = FileUtils.readLines(new File(actualDir, "all"), "UTF-8");
+	assertEquals(SUBJECTS * 2 + 5, resources.size());
+
+	// The concatenated bz2 streams read as one.
+	String expectedRecords = readBySubject(expectedDir);
+	String actualRecords = readBySubject(actualDir);
+	assertEquals(expectedRecords, actualRecords);
+
+	// The previous ids are global, also for the first record of each
+	// partition.
+	List<BySubjectRecord> records = parseRecords(actualRecords);
+	assertEquals(SUBJECTS + SUBJECTS / 4, records.size());
+	long previousId = -1;
+	for (BySubjectRecord record : records) {
+	    assertEquals(record.getSubject(), previousId, record.getPreviousId());
+	    assertEquals(record.getSubject(), resources.get((int) record.getId()));
+	    previousId = record.getId();
+	}
+
+	// Each doc is found with the concatenated block offsets.
+	BlockOffsets expectedOffsets = loadBlockOffsets(expectedDir);
+	BlockOffsets actualOffsets = loadBlockOffsets(actualDir);
+	assertEquals(expectedOffsets.getDocCount(), actualOffsets.getDocCount());
+	assertEquals(expectedOffsets.getLastDocId(), actualOffsets.getLastDocId());
+	assertEquals(new File(actualDir, PrepTool.BY_SUBJECT_BZ2).length() * 8, actualOffsets.getFileSizeInBits());
+
+	BlockCompressedDocumentCollection expectedCollection = openCollection(expectedDir);
+	BlockCompressedDocumentCollection actualCollection = openCollection(actualDir);
+	try {
+	    for (BySubjectRecord record : records) {
+		String expected = IOUtils.toString(expectedCollection.stream(record.getId()), "UTF-8");
+		assertTrue(expected.startsWith(record.getId() + "\t"));
+		assertEquals(expected, IOUtils.toString(actualCollection.stream(record.getId()), "UTF-8"));
+	    }
+	} finally {
+	    expectedCollection.close();
+	    actualCollection.close();
+	}
+    }
+
+    private static String readBySubject(File dir) throws IOException {
+	InputStream inputStream = new BZip2InputStream(new FileInputStream(new File(dir, PrepTool.BY_SUBJECT_BZ2)), false);
+	try {
+	    return IOUtils.toString(inputStream, "UTF-8");
+	} finally {
+	    inputStream.close();
+	}
+    }
+
+    private static List<BySubjectRecord> parseRecords(String records) throws Exception {
+	List<BySubjectRecord> parsed = new ArrayList<BySubjectRecord>();
+	BufferedReader reader = new BufferedReader(new StringReader(records));
+	String line;
+	while ((line = reader.readLine()) != null) {
+	    if (!line.isEmpty()) {
+		BySubjectRecord record = new BySubjectRecord();
+		record.readFrom(new StringReader(line));
+		parsed.add(record);
+	    }
+	}
+	return parsed;
+    }
+
+    private static BlockOffsets loadBlockOffsets(File dir) throws Exception {
+	InputStream inputStream = new FileInputStream(new File(dir, PrepTool.BY_SUBJECT_BLOCK_OFFSETS));
+	try {
+	    return (BlockOffsets) BinIO.loadObject(inputStream);
+	} finally {
+	    inputStream.close();
+	}
+    }
+
+    private static BlockCompressedDocumentCollection openCollection(File dir) throws IOException {
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", null, 10);
+	collection.filename(new File(dir, PrepTool.BY_SUBJECT_BZ2).getPath());
+	return collection;
+    }
+}
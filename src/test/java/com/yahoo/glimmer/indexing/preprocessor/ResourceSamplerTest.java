@@ -0,0 +1,44 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class ResourceSamplerTest {
+    @Test
+    public void splitPointsTest() {
+	List<String> sample = new ArrayList<String>();
+	for (int i = 19; i >= 0; i--) {
+	    sample.add("http://a/" + (char) ('a' + i));
+	}
+	List<Text> splitPoints = ResourceSampler.getSplitPoints(sample, 4);
+	assertEquals(Arrays.asList(new Text("http://a/f"), new Text("http://a/k"), new Text("http://a/p")), splitPoints);
+    }
+
+    @Test
+    public void duplicateSplitPointsTest() {
+	List<String> sample = Arrays.asList("http://a/b", "http://a/b", "http://a/b", "http://a/b", "http://a/c", "http://a/c");
+	// Split points are distinct so there are fewer than requested.
+	List<Text> splitPoints = ResourceSampler.getSplitPoints(sample, 3);
+	assertEquals(Arrays.asList(new Text("http://a/b"), new Text("http://a/c")), splitPoints);
+
+	splitPoints = ResourceSampler.getSplitPoints(Arrays.asList("http://a/b", "http://a/b"), 3);
+	assertEquals(Arrays.asList(new Text("http://a/b")), splitPoints);
+    }
+}
@@ -12,6 +12,8 @@ package com.yahoo.glimmer.indexing.preprocessor;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -175,6 +177,70 @@ public class ResourcesReducerTest {
 	assertEquals(0l, keyObjectCounter.getValue());
     }
 
+    @Test
+    public void combinedCountsText() throws IOException, InterruptedException {
+	context.checking(new Expectations() {
+	    {
+		one(mrContext).getCounter(ResourcesReducer.Counters.KEYS);
+		will(returnValue(keysCounter));
+		allowing(mrContext).getCounter(ResourcesReducer.Counters.VALUES);
+		will(returnValue(valuesCounter));
+		allowing(mrContext).getCounter(ResourcesReducer.Counters.KEY_PREDICATE);
+		will(returnValue(keyPredicateCounter));
+		allowing(mrContext).getCounter(ResourcesReducer.Counters.KEY_OBJECT);
+		will(returnValue(keyObjectCounter));
+		one(mrContext).write(with(new TextMatcher("http://some/resource/uri")), with(new OutputCountMatcher(OUTPUT.ALL, 0)));
+		one(mrContext).write(with(new TextMatcher("http://some/resource/uri")), with(new OutputCountMatcher(OUTPUT.PREDICATE, 7)));
+		one(mrContext).write(with(new TextMatcher("http://some/resource/uri")), with(new OutputCountMatcher(OUTPUT.OBJECT, 2)));
+	    }
+	});
+	ResourcesReducer reducer = new ResourcesReducer();
+
+	// What the Combiner writes for "PREDICATE", "PREDICATE", "OBJECT",
+	// "PREDICATE".
+	ResourceRoleCounts roleCounts = new ResourceRoleCounts();
+	for (String value : new String[] { "PREDICATE", "PREDICATE", "OBJECT", "PREDICATE" }) {
+	    roleCounts.add(new Text(value));
+	}
+	Text countsText = new Text();
+	roleCounts.write(countsText);
+	String counts = new String(countsText.getBytes(), 0, countsText.getLength(), "UTF-8");
+
+	Iterable<Text> values = new TextReuseIterable(counts, "PREDICATE", counts);
+
+	reducer.reduce(new Text("http://some/resource/uri"), values, mrContext);
+	context.assertIsSatisfied();
+	assertEquals(1l, keysCounter.getValue());
+	assertEquals(3l, valuesCounter.getValue());
+	assertEquals(0l, keySubjectCounter.getValue());
+	assertEquals(7l, keyPredicateCounter.getValue());
+	assertEquals(2l, keyObjectCounter.getValue());
+	assertEquals(0l, keyContextCounter.getValue());
+    }
+
+    @Test
+    public void roleCountsTest() throws IOException {
+	ResourceRoleCounts roleCounts = new ResourceRoleCounts();
+	assertTrue(roleCounts.isEmpty());
+	assertTrue(roleCounts.add(new Text("CONTEXT")));
+	assertFalse(roleCounts.add(new Text("<http://some/predicate/uri/1> <http://some/object/uri1> .")));
+	assertFalse(roleCounts.add(new Text("")));
+	assertFalse(roleCounts.isEmpty());
+
+	Text countsText = new Text();
+	roleCounts.write(countsText);
+	// Double the counts, past the range of an int.
+	for (int i = 0; i < 32; i++) {
+	    assertTrue(roleCounts.add(countsText));
+	    roleCounts.write(countsText);
+	}
+	ResourceRoleCounts sum = new ResourceRoleCounts();
+	assertTrue(sum.add(countsText));
+	assertEquals(0, sum.getPredicateCount());
+	assertEquals(0, sum.getObjectCount());
+	assertEquals(1l << 32, sum.getContextCount());
+    }
+
     @Test
     public void objectText() throws IOException, InterruptedException {
 	context.checking(new Expectations() {
@@ -24,7 +24,6 @@ import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 
 import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper;
@@ -33,7 +32,8 @@ import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper.Counters;
 public class TuplesToResourcesMapperTest {
     private Mockery context;
     private Mapper<LongWritable,Text,Text,Object>.Context mrContext;
-    private Counter nxParserExceptionCounter;
+    private Counter parseExceptionCounter;
+    private Counter invalidResourceCounter;
     private InputSplit inputSplit;
     
     @SuppressWarnings("unchecked")
@@ -42,7 +42,8 @@ public class TuplesToResourcesMapperTest {
 	context = new Mockery();
 	context.setImposteriser(ClassImposteriser.INSTANCE);
 	mrContext = context.mock(Mapper.Context.class, "mrContext");
-	nxParserExceptionCounter = context.mock(Counter.class, "nxParserExceptionCounter");
+	parseExceptionCounter = context.mock(Counter.class, "parseExceptionCounter");
+	invalidResourceCounter = context.mock(Counter.class, "invalidResourceCounter");
 	inputSplit = new FileSplit(new Path("split1"), 5, 1000, new String[]{"host1"});
     }
     
@@ -106,21 +107,14 @@ public class TuplesToResourcesMapperTest {
 	context.assertIsSatisfied();
     }
     
-    /*
-     * NxParser 1.2.2 fails with typed literals. The map method should remove the type and try again. 
-     */
-    @Ignore
     @Test
-    public void qualifiedIntNxp122Test() throws IOException, InterruptedException {
+    public void qualifiedIntTest() throws IOException, InterruptedException {
 	context.checking(new Expectations(){{
 	    allowing(mrContext).getInputSplit();
 	    will(returnValue(inputSplit));
 	    
-	    one(mrContext).getCounter(Counters.NX_PARSER_EXCEPTION);
-	    will(returnValue(nxParserExceptionCounter));
-	    one(nxParserExceptionCounter).increment(1l);
 	    one(mrContext).write(with(new TextMatcher("http://www.example.org/terms/age")), with(new TextMatcher("PREDICATE")));
-	    one(mrContext).write(with(new TextMatcher("http://www.example.org/staffid/85740")), with(new TextMatcher("<http://www.example.org/terms/age> \"27\" .")));
+	    one(mrContext).write(with(new TextMatcher("http://www.example.org/staffid/85740")), with(new TextMatcher("<http://www.example.org/terms/age> \"27\"^^<http://www.w3.org/2001/XMLSchema#integer> .")));
 	}});
 	TuplesToResourcesMapper mapper = new TuplesToResourcesMapper();
 	mapper.map(new LongWritable(5l), new Text(
@@ -129,17 +123,31 @@ public class TuplesToResourcesMapperTest {
     }
     
     @Test
-    public void qualifiedIntNxp123Test() throws IOException, InterruptedException {
+    public void badLinesTest() throws IOException, InterruptedException {
 	context.checking(new Expectations(){{
 	    allowing(mrContext).getInputSplit();
 	    will(returnValue(inputSplit));
 	    
-	    one(mrContext).write(with(new TextMatcher("http://www.example.org/terms/age")), with(new TextMatcher("PREDICATE")));
-	    one(mrContext).write(with(new TextMatcher("http://www.example.org/staffid/85740")), with(new TextMatcher("<http://www.example.org/terms/age> \"27\"^^<http://www.w3.org/2001/XMLSchema#integer> .")));
+	    exactly(2).of(mrContext).getCounter(Counters.PARSE_EXCEPTION);
+	    will(returnValue(parseExceptionCounter));
+	    exactly(2).of(parseExceptionCounter).increment(1l);
+	    one(mrContext).getCounter(Counters.INVALID_RESOURCE);
+	    will(returnValue(invalidResourceCounter));
+	    one(invalidResourceCounter).increment(1l);
 	}});
 	TuplesToResourcesMapper mapper = new TuplesToResourcesMapper();
+	// Unterminated literal.
 	mapper.map(new LongWritable(5l), new Text(
-		"<http://www.example.org/staffid/85740>  <http://www.example.org/terms/age> \"27\"^^<http://www.w3.org/2001/XMLSchema#integer> ."), mrContext);
+		"<http://www.example.org/staffid/85740> <http://www.example.org/terms/name> \"Smith ."), mrContext);
+	// Missing space between nodes.
+	mapper.map(new LongWritable(6l), new Text(
+		"<http://www.example.org/staffid/85740><http://www.example.org/terms/name> \"Smith\" ."), mrContext);
+	// Space in a resource.
+	mapper.map(new LongWritable(7l), new Text(
+		"<http://www.example.org/staffid/85 740> <http://www.example.org/terms/name> \"Smith\" ."), mrContext);
+	// Empty and comment lines are skipped.
+	mapper.map(new LongWritable(8l), new Text("  "), mrContext);
+	mapper.map(new LongWritable(9l), new Text("# A comment"), mrContext);
 	context.assertIsSatisfied();
     }
     
@@ -0,0 +1,308 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.indexing.generator.DeltaIndexBuilder;
+import com.yahoo.glimmer.indexing.generator.LocalIndexBuilder;
+import com.yahoo.glimmer.query.RDFIndex.DocumentIds;
+
+public class RDFIndexTest {
+    private static final String BASE_TUPLES = "<http://a/1> <http://p/name> \"alpha one\" .\n" //
+	    + "<http://a/2> <http://p/name> \"alpha two\" .\n" //
+	    + "<http://a/3> <http://p/name> \"alpha three\" .\n";
+    // a/2 is replaced, a/3 is deleted and a/4 is new.
+    private static final String DELTA_TUPLES = "<http://a/2> <http://p/name> \"beta two\" .\n" //
+	    + "<http://a/4> <http://p/name> \"alpha four\" .\n";
+    private static final String DELETES = "http://a/2\nhttp://a/3\n";
+
+    private static final int SORT_BUFFER_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File kbDir;
+    private RDFIndex index;
+
+    private Context newContext(Properties properties) throws IOException {
+	File contextFile = tempFolder.newFile();
+	OutputStream contextOutputStream = new FileOutputStream(contextFile);
+	try {
+	    properties.store(contextOutputStream, null);
+	} finally {
+	    contextOutputStream.close();
+	}
+	return new Context(contextFile.getPath());
+    }
+
+    /**
+     * Builds a base and a delta with a replaced, a deleted and a new subject.
+     */
+    private void openIndexWithDelta() throws Exception {
+	openIndex(BASE_TUPLES, DELTA_TUPLES, DELETES);
+    }
+
+    /**
+     * @param deltaTuples
+     *            null to only build the base.
+     */
+    private void openIndex(String baseTuples, String deltaTuples, String deletes) throws Exception {
+	kbDir = new File(tempFolder.getRoot(), "kb");
+	new LocalIndexBuilder(kbDir, 2, 1, SORT_BUFFER_SIZE).build(writeFile("base.nt", baseTuples));
+	if (deltaTuples != null) {
+	    new DeltaIndexBuilder(kbDir, 2, 1, SORT_BUFFER_SIZE).build(writeFile("delta.nt", deltaTuples), writeFile("deletes.txt", deletes));
+	}
+
+	Properties properties = new Properties();
+	properties.setProperty("kb.root", kbDir.getPath());
+	properties.setProperty("ontology.path", "schemaDotOrg.owl");
+	index = new RDFIndex("test", newContext(properties));
+    }
+
+    @After
+    public void after() {
+	if (index != null) {
+	    index.destroy();
+	}
+    }
+
+    private String writeFile(String filename, String content) throws IOException {
+	File file = new File(tempFolder.getRoot(), filename);
+	FileUtils.writeStringToFile(file, content, "UTF-8");
+	return file.getPath();
+    }
+
+    private Query parse(String query) throws Exception {
+	return index.getParser().parse(query);
+    }
+
+    private List<String> subjects(ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results) {
+	List<String> subjects = new ArrayList<String>();
+	for (DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi : results) {
+	    subjects.add(index.lookupResourceById(dsi.document));
+	    assertNull(dsi.info);
+	}
+	return subjects;
+    }
+
+    private List<String> search(int offset, int length, Query... queries) throws Exception {
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	index.process(offset, length, results, queries);
+	return subjects(results);
+    }
+
+    private List<String> export(Query query) throws Exception {
+	List<String> subjects = new ArrayList<String>();
+	DocumentIds documentIds = index.getDocumentIds(query);
+	try {
+	    long previous = -1;
+	    long document;
+	    while ((document = documentIds.nextDocument()) != DocumentIterator.END_OF_LIST) {
+		assertTrue(document > previous);
+		previous = document;
+		subjects.add(index.lookupResourceById(document));
+	    }
+	} finally {
+	    documentIds.dispose();
+	}
+	return subjects;
+    }
+
+    @Test
+    public void deltaSearchTest() throws Exception {
+	openIndexWithDelta();
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	// a/2 and a/3 are masked in the base.
+	assertEquals(2, index.process(0, 10, results, parse("alpha")));
+	List<String> subjects = subjects(results);
+	assertEquals(2, subjects.size());
+	assertTrue(subjects.containsAll(Arrays.asList("http://a/1", "http://a/4")));
+
+	// Only the delta's record of a/2 matches.
+	assertEquals(Arrays.asList("http://a/2"), search(0, 10, parse("beta")));
+	assertEquals(Arrays.asList("http://a/2"), search(0, 10, parse("two")));
+	assertEquals(Arrays.asList(), search(0, 10, parse("three")));
+	assertEquals(Arrays.asList("http://a/4"), search(0, 10, parse("four")));
+
+	// Pages are slices of the merged ranking.
+	assertEquals(subjects.subList(1, 2), search(1, 1, parse("alpha")));
+	assertEquals(Arrays.asList(), search(2, 1, parse("alpha")));
+    }
+
+    @Test
+    public void deltaMultipleQueriesTest() throws Exception {
+	openIndexWithDelta();
+	// As with the QueryEngine, a later query only adds the documents that
+	// the earlier ones didn't return.
+	List<String> subjects = search(0, 10, parse("beta"), parse("two"), parse("alpha"));
+	assertEquals(3, subjects.size());
+	assertEquals("http://a/2", subjects.get(0));
+	assertTrue(subjects.containsAll(Arrays.asList("http://a/1", "http://a/4")));
+
+	assertEquals(subjects.subList(0, 2), search(0, 2, parse("beta"), parse("two"), parse("alpha")));
+	assertEquals(subjects.subList(1, 3), search(1, 5, parse("beta"), parse("two"), parse("alpha")));
+	assertEquals(Arrays.asList(), search(0, 10, parse("three"), parse("gamma")));
+    }
+
+    @Test
+    public void deltaExportTest() throws Exception {
+	openIndexWithDelta();
+	List<String> subjects = export(parse("alpha"));
+	assertEquals(2, subjects.size());
+	assertTrue(subjects.containsAll(Arrays.asList("http://a/1", "http://a/4")));
+
+	assertEquals(Arrays.asList("http://a/2"), export(parse("two")));
+	assertEquals(Arrays.asList(), export(parse("three")));
+    }
+
+    @Test
+    public void deltaResourcesTest() throws Exception {
+	openIndexWithDelta();
+	// The new resource has an id after the base's.
+	String a4Id = index.lookupIdByResourceId("http://a/4");
+	String a1Id = index.lookupIdByResourceId("http://a/1");
+	assertTrue(Long.parseLong(a4Id.substring(1)) > Long.parseLong(a1Id.substring(1)));
+	assertEquals("http://a/4", index.lookupResourceById(Long.parseLong(a4Id.substring(1))));
+	assertEquals("http://a/2", index.lookupResourceById(Long.parseLong(index.lookupIdByResourceId("http://a/2").substring(1))));
+    }
+
+    /**
+     * Pages through the results of the query with processAfter(), each page
+     * starting after the last result of the previous one.
+     */
+    private ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> pageAfter(Query query, int length, int expectedCount)
+	    throws Exception {
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> all = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	double afterScore = 0;
+	long afterDocument = -1;
+	while (true) {
+	    ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> page = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	    assertEquals(expectedCount, index.processAfter(afterScore, afterDocument, length, page, query));
+	    assertTrue(page.size() <= length);
+	    if (page.isEmpty()) {
+		return all;
+	    }
+	    for (DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi : page) {
+		if (!all.isEmpty()) {
+		    assertTrue(RDFIndex.RANK_ORDER.compare(all.get(all.size() - 1), dsi) < 0);
+		}
+		all.add(dsi);
+	    }
+	    DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> last = page.get(page.size() - 1);
+	    afterScore = last.score;
+	    afterDocument = last.document;
+	}
+    }
+
+    @Test
+    public void processAfterTiesTest() throws Exception {
+	// Subjects with the same literal get the same score.
+	StringBuilder tuples = new StringBuilder();
+	for (int i = 0; i < 9; i++) {
+	    tuples.append("<http://c/").append(i).append("> <http://p/name> \"").append(i % 3 == 0 ? "gamma delta" : "gamma").append("\" .\n");
+	}
+	openIndex(tuples.toString(), null, null);
+	Query query = parse("gamma");
+
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> expected = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	assertEquals(9, index.process(0, 100, expected, query));
+	assertEquals(9, expected.size());
+	Collections.sort(expected, RDFIndex.RANK_ORDER);
+	int ties = 0;
+	for (int i = 1; i < expected.size(); i++) {
+	    if (expected.get(i - 1).score == expected.get(i).score) {
+		ties++;
+	    }
+	}
+	assertTrue(ties > 0);
+
+	// Pages that split runs of equal scores have no duplicates and no
+	// gaps, and are scored as process() scores.
+	for (int length : new int[] { 1, 2, 4, 9, 20 }) {
+	    ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> actual = pageAfter(query, length, 9);
+	    assertEquals(expected.size(), actual.size());
+	    for (int i = 0; i < expected.size(); i++) {
+		assertEquals(expected.get(i).document, actual.get(i).document);
+		assertEquals(expected.get(i).score, actual.get(i).score, 1e-9);
+	    }
+	}
+    }
+
+    @Test
+    public void deltaProcessAfterTest() throws Exception {
+	openIndexWithDelta();
+	Query query = parse("alpha");
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> expected = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	index.process(0, 10, expected, query);
+
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> actual = pageAfter(query, 1, 2);
+	assertEquals(subjects(expected), subjects(actual));
+    }
+
+    @Test
+    public void loadWeightsTest() throws Exception {
+	Mockery context = new Mockery();
+	context.setImposteriser(ClassImposteriser.INSTANCE);
+	Object2ReferenceOpenHashMap<String, Index> indexMap = new Object2ReferenceOpenHashMap<String, Index>();
+	for (String field : new String[] { "subject", "predicate", "object" }) {
+	    indexMap.put(field, context.mock(Index.class, field));
+	}
+	Properties properties = new Properties();
+	properties.setProperty("w.object", SetDocumentPriors.IMPORTANT);
+	properties.setProperty("w.predicate", SetDocumentPriors.NEUTRAL);
+	Context indexContext = newContext(properties);
+
+	Reference2DoubleOpenHashMap<Index> weights = RDFIndex.loadWeights(indexContext, indexMap);
+	assertEquals(1.4 * 3, weights.getDouble(indexMap.get("object")), 1e-9);
+	assertEquals(1.0 * 3, weights.getDouble(indexMap.get("predicate")), 1e-9);
+	assertEquals(0.6 * 3, weights.getDouble(indexMap.get("subject")), 1e-9);
+
+	// The predicateObject index gets the object's weight and doesn't change
+	// the weights of the others.
+	indexMap.put("predicateObject", context.mock(Index.class, "predicateObject"));
+	Reference2DoubleOpenHashMap<Index> withPredicateObjectWeights = RDFIndex.loadWeights(indexContext, indexMap);
+	for (String field : new String[] { "subject", "predicate", "object" }) {
+	    assertEquals(field, weights.getDouble(indexMap.get(field)), withPredicateObjectWeights.getDouble(indexMap.get(field)), 0);
+	}
+	assertEquals(1.4 * 3, withPredicateObjectWeights.getDouble(indexMap.get("predicateObject")), 1e-9);
+    }
+}
@@ -0,0 +1,86 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import it.unimi.di.big.mg4j.index.NullTermProcessor;
+import it.unimi.di.big.mg4j.index.TermProcessor;
+import it.unimi.di.big.mg4j.query.nodes.Align;
+import it.unimi.di.big.mg4j.query.nodes.Consecutive;
+import it.unimi.di.big.mg4j.query.nodes.Or;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.Select;
+import it.unimi.di.big.mg4j.query.nodes.Term;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RDFQueryParserTest {
+    private Object2LongOpenHashMap<CharSequence> resourcesMap;
+
+    @Before
+    public void before() {
+	resourcesMap = new Object2LongOpenHashMap<CharSequence>();
+	resourcesMap.defaultReturnValue(-1);
+	resourcesMap.put("http://p/name", 12);
+    }
+
+    private RDFQueryParser newParser(String... fields) {
+	Map<String, String> fieldNameSuffixToFieldNameMap = new LinkedHashMap<String, String>();
+	Map<String, TermProcessor> termProcessors = new HashMap<String, TermProcessor>();
+	for (String field : fields) {
+	    fieldNameSuffixToFieldNameMap.put(field, field);
+	    termProcessors.put(field, NullTermProcessor.getInstance());
+	}
+	return new RDFQueryParser(null, Collections.<String> emptyList(), fieldNameSuffixToFieldNameMap, "object", termProcessors, resourcesMap);
+    }
+
+    private static void assertQuery(Query expected, Query actual) {
+	assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void predicateObjectTermTest() throws Exception {
+	RDFQueryParser parser = newParser("subject", "predicate", "object", "predicateObject");
+	assertQuery(new Select("predicateObject", new Term("12:berlin")), parser.parse("predicate:(http://p/name) ^ object:berlin"));
+	assertQuery(new Select("predicateObject", new Term("12:berlin")), parser.parse("predicate:12 ^ object:berlin"));
+    }
+
+    @Test
+    public void predicateObjectOrTest() throws Exception {
+	RDFQueryParser parser = newParser("subject", "predicate", "object", "predicateObject");
+	assertQuery(new Select("predicateObject", new Or(new Term("12:berlin"), new Term("12:paris"))),
+		parser.parse("predicate:12 ^ object:(berlin | paris)"));
+    }
+
+    @Test
+    public void alignFallbackTest() throws Exception {
+	RDFQueryParser parser = newParser("subject", "predicate", "object", "predicateObject");
+	// A phrase isn't a term lookup.
+	assertQuery(new Align(new Select("predicate", new Term("12")), new Select("object", new Consecutive(new Term("new"), new Term("york")))),
+		parser.parse("predicate:12 ^ object:\"new york\""));
+	// Only predicate ^ object is rewritten.
+	assertQuery(new Align(new Select("subject", new Term("12")), new Select("object", new Term("berlin"))),
+		parser.parse("subject:12 ^ object:berlin"));
+
+	// Without a predicateObject field.
+	parser = newParser("subject", "predicate", "object");
+	assertQuery(new Align(new Select("predicate", new Term("12")), new Select("object", new Term("berlin"))),
+		parser.parse("predicate:12 ^ object:berlin"));
+    }
+}
@@ -43,11 +43,16 @@ import org.jmock.api.Action;
 import org.jmock.api.Invocation;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class ComputeHashToolTest {
     private static final String SOME_LINES = "a\nb\ncc\nd\n";
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private Mockery context;
     private Expectations expectations;
     private FileSystem fs;
@@ -102,6 +107,7 @@ public class ComputeHashToolTest {
 		allowing(fs).setPermission(with(infoPath), with(ComputeHashTool.ALL_PERMISSIONS));
 	}};
 	computeMph = new ComputeHashTool();
+	computeMph.setTmpDir(tempFolder.getRoot());
     }
 
     @Test
@@ -172,6 +178,59 @@ public class ComputeHashToolTest {
 	assertEquals(-1, signedMap.getLong("dx"));
     }
     
+    @Test
+    public void shardedTest() throws IOException, ClassNotFoundException {
+	expectations.oneOf(fs).create(expectations.with(unsignedPath), expectations.with(true));
+	expectations.will(Expectations.returnValue(new FSDataOutputStream(unsignedStream, new Statistics("unsignedOutStats"))));
+	expectations.oneOf(fs).setPermission(expectations.with(unsignedPath), expectations.with(ComputeHashTool.ALL_PERMISSIONS));
+	
+	expectations.oneOf(fs).create(expectations.with(signedPath), expectations.with(true));
+	expectations.will(Expectations.returnValue(new FSDataOutputStream(signedStream, new Statistics("signedOutStats"))));
+	expectations.oneOf(fs).setPermission(expectations.with(signedPath), expectations.with(ComputeHashTool.ALL_PERMISSIONS));
+	context.checking(expectations);
+	computeMph.setKeysPerShard(2);
+	computeMph.setThreads(2);
+	long hashSize = computeMph.buildHash(fs, "filename", null, true, true, Charset.forName("UTF-8"), false);
+
+	assertEquals(4, hashSize);
+	context.assertIsSatisfied();
+	// The shard files are deleted.
+	assertEquals(0, tempFolder.getRoot().list().length);
+
+	ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(unsignedStream.toByteArray()));
+	Object readObject = ois.readObject();
+	assertTrue(readObject instanceof ShardedHashFunction);
+	ShardedHashFunction unsignedMap = (ShardedHashFunction) readObject;
+	assertEquals(2, unsignedMap.getShardCount());
+	assertEquals(4, unsignedMap.size64());
+	assertEquals(0, unsignedMap.getLong("a"));
+	assertEquals(1, unsignedMap.getLong("b"));
+	assertEquals(2, unsignedMap.getLong("cc"));
+	assertEquals(3, unsignedMap.getLong("d"));
+	
+	ByteBuffer signedByteBuffer = ByteBuffer.wrap(signedStream.toByteArray());
+	LongBigList signatures = new MyByteBufferLongBigList(signedByteBuffer);
+	
+	LongBigListSignedStringMap signedMap = new LongBigListSignedStringMap(unsignedMap, signatures);
+	
+	assertEquals(-1, signedMap.getLong("0"));
+	assertEquals(0, signedMap.getLong("a"));
+	assertEquals(-1, signedMap.getLong("bb"));
+	assertEquals(2, signedMap.getLong("cc"));
+	assertEquals(-1, signedMap.getLong("ca"));
+	assertEquals(3, signedMap.getLong("d"));
+	assertEquals(-1, signedMap.getLong("dx"));
+    }
+
+    @Test
+    public void shardOrderTest() {
+	// U+FFFF sorts before U+10000 in UTF-8 but not as UTF-16 chars.
+	assertTrue(ShardedHashFunction.compare("\uffff", "\ud800\udc00") < 0);
+	assertTrue(ShardedHashFunction.compare("a", "ab") < 0);
+	assertTrue(ShardedHashFunction.compare("b", "ab") > 0);
+	assertEquals(0, ShardedHashFunction.compare("ab", "ab"));
+    }
+    
     // TODO.  This is just because of an error in the constructor of ByteBufferLongBigList.  Should be removed with the next version of dsiutils. (2.0.14)
     private class MyByteBufferLongBigList extends ByteBufferLongBigList {
 	public MyByteBufferLongBigList(final ByteBuffer byteBuffer) {
@@ -0,0 +1,61 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsTest() {
+	assertEquals(0, LatencyHistogram.bucketIndex(-1));
+	assertEquals(15, LatencyHistogram.bucketIndex(15));
+	assertEquals(16, LatencyHistogram.bucketIndex(16));
+	assertEquals(31, LatencyHistogram.bucketIndex(31));
+	assertEquals(32, LatencyHistogram.bucketIndex(32));
+	assertEquals(32, LatencyHistogram.bucketIndex(33));
+	assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+
+	for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+	    long lowerBound = LatencyHistogram.bucketLowerBound(i);
+	    assertEquals(i, LatencyHistogram.bucketIndex(lowerBound));
+	    if (i > 0) {
+		assertEquals(i - 1, LatencyHistogram.bucketIndex(lowerBound - 1));
+	    }
+	}
+    }
+
+    @Test
+    public void percentileTest() {
+	LatencyHistogram histogram = new LatencyHistogram();
+	assertEquals(0, histogram.getPercentile(0.5));
+
+	for (int i = 1; i <= 1000; i++) {
+	    histogram.record(i);
+	}
+	assertEquals(1000, histogram.getCount());
+	assertEquals(500.5, histogram.getMean(), 0.0001);
+	assertEquals(1000, histogram.getMax());
+
+	long p50 = histogram.getPercentile(0.5);
+	assertTrue(p50 >= 500 && p50 <= 500 + 500 / 16);
+	long p99 = histogram.getPercentile(0.99);
+	assertTrue(p99 >= 990 && p99 <= 1000);
+	assertEquals(1000, histogram.getPercentile(1.0));
+
+	LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+	assertEquals(p50, snapshot.getP50());
+	assertEquals(p99, snapshot.getP99());
+    }
+}
@@ -0,0 +1,142 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.map.TokenCounterMapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.reduce.IntSumReducer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalMapReduceTest {
+    private File tmpDir;
+
+    @Before
+    public void before() throws IOException {
+	tmpDir = File.createTempFile("LocalMapReduceTest", "");
+	tmpDir.delete();
+	tmpDir.mkdirs();
+    }
+
+    @After
+    public void after() {
+	FileUtil.fullyDelete(tmpDir);
+    }
+
+    @Test
+    public void wordCountTest() throws Exception {
+	Counters counters = wordCount(false);
+	assertEquals(2000, counters.findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+	assertEquals(10, counters.findCounter(TaskCounter.REDUCE_INPUT_GROUPS).getValue());
+    }
+
+    @Test
+    public void wordCountWithCombinerTest() throws Exception {
+	Counters counters = wordCount(true);
+	assertEquals(2000, counters.findCounter(TaskCounter.COMBINE_INPUT_RECORDS).getValue());
+	long combineOutputRecords = counters.findCounter(TaskCounter.COMBINE_OUTPUT_RECORDS).getValue();
+	assertTrue(combineOutputRecords < 2000);
+	assertEquals(combineOutputRecords, counters.findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+	assertEquals(10, counters.findCounter(TaskCounter.REDUCE_INPUT_GROUPS).getValue());
+    }
+
+    private Counters wordCount(boolean withCombiner) throws Exception {
+	File input = new File(tmpDir, "input");
+	Writer writer = new FileWriter(input);
+	for (int i = 0; i < 1000; i++) {
+	    writer.write("w" + (i % 10) + " w" + (i % 7) + "\n");
+	}
+	writer.close();
+	File output = new File(tmpDir, "output");
+
+	Configuration conf = new Configuration();
+	conf.set("fs.defaultFS", "file:///");
+	Job job = Job.getInstance(conf);
+	job.setInputFormatClass(TextInputFormat.class);
+	FileInputFormat.setInputPaths(job, new Path(input.toURI()));
+	// Several map tasks.
+	FileInputFormat.setMaxInputSplitSize(job, input.length() / 4);
+	job.setMapperClass(TokenCounterMapper.class);
+	job.setMapOutputKeyClass(Text.class);
+	job.setMapOutputValueClass(IntWritable.class);
+	job.setReducerClass(IntSumReducer.class);
+	if (withCombiner) {
+	    job.setCombinerClass(IntSumReducer.class);
+	}
+	job.setOutputKeyClass(Text.class);
+	job.setOutputValueClass(IntWritable.class);
+	job.setOutputFormatClass(TextOutputFormat.class);
+	FileOutputFormat.setOutputPath(job, new Path(output.toURI()));
+	job.setNumReduceTasks(3);
+
+	// A small sort buffer and no in memory runs so that the maps spill
+	// several runs to disk.
+	LocalMapReduce mapReduce = new LocalMapReduce(2, 1024, 0, tmpDir);
+	Counters counters = mapReduce.run(job);
+	assertEquals(2000, counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+
+	int words = 0;
+	for (int partition = 0; partition < 3; partition++) {
+	    List<String> lines = readLines(new File(output, String.format("part-r-%05d", partition)));
+	    for (int i = 0; i < lines.size(); i++) {
+		if (i > 0) {
+		    assertTrue(lines.get(i - 1).compareTo(lines.get(i)) < 0);
+		}
+		String[] wordAndCount = lines.get(i).split("\t");
+		int n = Integer.parseInt(wordAndCount[0].substring(1));
+		// w0 to w6 occur in both columns.
+		int expected = (1000 + 9 - n) / 10 + (n < 7 ? (1000 + 6 - n) / 7 : 0);
+		assertEquals(lines.get(i), expected, Integer.parseInt(wordAndCount[1]));
+		words++;
+	    }
+	}
+	assertEquals(10, words);
+	// Only the output and input are left.
+	assertEquals(2, tmpDir.list().length);
+	return counters;
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+	List<String> lines = new ArrayList<String>();
+	BufferedReader reader = new BufferedReader(new FileReader(file));
+	String line;
+	while ((line = reader.readLine()) != null) {
+	    lines.add(line);
+	}
+	reader.close();
+	return lines;
+    }
+}
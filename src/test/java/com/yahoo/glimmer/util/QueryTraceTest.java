@@ -0,0 +1,132 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.yahoo.glimmer.util.QueryTrace.Counter;
+import com.yahoo.glimmer.util.QueryTrace.Phase;
+
+public class QueryTraceTest {
+    @After
+    public void after() {
+	QueryTrace.clear();
+    }
+
+    @Test
+    public void noTraceTest() {
+	assertNull(QueryTrace.current());
+	assertEquals(0, QueryTrace.time());
+	// No trace to add to.
+	QueryTrace.add(Phase.SEARCH, System.nanoTime());
+	QueryTrace.increment(Counter.DOCUMENTS_SCORED);
+	assertNull(QueryTrace.current());
+    }
+
+    @Test
+    public void spansTest() throws Exception {
+	QueryTrace trace = QueryTrace.start();
+	assertSame(trace, QueryTrace.current());
+
+	long t = QueryTrace.time();
+	assertTrue(t != 0);
+	Thread.sleep(5);
+	QueryTrace.add(Phase.SEARCH, t);
+	long searchNanos = trace.getPhaseNanos(Phase.SEARCH);
+	assertTrue(searchNanos >= 5000000);
+
+	// Spans of a phase add up.
+	t = QueryTrace.time();
+	Thread.sleep(5);
+	QueryTrace.add(Phase.SEARCH, t);
+	assertTrue(trace.getPhaseNanos(Phase.SEARCH) >= searchNanos + 5000000);
+	// A time() taken before the trace started isn't added.
+	QueryTrace.add(Phase.FETCH, 0);
+	assertEquals(0, trace.getPhaseNanos(Phase.FETCH));
+
+	QueryTrace.increment(Counter.BLOCK_REQUESTS);
+	QueryTrace.increment(Counter.BLOCK_REQUESTS);
+	QueryTrace.increment(Counter.BLOCK_REQUESTS);
+	QueryTrace.increment(Counter.BLOCKS_DECOMPRESSED);
+	assertEquals(3, trace.getCounter(Counter.BLOCK_REQUESTS));
+	assertEquals(1, trace.getCounter(Counter.BLOCKS_DECOMPRESSED));
+	assertEquals(0, trace.getCounter(Counter.DEREFS));
+
+	assertSame(trace, trace.end());
+	assertNull(QueryTrace.current());
+	long durationNanos = trace.getDurationNanos();
+	assertTrue(durationNanos >= trace.getPhaseNanos(Phase.SEARCH));
+	// Ended traces don't change.
+	Thread.sleep(2);
+	assertEquals(durationNanos, trace.getDurationNanos());
+	trace.end();
+	assertEquals(durationNanos, trace.getDurationNanos());
+
+	Map<String, Object> map = trace.toMap();
+	assertEquals(trace.getPhaseNanos(Phase.SEARCH) / 1000 / 1000.0d, map.get("search"));
+	assertEquals(0.0d, map.get("fetch"));
+	assertEquals(3l, map.get("block_requests"));
+	assertEquals(2l, map.get("block_cache_hits"));
+	assertTrue(trace.toString().startsWith("total:"));
+    }
+
+    @Test
+    public void startReplacesTest() {
+	QueryTrace first = QueryTrace.start();
+	QueryTrace second = QueryTrace.start();
+	assertSame(second, QueryTrace.current());
+
+	// Ending a replaced trace doesn't unbind the current one.
+	first.end();
+	assertSame(second, QueryTrace.current());
+	QueryTrace.increment(Counter.DEREFS);
+	assertEquals(0, first.getCounter(Counter.DEREFS));
+	assertEquals(1, second.getCounter(Counter.DEREFS));
+
+	second.end();
+	assertNull(QueryTrace.current());
+    }
+
+    @Test
+    public void clearTest() {
+	QueryTrace trace = QueryTrace.start();
+	QueryTrace.clear();
+	assertNull(QueryTrace.current());
+	QueryTrace.increment(Counter.DEREFS);
+	assertEquals(0, trace.getCounter(Counter.DEREFS));
+    }
+
+    @Test
+    public void threadTest() throws Exception {
+	final QueryTrace trace = QueryTrace.start();
+	final Object[] otherThreadsTrace = new Object[1];
+	Thread thread = new Thread() {
+	    @Override
+	    public void run() {
+		otherThreadsTrace[0] = QueryTrace.current();
+		QueryTrace.increment(Counter.DOCUMENTS_SCORED);
+	    }
+	};
+	thread.start();
+	thread.join();
+	assertNull(otherThreadsTrace[0]);
+	assertEquals(0, trace.getCounter(Counter.DOCUMENTS_SCORED));
+    }
+}
@@ -0,0 +1,112 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ResourceIdTermMapTest {
+    @Test
+    public void test() {
+	// In term order, which is string order.
+	ResourceIdTermMap termMap = ResourceIdTermMap.build(Arrays.asList("@10", "@11", "@13", "@7", "@9"), "@");
+	assertEquals(5, termMap.size64());
+
+	assertEquals(0, termMap.getLong("@10"));
+	assertEquals(1, termMap.getLong("@11"));
+	assertEquals(2, termMap.getLong("@13"));
+	assertEquals(3, termMap.getLong("@7"));
+	assertEquals(4, termMap.getLong("@9"));
+	assertEquals(3, termMap.getTermNumber(7));
+
+	assertEquals(-1, termMap.getLong("@8"));
+	assertEquals(-1, termMap.getLong("@12"));
+	assertEquals(-1, termMap.getLong("@6"));
+	assertEquals(-1, termMap.getLong("@14"));
+	assertEquals(-1, termMap.getLong("@07"));
+	assertEquals(-1, termMap.getLong("#7"));
+	assertEquals(-1, termMap.getLong("@"));
+	assertEquals(-1, termMap.getLong("word"));
+	assertTrue(termMap.containsKey("@9"));
+	assertFalse(termMap.containsKey("@8"));
+
+	assertEquals(13, termMap.getResourceId(2));
+	assertEquals("@7", termMap.list().get(3).toString());
+	assertEquals(5, termMap.list().size64());
+    }
+
+    @Test
+    public void notResourceIdsTest() {
+	assertNull(ResourceIdTermMap.build(Arrays.asList("@1", "@2", "word"), "@"));
+	assertNull(ResourceIdTermMap.build(Arrays.asList("@1", "@2:@3"), "@"));
+	assertNull(ResourceIdTermMap.build(Arrays.asList("@01", "@2"), "@"));
+    }
+
+    @Test
+    public void sparseTest() {
+	// 2 terms over a range of 9 ids.
+	ResourceIdTermMap termMap = ResourceIdTermMap.build(Arrays.asList("@1", "@9"), "@");
+	assertEquals(2, termMap.size64());
+	assertEquals(0, termMap.getLong("@1"));
+	assertEquals(1, termMap.getLong("@9"));
+	assertEquals(-1, termMap.getLong("@5"));
+	assertEquals(2, ResourceIdTermMap.build(Arrays.asList("@1", "@8"), "@").size64());
+
+	// Predicate ids, in string order, spread over the ids of all resources.
+	termMap = ResourceIdTermMap.build(Arrays.asList("@1000000", "@123456789012", "@20", "@3", "@987654"), "@");
+	assertEquals(5, termMap.size64());
+	assertEquals(0, termMap.getLong("@1000000"));
+	assertEquals(1, termMap.getLong("@123456789012"));
+	assertEquals(2, termMap.getLong("@20"));
+	assertEquals(3, termMap.getLong("@3"));
+	assertEquals(4, termMap.getLong("@987654"));
+	assertEquals(1, termMap.getTermNumber(123456789012l));
+
+	assertEquals(-1, termMap.getLong("@0"));
+	assertEquals(-1, termMap.getLong("@2"));
+	assertEquals(-1, termMap.getLong("@21"));
+	assertEquals(-1, termMap.getLong("@999999"));
+	assertEquals(-1, termMap.getLong("@123456789013"));
+	assertEquals(-1, termMap.getLong("@020"));
+	assertEquals(-1, termMap.getLong("word"));
+	assertTrue(termMap.containsKey("@20"));
+	assertFalse(termMap.containsKey("@2"));
+
+	assertEquals(3, termMap.getResourceId(3));
+	assertEquals("@987654", termMap.list().get(4).toString());
+	assertEquals(5, termMap.list().size64());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateTest() {
+	ResourceIdTermMap.build(Arrays.asList("@1", "@2", "@2"), "@");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sparseDuplicateTest() {
+	ResourceIdTermMap.build(Arrays.asList("@1", "@9999", "@9999"), "@");
+    }
+
+    @Test
+    public void parseIdTest() {
+	assertEquals(0, ResourceIdTermMap.parseId("res0", "res"));
+	assertEquals(123456789012345678l, ResourceIdTermMap.parseId("@123456789012345678", "@"));
+	assertEquals(-1, ResourceIdTermMap.parseId("@1234567890123456789", "@"));
+	assertEquals(-1, ResourceIdTermMap.parseId("@12a", "@"));
+    }
+}
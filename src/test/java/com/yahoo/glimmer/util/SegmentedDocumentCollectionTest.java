@@ -0,0 +1,154 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.document.AbstractDocumentCollection;
+import it.unimi.di.big.mg4j.document.Document;
+import it.unimi.di.big.mg4j.document.DocumentCollection;
+import it.unimi.di.big.mg4j.document.DocumentFactory;
+import it.unimi.dsi.bits.BitVector;
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedDocumentCollectionTest {
+    private SegmentedDocumentCollection collection;
+
+    @Before
+    public void before() {
+	// The base has ids 0 to 4. Ids 2 and 4 are only objects.
+	MapDocumentCollection base = new MapDocumentCollection(5);
+	base.put(0, "base0");
+	base.put(1, "base1");
+	base.put(3, "base3");
+
+	// Delta 1 replaces 1, deletes 3 and adds 5 and 6.
+	MapDocumentCollection delta1 = new MapDocumentCollection(7);
+	delta1.put(1, "delta1_1");
+	delta1.put(5, "delta1_5");
+	LongArrayBitVector deleted1 = LongArrayBitVector.ofLength(5);
+	deleted1.set(1);
+	deleted1.set(3);
+
+	// Delta 2 replaces 1 again and 6.
+	MapDocumentCollection delta2 = new MapDocumentCollection(7);
+	delta2.put(1, "delta2_1");
+	delta2.put(6, "delta2_6");
+	LongArrayBitVector deleted2 = LongArrayBitVector.ofLength(7);
+	deleted2.set(1);
+	deleted2.set(6);
+
+	collection = new SegmentedDocumentCollection(new DocumentCollection[] { base, delta1, delta2 }, new BitVector[] {
+		LongArrayBitVector.getInstance(), deleted1, deleted2 });
+    }
+
+    @Test
+    public void streamTest() throws IOException {
+	assertEquals(7, collection.size());
+	assertEquals("base0", read(0));
+	assertEquals("delta2_1", read(1));
+	assertEquals("", read(2));
+	assertEquals("", read(3));
+	assertEquals("", read(4));
+	assertEquals("delta1_5", read(5));
+	assertEquals("delta2_6", read(6));
+	assertEquals("", read(7));
+
+	assertEquals(0, collection.getSegmentOf(0));
+	assertEquals(2, collection.getSegmentOf(1));
+	assertEquals(-1, collection.getSegmentOf(3));
+	assertEquals(1, collection.getSegmentOf(5));
+    }
+
+    @Test
+    public void maskTest() {
+	BitVector baseMask = collection.getMask(0);
+	assertFalse(baseMask.getBoolean(0));
+	assertTrue(baseMask.getBoolean(1));
+	assertFalse(baseMask.getBoolean(2));
+	assertTrue(baseMask.getBoolean(3));
+	assertTrue(baseMask.getBoolean(6));
+
+	BitVector delta1Mask = collection.getMask(1);
+	assertTrue(delta1Mask.getBoolean(1));
+	assertFalse(delta1Mask.getBoolean(3));
+	assertFalse(delta1Mask.getBoolean(5));
+	assertTrue(delta1Mask.getBoolean(6));
+
+	assertEquals(0, collection.getMask(2).count());
+    }
+
+    private String read(long id) throws IOException {
+	InputStream in = collection.stream(id);
+	try {
+	    return IOUtils.toString(in, "UTF-8");
+	} finally {
+	    in.close();
+	}
+    }
+
+    private static class MapDocumentCollection extends AbstractDocumentCollection {
+	private final Map<Long, String> docs = new HashMap<Long, String>();
+	private final long size;
+
+	public MapDocumentCollection(long size) {
+	    this.size = size;
+	}
+
+	public void put(long id, String doc) {
+	    docs.put(id, doc);
+	}
+
+	@Override
+	public long size() {
+	    return size;
+	}
+
+	@Override
+	public InputStream stream(long index) throws IOException {
+	    String doc = docs.get(index);
+	    return new ByteArrayInputStream(doc == null ? new byte[0] : doc.getBytes("UTF-8"));
+	}
+
+	@Override
+	public Document document(long index) throws IOException {
+	    throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Reference2ObjectMap<Enum<?>, Object> metadata(long index) throws IOException {
+	    throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public DocumentFactory factory() {
+	    return null;
+	}
+
+	@Override
+	public DocumentCollection copy() {
+	    throw new UnsupportedOperationException();
+	}
+    }
+}
@@ -0,0 +1,79 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StreamsMergeSortTest {
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Test
+    public void noSourcesTest() throws IOException {
+	assertEquals(0, StreamsMergeSort.mergeSort(new ArrayList<InputStream>(), out));
+	assertEquals("", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void emptySourcesTest() throws IOException {
+	assertEquals(0, StreamsMergeSort.mergeSort(sources("", "", ""), out));
+	assertEquals("", out.toString("UTF-8"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void duplicateLinesTest() throws IOException {
+	StreamsMergeSort.mergeSort(sources("A", "A", ""), out);
+    }
+
+    @Test
+    public void simple1Test() throws IOException {
+	assertEquals(9, StreamsMergeSort.mergeSort(sources("Hello\nWorld!", "Baa\nBaz\nFoo", "2\n6\n8\nZ\n"), out));
+	assertEquals("2\n6\n8\nBaa\nBaz\nFoo\nHello\nWorld!\nZ\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void newLinesFirstTest() throws IOException {
+	StreamsMergeSort.mergeSort(sources("A%1", "A1", "A"), out);
+	assertEquals("A\nA%1\nA1\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void utf8OrderTest() throws IOException {
+	// U+FFFD sorts before U+1F600 in UTF-8, but after it as UTF-16 chars.
+	StreamsMergeSort.mergeSort(sources("\ud83d\ude00", "\ufffd", "z"), out);
+	assertEquals("z\n\ufffd\n\ud83d\ude00\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void smallBlocksTest() throws IOException {
+	// Lines longer than the blocks and lines split across reads.
+	long count = StreamsMergeSort.mergeSort(sources("a\nabcdefghij\nc\nd", "b\nbbbbbbbbbbbbbbbbb\ne\n"), out, 4);
+	assertEquals(7, count);
+	assertEquals("a\nabcdefghij\nb\nbbbbbbbbbbbbbbbbb\nc\nd\ne\n", out.toString("UTF-8"));
+    }
+
+    private static List<InputStream> sources(String... contents) throws IOException {
+	List<InputStream> sources = new ArrayList<InputStream>();
+	for (String content : contents) {
+	    sources.add(new ByteArrayInputStream(content.getBytes("UTF-8")));
+	}
+	return sources;
+    }
+}
@@ -0,0 +1,50 @@
+package com.yahoo.glimmer.web;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JsObjectViewTest {
+    @Test
+    public void compactQueryResultTest() throws IOException {
+	List<QueryResultItem> items = new ArrayList<QueryResultItem>();
+	QueryResultItem item = new QueryResultItem();
+	item.setSubject("http://a");
+	item.setSubjectId(5);
+	item.setScore(1.5);
+	item.addRelation("http://p", "o", null, "http://c", true, null);
+	items.add(item);
+	QueryResult result = new QueryResult(null, "a <b>", 7, 0, 10, items, 12, 3);
+
+	StringWriter writer = new StringWriter();
+	JsObjectView.write(result, writer, false);
+	assertEquals("{\"resultItems\":[{\"subject\":\"http://a\",\"subjectId\":5,\"score\":1.5,"
+		+ "\"relations\":[{\"predicate\":\"http://p\",\"object\":\"o\",\"context\":\"http://c\",\"indexed\":true}]}],"
+		+ "\"numResults\":7,\"pageStart\":0,\"pageSize\":10,\"time\":12,\"searchTime\":3,\"query\":\"\",\"parsedQuery\":\"a \\u003cb\\u003e\"}",
+		writer.toString());
+    }
+
+    @Test
+    public void prettyTest() throws IOException {
+	StringWriter writer = new StringWriter();
+	JsObjectView.write(new QueryResult("q", null, 0, 0, 10, new ArrayList<QueryResultItem>(), 1, 1), writer, true);
+	assertEquals("{\n  \"resultItems\": [],\n  \"numResults\": 0,\n  \"pageStart\": 0,\n  \"pageSize\": 10,\n  \"time\": 1,\n  \"searchTime\": 1,\n  \"query\": \"q\"\n}",
+		writer.toString());
+    }
+}
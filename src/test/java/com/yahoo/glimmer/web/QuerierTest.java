@@ -0,0 +1,203 @@
+package com.yahoo.glimmer.web;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.Term;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.indexing.generator.DeltaIndexBuilder;
+import com.yahoo.glimmer.indexing.generator.LocalIndexBuilder;
+import com.yahoo.glimmer.query.Context;
+import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.query.RDFIndex.DocumentIds;
+
+public class QuerierTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Mockery context;
+    private RDFIndex index;
+    private DocumentIds documentIds;
+    private Querier querier;
+
+    @Before
+    public void before() {
+	context = new Mockery();
+	context.setImposteriser(ClassImposteriser.INSTANCE);
+	index = context.mock(RDFIndex.class);
+	documentIds = context.mock(DocumentIds.class);
+	querier = new Querier();
+    }
+
+    private void expectDocuments(final Query query, final long... documents) throws Exception {
+	context.checking(new Expectations() {
+	    {
+		allowing(index).getIndexName();
+		will(returnValue("test"));
+		one(index).getDocumentIds(query);
+		will(returnValue(documentIds));
+		Sequence sequence = context.sequence("documents");
+		for (long document : documents) {
+		    one(documentIds).nextDocument();
+		    inSequence(sequence);
+		    will(returnValue(document));
+		}
+		one(documentIds).nextDocument();
+		inSequence(sequence);
+		will(returnValue(DocumentIterator.END_OF_LIST));
+		one(documentIds).dispose();
+	    }
+	});
+    }
+
+    @Test
+    public void exportTest() throws Exception {
+	Query query = new Term("alpha");
+	expectDocuments(query, 3, 7, 42);
+
+	StringWriter writer = new StringWriter();
+	assertEquals(3, querier.export(index, query, false, writer));
+	assertEquals("3\n7\n42\n", writer.toString());
+	context.assertIsSatisfied();
+    }
+
+    @Test
+    public void exportSubjectsTest() throws Exception {
+	Query query = new Term("alpha");
+	expectDocuments(query, 3, 7, 42);
+	context.checking(new Expectations() {
+	    {
+		one(index).lookupResourceById(3);
+		will(returnValue("http://a/3"));
+		// A doc without a subject, as for blank nodes or deleted docs.
+		one(index).lookupResourceById(7);
+		will(returnValue(null));
+		one(index).lookupResourceById(42);
+		will(returnValue("_:node42"));
+	    }
+	});
+
+	StringWriter writer = new StringWriter();
+	assertEquals(3, querier.export(index, query, true, writer));
+	assertEquals("3\thttp://a/3\n7\t\n42\t_:node42\n", writer.toString());
+	context.assertIsSatisfied();
+    }
+
+    @Test
+    public void exportEmptyTest() throws Exception {
+	Query query = new Term("gamma");
+	expectDocuments(query);
+
+	StringWriter writer = new StringWriter();
+	assertEquals(0, querier.export(index, query, true, writer));
+	assertEquals("", writer.toString());
+	context.assertIsSatisfied();
+    }
+
+    @Test
+    public void exportFlushTest() throws Exception {
+	Query query = new Term("alpha");
+	long[] documents = new long[2500];
+	for (int i = 0; i < documents.length; i++) {
+	    documents[i] = i * 2;
+	}
+	expectDocuments(query, documents);
+
+	final StringBuilder flushed = new StringBuilder();
+	StringWriter writer = new StringWriter() {
+	    @Override
+	    public void flush() {
+		flushed.append(getBuffer().length()).append(' ');
+	    }
+	};
+	assertEquals(2500, querier.export(index, query, false, writer));
+	// Once per 1024 lines and at the end.
+	assertEquals(lineEnd(documents, 1024) + " " + lineEnd(documents, 2048) + " " + writer.getBuffer().length() + " ", flushed.toString());
+	context.assertIsSatisfied();
+    }
+
+    private static int lineEnd(long[] documents, int lines) {
+	int length = 0;
+	for (int i = 0; i < lines; i++) {
+	    length += Long.toString(documents[i]).length() + 1;
+	}
+	return length;
+    }
+
+    @Test
+    public void exportDeltaTest() throws Exception {
+	File kbDir = new File(tempFolder.getRoot(), "kb");
+	new LocalIndexBuilder(kbDir, 2, 1, 1024 * 1024).build(writeFile("base.nt", "<http://a/1> <http://p/name> \"alpha one\" .\n" //
+		+ "<http://a/2> <http://p/name> \"alpha two\" .\n" //
+		+ "<http://a/3> <http://p/name> \"alpha three\" .\n"));
+	// a/2 is replaced, a/3 is deleted and a/4 is new.
+	new DeltaIndexBuilder(kbDir, 2, 1, 1024 * 1024).build(writeFile("delta.nt", "<http://a/2> <http://p/name> \"beta two\" .\n" //
+		+ "<http://a/4> <http://p/name> \"alpha four\" .\n"), writeFile("deletes.txt", "http://a/2\nhttp://a/3\n"));
+
+	Properties properties = new Properties();
+	properties.setProperty("kb.root", kbDir.getPath());
+	properties.setProperty("ontology.path", "schemaDotOrg.owl");
+	File contextFile = tempFolder.newFile();
+	OutputStream contextOutputStream = new FileOutputStream(contextFile);
+	try {
+	    properties.store(contextOutputStream, null);
+	} finally {
+	    contextOutputStream.close();
+	}
+	RDFIndex deltaIndex = new RDFIndex("test", new Context(contextFile.getPath()));
+	try {
+	    String a1Id = deltaIndex.lookupIdByResourceId("http://a/1").substring(1);
+	    String a2Id = deltaIndex.lookupIdByResourceId("http://a/2").substring(1);
+	    String a4Id = deltaIndex.lookupIdByResourceId("http://a/4").substring(1);
+
+	    // The masked base docs of a/2 and a/3 aren't exported.
+	    StringWriter writer = new StringWriter();
+	    assertEquals(2, querier.export(deltaIndex, deltaIndex.getParser().parse("alpha"), true, writer));
+	    assertEquals(a1Id + "\thttp://a/1\n" + a4Id + "\thttp://a/4\n", writer.toString());
+
+	    writer = new StringWriter();
+	    assertEquals(1, querier.export(deltaIndex, deltaIndex.getParser().parse("two"), false, writer));
+	    assertEquals(a2Id + "\n", writer.toString());
+
+	    writer = new StringWriter();
+	    assertEquals(0, querier.export(deltaIndex, deltaIndex.getParser().parse("three"), true, writer));
+	    assertEquals("", writer.toString());
+	} finally {
+	    deltaIndex.destroy();
+	}
+    }
+
+    private String writeFile(String filename, String content) throws IOException {
+	File file = new File(tempFolder.getRoot(), filename);
+	FileUtils.writeStringToFile(file, content, "UTF-8");
+	return file.getPath();
+    }
+}
@@ -1,24 +1,80 @@
 package com.yahoo.glimmer.web;
 
 import static org.junit.Assert.*;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.query.RDFIndex.DocumentIds;
+import com.yahoo.glimmer.web.QueryCommand.QueryType;
+import com.yahoo.glimmer.web.QueryExecutor.QueryRejectedException;
 
 public class QueryControllerTest {
     private Mockery context;
     private RDFIndex index;
+    private QueryController controller;
+    private ByteArrayOutputStream output;
+    private HttpServletResponse response;
     
     @Before
     public void before() {
 	context = new Mockery();
 	context.setImposteriser(ClassImposteriser.INSTANCE);
 	index = context.mock(RDFIndex.class);
+	
+	controller = new QueryController();
+	controller.setQuerier(new Querier());
+	output = new ByteArrayOutputStream();
+	response = context.mock(HttpServletResponse.class);
+    }
+    
+    private void expectExportResponse() throws IOException {
+	context.checking(new Expectations(){{
+	    allowing(index).getIndexName();
+	    will(returnValue("test"));
+	    one(response).setContentType("text/plain; charset=UTF-8");
+	    one(response).getOutputStream();
+	    will(returnValue(new ServletOutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+		    output.write(b);
+		}
+	    }));
+	}});
+    }
+    
+    private DocumentIds expectDocuments(final long... documents) throws IOException {
+	final DocumentIds documentIds = context.mock(DocumentIds.class, "documentIds" + documents[0]);
+	context.checking(new Expectations(){{
+	    Sequence sequence = context.sequence("documents" + documents[0]);
+	    for (long document : documents) {
+		one(documentIds).nextDocument();
+		inSequence(sequence);
+		will(returnValue(document));
+	    }
+	    one(documentIds).nextDocument();
+	    inSequence(sequence);
+	    will(returnValue(DocumentIterator.END_OF_LIST));
+	    one(documentIds).dispose();
+	}});
+	return documentIds;
     }
    
     
@@ -47,4 +103,95 @@ public class QueryControllerTest {
 	query = "type:{http://schema.org/Blog} {_:node1234}";
 	assertEquals("type:@1 @333", QueryController.encodeResources(index, query));
     }
+    
+    @Test
+    public void exportTest() throws Exception {
+	expectExportResponse();
+	final DocumentIds documentIds = expectDocuments(5, 9, 12);
+	context.checking(new Expectations(){{
+	    one(index).getDocumentIds(with(any(Query.class)));
+	    will(returnValue(documentIds));
+	    one(index).lookupResourceById(5);
+	    will(returnValue("http://a/5"));
+	    // Deleted, or a blank node.
+	    one(index).lookupResourceById(9);
+	    will(returnValue(null));
+	    one(index).lookupResourceById(12);
+	    will(returnValue("http://a/12"));
+	}});
+	
+	controller.export(index, "alpha", QueryType.MG4J, true, response);
+	assertEquals("5\thttp://a/5\n9\t\n12\thttp://a/12\n", output.toString("UTF-8"));
+	context.assertIsSatisfied();
+    }
+    
+    @Test
+    public void exportRejectedTest() throws Exception {
+	controller.setMaxConcurrentExports(1);
+	expectExportResponse();
+	final DocumentIds documentIds = expectDocuments(5);
+	final AtomicInteger rejectedStatus = new AtomicInteger();
+	context.checking(new Expectations(){{
+	    one(index).getDocumentIds(with(any(Query.class)));
+	    will(new CustomAction("export while exporting") {
+		@Override
+		public Object invoke(Invocation invocation) throws Throwable {
+		    try {
+			controller.export(index, "beta", QueryType.MG4J, false, response);
+		    } catch (QueryRejectedException e) {
+			rejectedStatus.set(e.getStatus());
+		    }
+		    return documentIds;
+		}
+	    });
+	}});
+	
+	controller.export(index, "alpha", QueryType.MG4J, false, response);
+	assertEquals(429, rejectedStatus.get());
+	assertEquals("5\n", output.toString("UTF-8"));
+	context.assertIsSatisfied();
+	
+	// The permit is released when the export ends, also when it fails.
+	expectExportResponse();
+	final DocumentIds failingDocumentIds = context.mock(DocumentIds.class, "failingDocumentIds");
+	context.checking(new Expectations(){{
+	    one(index).getDocumentIds(with(any(Query.class)));
+	    will(returnValue(failingDocumentIds));
+	    one(failingDocumentIds).nextDocument();
+	    will(throwException(new IOException("Broken index")));
+	    one(failingDocumentIds).dispose();
+	    // Nothing was sent so the failure is reported with the status.
+	    one(response).isCommitted();
+	    will(returnValue(false));
+	    one(response).reset();
+	    one(response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+	}});
+	controller.export(index, "alpha", QueryType.MG4J, false, response);
+	assertEquals("", output.toString("UTF-8"));
+	context.assertIsSatisfied();
+	
+	output.reset();
+	expectExportResponse();
+	final DocumentIds moreDocumentIds = expectDocuments(7);
+	context.checking(new Expectations(){{
+	    one(index).getDocumentIds(with(any(Query.class)));
+	    will(returnValue(moreDocumentIds));
+	}});
+	controller.export(index, "alpha", QueryType.MG4J, false, response);
+	assertEquals("7\n", output.toString("UTF-8"));
+	context.assertIsSatisfied();
+    }
+    
+    @Test
+    public void handleRejectedTest() {
+	final HttpServletRequest request = context.mock(HttpServletRequest.class);
+	context.checking(new Expectations(){{
+	    allowing(request).getQueryString();
+	    will(returnValue("query=alpha"));
+	    one(response).setStatus(429);
+	}});
+	assertEquals("Too many exports running.",
+		controller.handleException(new QueryRejectedException(429, "Too many exports running."), request, response).get(QueryController.OBJECT_KEY));
+	context.assertIsSatisfied();
+    }
 }
@@ -0,0 +1,226 @@
+package com.yahoo.glimmer.web;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OUTPUT;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OutputCount;
+import com.yahoo.glimmer.util.BlockCompressedDocumentCollection;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.QueryTrace;
+import com.yahoo.glimmer.util.QueryTrace.Counter;
+import com.yahoo.glimmer.web.QueryExecutor.QueryRejectedException;
+
+public class QueryExecutorTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private QueryExecutor executor;
+    private CountDownLatch latch;
+
+    @Before
+    public void before() {
+	executor = new QueryExecutor();
+	executor.setThreads(1);
+	executor.setQueueSize(1);
+	executor.setDefaultDeadlineMillis(5000);
+	executor.start();
+	latch = new CountDownLatch(1);
+    }
+
+    @After
+    public void after() {
+	latch.countDown();
+	executor.stop();
+    }
+
+    private Callable<String> blockingTask() {
+	return new Callable<String>() {
+	    @Override
+	    public String call() throws Exception {
+		latch.await();
+		return "done";
+	    }
+	};
+    }
+
+    private void executeInBackground() {
+	new Thread() {
+	    public void run() {
+		try {
+		    executor.execute(blockingTask(), null);
+		} catch (Exception e) {
+		}
+	    };
+	}.start();
+    }
+
+    @Test
+    public void executeTest() throws Exception {
+	latch.countDown();
+	assertEquals("done", executor.execute(blockingTask(), null));
+    }
+
+    @Test
+    public void traceClearedTest() throws Exception {
+	latch.countDown();
+	// A task that leaves its trace bound to the pool's only thread.
+	QueryTrace leaked = executor.execute(new Callable<QueryTrace>() {
+	    @Override
+	    public QueryTrace call() throws Exception {
+		QueryTrace trace = QueryTrace.start();
+		QueryTrace.increment(Counter.DOCUMENTS_SCORED);
+		return trace;
+	    }
+	}, null);
+	assertEquals(1, leaked.getCounter(Counter.DOCUMENTS_SCORED));
+
+	// The next task on the same thread doesn't see or add to it.
+	assertNull(executor.execute(new Callable<QueryTrace>() {
+	    @Override
+	    public QueryTrace call() throws Exception {
+		QueryTrace.increment(Counter.DOCUMENTS_SCORED);
+		return QueryTrace.current();
+	    }
+	}, null));
+	assertEquals(1, leaked.getCounter(Counter.DOCUMENTS_SCORED));
+
+	// Also after a task that fails.
+	try {
+	    executor.execute(new Callable<QueryTrace>() {
+		@Override
+		public QueryTrace call() throws Exception {
+		    QueryTrace.start();
+		    throw new IOException("Failed query");
+		}
+	    }, null);
+	    fail();
+	} catch (IOException e) {
+	}
+	assertNull(executor.execute(new Callable<QueryTrace>() {
+	    @Override
+	    public QueryTrace call() throws Exception {
+		return QueryTrace.current();
+	    }
+	}, null));
+    }
+
+    @Test
+    public void queueFullTest() throws Exception {
+	executeInBackground();
+	executeInBackground();
+	while (executor.getActiveCount() != 1 || executor.getQueueDepth() != 1) {
+	    Thread.sleep(10);
+	}
+
+	try {
+	    executor.execute(blockingTask(), null);
+	    fail();
+	} catch (QueryRejectedException e) {
+	    assertEquals(429, e.getStatus());
+	}
+	assertEquals(1, executor.getRejectedCount());
+    }
+
+    @Test
+    public void deadlineTest() throws Exception {
+	try {
+	    executor.execute(blockingTask(), 50l);
+	    fail();
+	} catch (QueryRejectedException e) {
+	    assertEquals(503, e.getStatus());
+	}
+    }
+
+    @Test
+    public void deadlineDoesntCloseCollectionTest() throws Exception {
+	File prepDir = new File(tempFolder.getRoot(), "prep");
+	writeBySubject(prepDir);
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("foo", null, 10);
+	FileInputStream bySubjectInputStream = new FileInputStream(new File(prepDir, "bySubject.bz2"));
+	InputStream blockOffsetsInputStream = new FileInputStream(new File(prepDir, "bySubject.blockOffsets"));
+	collection.init(bySubjectInputStream.getChannel(), blockOffsetsInputStream, 100000);
+	blockOffsetsInputStream.close();
+
+	Callable<String> readTask = readTask(collection);
+	try {
+	    executor.execute(readTask, 50l);
+	    fail();
+	} catch (QueryRejectedException e) {
+	    assertEquals(503, e.getStatus());
+	}
+	// The timed out query now reads. An interrupt would close the channel
+	// in FileChannel.map() and the next query would fail.
+	latch.countDown();
+	assertTrue(executor.execute(readTask, null).contains("http://a/key"));
+
+	collection.close();
+	bySubjectInputStream.close();
+    }
+
+    private Callable<String> readTask(final BlockCompressedDocumentCollection collection) {
+	return new Callable<String>() {
+	    @Override
+	    public String call() throws Exception {
+		// Busy, like a query decompressing, so not stopped by an interrupt.
+		while (latch.getCount() != 0) {
+		}
+		InputStream recordInputStream = collection.stream(66l);
+		try {
+		    return IOUtils.toString(recordInputStream, "UTF-8");
+		} finally {
+		    recordInputStream.close();
+		}
+	    }
+	};
+    }
+
+    private static void writeBySubject(File dir) throws IOException, InterruptedException {
+	ResourceRecordWriter writer = new ResourceRecordWriter(FileSystem.getLocal(new Configuration()), new Path(dir.getCanonicalPath()), null);
+	OutputCount outputCount = new OutputCount();
+	outputCount.output = OUTPUT.ALL;
+	outputCount.count = 0;
+	writer.write(new Text("http://a/key1"), outputCount);
+	writer.write(new Text("http://a/key2"), outputCount);
+	writer.write(new Text("http://a/key3"), outputCount);
+	BySubjectRecord record = new BySubjectRecord();
+	record.setId(66);
+	record.setPreviousId(55);
+	record.setSubject("http://a/key");
+	record.addRelation("<http://predicate/> <http://Object> .");
+	writer.write(new Text("http://a/key"), record);
+	writer.close(null);
+    }
+}
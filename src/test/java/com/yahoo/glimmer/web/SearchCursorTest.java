@@ -0,0 +1,45 @@
+package com.yahoo.glimmer.web;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SearchCursorTest {
+    @Test
+    public void encodeDecodeTest() {
+	assertNull(SearchCursor.decode(SearchCursor.FIRST, "query"));
+
+	String encoded = new SearchCursor(1.2345d, 987654321l, "query").encode();
+	SearchCursor cursor = SearchCursor.decode(encoded, "query");
+	assertEquals(1.2345d, cursor.getScore(), 0);
+	assertEquals(987654321l, cursor.getDocument());
+    }
+
+    @Test
+    public void otherQueryTest() {
+	String encoded = new SearchCursor(1.0d, 5, "query").encode();
+	try {
+	    SearchCursor.decode(encoded, "another query");
+	    fail();
+	} catch (IllegalArgumentException e) {
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTest() {
+	SearchCursor.decode("notACursor", "query");
+    }
+}